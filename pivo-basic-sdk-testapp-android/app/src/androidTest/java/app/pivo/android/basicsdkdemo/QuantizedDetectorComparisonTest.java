@@ -0,0 +1,176 @@
+package app.pivo.android.basicsdkdemo;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import app.pivo.android.basicsdkdemo.env.Utils;
+import app.pivo.android.basicsdkdemo.tflite.Classifier.Recognition;
+import app.pivo.android.basicsdkdemo.tflite.InterpreterFactory;
+import app.pivo.android.basicsdkdemo.tflite.ModelOptions;
+import app.pivo.android.basicsdkdemo.tflite.ModelRegistry;
+import app.pivo.android.basicsdkdemo.tflite.YoloClassifier;
+
+/**
+ * Runs the float16 and int8 builds of the fast detector on the same images, on XNNPACK, and checks
+ * that the int8 model finds what the float16 one does.
+ *
+ * The bundled int8 build quantizes only its weights: its input, [1, 320, 320, 3], and output,
+ * [1, 7, 500], are float32, so it runs through the float input and output paths like the float16
+ * build. The 8-bit input fill and output decode are covered by the JVM tests on synthetic tensors.
+ *
+ * Images are read from the {@code detector-images} folder of the test assets; without it a fixed
+ * set of generated frames is used, on which only agreement, not accuracy, is meaningful.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QuantizedDetectorComparisonTest {
+    private static final String TAG = "QuantizedComparison";
+    private static final String FLOAT_MODEL = "yolov8-mobile-tiny_float16.tflite";
+    private static final String INT8_MODEL = "yolov8-mobile-tiny_int8.tflite";
+    private static final String LABELS = "obj.names";
+    private static final String IMAGE_DIR = "detector-images";
+    private static final int INPUT_SIZE = 320;
+    private static final int OUTPUT_SHAPE = 500;
+    private static final int GENERATED_IMAGES = 16;
+    private static final float MATCH_IOU = 0.5f;
+    private static final float MIN_RECALL = 0.8f;
+
+    private ModelRegistry<Interpreter> models;
+    private YoloClassifier floatDetector;
+    private YoloClassifier int8Detector;
+
+    @Before
+    public void setUp() throws IOException {
+        final AssetManager assets = InstrumentationRegistry.getInstrumentation().getTargetContext().getAssets();
+        models = new ModelRegistry<>(file -> Utils.loadModelFile(assets, file), new InterpreterFactory());
+        floatDetector = new YoloClassifier(assets, models, FLOAT_MODEL, ModelOptions.CPU, LABELS,
+                INPUT_SIZE, OUTPUT_SHAPE, 8);
+        int8Detector = new YoloClassifier(assets, models, INT8_MODEL, ModelOptions.CPU, LABELS,
+                INPUT_SIZE, OUTPUT_SHAPE, 8);
+    }
+
+    @After
+    public void tearDown() {
+        if (floatDetector != null) {
+            floatDetector.close();
+        }
+        if (int8Detector != null) {
+            int8Detector.close();
+        }
+        models.close();
+    }
+
+    @Test
+    public void int8WeightsFindWhatFloat16Finds() throws IOException {
+        // Fails once the model is re-exported with 8-bit input and output, which this test should
+        // then expect.
+        assertFalse(int8Detector.isQuantized());
+
+        final List<Bitmap> images = loadImages();
+        int expected = 0;
+        int matched = 0;
+        for (final Bitmap image : images) {
+            final List<Recognition> reference = floatDetector.recognizeImage(image);
+            final List<Recognition> quantized = int8Detector.recognizeImage(image);
+            for (final Recognition detection : reference) {
+                if (detection.getConfidence() < floatDetector.getObjThresh()) {
+                    continue;
+                }
+                expected++;
+                if (hasMatch(detection, quantized)) {
+                    matched++;
+                }
+            }
+        }
+
+        Log.i(TAG, String.format("%d images, %d/%d float16 detections matched by int8",
+                images.size(), matched, expected));
+        Log.i(TAG, "float16: " + floatDetector.getLatencyReport());
+        Log.i(TAG, "int8: " + int8Detector.getLatencyReport());
+        assertTrue("recall " + matched + "/" + expected, matched >= MIN_RECALL * expected);
+    }
+
+    private static boolean hasMatch(final Recognition detection, final List<Recognition> candidates) {
+        for (final Recognition candidate : candidates) {
+            if (candidate.getDetectedClass() == detection.getDetectedClass()
+                    && iou(candidate.getLocation(), detection.getLocation()) >= MATCH_IOU) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float iou(final RectF a, final RectF b) {
+        final float w = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        final float h = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        final float intersection = w * h;
+        return intersection / (a.width() * a.height() + b.width() * b.height() - intersection);
+    }
+
+    private static List<Bitmap> loadImages() throws IOException {
+        final AssetManager assets = InstrumentationRegistry.getInstrumentation().getContext().getAssets();
+        final List<Bitmap> images = new ArrayList<>();
+        final String[] names = assets.list(IMAGE_DIR);
+        if (names != null) {
+            for (final String name : names) {
+                try (InputStream in = assets.open(IMAGE_DIR + "/" + name)) {
+                    final Bitmap image = BitmapFactory.decodeStream(in);
+                    if (image != null) {
+                        images.add(Bitmap.createScaledBitmap(image, INPUT_SIZE, INPUT_SIZE, true));
+                    }
+                }
+            }
+        }
+        if (images.isEmpty()) {
+            final Random random = new Random(17);
+            for (int i = 0; i < GENERATED_IMAGES; i++) {
+                images.add(generateImage(random));
+            }
+        }
+        return images;
+    }
+
+    /** Gradient background with a few solid shapes, the same for every run. */
+    private static Bitmap generateImage(final Random random) {
+        final Bitmap image = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(image);
+        final Paint paint = new Paint();
+        for (int y = 0; y < INPUT_SIZE; y += 8) {
+            paint.setColor(Color.rgb(y * 255 / INPUT_SIZE, 96, 255 - y * 255 / INPUT_SIZE));
+            canvas.drawRect(0, y, INPUT_SIZE, y + 8, paint);
+        }
+        for (int i = 0; i < 4; i++) {
+            paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            final float x = random.nextFloat() * INPUT_SIZE * 0.7f;
+            final float y = random.nextFloat() * INPUT_SIZE * 0.5f;
+            canvas.drawRect(x, y, x + INPUT_SIZE * 0.2f, y + INPUT_SIZE * 0.45f, paint);
+        }
+        return image;
+    }
+}
@@ -33,6 +33,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Trace;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
@@ -51,8 +52,12 @@ import android.widget.Toast;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import java.nio.ByteBuffer;
 
-import app.pivo.android.basicsdkdemo.env.ImageUtils;
+import app.pivo.android.basicsdkdemo.env.CameraFrameSource;
+import app.pivo.android.basicsdkdemo.env.FrameRecorder;
 import app.pivo.android.basicsdkdemo.env.Logger;
+import app.pivo.android.basicsdkdemo.env.PreviewBufferRing;
+import app.pivo.android.basicsdkdemo.env.YuvPlanes;
+import app.pivo.android.basicsdkdemo.env.YuvToArgbConverter;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
@@ -62,6 +67,8 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final Logger LOGGER = new Logger();
 
   private static final int PERMISSIONS_REQUEST = 1;
+  /** A legacy preview frame that waited longer than this is returned unprocessed. */
+  private static final long PREVIEW_FRAME_MAX_AGE_NS = 100_000_000L;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
   protected int previewWidth = 0;
@@ -70,10 +77,53 @@ public abstract class CameraActivity extends AppCompatActivity
   private Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
+  private volatile boolean isProcessingFrame = false;
   private byte[][] yuvBytes = new byte[3][];
   private int[] rgbBytes = null;
   private int yRowStride;
+  private final YuvPlanes yuvPlanes = new YuvPlanes();
+  private volatile CameraFrameSource frameSource;
+  private volatile FrameRecorder frameRecorder;
+  private final YuvPlanes recordPlanes = new YuvPlanes();
+  private volatile int previewRotation;
+  private volatile CameraConnectionFragment camera2Fragment;
+
+  /** Legacy camera callback buffers, see {@link #getPreviewBufferCount()}. */
+  private PreviewBufferRing previewBuffers;
+  /** NV21 plane views of each legacy callback buffer. */
+  private YuvPlanes[] previewPlanes;
+  /** The legacy callback buffer being processed. */
+  private byte[] previewFrame;
+  private final Runnable convertPreviewFrame =
+      new Runnable() {
+        @Override
+        public void run() {
+          argbConverter.convertYUV420SPToARGB8888(
+              previewFrame, previewWidth, previewHeight, rgbBytes);
+        }
+      };
+  private final Runnable releasePreviewFrame =
+      new Runnable() {
+        @Override
+        public void run() {
+          previewBuffers.release(previewFrame);
+          isProcessingFrame = false;
+          // Start on the frame that arrived meanwhile rather than wait for the next one.
+          mainHandler.post(processWaitingPreviewFrame);
+        }
+      };
+  private final Runnable processWaitingPreviewFrame =
+      new Runnable() {
+        @Override
+        public void run() {
+          processPreviewFrame();
+        }
+      };
+  /** Legacy camera frames are delivered on the main thread, which opened the camera. */
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final YuvToArgbConverter argbConverter =
+      new YuvToArgbConverter(Runtime.getRuntime().availableProcessors());
+  private Plane[] pendingPlanes;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
 
@@ -182,17 +232,81 @@ public abstract class CameraActivity extends AppCompatActivity
   }
 
   protected byte[] getLuminance() {
+    ensureYuvBytes();
     return yuvBytes[0];
   }
 
+  /**
+   * The planes of the current frame, valid until {@link #readyForNextImage()}. Reading them does
+   * not copy, so consumers that only need a downscaled image should prefer this over
+   * {@link #getRgbBytes()}.
+   */
+  protected YuvPlanes getYuvPlanes() {
+    return yuvPlanes;
+  }
+
+  /**
+   * Also hands the frames this activity processes to {@code source}, e.g. to drive a benchmark
+   * from the live camera; null stops it. Frames are copied only when the source's consumer is
+   * ready for one.
+   */
+  protected void setFrameSource(final CameraFrameSource source) {
+    frameSource = source;
+  }
+
+  private void offerToFrameSource(final long timestampNs) {
+    final CameraFrameSource source = frameSource;
+    if (source != null) {
+      source.offer(yuvPlanes, timestampNs);
+    }
+  }
+
+  /**
+   * Records every camera2 frame to {@code recorder}, including the ones processing skips; null
+   * stops it. The recorder must already be started.
+   */
+  protected void setFrameRecorder(final FrameRecorder recorder) {
+    frameRecorder = recorder;
+  }
+
+  private void record(final Image image) {
+    final FrameRecorder recorder = frameRecorder;
+    if (recorder == null) {
+      return;
+    }
+    final Plane[] planes = image.getPlanes();
+    recordPlanes.set(
+        planes[0].getBuffer(),
+        planes[1].getBuffer(),
+        planes[2].getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        planes[0].getRowStride(),
+        planes[1].getRowStride(),
+        planes[1].getPixelStride());
+    recorder.offer(recordPlanes, image.getTimestamp(), previewRotation);
+  }
+
+  /** Shared full-frame YUV to ARGB converter; safe to use from any thread. */
+  protected YuvToArgbConverter getArgbConverter() {
+    return argbConverter;
+  }
+
+  /** Copies the camera2 planes into {@link #yuvBytes} the first time a frame's bytes are needed. */
+  private void ensureYuvBytes() {
+    if (pendingPlanes != null) {
+      fillBytes(pendingPlanes, yuvBytes);
+      pendingPlanes = null;
+    }
+  }
+
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
-    if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
+    if (!previewBuffers.deliver(bytes, System.nanoTime())) {
+      // A buffer of an earlier camera, or one the ring does not expect back.
       return;
     }
-
     try {
       // Initialize the storage bitmaps once when the resolution is known.
       if (rgbBytes == null) {
@@ -200,33 +314,52 @@ public abstract class CameraActivity extends AppCompatActivity
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
         rgbBytes = new int[previewWidth * previewHeight];
+        previewPlanes = new YuvPlanes[previewBuffers.getCount()];
         onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
       return;
     }
+    // While a frame is processed this one waits, replacing any older one, and is picked up as soon
+    // as processing is done.
+    processPreviewFrame();
+  }
+
+  /** Processes the waiting preview frame, if any. Runs on the main thread. */
+  private void processPreviewFrame() {
+    if (isProcessingFrame) {
+      return;
+    }
+    final byte[] bytes = previewBuffers.take(System.nanoTime());
+    if (bytes == null) {
+      return;
+    }
 
     isProcessingFrame = true;
+    previewFrame = bytes;
     yuvBytes[0] = bytes;
     yRowStride = previewWidth;
-
-    imageConverter =
-        new Runnable() {
-          @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-          }
-        };
-
-    postInferenceCallback =
-        new Runnable() {
-          @Override
-          public void run() {
-            camera.addCallbackBuffer(bytes);
-            isProcessingFrame = false;
-          }
-        };
+    // Plane views are made once per buffer.
+    final int index = previewBuffers.indexOf(bytes);
+    if (previewPlanes[index] == null || previewPlanes[index].getY().array() != bytes) {
+      previewPlanes[index] = new YuvPlanes();
+      previewPlanes[index].setNv21(bytes, previewWidth, previewHeight);
+    }
+    final YuvPlanes planes = previewPlanes[index];
+    yuvPlanes.set(
+        planes.getY(),
+        planes.getU(),
+        planes.getV(),
+        previewWidth,
+        previewHeight,
+        planes.getYRowStride(),
+        planes.getUvRowStride(),
+        planes.getUvPixelStride());
+    offerToFrameSource(System.nanoTime());
+
+    imageConverter = convertPreviewFrame;
+    postInferenceCallback = releasePreviewFrame;
     processImage();
   }
 
@@ -246,24 +379,44 @@ public abstract class CameraActivity extends AppCompatActivity
       if (image == null) {
         return;
       }
+      record(image);
 
       if (isProcessingFrame) {
         image.close();
         return;
       }
+      if (image.getWidth() != previewWidth || image.getHeight() != previewHeight) {
+        // The analysis stream was reconfigured; nothing holds on to the old frame's buffers now.
+        LOGGER.i("Analysis frames are now %dx%d", image.getWidth(), image.getHeight());
+        previewWidth = image.getWidth();
+        previewHeight = image.getHeight();
+        rgbBytes = new int[previewWidth * previewHeight];
+      }
       isProcessingFrame = true;
       Trace.beginSection("imageAvailable");
       final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
+      // The planes are only copied into yuvBytes if someone asks for the full frame.
+      pendingPlanes = planes;
       yRowStride = planes[0].getRowStride();
       final int uvRowStride = planes[1].getRowStride();
       final int uvPixelStride = planes[1].getPixelStride();
+      yuvPlanes.set(
+          planes[0].getBuffer(),
+          planes[1].getBuffer(),
+          planes[2].getBuffer(),
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride);
+      offerToFrameSource(image.getTimestamp());
 
       imageConverter =
           new Runnable() {
             @Override
             public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
+              ensureYuvBytes();
+              argbConverter.convertYUV420ToARGB8888(
                   yuvBytes[0],
                   yuvBytes[1],
                   yuvBytes[2],
@@ -280,6 +433,7 @@ public abstract class CameraActivity extends AppCompatActivity
           new Runnable() {
             @Override
             public void run() {
+              pendingPlanes = null;
               image.close();
               isProcessingFrame = false;
             }
@@ -335,6 +489,7 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public synchronized void onDestroy() {
     LOGGER.d("onDestroy " + this);
+    argbConverter.close();
     super.onDestroy();
   }
 
@@ -439,13 +594,14 @@ public abstract class CameraActivity extends AppCompatActivity
 
     Fragment fragment;
     if (useCamera2API) {
-      CameraConnectionFragment camera2Fragment =
+      camera2Fragment =
           CameraConnectionFragment.newInstance(
               new CameraConnectionFragment.ConnectionCallback() {
                 @Override
                 public void onPreviewSizeChosen(final Size size, final int rotation) {
                   previewHeight = size.getHeight();
                   previewWidth = size.getWidth();
+                  previewRotation = rotation;
                   CameraActivity.this.onPreviewSizeChosen(size, rotation);
                 }
               },
@@ -454,10 +610,14 @@ public abstract class CameraActivity extends AppCompatActivity
               getDesiredPreviewFrameSize());
 
       camera2Fragment.setCamera(cameraId);
+      camera2Fragment.setAnalysisLongSide(getDesiredAnalysisLongSide());
       fragment = camera2Fragment;
     } else {
+      camera2Fragment = null;
+      previewBuffers = new PreviewBufferRing(getPreviewBufferCount(), PREVIEW_FRAME_MAX_AGE_NS);
       fragment =
-          new LegacyCameraConnectionFragment(this, getLayoutId(), getDesiredPreviewFrameSize());
+          new LegacyCameraConnectionFragment(
+              this, getLayoutId(), getDesiredPreviewFrameSize(), previewBuffers);
     }
 
     getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
@@ -468,7 +628,7 @@ public abstract class CameraActivity extends AppCompatActivity
     // advance the actual necessary dimensions of the yuv planes.
     for (int i = 0; i < planes.length; ++i) {
       final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
+      if (yuvBytes[i] == null || yuvBytes[i].length != buffer.capacity()) {
         LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
         yuvBytes[i] = new byte[buffer.capacity()];
       }
@@ -476,6 +636,35 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
+  /**
+   * Asks for processed frames whose long side is at least {@code minLongSide}, e.g. after the
+   * model changed, while the preview keeps its size. Frames of the new size follow once the
+   * camera is reconfigured. Only the camera2 API can capture at two sizes; the legacy API keeps
+   * processing preview frames.
+   */
+  protected void setAnalysisLongSide(final int minLongSide) {
+    final CameraConnectionFragment fragment = camera2Fragment;
+    if (fragment != null) {
+      fragment.setAnalysisLongSide(minLongSide);
+    }
+  }
+
+  /**
+   * Callback buffers for the legacy camera API. With the default three, the camera fills one while
+   * another waits and a third is processed, so capture never stalls on processing.
+   */
+  protected int getPreviewBufferCount() {
+    return 3;
+  }
+
+  /**
+   * Long side processed frames need when the camera opens; 0, the default, processes frames at the
+   * preview size.
+   */
+  protected int getDesiredAnalysisLongSide() {
+    return 0;
+  }
+
   public boolean isDebug() {
     return debug;
   }
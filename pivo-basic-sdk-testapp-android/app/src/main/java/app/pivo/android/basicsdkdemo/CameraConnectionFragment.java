@@ -126,6 +126,17 @@ public class CameraConnectionFragment extends Fragment {
   private Handler backgroundHandler;
   /** An {@link ImageReader} that handles preview frame capture. */
   private ImageReader previewReader;
+  /**
+   * The reader replaced by the last reconfiguration. Its last image may still be in use, so it is
+   * only closed with the next reconfiguration or with the camera.
+   */
+  private ImageReader retiredReader;
+  /** YUV sizes the camera supports, from which the analysis size is chosen. */
+  private Size[] analysisChoices;
+  /** Size of the frames delivered to the image listener. */
+  private Size analysisSize;
+  /** Shortest long side the analysis frames may have; 0 delivers them at the preview size. */
+  private volatile int analysisLongSide = 0;
   /** {@link CaptureRequest.Builder} for the camera preview */
   private CaptureRequest.Builder previewRequestBuilder;
   /** {@link CaptureRequest} generated by {@link #previewRequestBuilder} */
@@ -247,6 +258,44 @@ public class CameraConnectionFragment extends Fragment {
     }
   }
 
+  /**
+   * Chooses the size of the analysis frames: the smallest of {@code choices} with the aspect ratio
+   * of {@code previewSize} whose long side is at least {@code minLongSide}, and no larger than the
+   * preview. The preview size is used when {@code minLongSide} is 0 or nothing else fits, so
+   * detections always map onto the preview.
+   */
+  protected static Size chooseAnalysisSize(
+      final Size[] choices, final Size previewSize, final int minLongSide) {
+    if (minLongSide <= 0) {
+      return previewSize;
+    }
+    final long previewArea = (long) previewSize.getWidth() * previewSize.getHeight();
+    final List<Size> candidates = new ArrayList<Size>();
+    for (final Size option : choices) {
+      final long crossDifference =
+          (long) option.getWidth() * previewSize.getHeight()
+              - (long) option.getHeight() * previewSize.getWidth();
+      final long area = (long) option.getWidth() * option.getHeight();
+      // Within 1% of the preview's aspect ratio.
+      if (Math.abs(crossDifference) * 100 <= (long) option.getHeight() * previewSize.getWidth()
+          && Math.max(option.getWidth(), option.getHeight()) >= minLongSide
+          && area <= previewArea) {
+        candidates.add(option);
+      }
+    }
+
+    LOGGER.i("Analysis long side: " + minLongSide + ", preview: " + previewSize);
+    LOGGER.i("Valid analysis sizes: [" + TextUtils.join(", ", candidates) + "]");
+
+    if (candidates.isEmpty()) {
+      LOGGER.w("No analysis size smaller than the preview; using the preview size");
+      return previewSize;
+    }
+    final Size chosenSize = Collections.min(candidates, new CompareSizesByArea());
+    LOGGER.i("Chosen analysis size: " + chosenSize.getWidth() + "x" + chosenSize.getHeight());
+    return chosenSize;
+  }
+
   public static CameraConnectionFragment newInstance(
       final ConnectionCallback callback,
       final OnImageAvailableListener imageListener,
@@ -316,6 +365,54 @@ public class CameraConnectionFragment extends Fragment {
     this.cameraId = cameraId;
   }
 
+  /**
+   * Sizes the analysis frames for a model that needs {@code minLongSide} pixels along the long side
+   * of the frame, independently of the preview. While the camera is open the capture session is
+   * reconfigured if that changes the chosen size; the image listener then sees frames of the new
+   * size.
+   */
+  public void setAnalysisLongSide(final int minLongSide) {
+    analysisLongSide = minLongSide;
+    final Handler handler = backgroundHandler;
+    if (handler != null) {
+      handler.post(
+          new Runnable() {
+            @Override
+            public void run() {
+              reconfigureAnalysis();
+            }
+          });
+    }
+  }
+
+  /** Recreates the capture session if the analysis size changed. Runs on the background thread. */
+  private void reconfigureAnalysis() {
+    try {
+      if (!cameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
+        LOGGER.w("Time out waiting to reconfigure the analysis stream");
+        return;
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    try {
+      if (cameraDevice == null || analysisChoices == null) {
+        // The size is chosen when the camera opens.
+        return;
+      }
+      final Size size = chooseAnalysisSize(analysisChoices, previewSize, analysisLongSide);
+      if (size.equals(analysisSize)) {
+        return;
+      }
+      LOGGER.i("Reconfiguring analysis frames from " + analysisSize + " to " + size);
+      analysisSize = size;
+      createCameraPreviewSession();
+    } finally {
+      cameraOpenCloseLock.release();
+    }
+  }
+
   /** Sets up member variables related to camera. */
   private void setUpCameraOutputs() {
     final Activity activity = getActivity();
@@ -336,6 +433,8 @@ public class CameraConnectionFragment extends Fragment {
               map.getOutputSizes(SurfaceTexture.class),
               inputSize.getWidth(),
               inputSize.getHeight());
+      analysisChoices = map.getOutputSizes(ImageFormat.YUV_420_888);
+      analysisSize = chooseAnalysisSize(analysisChoices, previewSize, analysisLongSide);
 
       // We fit the aspect ratio of TextureView to the size of preview we picked.
       final int orientation = getResources().getConfiguration().orientation;
@@ -354,7 +453,8 @@ public class CameraConnectionFragment extends Fragment {
       throw new IllegalStateException(getString(R.string.tfe_od_camera_error));
     }
 
-    cameraConnectionCallback.onPreviewSizeChosen(previewSize, sensorOrientation);
+    // The listener works on the analysis frames; they have the preview's aspect ratio.
+    cameraConnectionCallback.onPreviewSizeChosen(analysisSize, sensorOrientation);
   }
 
   /** Opens the camera specified by {@link CameraConnectionFragment#cameraId}. */
@@ -391,6 +491,10 @@ public class CameraConnectionFragment extends Fragment {
         previewReader.close();
         previewReader = null;
       }
+      if (null != retiredReader) {
+        retiredReader.close();
+        retiredReader = null;
+      }
     } catch (final InterruptedException e) {
       throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
     } finally {
@@ -435,10 +539,18 @@ public class CameraConnectionFragment extends Fragment {
 
       LOGGER.i("Opening camera preview: " + previewSize.getWidth() + "x" + previewSize.getHeight());
 
-      // Create the reader for the preview frames.
+      // Create the reader for the analysis frames, replacing the one of an earlier session.
+      if (null != previewReader) {
+        previewReader.setOnImageAvailableListener(null, null);
+        if (null != retiredReader) {
+          retiredReader.close();
+        }
+        retiredReader = previewReader;
+      }
+      LOGGER.i("Analysis frames: " + analysisSize.getWidth() + "x" + analysisSize.getHeight());
       previewReader =
           ImageReader.newInstance(
-              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+              analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
 
       previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
       previewRequestBuilder.addTarget(previewReader.getSurface());
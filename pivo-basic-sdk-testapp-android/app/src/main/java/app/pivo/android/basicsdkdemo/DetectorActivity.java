@@ -16,12 +16,8 @@
 
 package app.pivo.android.basicsdkdemo;
 
-import static org.opencv.android.Utils.bitmapToMat;
-import static org.opencv.android.Utils.matToBitmap;
-
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
+import android.content.res.AssetManager;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -43,33 +39,55 @@ import android.widget.Toast;
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
-import org.opencv.android.Utils;
-import org.opencv.core.Mat;
-import org.opencv.core.Point;
-import org.opencv.core.Rect;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
+import org.tensorflow.lite.Interpreter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import app.pivo.android.basicsdk.PivoSdk;
 import app.pivo.android.basicsdkdemo.customview.OverlayView;
 import app.pivo.android.basicsdkdemo.customview.OverlayView.DrawCallback;
 import app.pivo.android.basicsdkdemo.env.BorderedText;
+import app.pivo.android.basicsdkdemo.env.FrameRecorder;
 import app.pivo.android.basicsdkdemo.env.ImageUtils;
 import app.pivo.android.basicsdkdemo.env.Logger;
+import app.pivo.android.basicsdkdemo.env.RoiDumpSink;
+import app.pivo.android.basicsdkdemo.env.Trace;
+import app.pivo.android.basicsdkdemo.env.Utils;
+import app.pivo.android.basicsdkdemo.env.YuvPlanes;
+import app.pivo.android.basicsdkdemo.env.YuvTensorConverter;
+import app.pivo.android.basicsdkdemo.pipeline.FramePipeline;
+import app.pivo.android.basicsdkdemo.pipeline.QualityController;
+import app.pivo.android.basicsdkdemo.pipeline.StageStats;
 import app.pivo.android.basicsdkdemo.tflite.Classifier;
 import app.pivo.android.basicsdkdemo.tflite.FeatureExtract;
+import app.pivo.android.basicsdkdemo.tflite.InputTensorPool;
+import app.pivo.android.basicsdkdemo.tflite.InterpreterFactory;
+import app.pivo.android.basicsdkdemo.tflite.ModelOptions;
+import app.pivo.android.basicsdkdemo.tflite.ModelRegistry;
 import app.pivo.android.basicsdkdemo.tflite.YoloClassifier;
+import app.pivo.android.basicsdkdemo.tracking.CarriedDetections;
+import app.pivo.android.basicsdkdemo.tracking.EmbeddingGallery;
+import app.pivo.android.basicsdkdemo.tracking.FlowPropagator;
+import app.pivo.android.basicsdkdemo.tracking.KeyframeScheduler;
+import app.pivo.android.basicsdkdemo.tracking.MotionGate;
 import app.pivo.android.basicsdkdemo.tracking.MultiBoxTracker;
+import app.pivo.android.basicsdkdemo.tracking.ObjectTracker;
+import app.pivo.android.basicsdkdemo.tracking.PanController;
+import app.pivo.android.basicsdkdemo.tracking.RoiPlanner;
+import app.pivo.android.basicsdkdemo.tracking.TargetEstimator;
 
 /**
  * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
@@ -78,6 +96,10 @@ import app.pivo.android.basicsdkdemo.tracking.MultiBoxTracker;
 public class DetectorActivity extends CameraActivity implements OnImageAvailableListener, View.OnClickListener {
     private static final Logger LOGGER = new Logger();
 
+    /**
+     * Runs the fast tier on the int8 model even where the GPU delegate is available. The bundled
+     * int8 model quantizes only its weights; its input and output tensors are float32.
+     */
     private static final boolean TF_OD_API_IS_QUANTIZED = false;
     private static boolean is_tiny = false;
 
@@ -87,13 +109,10 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private static int TF_OD_API_OUTPUT_SHAPE_ACC = 8400;
 
     private static final String TF_OD_API_MODEL_FILE_FAST = "yolov8-mobile-tiny_float16.tflite";
+    private static final String TF_OD_API_MODEL_FILE_FAST_INT8 = "yolov8-mobile-tiny_int8.tflite";
     private static int TF_OD_API_OUTPUT_SHAPE_FAST = 500;
     private static int TF_OD_API_INPUT_SIZE_FAST = 320;
 
-    private static final String TF_OD_API_MODEL_FILE_YOLOv8s = "yolov8s-640_float16.tflite";
-    private static int TF_OD_API_OUTPUT_SHAPE_YOLOv8s = 8400;
-    private static int TF_OD_API_INPUT_SIZE_YOLOv8s = 640;
-
     private static float CENTER_POSITION = 0.5f;
 
     private static final String TF_OD_API_LABELS_FILE = "obj.names";
@@ -101,21 +120,70 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     private static final DetectorMode MODE = DetectorMode.TF_OD_API;
     private static final float MINIMUM_CONFIDENCE_TF_OD_API_FIRST = 0.75f;
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.3f;
-    private static final boolean MAINTAIN_ASPECT = false;
+    /**
+     * Letterboxes frames into the detector input instead of stretching them. With a model exported
+     * for a 16:9 input, e.g. 320x192, the bands vanish and no compute goes to padding.
+     */
+    private static final boolean MAINTAIN_ASPECT = true;
     private static final Size DESIRED_PREVIEW_SIZE = new Size(1920, 1080);
+    /**
+     * Frames are analyzed at the smallest camera size whose long side is this many times the
+     * detector input, not at the preview size: enough for window inference and re-identification
+     * crops to zoom in without upscaling much, at a fraction of the preview's pixels. See
+     * ROI_ANALYSIS_HOLD_MS for window inference.
+     */
+    private static final int ANALYSIS_OVERSAMPLING = 2;
     private static final float TEXT_SIZE_DIP = 10;
     OverlayView trackingOverlay;
     private Integer sensorOrientation;
 
-    private YoloClassifier detector;
-    private YoloClassifier detector_acc;
-    private YoloClassifier detector_fast;
-    private YoloClassifier detector_yolov8s;
-    private FeatureExtract extractor;
+    /** Null until the first tier is loaded; frames are dropped until then. */
+    private volatile YoloClassifier detector;
+    private volatile FeatureExtract extractor;
+
+    private static final String FEATURE_MODEL_FILE = "feature-map.tflite";
+    private static final int FEATURE_OUTPUT_SHAPE = 8192;
+
+    /**
+     * Interpreters are built on demand by the registry and shared per model file and options.
+     * PREFETCH_NEXT_TIER builds the tier the quality controller would fall back to while the
+     * current one runs; models unused for MODEL_IDLE_MS are closed when the system asks to trim
+     * memory, which is long enough for frames still in flight on them to finish.
+     */
+    private static final boolean PREFETCH_NEXT_TIER = true;
+    private static final long MODEL_IDLE_MS = 2000;
+    private ModelRegistry<Interpreter> models;
+    /** Loads tiers off the UI and pipeline threads, one at a time. */
+    private final ExecutorService tierLoader = Executors.newSingleThreadExecutor();
+    /**
+     * Detector of each tier, touched only by tierLoader. Only the loaded tier's detector holds its
+     * interpreter; the others are closed and reopened when switched back to.
+     */
+    private final YoloClassifier[] tierDetectors = new YoloClassifier[QUALITY_TIERS.length];
+    private int loadedTier = -1;
+    /**
+     * Execution options of every tier, set from the thread and NNAPI controls. Without a usable
+     * GPU delegate they start on XNNPACK, and the fast tier runs its int8 weight model.
+     */
+    private volatile ModelOptions modelOptions = ModelOptions.GPU;
+    private boolean gpuSupported = true;
+    private boolean quantizedFastTier = TF_OD_API_IS_QUANTIZED;
 
     private long lastProcessingTimeMs;
-    private Bitmap rgbFrameBitmap = null;
-    private boolean computingDetection = false;
+
+    /**
+     * Latency histograms of the steps around the detector, which keeps its own for the interpreter,
+     * decoding and NMS. YUV conversion, rotation, resizing and the tensor fill are a single pass.
+     */
+    private static final int STAT_YUV_TO_TENSOR = 0;
+    private static final int STAT_PLANE_COPY = 1;
+    private static final int STAT_FLOW = 2;
+    private static final int STAT_TRACKER = 3;
+    private static final int STAT_REID = 4;
+    private static final int STAT_GALLERY = 5;
+    private static final int STAT_MOTOR = 6;
+    private final StageStats stageStats = new StageStats(
+            "yuv to tensor", "plane copy", "flow", "tracker", "re-id", "gallery search", "motor");
 
     private long timestamp = 0;
 
@@ -138,48 +206,45 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
         tracker = new MultiBoxTracker(this);
 
-        try {
-            detector_acc = new YoloClassifier(
-                    getAssets(),
-                    TF_OD_API_MODEL_FILE,
-                    TF_OD_API_LABELS_FILE,
-                    TF_OD_API_INPUT_SIZE_ACC,
-                    TF_OD_API_OUTPUT_SHAPE_ACC,
-                    8);
-
-            detector_fast = new YoloClassifier(
-                    getAssets(),
-                    TF_OD_API_MODEL_FILE_FAST,
-                    TF_OD_API_LABELS_FILE,
-                    TF_OD_API_INPUT_SIZE_FAST,
-                    TF_OD_API_OUTPUT_SHAPE_FAST,
-                    8);
-
-            detector_yolov8s = new YoloClassifier(
-                    getAssets(),
-                    TF_OD_API_MODEL_FILE_YOLOv8s,
-                    TF_OD_API_LABELS_FILE,
-                    TF_OD_API_INPUT_SIZE_YOLOv8s,
-                    TF_OD_API_OUTPUT_SHAPE_YOLOv8s,
-                    8.1f);
-
-            detector = detector_acc;
-
-            detector.setContext(this);
-        } catch (final IOException e) {
-            e.printStackTrace();
-            LOGGER.e(e, "Exception initializing classifier!");
-            Toast toast =
-                    Toast.makeText(
-                            getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-            toast.show();
-            finish();
+        if (models == null) {
+            final AssetManager assets = getAssets();
+            models = new ModelRegistry<>(file -> Utils.loadModelFile(assets, file), new InterpreterFactory());
+            gpuSupported = InterpreterFactory.isGpuSupported();
+            if (!gpuSupported) {
+                modelOptions = ModelOptions.CPU;
+                quantizedFastTier = true;
+            }
         }
+        // Both builds start now, in order, on the registry's thread; frames wait for the detector.
+        models.prefetch(tierModelFile(qualityController.getTier()), tierOptions(qualityController.getTier()));
+        models.prefetch(FEATURE_MODEL_FILE, ModelOptions.NNAPI);
+        tierLoader.execute(() -> {
+            try {
+                if (extractor == null) {
+                    extractor = new FeatureExtract(
+                            models.acquire(FEATURE_MODEL_FILE, ModelOptions.NNAPI),
+                            FEATURE_INPUT_SIZE,
+                            FEATURE_OUTPUT_SHAPE);
+                }
+                loadTier(qualityController.getTier());
+            } catch (final IOException e) {
+                LOGGER.e(e, "Exception initializing classifier!");
+                runOnUiThread(() -> {
+                    Toast.makeText(
+                            getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT).show();
+                    finish();
+                });
+            }
+        });
 
-        extractor = new FeatureExtract(getAssets(),
-                         "feature-map.tflite",
-                             FEATURE_INPUT_SIZE,
-                8192);
+        gallery = new EmbeddingGallery(FEATURE_OUTPUT_SHAPE, GALLERY_CAPACITY_PER_CLASS);
+        if (DUMP_ROIS && roiDumpSink == null) {
+            roiDumpSink = RoiDumpSink.toJpegFiles(Environment.getExternalStorageDirectory(), ROI_DUMP_QUEUE);
+            roiDumpSink.start();
+        }
+        if (RECORD_FRAMES && frameRecorder == null) {
+            startRecording();
+        }
 
         previewWidth = size.getWidth();
         previewHeight = size.getHeight();
@@ -188,16 +253,12 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
         LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-
-        frameToCropTransform =
-                ImageUtils.getTransformationMatrix(
-                        previewWidth, previewHeight,
-                        TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE,
-                        sensorOrientation, MAINTAIN_ASPECT);
 
-        cropToFrameTransform = new Matrix();
-        frameToCropTransform.invert(cropToFrameTransform);
+        // Rebuilt by the first frame for the input size of its detector.
+        prevInputWidth = 0;
+        prevInputHeight = 0;
+        trackerFrameWidth = previewWidth;
+        trackerFrameHeight = previewHeight;
 
         trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
         trackingOverlay.addCallback(
@@ -212,11 +273,25 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                 });
 
         tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        freeFrames.clear();
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            freeFrames.add(new Frame());
+        }
+        pipeline = new FramePipeline<Frame>("detector", this::recycleFrame)
+                .addStage("preprocess", 1, this::preprocess)
+                .addStage("inference", 1, this::infer)
+                .addStage("postprocess", 1, this::postprocess);
+        pipeline.start();
     }
 
     @Override
     public void onCreate(Bundle bundle) {
         super.onCreate(bundle);
+        inputConverter.setLetterbox(MAINTAIN_ASPECT);
 
         findViewById(R.id.select_person).setOnClickListener(this);
         findViewById(R.id.select_dog).setOnClickListener(this);
@@ -227,11 +302,16 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         findViewById(R.id.model_speed).setOnClickListener(this);
     }
 
-    Mat rotateMatrix = null;
-    int prev_size = 0;
-    Point center = null;
-    Bitmap input_bitmap;
-    Bitmap feature_bitmap;
+    private int prevInputWidth = 0;
+    private int prevInputHeight = 0;
+    private int prevFrameWidth = 0;
+    private int prevFrameHeight = 0;
+    /** Frame size the overlay tracker maps boxes from. Used on the postprocess stage only. */
+    private int trackerFrameWidth = 0;
+    private int trackerFrameHeight = 0;
+    /** Area of the detector input the frame covers, the rest being letterbox bands. */
+    private RectF inputContent;
+    private final YuvTensorConverter inputConverter = new YuvTensorConverter();
 
     int no_detected_counts = 0;
     int frame_count = 0;
@@ -241,163 +321,647 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
     float error_rate_acc = 0;
     float error_rate = 0;
 
+    /**
+     * Frames that can be in the pipeline at once: one per stage plus one waiting in front of each
+     * of the two later stages would be five; four keeps memory down and simply drops at the camera
+     * when every buffer is busy.
+     */
+    private static final int FRAMES_IN_FLIGHT = 4;
+    private static final int METRICS_LOG_INTERVAL = 30;
+
+    /**
+     * Per-frame events go to the binary trace ring instead of logcat; it is written to
+     * trace.txt and trace.json in the app's external files on pause in debug mode.
+     */
+    private static final Trace TRACE = Trace.DEFAULT;
+    private static final Trace.Event TRACE_PREPARE = TRACE.register(Log.DEBUG, "prepare", "frame %d");
+    private static final Trace.Event TRACE_INFER =
+            TRACE.register(Log.DEBUG, "infer", "frame %d, tier %d, %d ms");
+    private static final Trace.Event TRACE_TARGET =
+            TRACE.register(Log.INFO, "target", "frame %d, position %.3f, adjusted %.3f, velocity %d");
+    private static final Trace.Event TRACE_RESULTS =
+            TRACE.register(Log.DEBUG, "results", "frame %d, %d results, keyframe %d");
+    private static final Trace.Event TRACE_IDENTITY =
+            TRACE.register(Log.DEBUG, "identity", "id %d, similarity %.2f, class %d, tracked %d");
+
+    /**
+     * Keyframe scheduling: the detector runs every KEYFRAME_MIN_INTERVAL to KEYFRAME_MAX_INTERVAL
+     * frames, adapted to how far flow-propagated boxes drift from the next detections. Equal bounds
+     * fix the interval; KEYFRAME_MAX_INTERVAL = 1 runs the detector on every frame.
+     */
+    private static final int KEYFRAME_MIN_INTERVAL = 1;
+    private static final int KEYFRAME_MAX_INTERVAL = 6;
+    /** Mean 1 - IoU between propagated and detected boxes above which keyframes come sooner. */
+    private static final float KEYFRAME_TARGET_DRIFT = 0.3f;
+    /** Propagated boxes that kept fewer of their corners than this are dropped and a keyframe is requested. */
+    private static final float MINIMUM_PROPAGATION_QUALITY = 0.5f;
+    private static final int FLOW_WORKING_WIDTH = 480;
+    private static final int FLOW_CORNERS_PER_BOX = 12;
+
+    private final KeyframeScheduler keyframes =
+            new KeyframeScheduler(KEYFRAME_MIN_INTERVAL, KEYFRAME_MAX_INTERVAL, KEYFRAME_TARGET_DRIFT);
+
+    /**
+     * Motion gating: a keyframe is skipped and the last detections are reused while the scene has
+     * not changed since they were made and the motor is idle. Detections are refreshed at least
+     * every MOTION_MAX_STALE_MS.
+     */
+    private static final boolean MOTION_GATING = true;
+    private static final long MOTION_MAX_STALE_MS = 1000;
+    private final MotionGate motionGate = new MotionGate(
+            MotionGate.DEFAULT_SAMPLE_WIDTH,
+            MotionGate.DEFAULT_BLOCK_SIZE,
+            MotionGate.DEFAULT_THRESHOLD,
+            MotionGate.DEFAULT_CHANGED_FRACTION,
+            MOTION_MAX_STALE_MS);
+    /** Tier of the detections the gate compares against. Used on the preprocess stage only. */
+    private int motionGateTier = -1;
+
+    /**
+     * Window inference: once the target is found, keyframes run the detector on a window of
+     * ROI_MARGIN times the target's size around its predicted position instead of the whole frame,
+     * and the fast tier is used unless a model button chose the tier. Every
+     * ROI_FULL_FRAME_INTERVAL-th keyframe, and every keyframe after ROI_MAX_MISSES windows without
+     * the target, covers the full frame again.
+     */
+    private static final boolean ROI_INFERENCE = true;
+    private static final float ROI_MARGIN = 3f;
+    private static final float ROI_MIN_SIZE = 0.2f;
+    private static final float ROI_MAX_AREA = 0.6f;
+    private static final int ROI_FULL_FRAME_INTERVAL = 8;
+    private static final int ROI_MAX_MISSES = 2;
+    private final RoiPlanner roiPlanner =
+            new RoiPlanner(ROI_MARGIN, ROI_MIN_SIZE, ROI_MAX_AREA, ROI_FULL_FRAME_INTERVAL, ROI_MAX_MISSES);
+    /**
+     * Windows are cropped from the analysis frame, not from the camera's full resolution, so while
+     * the ROI is locked analysis frames are sized for the smallest window, ROI_MIN_SIZE of the
+     * frame, to hold a full fast tier input. The size is kept for ROI_ANALYSIS_HOLD_MS after the
+     * ROI unlocks and does not depend on the tier, so lock changes and the tier switches they cause
+     * do not reconfigure the camera every time.
+     */
+    private static final long ROI_ANALYSIS_HOLD_MS = 3000;
+    private volatile boolean roiAnalysis = false;
+    /** Used on the postprocess stage only. */
+    private long roiAnalysisUntilMs = 0;
+    /** Used on the preprocess stage only. */
+    private final float[] roiCenter = new float[2];
+    private final float[] roiWindow = new float[4];
+    private volatile boolean openCvLoaded = false;
+    /** Used on the postprocess stage only. */
+    private FlowPropagator flowPropagator;
+    /**
+     * Results of the previous frame through the postprocess stage, and their boxes in model input
+     * coordinates. The overlay maps its own copies into frame pixels, but the boxes are snapshotted
+     * anyway so nothing later on the stage can move what the next frame starts from.
+     */
+    private List<Classifier.Recognition> previousResults;
+    private final CarriedDetections previousBoxes = new CarriedDetections();
+    private final RectF mappedBox = new RectF();
+    private float[] flowBoxes = new float[0];
+    private float[] flowQuality = new float[0];
+    private float[] detectedBoxes = new float[0];
+
+    /**
+     * Carries the previous frame's boxes into this frame with optical flow. On frames without
+     * detection the propagated boxes become the frame's results; on keyframes their drift from the
+     * detections is reported to the scheduler.
+     */
+    private void propagate(final Frame frame) {
+        if (frame.reused) {
+            // Nothing moved since the previous detections; the flow would carry them over unchanged.
+            final List<Classifier.Recognition> reused = new ArrayList<>();
+            if (previousResults != null && previousBoxes.isFor(frame.inputWidth, frame.inputHeight)) {
+                final int count = previousBoxes.size();
+                if (flowBoxes.length < count * 4) {
+                    flowBoxes = new float[count * 4];
+                    flowQuality = new float[count];
+                }
+                previousBoxes.copyTo(flowBoxes);
+                for (int i = 0; i < count; i++) {
+                    final RectF location = new RectF(
+                            flowBoxes[i * 4], flowBoxes[i * 4 + 1], flowBoxes[i * 4 + 2], flowBoxes[i * 4 + 3]);
+                    final Classifier.Recognition source = previousResults.get(i);
+                    reused.add(new Classifier.Recognition(source.getId(), source.getTitle(),
+                            source.getConfidence(), location, source.getDetectedClass()));
+                }
+            }
+            frame.results = reused;
+            return;
+        }
+        if (!openCvLoaded) {
+            carry(frame);
+            return;
+        }
+        if (flowPropagator == null) {
+            flowPropagator = new FlowPropagator(FLOW_WORKING_WIDTH, FLOW_CORNERS_PER_BOX);
+        }
+
+        final List<Classifier.Recognition> previous = previousResults;
+        final boolean canPropagate = flowPropagator.advance(frame.yuv)
+                && previous != null
+                && previousBoxes.isFor(frame.inputWidth, frame.inputHeight);
+        final List<Classifier.Recognition> propagated = new ArrayList<>();
+        int count = 0;
+        if (canPropagate && !previous.isEmpty()) {
+            count = previousBoxes.size();
+            if (flowQuality.length < count) {
+                flowBoxes = new float[count * 4];
+                flowQuality = new float[count];
+            }
+            previousBoxes.propagate(
+                    (boxes, n) -> mapBoxes(frame.cropToFrameTransform, boxes, n),
+                    flowPropagator,
+                    (boxes, n) -> mapBoxes(frame.frameToCropTransform, boxes, n),
+                    flowBoxes, flowQuality);
+            for (int i = 0; i < count; i++) {
+                if (flowQuality[i] < MINIMUM_PROPAGATION_QUALITY) {
+                    continue;
+                }
+                final RectF location = new RectF(
+                        flowBoxes[i * 4], flowBoxes[i * 4 + 1], flowBoxes[i * 4 + 2], flowBoxes[i * 4 + 3]);
+                final Classifier.Recognition source = previous.get(i);
+                propagated.add(new Classifier.Recognition(source.getId(), source.getTitle(),
+                        source.getConfidence(), location, source.getDetectedClass()));
+            }
+        }
+
+        if (frame.keyframe) {
+            // A window only shows part of what was propagated; its detections say nothing about the rest.
+            if (canPropagate && !frame.roi) {
+                detectedBoxes = toBoxes(frame.results, detectedBoxes);
+                keyframes.reportDrift(
+                        KeyframeScheduler.drift(flowBoxes, count, detectedBoxes, frame.results.size()));
+            }
+        } else {
+            if (!canPropagate || propagated.size() < count) {
+                // Lost the flow of at least one box; let the detector find it again.
+                keyframes.requestKeyframe();
+            }
+            frame.results = propagated;
+        }
+        carry(frame);
+    }
+
+    /** Keeps the frame's results, and a snapshot of their boxes, for the next frame. */
+    private void carry(final Frame frame) {
+        previousResults = frame.results;
+        detectedBoxes = toBoxes(frame.results, detectedBoxes);
+        previousBoxes.set(detectedBoxes, frame.results.size(), frame.inputWidth, frame.inputHeight);
+    }
+
+    /** Writes the boxes of {@code recognitions} to {@code boxes}, grown if too small, and returns it. */
+    private static float[] toBoxes(final List<Classifier.Recognition> recognitions, float[] boxes) {
+        if (boxes.length < recognitions.size() * 4) {
+            boxes = new float[recognitions.size() * 4];
+        }
+        for (int i = 0; i < recognitions.size(); i++) {
+            final RectF location = recognitions.get(i).getLocation();
+            boxes[i * 4] = location.left;
+            boxes[i * 4 + 1] = location.top;
+            boxes[i * 4 + 2] = location.right;
+            boxes[i * 4 + 3] = location.bottom;
+        }
+        return boxes;
+    }
+
+    private void mapBoxes(final Matrix transform, final float[] boxes, final int count) {
+        for (int i = 0; i < count; i++) {
+            mappedBox.set(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]);
+            transform.mapRect(mappedBox);
+            boxes[i * 4] = mappedBox.left;
+            boxes[i * 4 + 1] = mappedBox.top;
+            boxes[i * 4 + 2] = mappedBox.right;
+            boxes[i * 4 + 3] = mappedBox.bottom;
+        }
+    }
+
+    /** Per-frame state handed from one pipeline stage to the next. */
+    private static class Frame {
+        long timestamp;
+        long startTime;
+        boolean holdsCameraBuffer;
+        /** Size of the camera frame, which the boxes are mapped back into. */
+        int frameWidth;
+        int frameHeight;
+        /** Quality tier of the detector. */
+        int tier;
+        long inferenceMs;
+        YoloClassifier detector;
+        int inputWidth;
+        int inputHeight;
+        /** Area of the input covered by the frame; boxes are normalized against it. */
+        RectF inputContent;
+        /** Whether the detector runs on this frame; otherwise boxes are propagated by flow. */
+        boolean keyframe;
+        /** Whether the motion gate skipped the detector and the previous detections are reused. */
+        boolean reused;
+        /** Whether the detector ran on a window around the target rather than the whole frame. */
+        boolean roi;
+        /** Area of the rotated frame the input covers, see {@link YuvTensorConverter#getWindow}. */
+        final float[] window = new float[4];
+        Matrix frameToCropTransform;
+        Matrix cropToFrameTransform;
+        InputTensorPool inputPool;
+        InputTensorPool.Tensor input;
+        /** Copy of the camera planes kept for re-identification crops. */
+        final YuvPlanes yuv = new YuvPlanes();
+        List<Classifier.Recognition> results;
+    }
+
+    private FramePipeline<Frame> pipeline;
+    private final ArrayBlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<>(FRAMES_IN_FLIGHT);
+
+    /** How long the motor keeps following the predicted target after its last detection. */
+    private static final long TARGET_MAX_COAST_MS = 500;
+    private final TargetEstimator targetEstimator = new TargetEstimator(1f, 1e-4f, TARGET_MAX_COAST_MS);
+    private final float[] predictedTarget = new float[2];
+    private String targetId;
+    private final PanController panController = new PanController(
+            new PanController.Motor() {
+                @Override
+                public void turnLeft(final int speed) {
+                    PivoSdk.getInstance().turnLeftContinuously(speed);
+                }
+
+                @Override
+                public void turnRight(final int speed) {
+                    PivoSdk.getInstance().turnRightContinuously(speed);
+                }
+
+                @Override
+                public void stop() {
+                    PivoSdk.getInstance().stop();
+                }
+            },
+            CENTER_POSITION, padding_position);
+
+    /**
+     * Steers towards where the target is predicted to be now. Runs for every camera frame, so the
+     * motor is updated at camera rate however long inference takes.
+     */
+    private void steer() {
+        final long start = stageStats.start();
+        if (targetEstimator.predict(SystemClock.uptimeMillis(), predictedTarget)) {
+            panController.steer(predictedTarget[0]);
+        } else {
+            panController.stop();
+        }
+        stageStats.stop(STAT_MOTOR, start);
+    }
 
     @Override
     protected void processImage() {
         ++timestamp;
-        final long currTimestamp = timestamp;
         trackingOverlay.postInvalidate();
+        steer();
 
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
+        final Frame frame = freeFrames.poll();
+        if (frame == null) {
+            // Every frame is still in flight; skip this one rather than stall the camera.
             readyForNextImage();
             return;
         }
-        computingDetection = true;
-        LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
 
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-        feature_bitmap = Bitmap.createBitmap(rgbFrameBitmap);
+        frame.timestamp = timestamp;
+        frame.startTime = SystemClock.uptimeMillis();
+        frame.holdsCameraBuffer = true;
+        pipeline.submit(frame);
+    }
+
+    private void recycleFrame(final Frame frame) {
+        if (frame.holdsCameraBuffer) {
+            frame.holdsCameraBuffer = false;
+            readyForNextImage();
+        }
+        releaseInput(frame);
+        frame.results = null;
+        freeFrames.offer(frame);
+    }
+
+    private static void releaseInput(final Frame frame) {
+        if (frame.input != null) {
+            frame.inputPool.release(frame.input);
+            frame.input = null;
+        }
+    }
+
+    /**
+     * Stage 1: builds the rotated, resized detector input straight from the camera planes and keeps
+     * a copy of the planes for re-identification.
+     */
+    private boolean preprocess(final Frame frame) {
+        try {
+            if (Trace.ENABLED) {
+                TRACE.record(TRACE_PREPARE, frame.timestamp);
+            }
 
+            frame.detector = detector;
+            if (frame.detector == null) {
+                // The first tier is still loading.
+                return false;
+            }
+            frame.tier = tierOf(frame.detector);
+            frame.inputWidth = frame.detector.getInputWidth();
+            frame.inputHeight = frame.detector.getInputHeight();
+            // Without OpenCV there is no flow to carry boxes between keyframes.
+            frame.keyframe = keyframes.nextFrame() || !openCvLoaded;
+
+            final YuvPlanes planes = getYuvPlanes();
+            // The analysis stream changes size with the detector tier.
+            frame.frameWidth = planes.getWidth();
+            frame.frameHeight = planes.getHeight();
+            frame.reused = false;
+            if (frame.keyframe && MOTION_GATING) {
+                if (frame.tier != motionGateTier) {
+                    motionGate.invalidate();
+                    motionGateTier = frame.tier;
+                }
+                if (!motionGate.shouldRun(planes, panController.getLastVelocity() != 0, frame.startTime)) {
+                    frame.keyframe = false;
+                    frame.reused = true;
+                }
+            }
+            if (frame.keyframe) {
+                frame.inputPool = frame.detector.getInputPool();
+                frame.input = frame.inputPool.acquire();
+                if (frame.input == null) {
+                    // Every input tensor of this detector is still queued for inference.
+                    keyframes.requestKeyframe();
+                    motionGate.invalidate();
+                    return false;
+                }
 
-        Mat resize = new Mat();
-        Utils.bitmapToMat(rgbFrameBitmap, resize);
-        Imgproc.resize(resize, resize, new org.opencv.core.Size(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE));
+                final int rotation = YuvTensorConverter.rotationForSensor(sensorOrientation);
+                planWindow(frame, planes, rotation);
+
+                final long start = stageStats.start();
+                if (frame.input.isQuantized()) {
+                    inputConverter.convert(
+                            planes,
+                            rotation,
+                            frame.inputWidth,
+                            frame.inputHeight,
+                            frame.input.getBytes(),
+                            0,
+                            frame.inputPool.getPixelTable());
+                } else {
+                    inputConverter.convert(
+                            planes,
+                            rotation,
+                            frame.inputWidth,
+                            frame.inputHeight,
+                            frame.input.getFloats(),
+                            0);
+                }
+                stageStats.stop(STAT_YUV_TO_TENSOR, start);
+                inputConverter.getWindow(frame.window);
+            }
+            final long start = stageStats.start();
+            frame.yuv.copyFrom(planes);
+            stageStats.stop(STAT_PLANE_COPY, start);
+        } finally {
+            // The camera buffers are no longer needed once the input and the plane copy are built.
+            frame.holdsCameraBuffer = false;
+            readyForNextImage();
+        }
 
-        if (prev_size != TF_OD_API_INPUT_SIZE) {
-            center = new Point(resize.height() / 2, resize.width() / 2);
-            rotateMatrix = Imgproc.getRotationMatrix2D(center, sensorOrientation % 360 != 0 ? sensorOrientation - 180 : sensorOrientation - 0, 1.0);
-            input_bitmap = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, Config.ARGB_8888);
-            prev_size = TF_OD_API_INPUT_SIZE;
+        if (prevInputWidth != frame.inputWidth || prevInputHeight != frame.inputHeight
+                || prevFrameWidth != frame.frameWidth || prevFrameHeight != frame.frameHeight) {
+            prevInputWidth = frame.inputWidth;
+            prevInputHeight = frame.inputHeight;
+            prevFrameWidth = frame.frameWidth;
+            prevFrameHeight = frame.frameHeight;
 
             frameToCropTransform =
                     ImageUtils.getTransformationMatrix(
-                            previewWidth, previewHeight,
-                            TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE,
-                            sensorOrientation, MAINTAIN_ASPECT);
+                            frame.frameWidth, frame.frameHeight,
+                            frame.inputWidth, frame.inputHeight,
+                            sensorOrientation, MAINTAIN_ASPECT, true);
 
             cropToFrameTransform = new Matrix();
             frameToCropTransform.invert(cropToFrameTransform);
+
+            inputContent = new RectF(0, 0, frame.frameWidth, frame.frameHeight);
+            frameToCropTransform.mapRect(inputContent);
         }
 
-        Imgproc.warpAffine(resize, resize, rotateMatrix, new org.opencv.core.Size(resize.height(), resize.width()));
-        Utils.matToBitmap(resize, input_bitmap);
+        frame.frameToCropTransform = frameToCropTransform;
+        frame.cropToFrameTransform = cropToFrameTransform;
+        frame.inputContent = inputContent;
+        return true;
+    }
 
-        readyForNextImage();
+    /** Points the input converter at the full frame or at the window the ROI planner picks. */
+    private void planWindow(final Frame frame, final YuvPlanes planes, final int rotation) {
+        frame.roi = false;
+        if (ROI_INFERENCE) {
+            final boolean swap = rotation % 180 != 0;
+            roiPlanner.setGeometry(
+                    swap ? planes.getHeight() : planes.getWidth(),
+                    swap ? planes.getWidth() : planes.getHeight(),
+                    frame.inputWidth,
+                    frame.inputHeight);
+            final boolean predicted = targetEstimator.predict(frame.startTime, roiCenter);
+            frame.roi = roiPlanner.plan(predicted ? roiCenter : null, roiWindow);
+        }
+        if (frame.roi) {
+            inputConverter.setRoi(roiWindow[0], roiWindow[1], roiWindow[2], roiWindow[3]);
+        } else {
+            inputConverter.clearRoi();
+        }
+    }
 
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        LOGGER.i("Running detection on image " + currTimestamp);
-                        final long startTime = SystemClock.uptimeMillis();
+    /**
+     * Moves the detections of a window keyframe from window input coordinates into the input
+     * coordinates of a full frame, which the rest of postprocessing works in.
+     */
+    private static void mapWindowResults(final Frame frame) {
+        final RectF content = frame.inputContent;
+        final float scaleX = content.width() * frame.window[2] / frame.inputWidth;
+        final float scaleY = content.height() * frame.window[3] / frame.inputHeight;
+        final float offsetX = content.left + content.width() * frame.window[0];
+        final float offsetY = content.top + content.height() * frame.window[1];
+        for (final Classifier.Recognition result : frame.results) {
+            final RectF location = result.getLocation();
+            location.set(
+                    offsetX + scaleX * location.left,
+                    offsetY + scaleY * location.top,
+                    offsetX + scaleX * location.right,
+                    offsetY + scaleY * location.bottom);
+            result.setLocation(location);
+        }
+    }
 
-                        List<Classifier.Recognition> temp = new ArrayList<>();
+    /** Stage 2: runs the detector on keyframes. */
+    private boolean infer(final Frame frame) {
+        if (!frame.keyframe) {
+            return true;
+        }
 
-                        try {
-                            temp = detector.recognizeImage(input_bitmap);
-                            temp = filter(feature_bitmap, temp);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        List<Classifier.Recognition> results;
+        final long start = SystemClock.uptimeMillis();
+        try {
+            frame.results = frame.detector.recognizeTensor(frame.input);
+            if (frame.results == null) {
+                frame.results = new ArrayList<>();
+            }
+        } catch (Exception e) {
+            LOGGER.e(e, "Inference failed");
+            frame.results = new ArrayList<>();
+        } finally {
+            releaseInput(frame);
+        }
+        frame.inferenceMs = SystemClock.uptimeMillis() - start;
+        if (Trace.ENABLED) {
+            TRACE.record(TRACE_INFER, frame.timestamp, frame.tier, frame.inferenceMs);
+        }
+        return true;
+    }
 
-                        if (selectedObject.equals("all")) {
-                            results = temp;
-                        } else {
-                            results = new ArrayList<>();
+    /** Stage 3: re-identification, target selection, motor control and tracking. */
+    private boolean postprocess(final Frame frame) {
+        if (frame.keyframe && frame.roi) {
+            mapWindowResults(frame);
+        }
+        long step = stageStats.start();
+        propagate(frame);
+        step = stageStats.stop(STAT_FLOW, step);
+        List<Classifier.Recognition> temp = frame.results;
+
+        track(temp, frame.inputWidth, frame.inputHeight, frame.timestamp);
+        stageStats.stop(STAT_TRACKER, step);
+        if (!temp.isEmpty()) {
+            try {
+                temp = filter(frame.yuv, temp, frame.inputContent, frame.timestamp);
+            } catch (Exception e) {
+                LOGGER.e(e, "Could not filter the detections");
+            }
+        }
+        List<Classifier.Recognition> results;
 
-                            for (Classifier.Recognition record : temp) {
-                                if (record.getTitle().equals(selectedObject)) results.add(record);
-                            }
-                        }
-                        if (results.size() > 0) {
-                            final float position = results.get(0).getLocation().centerX() / TF_OD_API_INPUT_SIZE;
-                            String id = results.get(0).getId();
-
-                            runInBackground(() -> {
-                                float position_thread = position;
-                                float position_adj;
-                                int velocity;
-
-                                if (CENTER_POSITION - padding_position < position_thread && position_thread < CENTER_POSITION + padding_position) {
-                                    position_adj = 0;
-                                } else {
-                                    position_adj = (position_thread - 0.5f) * 2;
-                                }
-
-                                velocity = position_adj != 0 ? (int) (6 / position_adj) : 0;
-
-                                if (velocity > 128){
-                                    velocity = 128;
-                                } else if (velocity < -128) {
-                                    velocity = -128;
-                                }
-
-                                if (velocity < 0) {
-                                    PivoSdk.getInstance().turnLeftContinuously((-velocity / 2) * 2);
-                                } else if (velocity > 0) {
-                                    PivoSdk.getInstance().turnRightContinuously((velocity / 2) * 2);
-                                } else {
-                                    PivoSdk.getInstance().stop();
-                                }
-
-                                Log.i("Tracking Log", "Object ID: " + id + " position: " + position_adj + " angular velocity: " + velocity);
-
-                                if (!(prev_position - padding_position < position_adj && position_adj < prev_position + padding_position)) {
-                                    frame_count++;
-                                    error_rate_acc += Math.abs(prev_position - position_adj);
-
-                                    error_rate = error_rate_acc / frame_count;
-                                }
-                                prev_position = position_adj;
-                            });
-
-                            runOnUiThread(() -> {
-                                ((TextView) findViewById(R.id.object_center_position)).setText(position + "");
-                                ((TextView) findViewById(R.id.error_rate)).setText("" + error_rate + "%");
-                            });
-
-                            Log.i("Position", "" + position);
-                        } else {
-                            PivoSdk.getInstance().stop();
-                            no_detected_counts ++;
-                        }
+        if (selectedObject.equals("all")) {
+            results = temp;
+        } else {
+            results = new ArrayList<>();
 
-                        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+            for (Classifier.Recognition record : temp) {
+                if (record.getTitle().equals(selectedObject)) results.add(record);
+            }
+        }
+        if (results.size() > 0) {
+            final RectF target = results.get(0).getLocation();
+            final RectF content = frame.inputContent;
+            final float position = TargetEstimator.position(target.left, target.right, content.left, content.width());
+            final float positionY = TargetEstimator.position(target.top, target.bottom, content.top, content.height());
+            String id = results.get(0).getId();
+
+            if (!id.equals(targetId)) {
+                // A different object is the target now; its motion says nothing about the last one.
+                targetEstimator.reset();
+                targetId = id;
+            }
+            targetEstimator.update(position, positionY, frame.startTime);
+            if (frame.keyframe) {
+                roiPlanner.onTarget(position, positionY,
+                        target.width() / content.width(), target.height() / content.height());
+            }
 
-                        Log.e("CHECK", "run: " + results.size());
+            final float position_adj = panController.offset(position);
 
-                        final List<Classifier.Recognition> mappedRecognitions =
-                                new LinkedList<Classifier.Recognition>();
+            if (Trace.ENABLED) {
+                TRACE.record(TRACE_TARGET, frame.timestamp, position, position_adj, panController.getLastVelocity());
+            }
 
-                        for (final Classifier.Recognition result : results) {
-                            final RectF location = result.getLocation();
-                            if (location != null) {
+            if (!(prev_position - padding_position < position_adj && position_adj < prev_position + padding_position)) {
+                frame_count++;
+                error_rate_acc += Math.abs(prev_position - position_adj);
 
-                                cropToFrameTransform.mapRect(location);
+                error_rate = error_rate_acc / frame_count;
+            }
+            prev_position = position_adj;
 
-                                result.setLocation(location);
-                                mappedRecognitions.add(result);
-                            }
-                        }
+            runOnUiThread(() -> {
+                ((TextView) findViewById(R.id.object_center_position)).setText(position + "");
+                ((TextView) findViewById(R.id.error_rate)).setText("" + error_rate + "%");
+            });
+        } else {
+            // The motor keeps following the prediction until the estimator's coast time runs out.
+            no_detected_counts ++;
+            if (frame.keyframe) {
+                roiPlanner.onMiss();
+            }
+        }
+
+        lastProcessingTimeMs = SystemClock.uptimeMillis() - frame.startTime;
+        if (frame.keyframe && ROI_INFERENCE) {
+            updateRoiAnalysis(roiPlanner.isLocked());
+        }
+        if (frame.keyframe && ADAPTIVE_QUALITY) {
+            if (ROI_INFERENCE && roiPlanner.isLocked() && manualTier < 0) {
+                // Zoomed windows give the small model the detail the large one gets from the full frame.
+                if (qualityController.getTier() != TIER_FAST) {
+                    qualityController.setTier(TIER_FAST, "roi");
+                    applyTier(TIER_FAST);
+                }
+            } else {
+                final int tier = qualityController.onFrame(frame.tier, frame.inferenceMs, lastProcessingTimeMs);
+                if (tier != frame.tier) {
+                    LOGGER.i("Switching detector to %s: %s", QUALITY_TIERS[tier], qualityController);
+                    applyTier(tier);
+                }
+            }
+        }
 
-                        tracker.trackResults(mappedRecognitions, currTimestamp);
-                        trackingOverlay.postInvalidate();
+        if (Trace.ENABLED) {
+            TRACE.record(TRACE_RESULTS, frame.timestamp, results.size(), frame.keyframe ? 1 : 0);
+        }
+
+        final List<Classifier.Recognition> mappedRecognitions =
+                new LinkedList<Classifier.Recognition>();
+
+        for (final Classifier.Recognition result : results) {
+            final RectF location = result.getLocation();
+            if (location != null) {
+                // A copy: the results stay in model input coordinates for the next frame.
+                frame.cropToFrameTransform.mapRect(location);
+                mappedRecognitions.add(new Classifier.Recognition(result.getId(), result.getTitle(),
+                        result.getConfidence(), location, result.getDetectedClass()));
+            }
+        }
+
+        if (frame.frameWidth != trackerFrameWidth || frame.frameHeight != trackerFrameHeight) {
+            trackerFrameWidth = frame.frameWidth;
+            trackerFrameHeight = frame.frameHeight;
+            tracker.setFrameConfiguration(trackerFrameWidth, trackerFrameHeight, sensorOrientation);
+        }
+        tracker.trackResults(mappedRecognitions, frame.timestamp);
+        trackingOverlay.postInvalidate();
 
-                        computingDetection = false;
+        if (frame.timestamp % METRICS_LOG_INTERVAL == 0) {
+            LOGGER.d("%s", pipeline);
+            LOGGER.d("Embeddings ran on %d of %d frames, %d confirmed tracks",
+                    embeddedFrames, trackedFrames, objectTracker.getTrackCount(ObjectTracker.CONFIRMED));
+            LOGGER.d("Detector %s", keyframes);
+            LOGGER.d("Motion gate %s", motionGate);
+            LOGGER.d("ROI %s", roiPlanner);
+            LOGGER.d("Quality %s", qualityController);
+            LOGGER.d("Inference by configuration:\n%s", frame.detector.getLatencyReport());
+            LOGGER.d("Stage latency:\n%s\n%s", stageStats, frame.detector.getStatString());
+        }
 
-                        runOnUiThread(
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showFrameInfo(previewWidth + "x" + previewHeight);
-                                        showCropInfo(TF_OD_API_INPUT_SIZE + "x" + TF_OD_API_INPUT_SIZE);
-                                        showInference(lastProcessingTimeMs + "ms");
-                                    }
-                                });
+        final int inputWidth = frame.inputWidth;
+        final int inputHeight = frame.inputHeight;
+        final int frameWidth = frame.frameWidth;
+        final int frameHeight = frame.frameHeight;
+        runOnUiThread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        showFrameInfo(frameWidth + "x" + frameHeight);
+                        showCropInfo(inputWidth + "x" + inputHeight);
+                        showInference(lastProcessingTimeMs + "ms");
                     }
                 });
+        return true;
     }
 
     BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
@@ -406,6 +970,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
             switch (status) {
                 case LoaderCallbackInterface.SUCCESS: {
                     Log.i("OpenCV", "OpenCV loaded successfully");
+                    openCvLoaded = true;
 
                 }
                 break;
@@ -417,8 +982,14 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         }
     };
 
-    public void onResume() {
+    public synchronized void onResume() {
         super.onResume();
+        if (pipeline != null) {
+            pipeline.start();
+        }
+        if (roiDumpSink != null) {
+            roiDumpSink.start();
+        }
         if (!OpenCVLoader.initDebug()) {
             Log.d("OpenCV", "Internal OpenCV library not found. Using OpenCV Manager for initialization");
             OpenCVLoader.initAsync("4.6.0", this, mLoaderCallback);
@@ -428,90 +999,260 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         }
     }
 
-    private int idSequence = 0;
-    private Map<String, Object[]> featureMaps = new HashMap<>();
-    private List<List<String>> saved_id_list = new ArrayList<>();
-
-    public double getSimilarity(float[] featureMap1, float[] featureMap2) {
-        if (featureMap1.length != featureMap2.length) {
-            throw new IllegalArgumentException("Feature maps have different lengths");
+    @Override
+    public synchronized void onPause() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        if (roiDumpSink != null) {
+            roiDumpSink.stop();
+        }
+        if (frameRecorder != null) {
+            setFrameRecorder(null);
+            frameRecorder.stop();
+            LOGGER.i("Recorded %d frames to %s, dropped %d",
+                    frameRecorder.getWritten(), frameRecorder.getFile(), frameRecorder.getDropped());
+            frameRecorder = null;
         }
-        double dotProduct = 0;
-        double mag1 = 0;
-        double mag2 = 0;
-        for (int i = 0; i < featureMap1.length; i++) {
-            dotProduct += featureMap1[i] * featureMap2[i];
-            mag1 += featureMap1[i] * featureMap1[i];
-            mag2 += featureMap2[i] * featureMap2[i];
+        if (Trace.ENABLED && isDebug()) {
+            writeTrace();
         }
-        double similarity = dotProduct / (Math.sqrt(mag1) * Math.sqrt(mag2));
-        return similarity < 0 ? 0 : similarity;
+        super.onPause();
     }
 
-    private int roi_sequence = 0;
-    private List<Classifier.Recognition> filter(Bitmap bitmap, List<Classifier.Recognition> detections) {
-        Mat original = new Mat();
-        bitmapToMat(bitmap, original);
-        List<String> id_list = new ArrayList<>();
-
-        for (Classifier.Recognition detection : detections) {
-            float confidence = detection.getConfidence();
-            RectF location = detection.getLocation();
-            String title = detection.getTitle();
+    /** Starts recording the camera frames into a new file under the app's external files. */
+    private void startRecording() {
+        final File dir = getExternalFilesDir("recordings");
+        if (dir == null) {
+            return;
+        }
+        final FrameRecorder recorder =
+                new FrameRecorder(new File(dir, System.currentTimeMillis() + ".yuv"), RECORD_QUEUE);
+        try {
+            recorder.start();
+        } catch (IOException e) {
+            LOGGER.e(e, "Could not start recording to %s", recorder.getFile());
+            return;
+        }
+        frameRecorder = recorder;
+        setFrameRecorder(recorder);
+    }
 
-            Point center = new Point(original.height() / 2, original.height() / 2);
-            Mat rotateMatrix = Imgproc.getRotationMatrix2D(center, sensorOrientation % 360 != 0 ? sensorOrientation - 180 : sensorOrientation - 0, 1.0);
-            Imgproc.warpAffine(original, original, rotateMatrix, new org.opencv.core.Size(original.height(), original.width()));
+    /** Decodes the trace ring into trace.txt and trace.json in the app's external files. */
+    private void writeTrace() {
+        final File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            return;
+        }
+        for (final boolean json : new boolean[] {false, true}) {
+            final File file = new File(dir, json ? "trace.json" : "trace.txt");
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+                TRACE.dump(out, json);
+            } catch (IOException e) {
+                LOGGER.e(e, "Could not write %s", file);
+            }
+        }
+        LOGGER.i("Wrote %d trace records to %s", TRACE.getRecorded(), dir);
+    }
 
-            if (confidence < MINIMUM_CONFIDENCE_TF_OD_API) continue;
+    /** Identities kept per class; the least recently seen one is replaced when full. */
+    private static final int GALLERY_CAPACITY_PER_CLASS = 128;
+    /** Identities not seen for this many frames (about five minutes) are forgotten. */
+    private static final long GALLERY_MAX_AGE_FRAMES = 30 * 60 * 5;
+    private static final float MINIMUM_SIMILARITY = 0.50f;
 
-            // 인식 된 부분의 ROI 영역 추출
-            Rect roi_area = new Rect((int) (location.left / TF_OD_API_INPUT_SIZE * original.width()),
-                                     (int) (location.top / TF_OD_API_INPUT_SIZE * original.height()),
-                                     (int) (location.width() / TF_OD_API_INPUT_SIZE * original.width()),
-                                     (int) (location.height() / TF_OD_API_INPUT_SIZE * original.height()));
+    private EmbeddingGallery gallery;
+    private final int[] matchId = new int[1];
+    private final float[] matchScore = new float[1];
+    private List<List<String>> saved_id_list = new ArrayList<>();
 
-            Mat image = original.submat(roi_area);
-            Imgproc.resize(image, image, new org.opencv.core.Size(FEATURE_INPUT_SIZE, FEATURE_INPUT_SIZE), Imgproc.INTER_LINEAR);
+    /** Writes the re-ID crops to storage for debugging. */
+    private static final boolean DUMP_ROIS = false;
+    private static final int ROI_DUMP_QUEUE = 16;
+
+    private final YuvTensorConverter roiConverter = new YuvTensorConverter();
+    private RoiDumpSink roiDumpSink;
+    private int[] roiPixels;
+    private float[] features = new float[0];
+
+    /**
+     * Records the raw camera frames for replay with RecordedFrameSource. Eight 1080p frames, about
+     * 32 MB, ride out a quarter second of storage stall.
+     */
+    private static final boolean RECORD_FRAMES = false;
+    private static final int RECORD_QUEUE = 8;
+    private FrameRecorder frameRecorder;
+
+    /** Tracks across frames by box overlap and motion, so the embedding model runs only for new tracks. */
+    private static final int TRACKER_CAPACITY = 64;
+    private final ObjectTracker objectTracker = new ObjectTracker(
+            TRACKER_CAPACITY,
+            MINIMUM_CONFIDENCE_TF_OD_API,
+            ObjectTracker.DEFAULT_LOW_SCORE,
+            ObjectTracker.DEFAULT_MIN_IOU,
+            ObjectTracker.DEFAULT_CONFIRM_HITS,
+            ObjectTracker.DEFAULT_MAX_LOST_FRAMES);
+    private int trackerInputWidth = 0;
+    private int trackerInputHeight = 0;
+    private float[] trackBoxes = new float[0];
+    private float[] trackScores = new float[0];
+    private int[] trackClasses = new int[0];
+    private int[] trackSlots = new int[0];
+    private int[] embedIndex = new int[0];
+    private int trackedFrames = 0;
+    private int embeddedFrames = 0;
+
+    /** Identity carried by the confirmed track of detection {@code k}, or -1. */
+    private int trackedIdentity(final int k) {
+        final int slot = trackSlots[k];
+        if (slot < 0 || objectTracker.getState(slot) != ObjectTracker.CONFIRMED) {
+            return -1;
+        }
+        return objectTracker.getIdentity(slot);
+    }
 
-            Imgcodecs.imwrite("/sdcard/" + (roi_sequence++) + ".jpg", image);
+    /**
+     * Crops a detection straight from the frame's YUV planes into the embedding model's batch input.
+     * Detections are in rotated model input coordinates; relative to the area of the input the
+     * frame covers, they are the normalized rotated frame coordinates the converter takes its ROI
+     * in, so the full frame is never rotated.
+     */
+    private void fillRoi(final YuvPlanes yuv, final RectF location, final RectF content,
+                         final FloatBuffer dst, final int offset) {
+        roiConverter.setRoi(
+                (location.left - content.left) / content.width(),
+                (location.top - content.top) / content.height(),
+                (location.right - content.left) / content.width(),
+                (location.bottom - content.top) / content.height());
+        roiConverter.convert(
+                yuv,
+                YuvTensorConverter.rotationForSensor(sensorOrientation),
+                FEATURE_INPUT_SIZE,
+                FEATURE_INPUT_SIZE,
+                dst,
+                offset);
+
+        if (DUMP_ROIS && roiDumpSink != null) {
+            final int size = FEATURE_INPUT_SIZE * FEATURE_INPUT_SIZE;
+            if (roiPixels == null) {
+                roiPixels = new int[size];
+            }
+            for (int i = 0; i < size; i++) {
+                final int index = offset + i * 3;
+                roiPixels[i] = 0xff000000
+                        | ((int) (dst.get(index) * 255 + 0.5f) << 16)
+                        | ((int) (dst.get(index + 1) * 255 + 0.5f) << 8)
+                        | (int) (dst.get(index + 2) * 255 + 0.5f);
+            }
+            roiDumpSink.offer(roiPixels, FEATURE_INPUT_SIZE, FEATURE_INPUT_SIZE);
+        }
+    }
 
-            Bitmap bitmap_image = Bitmap.createBitmap(image.width(), image.height(), Config.ARGB_8888);
-            matToBitmap(image, bitmap_image);
+    /**
+     * Associates the detections of a frame with tracks by overlap and motion. Runs on every frame,
+     * also without detections, so that missed tracks age.
+     */
+    private void track(final List<Classifier.Recognition> detections, final int inputWidth, final int inputHeight,
+                       final long timestamp) {
+        // 모델이 바뀌면 박스 좌표계가 달라지므로 트랙 초기화
+        if (trackerInputWidth != inputWidth || trackerInputHeight != inputHeight) {
+            trackerInputWidth = inputWidth;
+            trackerInputHeight = inputHeight;
+            objectTracker.clear();
+        }
+        final int count = detections.size();
+        if (trackScores.length < count) {
+            trackBoxes = new float[count * 4];
+            trackScores = new float[count];
+            trackClasses = new int[count];
+            trackSlots = new int[count];
+            embedIndex = new int[count];
+        }
+        for (int k = 0; k < count; k++) {
+            final Classifier.Recognition detection = detections.get(k);
+            final RectF location = detection.getLocation();
+            trackBoxes[k * 4] = location.left;
+            trackBoxes[k * 4 + 1] = location.top;
+            trackBoxes[k * 4 + 2] = location.right;
+            trackBoxes[k * 4 + 3] = location.bottom;
+            trackScores[k] = detection.getConfidence();
+            trackClasses[k] = detection.getDetectedClass();
+        }
+        objectTracker.update(trackBoxes, trackScores, trackClasses, count, timestamp, trackSlots);
+        ++trackedFrames;
+    }
 
-            float[] feature_map = extractor.getFeature(bitmap_image);
+    /**
+     * Assigns re-identification IDs. Detections on a confirmed track that already has an identity
+     * keep it without running the embedding model. Must follow {@link #track} for the same frame.
+     */
+    private List<Classifier.Recognition> filter(final YuvPlanes yuv, List<Classifier.Recognition> detections, final RectF inputContent, long timestamp) {
+        List<String> id_list = new ArrayList<>();
+        final int count = detections.size();
+
+        // 트랙으로 ID를 이어받지 못한 후보만 특징 추출
+        int embedCount = 0;
+        for (int k = 0; k < count; k++) {
+            if (detections.get(k).getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API
+                    && trackedIdentity(k) < 0) {
+                embedIndex[embedCount++] = k;
+            }
+        }
 
-            double maxSimular = 0.50;
-            String selectId = "";
-            String simularity_temp = "";
+        // 인식 된 부분의 ROI 영역 추출, 한 번의 배치로 특징 추출
+        final int featureSize = extractor.getFeatureSize();
+        if (embedCount > 0) {
+            if (features.length < embedCount * featureSize) {
+                features = new float[embedCount * featureSize];
+            }
+            final long start = stageStats.start();
+            extractor.getFeatures(embedCount, new FeatureExtract.RoiSource() {
+                @Override
+                public void fill(final int index, final FloatBuffer dst, final int offset) {
+                    fillRoi(yuv, detections.get(embedIndex[index]).getLocation(), inputContent, dst, offset);
+                }
+            }, features);
+            stageStats.stop(STAT_REID, start);
+        }
+        embeddedFrames += embedCount > 0 ? 1 : 0;
 
-            for (String key : featureMaps.keySet()) {
-                float[] prev = (float[]) featureMaps.get(key)[0];
-                String feature_title = (String) featureMaps.get(key)[1];
-                long val_temp = 0;
-                double val;
+        gallery.evictOlderThan(timestamp, GALLERY_MAX_AGE_FRAMES);
 
-                if (!feature_title.equals(title)) continue;
+        int embedded = 0;
+        for (int k = 0; k < count; k++) {
+            Classifier.Recognition detection = detections.get(k);
+            float confidence = detection.getConfidence();
+            if (confidence < MINIMUM_CONFIDENCE_TF_OD_API) continue;
+            String title = detection.getTitle();
 
-                val = getSimilarity(prev, feature_map);
-                val = val < 0 ? 0 : val;
+            String selectId;
 
+            final int identity = trackedIdentity(k);
+            boolean matched;
+            if (identity >= 0) {
+                // 같은 트랙이므로 특징 비교 없이 기존 ID 유지
+                matched = true;
+                matchId[0] = identity;
+                matchScore[0] = 1f;
+            } else {
                 // 유사도 기반으로 기존 ID 검색
-                if (val > maxSimular) {
-                    maxSimular = val;
-                    selectId = key;
-                    simularity_temp = "" + val;
-                }
+                final long start = stageStats.start();
+                matched = gallery.search(title, features, embedded * featureSize, 1,
+                        MINIMUM_SIMILARITY, matchId, matchScore) > 0;
+                stageStats.stop(STAT_GALLERY, start);
             }
 
             boolean confidence_flag = false;
 
             // ID가 검색 되지 않은 경우 다음 번호로 ID 할당
-            if ("".equals(selectId)) {
-                selectId = "" + idSequence++;
-                featureMaps.put(selectId, new Object[]{ feature_map, title });
+            if (!matched) {
+                matchId[0] = gallery.add(title, features, embedded * featureSize, timestamp);
+                selectId = "" + matchId[0];
             }
             else {
+                selectId = "" + matchId[0];
+                gallery.touch(title, matchId[0], timestamp);
+
                 // 일정 시간 이내에 id가 검출되지 않으면 초기화
                 for (List<String> ids : saved_id_list) {
                     for (String id : ids) {
@@ -523,8 +1264,17 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                     if (confidence_flag) break;
                 }
             }
+            if (identity < 0) {
+                embedded++;
+            }
+            if (trackSlots[k] >= 0) {
+                objectTracker.setIdentity(trackSlots[k], matchId[0]);
+            }
 
-            Log.i("id assignment", selectId + "(" + simularity_temp + "%, " + detection.getTitle() + ")");
+            if (Trace.ENABLED) {
+                TRACE.record(TRACE_IDENTITY, matchId[0], matched ? matchScore[0] : 0,
+                        detection.getDetectedClass(), identity >= 0 ? 1 : 0);
+            }
 
             if (confidence_flag) {
                 if (confidence < MINIMUM_CONFIDENCE_TF_OD_API) continue;
@@ -534,7 +1284,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
             id_list.add(selectId);
 
-            detection.setId(selectId); // + "S: " + simularity_temp);
+            detection.setId(selectId);
         }
         if (saved_id_list.size() > save_id_time) {
             saved_id_list.remove(0);
@@ -562,30 +1312,196 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     protected void setUseNNAPI(final boolean isChecked) {
-        runInBackground(() -> detector.setUseNNAPI(isChecked));
+        // NNAPI replaces the GPU delegate, the way YoloClassifier.setUseNNAPI does.
+        reconfigure(options -> options.withNnapi(isChecked).withGpu(!isChecked && gpuSupported));
     }
 
     @Override
     protected void setNumThreads(final int numThreads) {
-        runInBackground(() -> detector.setNumThreads(numThreads));
+        reconfigure(options -> options.withNumThreads(numThreads));
+    }
+
+    private interface OptionsChange {
+        ModelOptions apply(ModelOptions options);
+    }
+
+    /**
+     * Changes the options of every tier. The current detector builds its new interpreter in the
+     * background and keeps running on the old one until it is ready.
+     */
+    private void reconfigure(final OptionsChange change) {
+        tierLoader.execute(() -> {
+            modelOptions = change.apply(modelOptions);
+            if (loadedTier >= 0) {
+                tierDetectors[loadedTier].setOptions(tierOptions(loadedTier));
+            }
+        });
     }
 
     private String model_name = "accuracy";
 
+    /**
+     * Detector tiers, most accurate first. With ADAPTIVE_QUALITY the controller moves between them
+     * to keep inference within the budget of TARGET_FPS; the model buttons force a tier.
+     */
+    private static final int TIER_ACCURACY = 0;
+    private static final int TIER_FAST = 1;
+    private static final String[] QUALITY_TIERS = {"accuracy", "fast"};
+    private static final String[] TIER_MODEL_FILES = {TF_OD_API_MODEL_FILE, TF_OD_API_MODEL_FILE_FAST};
+    private static final int[] TIER_INPUT_SIZES = {TF_OD_API_INPUT_SIZE_ACC, TF_OD_API_INPUT_SIZE_FAST};
+    private static final int[] TIER_OUTPUT_SHAPES = {TF_OD_API_OUTPUT_SHAPE_ACC, TF_OD_API_OUTPUT_SHAPE_FAST};
+    private static final boolean ADAPTIVE_QUALITY = true;
+    /**
+     * Tier last chosen with a model button, or -1. A manual choice keeps ROI windows from forcing
+     * the fast tier for the rest of the session; the controller still steps off it when it is over
+     * budget.
+     */
+    private volatile int manualTier = -1;
+    private static final float TARGET_FPS = 15;
+    private final QualityController qualityController = new QualityController(
+            QUALITY_TIERS, QualityController.Measure.INFERENCE, 1000f / TARGET_FPS,
+            0.15f, 15, 30, 300, 32);
+
+    /** Switches to {@code tier} once its model is loaded; frames keep running on the old one. */
+    private void applyTier(final int tier) {
+        tierLoader.execute(() -> {
+            try {
+                loadTier(tier);
+            } catch (final IOException e) {
+                LOGGER.e(e, "Could not load the %s detector", QUALITY_TIERS[tier]);
+            }
+        });
+    }
+
+    /** Runs on tierLoader. */
+    private void loadTier(final int tier) throws IOException {
+        if (tier == loadedTier) {
+            return;
+        }
+        if (tierDetectors[tier] == null) {
+            final YoloClassifier tierDetector = new YoloClassifier(
+                    getAssets(),
+                    models,
+                    tierModelFile(tier),
+                    tierOptions(tier),
+                    TF_OD_API_LABELS_FILE,
+                    TIER_INPUT_SIZES[tier],
+                    TIER_OUTPUT_SHAPES[tier],
+                    8);
+            tierDetector.setContext(this);
+            tierDetectors[tier] = tierDetector;
+        } else {
+            tierDetectors[tier].reopen(tierOptions(tier));
+        }
+
+        detector = tierDetectors[tier];
+        model_name = QUALITY_TIERS[tier];
+        TF_OD_API_INPUT_SIZE = detector.getInputSize();
+        runOnUiThread(() -> ((TextView) findViewById(R.id.select_model)).setText(model_name));
+
+        if (loadedTier >= 0) {
+            tierDetectors[loadedTier].close();
+        }
+        loadedTier = tier;
+        // Frames of the new size arrive once the camera is reconfigured; the old size works meanwhile.
+        setAnalysisLongSide(analysisLongSide(tier));
+        if (PREFETCH_NEXT_TIER && tier + 1 < QUALITY_TIERS.length) {
+            models.prefetch(tierModelFile(tier + 1), tierOptions(tier + 1));
+        }
+    }
+
+    private int analysisLongSide(final int tier) {
+        final int longSide = TIER_INPUT_SIZES[tier] * ANALYSIS_OVERSAMPLING;
+        if (!roiAnalysis) {
+            return longSide;
+        }
+        return Math.max(longSide, Math.round(TF_OD_API_INPUT_SIZE_FAST / ROI_MIN_SIZE));
+    }
+
+    /**
+     * Grows analysis frames for window inference as soon as the ROI locks and shrinks them back once
+     * it has stayed unlocked for ROI_ANALYSIS_HOLD_MS. Runs on the postprocess stage.
+     */
+    private void updateRoiAnalysis(final boolean locked) {
+        final long now = SystemClock.uptimeMillis();
+        if (locked) {
+            roiAnalysisUntilMs = now + ROI_ANALYSIS_HOLD_MS;
+        }
+        final boolean active = locked || now < roiAnalysisUntilMs;
+        if (active != roiAnalysis) {
+            roiAnalysis = active;
+            setAnalysisLongSide(analysisLongSide(qualityController.getTier()));
+        }
+    }
+
+    @Override
+    protected int getDesiredAnalysisLongSide() {
+        return analysisLongSide(qualityController.getTier());
+    }
+
+    private String tierModelFile(final int tier) {
+        return tier == TIER_FAST && quantizedFastTier ? TF_OD_API_MODEL_FILE_FAST_INT8 : TIER_MODEL_FILES[tier];
+    }
+
+    /** The int8 model stays off the GPU delegate, which would run it in float. */
+    private ModelOptions tierOptions(final int tier) {
+        return tier == TIER_FAST && quantizedFastTier ? modelOptions.withGpu(false) : modelOptions;
+    }
+
+    /** Tier of {@code tierDetector}, or -1 if it is no longer loaded. */
+    private int tierOf(final YoloClassifier tierDetector) {
+        for (int i = 0; i < tierDetectors.length; i++) {
+            if (tierDetectors[i] == tierDetector) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        if (models == null || level < TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+        tierLoader.execute(() -> {
+            final int closed = models.trim(MODEL_IDLE_MS);
+            // The other tiers' detectors are closed; drop them and their input tensors too.
+            for (int i = 0; i < tierDetectors.length; i++) {
+                if (i != loadedTier) {
+                    tierDetectors[i] = null;
+                }
+            }
+            LOGGER.i("Trim level %d closed %d models", level, closed);
+        });
+    }
+
+    @Override
+    public synchronized void onDestroy() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        tierLoader.shutdownNow();
+        if (models != null) {
+            models.close();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onClick(View v) {
         super.onClick(v);
         switch(v.getId()) {
             case R.id.model_performance:
-                model_name = "accuracy";
-                TF_OD_API_INPUT_SIZE = TF_OD_API_INPUT_SIZE_ACC;
-                detector = detector_acc;
+                manualTier = TIER_ACCURACY;
+                qualityController.setTier(TIER_ACCURACY, "manual");
+                applyTier(TIER_ACCURACY);
                 break;
 
             case R.id.model_speed:
-                model_name = "fast";
-                TF_OD_API_INPUT_SIZE = TF_OD_API_INPUT_SIZE_FAST;
-                detector = detector_fast;
+                manualTier = TIER_FAST;
+                qualityController.setTier(TIER_FAST, "manual");
+                applyTier(TIER_FAST);
                 break;
 
             case R.id.select_all:
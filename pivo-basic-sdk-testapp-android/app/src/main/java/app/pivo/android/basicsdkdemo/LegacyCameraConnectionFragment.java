@@ -35,6 +35,7 @@ import java.util.List;
 import app.pivo.android.basicsdkdemo.customview.AutoFitTextureView;
 import app.pivo.android.basicsdkdemo.env.ImageUtils;
 import app.pivo.android.basicsdkdemo.env.Logger;
+import app.pivo.android.basicsdkdemo.env.PreviewBufferRing;
 
 public class LegacyCameraConnectionFragment extends Fragment {
   private static final Logger LOGGER = new Logger();
@@ -51,6 +52,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
   private Camera camera;
   private Camera.PreviewCallback imageListener;
   private Size desiredSize;
+  private PreviewBufferRing previewBuffers;
   /** The layout identifier to inflate for this Fragment. */
   private int layout;
   /** An {@link AutoFitTextureView} for camera preview. */
@@ -94,7 +96,8 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
           camera.setPreviewCallbackWithBuffer(imageListener);
           Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          previewBuffers.start(
+              ImageUtils.getYUVByteSize(s.height, s.width), camera::addCallbackBuffer);
 
           textureView.setAspectRatio(s.height, s.width);
 
@@ -116,11 +119,16 @@ public class LegacyCameraConnectionFragment extends Fragment {
   /** An additional thread for running tasks that shouldn't block the UI. */
   private HandlerThread backgroundThread;
 
+  /** @param previewBuffers Callback buffers the camera fills, shared with {@code imageListener}. */
   public LegacyCameraConnectionFragment(
-      final Camera.PreviewCallback imageListener, final int layout, final Size desiredSize) {
+      final Camera.PreviewCallback imageListener,
+      final int layout,
+      final Size desiredSize,
+      final PreviewBufferRing previewBuffers) {
     this.imageListener = imageListener;
     this.layout = layout;
     this.desiredSize = desiredSize;
+    this.previewBuffers = previewBuffers;
   }
 
   @Override
@@ -181,6 +189,8 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   protected void stopCamera() {
     if (camera != null) {
+      // Frames still being processed must not be handed to a released camera.
+      previewBuffers.stop();
       camera.stopPreview();
       camera.setPreviewCallback(null);
       camera.release();
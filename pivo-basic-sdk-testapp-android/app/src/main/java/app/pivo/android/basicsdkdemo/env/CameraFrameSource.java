@@ -0,0 +1,94 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Camera frames as a {@link FrameSource}. The camera callback offers every frame; one is copied
+ * and held until the consumer takes it, and frames arriving while one is held are dropped, so a
+ * slow consumer never holds camera buffers or makes the callback wait.
+ */
+public class CameraFrameSource implements FrameSource {
+  private final int rotation;
+  /** The frame waiting to be taken, and the one handed out last; swapped on every take. */
+  private YuvPlanes pending = new YuvPlanes();
+  private YuvPlanes current = new YuvPlanes();
+  private boolean hasPending = false;
+  private long pendingTimestampNs;
+  private long timestampNs;
+  private long dropped = 0;
+  private boolean closed = false;
+
+  /** @param rotation Clockwise rotation that makes camera frames upright. */
+  public CameraFrameSource(final int rotation) {
+    this.rotation = rotation;
+  }
+
+  /**
+   * Called from the camera callback with a frame that is only valid during the call.
+   *
+   * @return false if the frame was dropped because the last one has not been taken yet.
+   */
+  public synchronized boolean offer(final YuvPlanes frame, final long timestampNs) {
+    if (closed || hasPending) {
+      ++dropped;
+      return false;
+    }
+    pending.copyFrom(frame);
+    pendingTimestampNs = timestampNs;
+    hasPending = true;
+    notifyAll();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean next(final YuvPlanes planes) throws InterruptedIOException {
+    while (!hasPending && !closed) {
+      try {
+        wait();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a camera frame");
+      }
+    }
+    if (closed) {
+      return false;
+    }
+    final YuvPlanes taken = pending;
+    pending = current;
+    current = taken;
+    hasPending = false;
+    timestampNs = pendingTimestampNs;
+    planes.set(
+        current.getY(),
+        current.getU(),
+        current.getV(),
+        current.getWidth(),
+        current.getHeight(),
+        current.getYRowStride(),
+        current.getUvRowStride(),
+        current.getUvPixelStride());
+    return true;
+  }
+
+  /** Frames offered while the consumer was still busy with the last one. */
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  @Override
+  public synchronized long getTimestampNs() {
+    return timestampNs;
+  }
+
+  @Override
+  public int getRotation() {
+    return rotation;
+  }
+
+  /** Ends the sequence; a waiting {@link #next} returns false. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+}
@@ -0,0 +1,261 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records camera frames as raw YUV 4:2:0 planes, for replay with {@link RecordedFrameSource}.
+ *
+ * The data file is a header followed by one record per frame, appended in capture order: a fixed
+ * size frame header (size, strides, rotation, plane sizes and sensor timestamp) and then the Y, U
+ * and V plane buffers exactly as the camera laid them out, row padding included. Next to it,
+ * {@link #indexFile} holds the offset and timestamp of every record. All values are little endian.
+ *
+ * Like {@link RoiDumpSink}, callers never block: each frame is copied into one of a fixed number of
+ * direct buffers and written on the recorder's own thread with a single write, and when every
+ * buffer is waiting to be written the frame is dropped and counted. At 1080p a frame is about 4 MB
+ * and the writer needs around 125 MB/s, so the capacity decides how long a storage stall can be
+ * absorbed. {@link #offer} is meant to be called from a single producer thread.
+ */
+public class FrameRecorder {
+  private static final Logger LOGGER = new Logger();
+
+  static final int FILE_MAGIC = 0x31595650; // "PVY1"
+  static final int FRAME_MAGIC = 0x4d415246; // "FRAM"
+  static final int VERSION = 1;
+  static final int FILE_HEADER_SIZE = 8;
+  /** Magic, width, height, three strides, rotation, three plane sizes and the timestamp. */
+  static final int FRAME_HEADER_SIZE = 10 * 4 + 8;
+  static final int INDEX_ENTRY_SIZE = 16;
+
+  /** The index written next to {@code data}. */
+  public static File indexFile(final File data) {
+    return new File(data.getPath() + ".idx");
+  }
+
+  private static final class Job {
+    ByteBuffer buffer;
+    long timestampNs;
+  }
+
+  private final File file;
+  private final ArrayBlockingQueue<Job> free;
+  private final ArrayBlockingQueue<Job> pending;
+  private final ByteBuffer indexEntry =
+      ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private FileChannel data;
+  private FileChannel index;
+  private long position;
+  private volatile Thread thread;
+  private volatile boolean running = false;
+  private volatile boolean failed = false;
+  /** Counted by both the camera thread and the writer. */
+  private final AtomicInteger dropped = new AtomicInteger();
+  private volatile int written = 0;
+
+  /**
+   * @param file     Data file; it and its index are replaced when recording starts.
+   * @param capacity Frames that can wait to be written. Buffers are allocated as they are first
+   *                 needed.
+   */
+  public FrameRecorder(final File file, final int capacity) {
+    this.file = file;
+    this.free = new ArrayBlockingQueue<>(capacity);
+    this.pending = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      free.add(new Job());
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /** Creates the files and starts the writer thread. */
+  public synchronized void start() throws IOException {
+    if (running) {
+      return;
+    }
+    final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(FILE_MAGIC).putInt(VERSION).flip();
+    try {
+      data = new FileOutputStream(file).getChannel();
+      writeFully(data, header);
+      header.rewind();
+      index = new FileOutputStream(indexFile(file)).getChannel();
+      writeFully(index, header);
+    } catch (final IOException e) {
+      closeQuietly(data);
+      closeQuietly(index);
+      data = null;
+      index = null;
+      throw e;
+    }
+    position = FILE_HEADER_SIZE;
+    dropPending();
+    failed = false;
+    running = true;
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                drain();
+              }
+            },
+            "frame-recorder");
+    thread.start();
+  }
+
+  /** Stops the writer thread after the frames already queued have been written. */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+    // An offer that saw running just before it was cleared can queue a frame the writer never saw.
+    dropPending();
+    closeQuietly(data);
+    closeQuietly(index);
+    data = null;
+    index = null;
+  }
+
+  /**
+   * Queues a copy of {@code frame}, whose buffers only need to stay valid during the call.
+   *
+   * @param timestampNs Sensor timestamp of the frame.
+   * @param rotation    Clockwise rotation that makes the frame upright.
+   * @return false if the frame was dropped because the queue is full or the recorder is stopped.
+   */
+  public boolean offer(final YuvPlanes frame, final long timestampNs, final int rotation) {
+    final Job job = running && !failed ? free.poll() : null;
+    if (job == null) {
+      dropped.incrementAndGet();
+      return false;
+    }
+    final int ySize = frame.getY().limit();
+    final int uSize = frame.getU().limit();
+    final int vSize = frame.getV().limit();
+    final int size = FRAME_HEADER_SIZE + ySize + uSize + vSize;
+    if (job.buffer == null || job.buffer.capacity() < size) {
+      job.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    final ByteBuffer buffer = job.buffer;
+    buffer.clear();
+    buffer
+        .putInt(FRAME_MAGIC)
+        .putInt(frame.getWidth())
+        .putInt(frame.getHeight())
+        .putInt(frame.getYRowStride())
+        .putInt(frame.getUvRowStride())
+        .putInt(frame.getUvPixelStride())
+        .putInt(rotation)
+        .putInt(ySize)
+        .putInt(uSize)
+        .putInt(vSize)
+        .putLong(timestampNs);
+    putPlane(buffer, frame.getY());
+    putPlane(buffer, frame.getU());
+    putPlane(buffer, frame.getV());
+    buffer.flip();
+    job.timestampNs = timestampNs;
+    pending.add(job);
+    return true;
+  }
+
+  private static void putPlane(final ByteBuffer dst, final ByteBuffer plane) {
+    final ByteBuffer source = plane.duplicate();
+    source.rewind();
+    dst.put(source);
+  }
+
+  /** Frames not recorded because the writer fell behind, was stopped or failed. */
+  public int getDropped() {
+    return dropped.get();
+  }
+
+  /** Counts the frames still queued while the writer is stopped as dropped. */
+  private void dropPending() {
+    Job job;
+    while ((job = pending.poll()) != null) {
+      dropped.incrementAndGet();
+      free.add(job);
+    }
+  }
+
+  public int getWritten() {
+    return written;
+  }
+
+  private void drain() {
+    while (running || !pending.isEmpty()) {
+      final Job job;
+      try {
+        job = pending.poll(100, TimeUnit.MILLISECONDS);
+      } catch (final InterruptedException e) {
+        return;
+      }
+      if (job == null) {
+        continue;
+      }
+      try {
+        if (!failed) {
+          write(job);
+          ++written;
+        } else {
+          dropped.incrementAndGet();
+        }
+      } catch (final IOException e) {
+        // Most likely out of space; what was written so far stays readable.
+        LOGGER.e(e, "Failed to record frame %d, recording stopped", written);
+        failed = true;
+        dropped.incrementAndGet();
+      } finally {
+        free.add(job);
+      }
+    }
+  }
+
+  private void write(final Job job) throws IOException {
+    final long offset = position;
+    final int size = job.buffer.remaining();
+    writeFully(data, job.buffer);
+    position += size;
+    // The index entry goes last, so every indexed record is complete.
+    indexEntry.clear();
+    indexEntry.putLong(offset).putLong(job.timestampNs).flip();
+    writeFully(index, indexEntry);
+  }
+
+  private static void writeFully(final FileChannel channel, final ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void closeQuietly(final FileChannel channel) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      LOGGER.e(e, "Failed to close recording");
+    }
+  }
+}
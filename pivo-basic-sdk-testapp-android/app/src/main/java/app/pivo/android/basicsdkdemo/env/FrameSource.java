@@ -0,0 +1,24 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequence of YUV 4:2:0 frames pulled by whoever processes them, so the detection pipeline can be
+ * driven by the camera, by files or by generated frames alike.
+ */
+public interface FrameSource extends Closeable {
+  /**
+   * Points {@code planes} at the next frame, waiting for it if needed. The planes stay valid until
+   * the next call or {@link #close()}.
+   *
+   * @return false once there are no more frames.
+   */
+  boolean next(YuvPlanes planes) throws IOException;
+
+  /** Capture time of the frame returned last, in nanoseconds on the source's own clock. */
+  long getTimestampNs();
+
+  /** Clockwise rotation, in degrees, that makes the frames upright. */
+  int getRotation();
+}
@@ -0,0 +1,106 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The images of a directory, in file name order, as frames. Images are decoded by a {@link
+ * Decoder} so the same source runs on a device, with {@link #BITMAP_DECODER}, and on a desktop
+ * JVM, with any decoder the caller brings. Files the decoder rejects are skipped.
+ */
+public class ImageDirectoryFrameSource implements FrameSource {
+  private static final long FRAME_INTERVAL_NS = 33_333_333L;
+
+  /** Decodes an image file to ARGB_8888 pixels. */
+  public interface Decoder {
+    /**
+     * @param size Receives the width and height.
+     * @return the pixels, row by row, or null if the file is not an image.
+     */
+    int[] decode(File file, int[] size) throws IOException;
+  }
+
+  /** Decodes with {@link BitmapFactory}; Android only. */
+  public static final Decoder BITMAP_DECODER =
+      new Decoder() {
+        @Override
+        public int[] decode(final File file, final int[] size) {
+          final Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+          if (bitmap == null) {
+            return null;
+          }
+          size[0] = bitmap.getWidth();
+          size[1] = bitmap.getHeight();
+          final int[] pixels = new int[size[0] * size[1]];
+          bitmap.getPixels(pixels, 0, size[0], 0, 0, size[0], size[1]);
+          bitmap.recycle();
+          return pixels;
+        }
+      };
+
+  private final List<File> files = new ArrayList<>();
+  private final Decoder decoder;
+  private final int loops;
+  private final int rotation;
+  private final int[] size = new int[2];
+  private int index = -1;
+  private int emitted = 0;
+  private long timestampNs = 0;
+
+  /**
+   * @param loops    Times the directory is played; each pass decodes the files again.
+   * @param rotation Clockwise rotation that makes the images upright, usually 0.
+   */
+  public ImageDirectoryFrameSource(
+      final File directory, final Decoder decoder, final int loops, final int rotation)
+      throws IOException {
+    final File[] list = directory.listFiles();
+    if (list == null) {
+      throw new IOException("Not a directory: " + directory);
+    }
+    Arrays.sort(list);
+    for (final File file : list) {
+      if (file.isFile()) {
+        files.add(file);
+      }
+    }
+    this.decoder = decoder;
+    this.loops = loops;
+    this.rotation = rotation;
+  }
+
+  public int getFileCount() {
+    return files.size();
+  }
+
+  @Override
+  public boolean next(final YuvPlanes planes) throws IOException {
+    while (++index < files.size() * loops) {
+      final int[] pixels = decoder.decode(files.get(index % files.size()), size);
+      if (pixels != null) {
+        planes.setArgb(pixels, size[0], size[1]);
+        timestampNs = emitted++ * FRAME_INTERVAL_NS;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  @Override
+  public int getRotation() {
+    return rotation;
+  }
+
+  @Override
+  public void close() {}
+}
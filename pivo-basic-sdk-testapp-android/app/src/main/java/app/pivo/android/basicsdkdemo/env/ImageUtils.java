@@ -20,6 +20,7 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 
 /** Utility class for manipulating images. */
 public class ImageUtils {
@@ -151,6 +152,43 @@ public class ImageUtils {
     }
   }
 
+  /**
+   * Same as {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int, int,
+   * int[])} but reads the planes in place, e.g. straight from android.media.Image buffers.
+   */
+  public static void convertYUV420ToARGB8888(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    int yp = 0;
+    for (int j = 0; j < height; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      for (int i = 0; i < width; i++) {
+        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+        out[yp++] =
+            YUV2RGB(
+                0xff & yData.get(pY + i), 0xff & uData.get(uv_offset), 0xff & vData.get(uv_offset));
+      }
+    }
+  }
+
+  /**
+   * Returns a single ARGB_8888 pixel for the given YUV sample, using the same integer math as the
+   * frame converters.
+   */
+  public static int yuvToArgb(int y, int u, int v) {
+    return YUV2RGB(y, u, v);
+  }
+
   /**
    * Returns a transformation matrix from one reference frame into another. Handles cropping (if
    * maintaining aspect ratio is desired) and rotation.
@@ -172,17 +210,40 @@ public class ImageUtils {
       final int dstHeight,
       final int applyRotation,
       final boolean maintainAspectRatio) {
+    return getTransformationMatrix(
+        srcWidth, srcHeight, dstWidth, dstHeight, applyRotation, maintainAspectRatio, false);
+  }
+
+  /**
+   * Like {@link #getTransformationMatrix(int, int, int, int, int, boolean)}, optionally
+   * letterboxing instead of cropping.
+   *
+   * @param letterbox With maintainAspectRatio, scales the source to fit inside the destination
+   *     and centers it, leaving bands on two sides, as {@link YuvTensorConverter#setLetterbox}
+   *     fills its input.
+   */
+  public static Matrix getTransformationMatrix(
+      final int srcWidth,
+      final int srcHeight,
+      final int dstWidth,
+      final int dstHeight,
+      final int applyRotation,
+      final boolean maintainAspectRatio,
+      final boolean letterbox) {
     final Matrix matrix = new Matrix();
+    // A letterbox is centered, so it is scaled around the center whatever the rotation.
+    final boolean centered = applyRotation != 0 || (maintainAspectRatio && letterbox);
+
+    if (centered) {
+      matrix.postTranslate(-srcWidth / 2.0f, -srcHeight / 2.0f);
+    }
 
     if (applyRotation != 0) {
       if (applyRotation % 90 != 0) {
         LOGGER.w("Rotation of %d % 90 != 0", applyRotation);
       }
 
-      // Translate so center of image is at origin.
-      matrix.postTranslate(-srcWidth / 2.0f, -srcHeight / 2.0f);
-
-      // Rotate around origin.
+      // Center of image is at origin; rotate around it.
       matrix.postRotate(applyRotation);
     }
 
@@ -198,7 +259,11 @@ public class ImageUtils {
       final float scaleFactorX = dstWidth / (float) inWidth;
       final float scaleFactorY = dstHeight / (float) inHeight;
 
-      if (maintainAspectRatio) {
+      if (maintainAspectRatio && letterbox) {
+        // Scale by minimum factor so that all of src fits into dst.
+        final float scaleFactor = Math.min(scaleFactorX, scaleFactorY);
+        matrix.postScale(scaleFactor, scaleFactor);
+      } else if (maintainAspectRatio) {
         // Scale by minimum factor so that dst is filled completely while
         // maintaining the aspect ratio. Some image may fall off the edge.
         final float scaleFactor = Math.max(scaleFactorX, scaleFactorY);
@@ -209,7 +274,7 @@ public class ImageUtils {
       }
     }
 
-    if (applyRotation != 0) {
+    if (centered) {
       // Translate back from origin centered reference to destination frame.
       matrix.postTranslate(dstWidth / 2.0f, dstHeight / 2.0f);
     }
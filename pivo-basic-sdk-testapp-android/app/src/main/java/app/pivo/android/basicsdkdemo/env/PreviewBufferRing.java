@@ -0,0 +1,177 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.util.Locale;
+
+/**
+ * The callback buffers of a legacy android.hardware.Camera preview, and who holds each of them.
+ *
+ * A buffer is with the camera, filled and waiting to be processed, or being processed. At most one
+ * filled frame waits: a newer frame replaces it and the older one goes straight back to the camera,
+ * as does a waiting frame older than {@code maxAgeNs}. With a few buffers the camera always has one
+ * to fill while another is processed, and processing always starts on the latest frame.
+ *
+ * Frames are delivered on the camera callback thread and released from the processing threads, so
+ * methods are synchronized.
+ */
+public class PreviewBufferRing {
+  /** Hands a buffer back to the camera, i.e. Camera.addCallbackBuffer. */
+  public interface CallbackBuffers {
+    void addCallbackBuffer(byte[] buffer);
+  }
+
+  private static final int WITH_CAMERA = 0;
+  private static final int WAITING = 1;
+  private static final int PROCESSING = 2;
+
+  private final int count;
+  private final long maxAgeNs;
+  private byte[][] buffers = new byte[0][];
+  private int[] states = new int[0];
+  private CallbackBuffers camera;
+  private int waiting = -1;
+  private long waitingSinceNs;
+
+  private long delivered = 0;
+  private long processed = 0;
+  private long discarded = 0;
+
+  /**
+   * @param count    Buffers in the ring; three let one be filled, one wait and one be processed.
+   * @param maxAgeNs Age after which a waiting frame is discarded instead of processed.
+   */
+  public PreviewBufferRing(final int count, final long maxAgeNs) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Invalid buffer count " + count);
+    }
+    this.count = count;
+    this.maxAgeNs = maxAgeNs;
+  }
+
+  /**
+   * Allocates the buffers for frames of {@code size} bytes and hands them all to {@code camera}.
+   * Buffers of an earlier camera are forgotten, not reused, as they may still be processed.
+   */
+  public synchronized void start(final int size, final CallbackBuffers camera) {
+    this.camera = camera;
+    buffers = new byte[count][size];
+    states = new int[count];
+    waiting = -1;
+    for (final byte[] buffer : buffers) {
+      camera.addCallbackBuffer(buffer);
+    }
+  }
+
+  /** Forgets the camera; buffers released later are not handed back. */
+  public synchronized void stop() {
+    camera = null;
+    waiting = -1;
+  }
+
+  /** Index of {@code buffer} in the ring, or -1 if it is not one of its buffers. */
+  public synchronized int indexOf(final byte[] buffer) {
+    for (int i = 0; i < buffers.length; ++i) {
+      if (buffers[i] == buffer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Called with every frame the camera delivers. The frame waits until {@link #take} and replaces
+   * the frame waiting so far, which goes back to the camera.
+   *
+   * @return false if {@code buffer} is not one of the ring's buffers with the camera.
+   */
+  public synchronized boolean deliver(final byte[] buffer, final long timeNs) {
+    final int index = indexOf(buffer);
+    if (index < 0 || states[index] != WITH_CAMERA || camera == null) {
+      return false;
+    }
+    ++delivered;
+    if (waiting >= 0) {
+      discard(waiting);
+    }
+    states[index] = WAITING;
+    waiting = index;
+    waitingSinceNs = timeNs;
+    return true;
+  }
+
+  /**
+   * Takes the waiting frame for processing; it stays out of the camera until {@link #release}.
+   *
+   * @return the frame, or null if none is waiting or the waiting one is too old.
+   */
+  public synchronized byte[] take(final long timeNs) {
+    if (waiting < 0) {
+      return null;
+    }
+    final int index = waiting;
+    waiting = -1;
+    if (timeNs - waitingSinceNs > maxAgeNs) {
+      discard(index);
+      return null;
+    }
+    states[index] = PROCESSING;
+    ++processed;
+    return buffers[index];
+  }
+
+  /** Hands a frame returned by {@link #take} back to the camera. */
+  public synchronized void release(final byte[] buffer) {
+    final int index = indexOf(buffer);
+    if (index < 0 || states[index] != PROCESSING) {
+      return;
+    }
+    giveBack(index);
+  }
+
+  private void discard(final int index) {
+    ++discarded;
+    giveBack(index);
+  }
+
+  private void giveBack(final int index) {
+    states[index] = WITH_CAMERA;
+    if (camera != null) {
+      camera.addCallbackBuffer(buffers[index]);
+    }
+  }
+
+  /** Buffers the camera can currently fill. */
+  public synchronized int getWithCamera() {
+    int n = 0;
+    for (final int state : states) {
+      if (state == WITH_CAMERA) {
+        ++n;
+      }
+    }
+    return n;
+  }
+
+  public synchronized long getDelivered() {
+    return delivered;
+  }
+
+  public synchronized long getProcessed() {
+    return processed;
+  }
+
+  /** Frames handed back unprocessed because a newer one arrived or they waited too long. */
+  public synchronized long getDiscarded() {
+    return discarded;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "%d buffers, %d with camera, frames %d delivered %d processed %d discarded",
+        count, getWithCamera(), delivered, processed, discarded);
+  }
+}
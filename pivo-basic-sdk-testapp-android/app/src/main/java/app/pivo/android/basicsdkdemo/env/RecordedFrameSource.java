@@ -0,0 +1,270 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a {@link FrameRecorder} recording. The file is memory-mapped and frames are handed out as
+ * views of the mapping with the recorded strides, so nothing is copied and pages are read in only
+ * as the consumer touches them.
+ *
+ * Frames come either as fast as they are taken or paced by their recorded timestamps. Records are
+ * located through the index; without one, or past its end, the data file is scanned, and a record
+ * cut short by an interrupted recording ends the replay.
+ */
+public class RecordedFrameSource implements FrameSource {
+  /** Mappings cover whole records and stay below the 2 GB a single buffer can address. */
+  private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+  private final RandomAccessFile file;
+  private final boolean realTime;
+  private final long[] offsets;
+  private final MappedByteBuffer[] segments;
+  private final long[] segmentStarts;
+  private final int[] segmentOf;
+
+  private int index = -1;
+  private long timestampNs;
+  private int rotation;
+  private long firstTimestampNs;
+  private long startNanos;
+
+  /**
+   * @param realTime Whether frames are paced by their recorded timestamps rather than handed out as
+   *                 soon as they are asked for.
+   */
+  public RecordedFrameSource(final File data, final boolean realTime) throws IOException {
+    this(data, realTime, MAX_SEGMENT_SIZE);
+  }
+
+  RecordedFrameSource(final File data, final boolean realTime, final long maxSegmentSize)
+      throws IOException {
+    this.realTime = realTime;
+    file = new RandomAccessFile(data, "r");
+    try {
+      final FileChannel channel = file.getChannel();
+      final long length = channel.size();
+      checkHeader(channel, 0);
+      offsets = findRecords(channel, FrameRecorder.indexFile(data), length);
+
+      final List<MappedByteBuffer> mapped = new ArrayList<>();
+      final List<Long> starts = new ArrayList<>();
+      segmentOf = new int[offsets.length];
+      long start = 0;
+      long end = 0;
+      for (int i = 0; i < offsets.length; ++i) {
+        // Records are contiguous, so one ends where the next begins.
+        final long recordEnd =
+            i + 1 < offsets.length ? offsets[i + 1] : offsets[i] + recordSize(channel, offsets[i]);
+        if (i == 0 || recordEnd - start > maxSegmentSize) {
+          if (i > 0) {
+            mapped.add(map(channel, start, end));
+            starts.add(start);
+          }
+          start = offsets[i];
+        }
+        end = recordEnd;
+        segmentOf[i] = mapped.size();
+      }
+      if (offsets.length > 0) {
+        mapped.add(map(channel, start, end));
+        starts.add(start);
+      }
+      segments = mapped.toArray(new MappedByteBuffer[0]);
+      segmentStarts = new long[starts.size()];
+      for (int i = 0; i < segmentStarts.length; ++i) {
+        segmentStarts[i] = starts.get(i);
+      }
+      if (offsets.length > 0) {
+        rotation = segments[0].getInt(24);
+      }
+    } catch (final IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private static MappedByteBuffer map(final FileChannel channel, final long start, final long end)
+      throws IOException {
+    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return buffer;
+  }
+
+  private static ByteBuffer read(final FileChannel channel, final long position, final int size)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        return null;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void checkHeader(final FileChannel channel, final long position)
+      throws IOException {
+    final ByteBuffer header = read(channel, position, FrameRecorder.FILE_HEADER_SIZE);
+    if (header == null || header.getInt() != FrameRecorder.FILE_MAGIC) {
+      throw new IOException("Not a frame recording");
+    }
+    final int version = header.getInt();
+    if (version != FrameRecorder.VERSION) {
+      throw new IOException("Unsupported frame recording version " + version);
+    }
+  }
+
+  /** Size of the record at {@code offset}, or -1 if there is no complete record there. */
+  private static long recordSize(final FileChannel channel, final long offset) throws IOException {
+    final ByteBuffer header = read(channel, offset, FrameRecorder.FRAME_HEADER_SIZE);
+    if (header == null || header.getInt(0) != FrameRecorder.FRAME_MAGIC) {
+      return -1;
+    }
+    final long size = FrameRecorder.FRAME_HEADER_SIZE
+        + (long) header.getInt(28) + header.getInt(32) + header.getInt(36);
+    return offset + size <= channel.size() ? size : -1;
+  }
+
+  /**
+   * Offsets of the complete records. Index entries are written after their records, so they are
+   * trusted as far as they go and only the rest of the data file is scanned.
+   */
+  private static long[] findRecords(
+      final FileChannel channel, final File indexFile, final long length) throws IOException {
+    long[] offsets = new long[64];
+    int count = 0;
+    long next = FrameRecorder.FILE_HEADER_SIZE;
+    if (indexFile.exists()) {
+      try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+        final FileChannel indexChannel = index.getChannel();
+        checkHeader(indexChannel, 0);
+        final int entries = (int)
+            ((indexChannel.size() - FrameRecorder.FILE_HEADER_SIZE) / FrameRecorder.INDEX_ENTRY_SIZE);
+        final ByteBuffer all = read(indexChannel, FrameRecorder.FILE_HEADER_SIZE,
+            entries * FrameRecorder.INDEX_ENTRY_SIZE);
+        for (int i = 0; i < entries; ++i) {
+          final long offset = all.getLong(i * FrameRecorder.INDEX_ENTRY_SIZE);
+          if (offset < next || offset >= length) {
+            break;
+          }
+          if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * count);
+          }
+          offsets[count++] = offset;
+          next = offset + FrameRecorder.FRAME_HEADER_SIZE;
+        }
+      }
+      if (count > 0) {
+        final long size = recordSize(channel, offsets[count - 1]);
+        if (size < 0) {
+          return Arrays.copyOf(offsets, count - 1);
+        }
+        next = offsets[count - 1] + size;
+      }
+    }
+    while (next < length) {
+      final long size = recordSize(channel, next);
+      if (size < 0) {
+        break;
+      }
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, 2 * count);
+      }
+      offsets[count++] = next;
+      next += size;
+    }
+    return Arrays.copyOf(offsets, count);
+  }
+
+  @Override
+  public boolean next(final YuvPlanes planes) throws IOException {
+    if (index + 1 >= offsets.length) {
+      return false;
+    }
+    ++index;
+    final MappedByteBuffer segment = segments[segmentOf[index]];
+    final int position = (int) (offsets[index] - segmentStarts[segmentOf[index]]);
+    final int width = segment.getInt(position + 4);
+    final int height = segment.getInt(position + 8);
+    final int yRowStride = segment.getInt(position + 12);
+    final int uvRowStride = segment.getInt(position + 16);
+    final int uvPixelStride = segment.getInt(position + 20);
+    rotation = segment.getInt(position + 24);
+    final int ySize = segment.getInt(position + 28);
+    final int uSize = segment.getInt(position + 32);
+    final int vSize = segment.getInt(position + 36);
+    timestampNs = segment.getLong(position + 40);
+
+    if (realTime) {
+      pace();
+    }
+    final int y = position + FrameRecorder.FRAME_HEADER_SIZE;
+    planes.set(
+        slice(segment, y, ySize),
+        slice(segment, y + ySize, uSize),
+        slice(segment, y + ySize + uSize, vSize),
+        width,
+        height,
+        yRowStride,
+        uvRowStride,
+        uvPixelStride);
+    return true;
+  }
+
+  private static ByteBuffer slice(final ByteBuffer segment, final int position, final int size) {
+    final ByteBuffer view = segment.duplicate();
+    view.limit(position + size).position(position);
+    return view.slice();
+  }
+
+  /** Waits until as much time has passed since the first frame as was recorded. */
+  private void pace() throws InterruptedIOException {
+    if (index == 0) {
+      firstTimestampNs = timestampNs;
+      startNanos = System.nanoTime();
+      return;
+    }
+    final long due = startNanos + (timestampNs - firstTimestampNs);
+    long wait;
+    while ((wait = due - System.nanoTime()) > 0) {
+      try {
+        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted pacing a recorded frame");
+      }
+    }
+  }
+
+  /** Complete frames in the recording. */
+  public int getFrameCount() {
+    return offsets.length;
+  }
+
+  @Override
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  /** Rotation recorded with the frame returned last, or with the first one before that. */
+  @Override
+  public int getRotation() {
+    return rotation;
+  }
+
+  /** Closes the file; frames already handed out stay readable until the mapping is collected. */
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
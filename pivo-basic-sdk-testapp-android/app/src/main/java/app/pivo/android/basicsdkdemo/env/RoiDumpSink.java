@@ -0,0 +1,155 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debug sink that writes ROI images to storage on its own thread.
+ *
+ * Callers never block: images are copied into one of a fixed number of buffers and queued, and
+ * when every buffer is waiting to be written the image is dropped and counted. {@link #offer} is
+ * meant to be called from a single producer thread.
+ */
+public class RoiDumpSink {
+  private static final Logger LOGGER = new Logger();
+
+  /** Writes one image; called on the sink thread. */
+  public interface Writer {
+    void write(int[] argb, int width, int height, int sequence) throws IOException;
+  }
+
+  private static final class Job {
+    int[] argb = new int[0];
+    int width;
+    int height;
+    int sequence;
+  }
+
+  private final Writer writer;
+  private final ArrayBlockingQueue<Job> free;
+  private final ArrayBlockingQueue<Job> pending;
+  private volatile Thread thread;
+  private volatile boolean running = false;
+  private int sequence = 0;
+  private volatile int dropped = 0;
+  private volatile int written = 0;
+
+  public RoiDumpSink(final Writer writer, final int capacity) {
+    this.writer = writer;
+    this.free = new ArrayBlockingQueue<>(capacity);
+    this.pending = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; ++i) {
+      free.add(new Job());
+    }
+  }
+
+  /** A sink writing numbered JPEG files into {@code directory}. */
+  public static RoiDumpSink toJpegFiles(final File directory, final int capacity) {
+    return new RoiDumpSink(
+        new Writer() {
+          @Override
+          public void write(final int[] argb, final int width, final int height, final int sequence)
+              throws IOException {
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+            bitmap.setPixels(argb, 0, width, 0, 0, width, height);
+            final FileOutputStream out = new FileOutputStream(new File(directory, sequence + ".jpg"));
+            try {
+              bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            } finally {
+              out.close();
+              bitmap.recycle();
+            }
+          }
+        },
+        capacity);
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                drain();
+              }
+            },
+            "roi-dump");
+    thread.start();
+  }
+
+  /** Stops the sink thread after the images already queued have been written. */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Queues a copy of {@code argb}.
+   *
+   * @return false if the image was dropped because the queue is full or the sink is stopped.
+   */
+  public boolean offer(final int[] argb, final int width, final int height) {
+    final Job job = running ? free.poll() : null;
+    if (job == null) {
+      ++dropped;
+      return false;
+    }
+    final int size = width * height;
+    if (job.argb.length < size) {
+      job.argb = new int[size];
+    }
+    System.arraycopy(argb, 0, job.argb, 0, size);
+    job.width = width;
+    job.height = height;
+    job.sequence = sequence++;
+    pending.add(job);
+    return true;
+  }
+
+  public int getDropped() {
+    return dropped;
+  }
+
+  public int getWritten() {
+    return written;
+  }
+
+  private void drain() {
+    while (running || !pending.isEmpty()) {
+      final Job job;
+      try {
+        job = pending.poll(100, TimeUnit.MILLISECONDS);
+      } catch (final InterruptedException e) {
+        return;
+      }
+      if (job == null) {
+        continue;
+      }
+      try {
+        writer.write(job.argb, job.width, job.height, job.sequence);
+        ++written;
+      } catch (final IOException e) {
+        LOGGER.e(e, "Failed to write ROI %d", job.sequence);
+      } finally {
+        free.add(job);
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generated frames: a luma gradient with solid colored boxes moving across it, the same for every
+ * run with the same seed. Needs no camera and no files, so the pipeline can be timed anywhere; the
+ * boxes are known exactly, so the tracker can be fed without a detector.
+ */
+public class SyntheticFrameSource implements FrameSource {
+  private static final long FRAME_INTERVAL_NS = 33_333_333L;
+
+  private final int width;
+  private final int height;
+  private final int frames;
+  private final byte[] y;
+  private final byte[] u;
+  private final byte[] v;
+  private final byte[] background;
+  private final ByteBuffer yBuffer;
+  private final ByteBuffer uBuffer;
+  private final ByteBuffer vBuffer;
+
+  private final int targets;
+  private final float[] targetWidth;
+  private final float[] targetHeight;
+  private final float[] phase;
+  private final float[] speed;
+  private final byte[] targetY;
+  private final byte[] targetU;
+  private final byte[] targetV;
+  /** Boxes of the current frame, in pixels, as left, top, right and bottom. */
+  private final float[] boxes;
+
+  private int index = -1;
+
+  /**
+   * @param frames  Frames before the source is exhausted.
+   * @param targets Number of moving boxes.
+   * @param seed    Chooses the boxes' sizes, colors and paths.
+   */
+  public SyntheticFrameSource(
+      final int width, final int height, final int frames, final int targets, final long seed) {
+    this.width = width;
+    this.height = height;
+    this.frames = frames;
+    this.targets = targets;
+    final int uvSize = ((width + 1) / 2) * ((height + 1) / 2);
+    y = new byte[width * height];
+    u = new byte[uvSize];
+    v = new byte[uvSize];
+    background = new byte[width * height];
+    yBuffer = ByteBuffer.wrap(y);
+    uBuffer = ByteBuffer.wrap(u);
+    vBuffer = ByteBuffer.wrap(v);
+    for (int row = 0; row < height; ++row) {
+      for (int col = 0; col < width; ++col) {
+        background[row * width + col] = (byte) (32 + 160 * (row + col) / (width + height));
+      }
+    }
+
+    final Random random = new Random(seed);
+    targetWidth = new float[targets];
+    targetHeight = new float[targets];
+    phase = new float[targets];
+    speed = new float[targets];
+    targetY = new byte[targets];
+    targetU = new byte[targets];
+    targetV = new byte[targets];
+    for (int i = 0; i < targets; ++i) {
+      targetWidth[i] = width * (0.08f + 0.1f * random.nextFloat());
+      targetHeight[i] = height * (0.2f + 0.25f * random.nextFloat());
+      phase[i] = (float) (2 * Math.PI * random.nextFloat());
+      speed[i] = 0.02f + 0.04f * random.nextFloat();
+      targetY[i] = (byte) (64 + random.nextInt(160));
+      targetU[i] = (byte) random.nextInt(256);
+      targetV[i] = (byte) random.nextInt(256);
+    }
+    boxes = new float[4 * targets];
+  }
+
+  @Override
+  public boolean next(final YuvPlanes planes) {
+    if (index + 1 >= frames) {
+      return false;
+    }
+    ++index;
+
+    System.arraycopy(background, 0, y, 0, y.length);
+    Arrays.fill(u, (byte) 128);
+    Arrays.fill(v, (byte) 128);
+    final int uvWidth = (width + 1) / 2;
+    for (int i = 0; i < targets; ++i) {
+      final float t = phase[i] + speed[i] * index;
+      final float cx = (0.5f + 0.35f * (float) Math.sin(t)) * width;
+      final float cy = (0.5f + 0.2f * (float) Math.sin(1.7f * t)) * height;
+      final int left = Math.max(0, (int) (cx - targetWidth[i] / 2));
+      final int top = Math.max(0, (int) (cy - targetHeight[i] / 2));
+      final int right = Math.min(width, (int) (cx + targetWidth[i] / 2));
+      final int bottom = Math.min(height, (int) (cy + targetHeight[i] / 2));
+      boxes[4 * i] = left;
+      boxes[4 * i + 1] = top;
+      boxes[4 * i + 2] = right;
+      boxes[4 * i + 3] = bottom;
+      for (int row = top; row < bottom; ++row) {
+        Arrays.fill(y, row * width + left, row * width + right, targetY[i]);
+      }
+      for (int row = top / 2; row < (bottom + 1) / 2; ++row) {
+        Arrays.fill(u, row * uvWidth + left / 2, row * uvWidth + (right + 1) / 2, targetU[i]);
+        Arrays.fill(v, row * uvWidth + left / 2, row * uvWidth + (right + 1) / 2, targetV[i]);
+      }
+    }
+
+    planes.set(yBuffer, uBuffer, vBuffer, width, height, width, uvWidth, 1);
+    return true;
+  }
+
+  /**
+   * Copies the boxes drawn into the current frame, in pixels, as left, top, right and bottom.
+   *
+   * @return the number of boxes.
+   */
+  public int getTargets(final float[] out) {
+    System.arraycopy(boxes, 0, out, 0, boxes.length);
+    return targets;
+  }
+
+  @Override
+  public long getTimestampNs() {
+    return index * FRAME_INTERVAL_NS;
+  }
+
+  @Override
+  public int getRotation() {
+    return 0;
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,344 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Binary event trace for the per-frame paths, where {@link Logger} would build a string for every
+ * frame and candidate whether or not anyone reads logcat.
+ *
+ * <p>Events are registered once with a level and a format. Recording one writes a fixed-size record
+ * of a timestamp, the thread and up to {@link #MAX_ARGS} numbers into a preallocated ring, without
+ * allocating; the oldest records are overwritten. The format is only applied when the ring is
+ * dumped, as text or JSON, or when an echo logger that would print the level is attached.
+ *
+ * <p>Call sites guard on {@link #ENABLED} so that building with it false removes them, and on
+ * {@link #isEnabled(int)} to skip computing arguments below the runtime level. Levels are the
+ * {@link Log} priorities.
+ */
+public final class Trace {
+  /** Compile-time switch; with false, guarded call sites are dropped by the compiler. */
+  public static final boolean ENABLED = true;
+
+  public static final int MAX_ARGS = 4;
+
+  /** Shared ring for the detector pipeline. */
+  public static final Trace DEFAULT = new Trace(4096, Log.DEBUG);
+
+  /** Longs per record: sequence, time, event and thread, then the arguments, padded to 8. */
+  private static final int RECORD_LONGS = 8;
+  private static final int SEQ = 0;
+  private static final int TIME = 1;
+  private static final int HEADER = 2;
+  private static final int ARGS = 3;
+  private static final int MAX_EVENTS = 256;
+  private static final String LEVELS = "??VDIWEA";
+
+  /** A registered event: its level, name and how its arguments are printed. */
+  public static final class Event {
+    final int id;
+    final int level;
+    final String name;
+    final String format;
+    /** Whether each argument is printed as an integer rather than a float. */
+    final boolean[] integer;
+
+    Event(final int id, final int level, final String name, final String format) {
+      this.id = id;
+      this.level = level;
+      this.name = name;
+      this.format = format;
+      this.integer = integerArgs(format);
+    }
+
+    public int getLevel() {
+      return level;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicLongArray records;
+  private final AtomicLong next = new AtomicLong();
+  private final Event[] events = new Event[MAX_EVENTS];
+  private volatile int eventCount = 0;
+  private volatile int minLevel;
+  private volatile Logger echo;
+
+  /**
+   * @param capacity Records kept, rounded up to a power of two.
+   * @param minLevel Events below this level are not recorded.
+   */
+  public Trace(final int capacity, final int minLevel) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.capacity = size;
+    this.mask = size - 1;
+    this.records = new AtomicLongArray(size * RECORD_LONGS);
+    this.minLevel = minLevel;
+  }
+
+  /**
+   * Registers an event. The format takes up to {@link #MAX_ARGS} conversions; {@code %d} and {@code
+   * %x} arguments are printed as integers, the others as floats.
+   */
+  public synchronized Event register(final int level, final String name, final String format) {
+    if (eventCount == MAX_EVENTS) {
+      throw new IllegalStateException("Too many trace events");
+    }
+    final Event event = new Event(eventCount, level, name, format);
+    events[eventCount++] = event;
+    return event;
+  }
+
+  public void setMinLevel(final int minLevel) {
+    this.minLevel = minLevel;
+  }
+
+  /**
+   * Also prints recorded events through {@code logger} when it would print their level. This formats
+   * on the recording thread, so it is meant for debugging only; null turns it off.
+   */
+  public void setEcho(final Logger logger) {
+    this.echo = logger;
+  }
+
+  public boolean isEnabled(final int level) {
+    return ENABLED && level >= minLevel;
+  }
+
+  public void record(final Event event) {
+    record(event, 0, 0, 0, 0);
+  }
+
+  public void record(final Event event, final double a) {
+    record(event, a, 0, 0, 0);
+  }
+
+  public void record(final Event event, final double a, final double b) {
+    record(event, a, b, 0, 0);
+  }
+
+  public void record(final Event event, final double a, final double b, final double c) {
+    record(event, a, b, c, 0);
+  }
+
+  /**
+   * Records {@code event} with its arguments. Integers survive exactly up to 2^53, which covers
+   * frame numbers and nanosecond times.
+   */
+  public void record(
+      final Event event, final double a, final double b, final double c, final double d) {
+    if (!isEnabled(event.level)) {
+      return;
+    }
+    final long seq = next.getAndIncrement();
+    final int base = (int) (seq & mask) * RECORD_LONGS;
+    // Readers skip a record whose sequence changes while they copy it.
+    records.set(base + SEQ, -1);
+    records.lazySet(base + TIME, System.nanoTime());
+    records.lazySet(base + HEADER, event.id | (Thread.currentThread().getId() << 32));
+    records.lazySet(base + ARGS, Double.doubleToRawLongBits(a));
+    records.lazySet(base + ARGS + 1, Double.doubleToRawLongBits(b));
+    records.lazySet(base + ARGS + 2, Double.doubleToRawLongBits(c));
+    records.lazySet(base + ARGS + 3, Double.doubleToRawLongBits(d));
+    records.set(base + SEQ, seq);
+
+    final Logger logger = echo;
+    if (logger != null && logger.isLoggable(event.level)) {
+      final String message = event.name + ": " + format(event, new double[] {a, b, c, d});
+      switch (event.level) {
+        case Log.VERBOSE:
+          logger.v("%s", message);
+          break;
+        case Log.DEBUG:
+          logger.d("%s", message);
+          break;
+        case Log.INFO:
+          logger.i("%s", message);
+          break;
+        case Log.WARN:
+          logger.w("%s", message);
+          break;
+        default:
+          logger.e("%s", message);
+          break;
+      }
+    }
+  }
+
+  /** Records written since creation, including those already overwritten. */
+  public long getRecorded() {
+    return next.get();
+  }
+
+  /** Drops every record. Not safe against concurrent recording. */
+  public void clear() {
+    for (int i = 0; i < capacity; ++i) {
+      records.set(i * RECORD_LONGS + SEQ, -1);
+    }
+    next.set(0);
+  }
+
+  /**
+   * Decodes the records still in the ring, oldest first, as one line each or as a JSON array. Times
+   * are in milliseconds since the oldest record.
+   */
+  public void dump(final Appendable out, final boolean json) throws IOException {
+    final long end = next.get();
+    final long start = Math.max(0, end - capacity);
+    final long[] record = new long[RECORD_LONGS];
+    final double[] args = new double[MAX_ARGS];
+    long origin = -1;
+    boolean first = true;
+    if (json) {
+      out.append("[");
+    }
+    for (long seq = start; seq < end; ++seq) {
+      if (!read(seq, record)) {
+        continue;
+      }
+      final int id = (int) record[HEADER];
+      final Event event = id >= 0 && id < eventCount ? events[id] : null;
+      if (event == null) {
+        continue;
+      }
+      if (origin < 0) {
+        origin = record[TIME];
+      }
+      for (int i = 0; i < MAX_ARGS; ++i) {
+        args[i] = Double.longBitsToDouble(record[ARGS + i]);
+      }
+      final double timeMs = (record[TIME] - origin) / 1e6;
+      final long thread = record[HEADER] >>> 32;
+      final String message = format(event, args);
+      if (json) {
+        out.append(first ? "\n" : ",\n");
+        out.append(
+            String.format(
+                Locale.US,
+                "{\"seq\":%d,\"ms\":%.3f,\"thread\":%d,\"level\":\"%c\",\"event\":\"%s\","
+                    + "\"args\":[",
+                seq,
+                timeMs,
+                thread,
+                LEVELS.charAt(event.level),
+                escape(event.name)));
+        final int count = event.integer.length;
+        for (int i = 0; i < count; ++i) {
+          if (i > 0) {
+            out.append(",");
+          }
+          out.append(argToString(event, i, args[i]));
+        }
+        out.append("],\"message\":\"").append(escape(message)).append("\"}");
+      } else {
+        out.append(
+            String.format(
+                Locale.US,
+                "%10.3f %5d %c %s: %s\n",
+                timeMs,
+                thread,
+                LEVELS.charAt(event.level),
+                event.name,
+                message));
+      }
+      first = false;
+    }
+    if (json) {
+      out.append(first ? "]\n" : "\n]\n");
+    }
+  }
+
+  public String dump(final boolean json) {
+    final StringBuilder out = new StringBuilder();
+    try {
+      dump(out, json);
+    } catch (final IOException e) {
+      // StringBuilder does not throw.
+    }
+    return out.toString();
+  }
+
+  /** Copies record {@code seq} if it is complete and has not been overwritten. */
+  private boolean read(final long seq, final long[] out) {
+    final int base = (int) (seq & mask) * RECORD_LONGS;
+    if (records.get(base + SEQ) != seq) {
+      return false;
+    }
+    for (int i = 1; i < RECORD_LONGS; ++i) {
+      out[i] = records.get(base + i);
+    }
+    return records.get(base + SEQ) == seq;
+  }
+
+  private static String format(final Event event, final double[] args) {
+    final int count = event.integer.length;
+    final Object[] values = new Object[count];
+    for (int i = 0; i < count; ++i) {
+      values[i] = event.integer[i] ? (Object) (long) args[i] : (Object) args[i];
+    }
+    return count > 0 ? String.format(Locale.US, event.format, values) : event.format;
+  }
+
+  private static String argToString(final Event event, final int i, final double value) {
+    if (event.integer[i]) {
+      return Long.toString((long) value);
+    }
+    return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+  }
+
+  /** Which conversions of {@code format} take integers, in argument order. */
+  static boolean[] integerArgs(final String format) {
+    final boolean[] integer = new boolean[MAX_ARGS];
+    int count = 0;
+    for (int i = 0; i < format.length() - 1; ++i) {
+      if (format.charAt(i) != '%') {
+        continue;
+      }
+      int j = i + 1;
+      // Skip flags, width and precision.
+      while (j < format.length() && "-#+ 0,(.123456789".indexOf(format.charAt(j)) >= 0) {
+        ++j;
+      }
+      if (j == format.length()) {
+        break;
+      }
+      final char conversion = format.charAt(j);
+      i = j;
+      if (conversion == '%' || conversion == 'n') {
+        continue;
+      }
+      if (count == MAX_ARGS) {
+        throw new IllegalArgumentException("More than " + MAX_ARGS + " arguments: " + format);
+      }
+      integer[count++] = conversion == 'd' || conversion == 'x';
+    }
+    return Arrays.copyOf(integer, count);
+  }
+
+  private static String escape(final String text) {
+    final StringBuilder out = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); ++i) {
+      final char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,193 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a YUV 4:2:0 frame as three plane buffers plus strides, covering both the
+ * android.media.Image YUV_420_888 planes and the legacy NV21 preview byte array.
+ *
+ * A view either wraps buffers owned by someone else (the camera) or, after
+ * {@link #copyFrom(YuvPlanes)}, its own heap arrays that are reused from frame to frame.
+ */
+public class YuvPlanes {
+  private ByteBuffer y;
+  private ByteBuffer u;
+  private ByteBuffer v;
+  private int width;
+  private int height;
+  private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+
+  private byte[] yBytes;
+  private byte[] uBytes;
+  private byte[] vBytes;
+
+  /** Wraps the planes of a YUV_420_888 image. The buffers are read with absolute gets only. */
+  public void set(
+      final ByteBuffer y,
+      final ByteBuffer u,
+      final ByteBuffer v,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    this.y = y;
+    this.u = u;
+    this.v = v;
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  /** Wraps an NV21 preview frame (Y plane followed by interleaved V/U) without copying it. */
+  public void setNv21(final byte[] data, final int width, final int height) {
+    final int frameSize = width * height;
+    final int uvSize = data.length - frameSize;
+    set(
+        ByteBuffer.wrap(data, 0, frameSize).slice(),
+        ByteBuffer.wrap(data, frameSize + 1, uvSize - 1).slice(),
+        ByteBuffer.wrap(data, frameSize, uvSize).slice(),
+        width,
+        height,
+        width,
+        width,
+        2);
+  }
+
+  /**
+   * Copies the planes of {@code src} into arrays owned by this instance, which stay valid after
+   * the source buffers are handed back to the camera. Arrays are only reallocated when the plane
+   * sizes grow.
+   */
+  public void copyFrom(final YuvPlanes src) {
+    yBytes = copyPlane(src.y, yBytes);
+    uBytes = copyPlane(src.u, uBytes);
+    vBytes = copyPlane(src.v, vBytes);
+    set(
+        ByteBuffer.wrap(yBytes),
+        ByteBuffer.wrap(uBytes),
+        ByteBuffer.wrap(vBytes),
+        src.width,
+        src.height,
+        src.yRowStride,
+        src.uvRowStride,
+        src.uvPixelStride);
+  }
+
+  /**
+   * Converts an ARGB_8888 image into planar YUV 4:2:0 held in arrays owned by this instance, the
+   * inverse of the integer BT.601 math in {@link ImageUtils#yuvToArgb}. Chroma is averaged over
+   * each 2x2 block.
+   */
+  public void setArgb(final int[] argb, final int width, final int height) {
+    final int uvWidth = (width + 1) / 2;
+    final int uvHeight = (height + 1) / 2;
+    if (yBytes == null || yBytes.length < width * height) {
+      yBytes = new byte[width * height];
+    }
+    if (uBytes == null || uBytes.length < uvWidth * uvHeight) {
+      uBytes = new byte[uvWidth * uvHeight];
+      vBytes = new byte[uvWidth * uvHeight];
+    }
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final int pixel = argb[y * width + x];
+        final int r = (pixel >> 16) & 0xFF;
+        final int g = (pixel >> 8) & 0xFF;
+        final int b = pixel & 0xFF;
+        yBytes[y * width + x] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+      }
+    }
+    for (int cy = 0; cy < uvHeight; ++cy) {
+      for (int cx = 0; cx < uvWidth; ++cx) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int n = 0;
+        for (int y = 2 * cy; y < Math.min(height, 2 * cy + 2); ++y) {
+          for (int x = 2 * cx; x < Math.min(width, 2 * cx + 2); ++x) {
+            final int pixel = argb[y * width + x];
+            r += (pixel >> 16) & 0xFF;
+            g += (pixel >> 8) & 0xFF;
+            b += pixel & 0xFF;
+            ++n;
+          }
+        }
+        r /= n;
+        g /= n;
+        b /= n;
+        uBytes[cy * uvWidth + cx] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+        vBytes[cy * uvWidth + cx] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+      }
+    }
+    set(
+        ByteBuffer.wrap(yBytes),
+        ByteBuffer.wrap(uBytes),
+        ByteBuffer.wrap(vBytes),
+        width,
+        height,
+        width,
+        uvWidth,
+        1);
+  }
+
+  private static byte[] copyPlane(final ByteBuffer plane, byte[] dst) {
+    final ByteBuffer source = plane.duplicate();
+    source.rewind();
+    final int size = source.remaining();
+    if (dst == null || dst.length < size) {
+      dst = new byte[size];
+    }
+    source.get(dst, 0, size);
+    return dst;
+  }
+
+  /** Converts the whole frame to ARGB_8888. Array backed (copied) planes take the faster path. */
+  public void toArgb(final int[] out) {
+    if (y.hasArray() && u.hasArray() && v.hasArray()
+        && y.arrayOffset() == 0 && u.arrayOffset() == 0 && v.arrayOffset() == 0) {
+      ImageUtils.convertYUV420ToARGB8888(
+          y.array(), u.array(), v.array(),
+          width, height, yRowStride, uvRowStride, uvPixelStride, out);
+    } else {
+      ImageUtils.convertYUV420ToARGB8888(
+          y, u, v, width, height, yRowStride, uvRowStride, uvPixelStride, out);
+    }
+  }
+
+  public ByteBuffer getY() {
+    return y;
+  }
+
+  public ByteBuffer getU() {
+    return u;
+  }
+
+  public ByteBuffer getV() {
+    return v;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getYRowStride() {
+    return yRowStride;
+  }
+
+  public int getUvRowStride() {
+    return uvRowStride;
+  }
+
+  public int getUvPixelStride() {
+    return uvPixelStride;
+  }
+}
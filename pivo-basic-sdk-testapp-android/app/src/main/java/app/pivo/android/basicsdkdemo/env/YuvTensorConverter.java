@@ -0,0 +1,315 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds a rotated, resized, normalized RGB float tensor straight from YUV 4:2:0 planes.
+ *
+ * Rotation, scaling and color conversion happen in a single nearest-neighbour pass that only
+ * touches the source samples that end up in the output, so a 1080p frame never goes through a
+ * full-resolution ARGB copy. Source offsets are split into a per-column and a per-row table, which
+ * are rebuilt only when the geometry changes. Quantized inputs are written as bytes looked up per
+ * channel, a quarter of the float tensor's size.
+ *
+ * With {@link #setLetterbox} the frame keeps its aspect ratio: it is scaled to fit the output and
+ * centered, and output pixels that fall outside the frame are filled with gray, as for a YOLO
+ * letterbox. This matches {@link ImageUtils#getTransformationMatrix(int, int, int, int, int,
+ * boolean, boolean)} with letterboxing on.
+ *
+ * Instances keep their tables and row staging array between calls and are not thread safe.
+ */
+public class YuvTensorConverter {
+  private static final int PIXEL_SIZE = 3;
+  /** Channel intensity of letterbox padding. */
+  private static final int PAD = 114;
+
+  private int srcWidth = -1;
+  private int srcHeight = -1;
+  private int yRowStride = -1;
+  private int uvRowStride = -1;
+  private int uvPixelStride = -1;
+  private int dstWidth = -1;
+  private int dstHeight = -1;
+  private int rotation = -1;
+  private float roiLeft = 0;
+  private float roiTop = 0;
+  private float roiRight = 1;
+  private float roiBottom = 1;
+  private boolean letterbox = false;
+  private boolean dirty = true;
+
+  // Y index of output pixel (dx, dy) is yCol[dx] + yRow[dy]; same for the chroma planes. Rows
+  // outside the frame have yRow[dy] = -1, columns outside it lie outside [colStart, colEnd).
+  private int[] yCol = new int[0];
+  private int[] yRow = new int[0];
+  private int[] uvCol = new int[0];
+  private int[] uvRow = new int[0];
+  // Area of the rotated frame, normalized, that the output covers including padding.
+  private float windowLeft = 0;
+  private float windowTop = 0;
+  private float windowWidth = 1;
+  private float windowHeight = 1;
+  private int colStart;
+  private int colEnd;
+  private float[] row = new float[0];
+  private float[] padRow = new float[0];
+  private byte[] byteRow = new byte[0];
+  private byte[] bytePadRow = new byte[0];
+
+  /**
+   * Converts a sensor orientation as passed to {@link ImageUtils#getTransformationMatrix} into the
+   * clockwise rotation the detector input has always been built with.
+   */
+  public static int rotationForSensor(final int sensorOrientation) {
+    if (sensorOrientation % 360 == 0) {
+      return 0;
+    }
+    return ((180 - sensorOrientation) % 360 + 360) % 360;
+  }
+
+  /**
+   * Restricts the conversion to a region of the rotated frame, given in normalized [0, 1]
+   * coordinates. The region is stretched over the whole output, or fitted with {@link
+   * #setLetterbox}; parts of the output outside the frame are padded.
+   */
+  public void setRoi(final float left, final float top, final float right, final float bottom) {
+    if (left != roiLeft || top != roiTop || right != roiRight || bottom != roiBottom) {
+      roiLeft = left;
+      roiTop = top;
+      roiRight = right;
+      roiBottom = bottom;
+      dirty = true;
+    }
+  }
+
+  public void clearRoi() {
+    setRoi(0, 0, 1, 1);
+  }
+
+  /** Fits the frame, or the ROI, into the output with its aspect ratio kept instead of stretching it. */
+  public void setLetterbox(final boolean letterbox) {
+    if (letterbox != this.letterbox) {
+      this.letterbox = letterbox;
+      dirty = true;
+    }
+  }
+
+  /**
+   * Area of the rotated frame the last conversion covered, normalized, as left, top, width and
+   * height: output pixel (x, y) of a {@code dstWidth} x {@code dstHeight} output shows frame
+   * position (left + width * x / dstWidth, top + height * y / dstHeight).
+   */
+  public void getWindow(final float[] out) {
+    out[0] = windowLeft;
+    out[1] = windowTop;
+    out[2] = windowWidth;
+    out[3] = windowHeight;
+  }
+
+  /**
+   * Writes {@code planes}, rotated clockwise by {@code rotation} degrees (a multiple of 90) and
+   * resized to {@code dstWidth} x {@code dstHeight}, into {@code dst} as interleaved RGB floats in
+   * [0, 1] starting at float index {@code offset}.
+   */
+  public void convert(
+      final YuvPlanes planes,
+      final int rotation,
+      final int dstWidth,
+      final int dstHeight,
+      final FloatBuffer dst,
+      final int offset) {
+    prepare(planes, rotation, dstWidth, dstHeight);
+
+    final ByteBuffer y = planes.getY();
+    final ByteBuffer u = planes.getU();
+    final ByteBuffer v = planes.getV();
+
+    final int rowSize = dstWidth * PIXEL_SIZE;
+    Arrays.fill(row, 0, colStart * PIXEL_SIZE, PAD / 255.0f);
+    Arrays.fill(row, colEnd * PIXEL_SIZE, rowSize, PAD / 255.0f);
+
+    dst.position(offset);
+    for (int dy = 0; dy < dstHeight; ++dy) {
+      final int yBase = yRow[dy];
+      if (yBase < 0) {
+        dst.put(padRow, 0, rowSize);
+        continue;
+      }
+      final int uvBase = uvRow[dy];
+      int k = colStart * PIXEL_SIZE;
+      for (int dx = colStart; dx < colEnd; ++dx) {
+        final int uvIndex = uvBase + uvCol[dx];
+        final int argb =
+            ImageUtils.yuvToArgb(
+                0xff & y.get(yBase + yCol[dx]), 0xff & u.get(uvIndex), 0xff & v.get(uvIndex));
+        row[k++] = ((argb >> 16) & 0xFF) / 255.0f;
+        row[k++] = ((argb >> 8) & 0xFF) / 255.0f;
+        row[k++] = (argb & 0xFF) / 255.0f;
+      }
+      dst.put(row, 0, rowSize);
+    }
+  }
+
+  /**
+   * Like {@link #convert(YuvPlanes, int, int, int, FloatBuffer, int)}, for a quantized input:
+   * writes interleaved RGB bytes, channel intensity i encoded as {@code table[i]}, into {@code
+   * dst} starting at byte {@code offset}.
+   */
+  public void convert(
+      final YuvPlanes planes,
+      final int rotation,
+      final int dstWidth,
+      final int dstHeight,
+      final ByteBuffer dst,
+      final int offset,
+      final byte[] table) {
+    prepare(planes, rotation, dstWidth, dstHeight);
+    final int rowSize = dstWidth * PIXEL_SIZE;
+    if (byteRow.length != rowSize) {
+      byteRow = new byte[rowSize];
+      bytePadRow = new byte[rowSize];
+    }
+    Arrays.fill(byteRow, 0, colStart * PIXEL_SIZE, table[PAD]);
+    Arrays.fill(byteRow, colEnd * PIXEL_SIZE, rowSize, table[PAD]);
+    Arrays.fill(bytePadRow, table[PAD]);
+
+    final ByteBuffer y = planes.getY();
+    final ByteBuffer u = planes.getU();
+    final ByteBuffer v = planes.getV();
+
+    dst.position(offset);
+    for (int dy = 0; dy < dstHeight; ++dy) {
+      final int yBase = yRow[dy];
+      if (yBase < 0) {
+        dst.put(bytePadRow, 0, rowSize);
+        continue;
+      }
+      final int uvBase = uvRow[dy];
+      int k = colStart * PIXEL_SIZE;
+      for (int dx = colStart; dx < colEnd; ++dx) {
+        final int uvIndex = uvBase + uvCol[dx];
+        final int argb =
+            ImageUtils.yuvToArgb(
+                0xff & y.get(yBase + yCol[dx]), 0xff & u.get(uvIndex), 0xff & v.get(uvIndex));
+        byteRow[k++] = table[(argb >> 16) & 0xFF];
+        byteRow[k++] = table[(argb >> 8) & 0xFF];
+        byteRow[k++] = table[argb & 0xFF];
+      }
+      dst.put(byteRow, 0, rowSize);
+    }
+  }
+
+  private void prepare(
+      final YuvPlanes planes, final int rotation, final int dstWidth, final int dstHeight) {
+    if (!dirty
+        && planes.getWidth() == srcWidth
+        && planes.getHeight() == srcHeight
+        && planes.getYRowStride() == yRowStride
+        && planes.getUvRowStride() == uvRowStride
+        && planes.getUvPixelStride() == uvPixelStride
+        && rotation == this.rotation
+        && dstWidth == this.dstWidth
+        && dstHeight == this.dstHeight) {
+      return;
+    }
+    if (rotation % 90 != 0) {
+      throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+    }
+
+    srcWidth = planes.getWidth();
+    srcHeight = planes.getHeight();
+    yRowStride = planes.getYRowStride();
+    uvRowStride = planes.getUvRowStride();
+    uvPixelStride = planes.getUvPixelStride();
+    this.rotation = rotation;
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+    dirty = false;
+
+    if (yCol.length != dstWidth) {
+      yCol = new int[dstWidth];
+      uvCol = new int[dstWidth];
+      row = new float[dstWidth * PIXEL_SIZE];
+      padRow = new float[dstWidth * PIXEL_SIZE];
+      Arrays.fill(padRow, PAD / 255.0f);
+    }
+    if (yRow.length != dstHeight) {
+      yRow = new int[dstHeight];
+      uvRow = new int[dstHeight];
+    }
+
+    // With 0 or 180 degrees an output column selects a source column; with 90 or 270 it selects a
+    // source row, so the stride moves from one table to the other.
+    final int turns = ((rotation / 90) % 4 + 4) % 4;
+    final boolean swap = turns % 2 == 1;
+
+    // Output pixel (dx, dy) samples the rotated frame at normalized (u, v).
+    float uStart = roiLeft;
+    float vStart = roiTop;
+    float uExtent = roiRight - roiLeft;
+    float vExtent = roiBottom - roiTop;
+    if (letterbox) {
+      final int rotatedWidth = swap ? srcHeight : srcWidth;
+      final int rotatedHeight = swap ? srcWidth : srcHeight;
+      // Source pixels per output pixel: the larger of the two axes, so the whole region fits.
+      final float step =
+          Math.max(uExtent * rotatedWidth / dstWidth, vExtent * rotatedHeight / dstHeight);
+      final float fitWidth = step * dstWidth / rotatedWidth;
+      final float fitHeight = step * dstHeight / rotatedHeight;
+      uStart = roiLeft + (uExtent - fitWidth) / 2;
+      vStart = roiTop + (vExtent - fitHeight) / 2;
+      uExtent = fitWidth;
+      vExtent = fitHeight;
+    }
+    windowLeft = uStart;
+    windowTop = vStart;
+    windowWidth = uExtent;
+    windowHeight = vExtent;
+
+    colStart = dstWidth;
+    colEnd = 0;
+    for (int dx = 0; dx < dstWidth; ++dx) {
+      final float u = uStart + uExtent * (dx + 0.5f) / dstWidth;
+      if (u < 0 || u > 1) {
+        continue;
+      }
+      colStart = Math.min(colStart, dx);
+      colEnd = dx + 1;
+      if (swap) {
+        final int sy = sample(turns == 1 ? 1 - u : u, srcHeight);
+        yCol[dx] = sy * yRowStride;
+        uvCol[dx] = (sy >> 1) * uvRowStride;
+      } else {
+        final int sx = sample(turns == 2 ? 1 - u : u, srcWidth);
+        yCol[dx] = sx;
+        uvCol[dx] = (sx >> 1) * uvPixelStride;
+      }
+    }
+    if (colStart > colEnd) {
+      colStart = colEnd;
+    }
+    for (int dy = 0; dy < dstHeight; ++dy) {
+      final float v = vStart + vExtent * (dy + 0.5f) / dstHeight;
+      if (v < 0 || v > 1) {
+        yRow[dy] = -1;
+        continue;
+      }
+      if (swap) {
+        final int sx = sample(turns == 1 ? v : 1 - v, srcWidth);
+        yRow[dy] = sx;
+        uvRow[dy] = (sx >> 1) * uvPixelStride;
+      } else {
+        final int sy = sample(turns == 2 ? 1 - v : v, srcHeight);
+        yRow[dy] = sy * yRowStride;
+        uvRow[dy] = (sy >> 1) * uvRowStride;
+      }
+    }
+  }
+
+  private static int sample(final float t, final int size) {
+    final int s = (int) (t * size);
+    return s < 0 ? 0 : (s >= size ? size - 1 : s);
+  }
+}
@@ -0,0 +1,230 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Table driven YUV 4:2:0 to ARGB_8888 conversion, bit-identical to
+ * {@link ImageUtils#convertYUV420ToARGB8888} and {@link ImageUtils#convertYUV420SPToARGB8888}.
+ *
+ * The per-channel multiplies are looked up from 256 entry tables, the chroma terms are computed
+ * once per 2x2 block and shared by both luma rows, and clamping is a single table lookup on the
+ * already shifted channel value. Row pairs are split across a fork-join pool when the converter is
+ * created with a parallelism above one.
+ */
+public class YuvToArgbConverter {
+  // Each channel is computed in 10 bit fixed point; the shifted value falls in [-259, 534].
+  private static final int CLAMP_OFFSET = 384;
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+  private static final int[] CLAMP = new int[1024];
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TABLE[i] = 1192 * (i - 16 < 0 ? 0 : i - 16);
+      RV_TABLE[i] = 1634 * (i - 128);
+      GV_TABLE[i] = 833 * (i - 128);
+      GU_TABLE[i] = 400 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+    for (int i = 0; i < CLAMP.length; ++i) {
+      final int value = i - CLAMP_OFFSET;
+      CLAMP[i] = value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+  }
+
+  /** Row pairs below which a task is not split further. */
+  private static final int MIN_ROW_PAIRS_PER_TASK = 16;
+
+  private final ForkJoinPool pool;
+  private final boolean ownsPool;
+
+  /**
+   * @param parallelism Number of worker threads; 1 converts on the calling thread.
+   */
+  public YuvToArgbConverter(final int parallelism) {
+    this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    this.ownsPool = true;
+  }
+
+  /** Shares an existing pool, which is left running by {@link #close()}. */
+  public YuvToArgbConverter(final ForkJoinPool pool) {
+    this.pool = pool;
+    this.ownsPool = false;
+  }
+
+  public int getParallelism() {
+    return pool == null ? 1 : pool.getParallelism();
+  }
+
+  /** Shuts the worker threads down if this converter created them. */
+  public void close() {
+    if (ownsPool && pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  /** Planar or semi-planar YUV_420_888 planes, as in {@link ImageUtils#convertYUV420ToARGB8888}. */
+  public void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    convert(
+        new Frame(
+            yData, 0, uData, 0, vData, 0, width, height, yRowStride, uvRowStride, uvPixelStride,
+            out));
+  }
+
+  /** NV21 preview data, as in {@link ImageUtils#convertYUV420SPToARGB8888}. */
+  public void convertYUV420SPToARGB8888(
+      final byte[] input, final int width, final int height, final int[] output) {
+    final int frameSize = width * height;
+    convert(
+        new Frame(
+            input, 0, input, frameSize + 1, input, frameSize, width, height, width, width, 2,
+            output));
+  }
+
+  /**
+   * Converts {@code planes}. Array backed planes take the table driven path; direct buffers fall
+   * back to {@link ImageUtils}.
+   */
+  public void convert(final YuvPlanes planes, final int[] out) {
+    final ByteBuffer y = planes.getY();
+    final ByteBuffer u = planes.getU();
+    final ByteBuffer v = planes.getV();
+    if (!(y.hasArray() && u.hasArray() && v.hasArray())) {
+      planes.toArgb(out);
+      return;
+    }
+    convert(
+        new Frame(
+            y.array(), y.arrayOffset(),
+            u.array(), u.arrayOffset(),
+            v.array(), v.arrayOffset(),
+            planes.getWidth(), planes.getHeight(),
+            planes.getYRowStride(), planes.getUvRowStride(), planes.getUvPixelStride(),
+            out));
+  }
+
+  private void convert(final Frame frame) {
+    final int rowPairs = (frame.height + 1) >> 1;
+    if (pool == null || rowPairs < 2 * MIN_ROW_PAIRS_PER_TASK) {
+      frame.convertRowPairs(0, rowPairs);
+    } else {
+      pool.invoke(new RowTask(frame, 0, rowPairs));
+    }
+  }
+
+  private static final class RowTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Frame frame;
+    private final int from;
+    private final int to;
+
+    RowTask(final Frame frame, final int from, final int to) {
+      this.frame = frame;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= MIN_ROW_PAIRS_PER_TASK) {
+        frame.convertRowPairs(from, to);
+        return;
+      }
+      final int mid = (from + to) >>> 1;
+      invokeAll(new RowTask(frame, from, mid), new RowTask(frame, mid, to));
+    }
+  }
+
+  /** One conversion request; plane offsets let NV21 share a single array. */
+  private static final class Frame {
+    final byte[] y;
+    final int yOffset;
+    final byte[] u;
+    final int uOffset;
+    final byte[] v;
+    final int vOffset;
+    final int width;
+    final int height;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+    final int[] out;
+
+    Frame(
+        final byte[] y, final int yOffset,
+        final byte[] u, final int uOffset,
+        final byte[] v, final int vOffset,
+        final int width, final int height,
+        final int yRowStride, final int uvRowStride, final int uvPixelStride,
+        final int[] out) {
+      this.y = y;
+      this.yOffset = yOffset;
+      this.u = u;
+      this.uOffset = uOffset;
+      this.v = v;
+      this.vOffset = vOffset;
+      this.width = width;
+      this.height = height;
+      this.yRowStride = yRowStride;
+      this.uvRowStride = uvRowStride;
+      this.uvPixelStride = uvPixelStride;
+      this.out = out;
+    }
+
+    void convertRowPairs(final int from, final int to) {
+      for (int pair = from; pair < to; ++pair) {
+        final int row = pair << 1;
+        final boolean hasSecondRow = row + 1 < height;
+        final int pY0 = yOffset + row * yRowStride;
+        final int pY1 = pY0 + yRowStride;
+        final int pU = uOffset + pair * uvRowStride;
+        final int pV = vOffset + pair * uvRowStride;
+        int o0 = row * width;
+        int o1 = o0 + width;
+
+        for (int i = 0; i < width; i += 2) {
+          final int c = (i >> 1) * uvPixelStride;
+          final int uSample = 0xff & u[pU + c];
+          final int vSample = 0xff & v[pV + c];
+          final int rc = RV_TABLE[vSample];
+          final int gc = -GV_TABLE[vSample] - GU_TABLE[uSample];
+          final int bc = BU_TABLE[uSample];
+          final boolean hasSecondColumn = i + 1 < width;
+
+          out[o0++] = pixel(Y_TABLE[0xff & y[pY0 + i]], rc, gc, bc);
+          if (hasSecondColumn) {
+            out[o0++] = pixel(Y_TABLE[0xff & y[pY0 + i + 1]], rc, gc, bc);
+          }
+          if (hasSecondRow) {
+            out[o1++] = pixel(Y_TABLE[0xff & y[pY1 + i]], rc, gc, bc);
+            if (hasSecondColumn) {
+              out[o1++] = pixel(Y_TABLE[0xff & y[pY1 + i + 1]], rc, gc, bc);
+            }
+          }
+        }
+      }
+    }
+
+    private static int pixel(final int y1192, final int rc, final int gc, final int bc) {
+      return 0xff000000
+          | (CLAMP[((y1192 + rc) >> 10) + CLAMP_OFFSET] << 16)
+          | (CLAMP[((y1192 + gc) >> 10) + CLAMP_OFFSET] << 8)
+          | CLAMP[((y1192 + bc) >> 10) + CLAMP_OFFSET];
+    }
+  }
+}
@@ -0,0 +1,337 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import app.pivo.android.basicsdkdemo.env.FrameSource;
+import app.pivo.android.basicsdkdemo.env.SyntheticFrameSource;
+import app.pivo.android.basicsdkdemo.env.YuvPlanes;
+import app.pivo.android.basicsdkdemo.env.YuvTensorConverter;
+import app.pivo.android.basicsdkdemo.tflite.DetectionCandidates;
+import app.pivo.android.basicsdkdemo.tflite.FeatureExtract;
+import app.pivo.android.basicsdkdemo.tflite.InputTensorPool;
+import app.pivo.android.basicsdkdemo.tflite.NmsEngine;
+import app.pivo.android.basicsdkdemo.tflite.YoloClassifier;
+import app.pivo.android.basicsdkdemo.tracking.EmbeddingGallery;
+import app.pivo.android.basicsdkdemo.tracking.ObjectTracker;
+
+/**
+ * Runs frames from a {@link FrameSource} through the detection chain on the calling thread, without
+ * an activity, and reports throughput, latency percentiles and allocations per stage.
+ *
+ * The stages are those of DetectorActivity: YUV to detector input, detection, tracking, and
+ * re-identification of detections whose track has no identity yet. Only plain-Java types are used
+ * on the way, so the benchmark runs on a desktop JVM as well as on a device. Without a detector the
+ * tracker is fed the boxes of a {@link SyntheticFrameSource}; without an extractor re-identification
+ * is skipped.
+ */
+public class DetectorBenchmark {
+    public static final int STAGE_SOURCE = 0;
+    public static final int STAGE_PREPROCESS = 1;
+    public static final int STAGE_DETECT = 2;
+    public static final int STAGE_TRACK = 3;
+    public static final int STAGE_REID = 4;
+    private static final String[] STAGE_NAMES = {"source", "preprocess", "detect", "track", "reid"};
+
+    private static final int DEFAULT_INPUT_SIZE = 320;
+    private static final int MAX_DETECTIONS = 64;
+    private static final float MINIMUM_SIMILARITY = 0.5f;
+
+    /** Heap bytes allocated so far by the calling thread; -1 where the runtime cannot tell. */
+    public interface AllocationCounter {
+        long allocatedBytes();
+    }
+
+    /** Results of one {@link #run}. */
+    public static final class Report {
+        public final long frames;
+        public final long wallNanos;
+        public final LatencyHistogram.Snapshot[] stages;
+        /** Heap bytes allocated per frame in each stage, or -1 if unknown. */
+        public final long[] bytesPerFrame;
+
+        Report(final long frames, final long wallNanos, final LatencyHistogram.Snapshot[] stages,
+               final long[] bytesPerFrame) {
+            this.frames = frames;
+            this.wallNanos = wallNanos;
+            this.stages = stages;
+            this.bytesPerFrame = bytesPerFrame;
+        }
+
+        public float getFramesPerSecond() {
+            return wallNanos > 0 ? frames * 1e9f / wallNanos : 0;
+        }
+
+        /** Throughput, then one line per stage that ran. */
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%d frames in %.2f s, %.1f fps", frames, wallNanos / 1e9f, getFramesPerSecond()));
+            for (int i = 0; i < stages.length; i++) {
+                if (stages[i].count == 0) {
+                    continue;
+                }
+                sb.append('\n').append(stages[i]);
+                if (bytesPerFrame[i] >= 0) {
+                    sb.append(String.format(Locale.US, ", %d B/frame", bytesPerFrame[i]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private final FrameSource source;
+    private final StageStats stats = new StageStats(STAGE_NAMES);
+    private final long[] allocated = new long[STAGE_NAMES.length];
+    private AllocationCounter allocationCounter = () -> -1;
+    /** Bytes a call to the counter itself allocates, taken off every reading. */
+    private long counterOverhead = 0;
+    private YoloClassifier detector;
+    private FeatureExtract extractor;
+    private EmbeddingGallery gallery;
+    private ObjectTracker tracker;
+    private int warmupFrames = 0;
+
+    private final YuvPlanes planes = new YuvPlanes();
+    private final YuvTensorConverter inputConverter = new YuvTensorConverter();
+    private final YuvTensorConverter roiConverter = new YuvTensorConverter();
+    private final float[] window = new float[4];
+    private final float[] boxes = new float[4 * MAX_DETECTIONS];
+    private final float[] scores = new float[MAX_DETECTIONS];
+    private final int[] classes = new int[MAX_DETECTIONS];
+    private final int[] slots = new int[MAX_DETECTIONS];
+    private final int[] embedIndex = new int[MAX_DETECTIONS];
+    private final int[] matchId = new int[1];
+    private final float[] matchScore = new float[1];
+    private float[] features = new float[0];
+    private int roiRotation;
+    private final FeatureExtract.RoiSource roiSource = new FeatureExtract.RoiSource() {
+        @Override
+        public void fill(final int index, final FloatBuffer dst, final int offset) {
+            final int k = embedIndex[index];
+            roiConverter.setRoi(
+                    window[0] + window[2] * boxes[4 * k] / inputWidth,
+                    window[1] + window[3] * boxes[4 * k + 1] / inputHeight,
+                    window[0] + window[2] * boxes[4 * k + 2] / inputWidth,
+                    window[1] + window[3] * boxes[4 * k + 3] / inputHeight);
+            final int roiSize = extractor.getInputSize();
+            roiConverter.convert(planes, roiRotation, roiSize, roiSize, dst, offset);
+        }
+    };
+    private InputTensorPool inputPool;
+    private int inputWidth = DEFAULT_INPUT_SIZE;
+    private int inputHeight = DEFAULT_INPUT_SIZE;
+
+    public DetectorBenchmark(final FrameSource source) {
+        this.source = source;
+        inputConverter.setLetterbox(true);
+    }
+
+    /** Runs the detector on every frame; its input pool and size are used for preprocessing. */
+    public DetectorBenchmark setDetector(final YoloClassifier detector) {
+        this.detector = detector;
+        return this;
+    }
+
+    /** Embeds detections whose track has no identity and looks them up in {@code gallery}. */
+    public DetectorBenchmark setReId(final FeatureExtract extractor, final EmbeddingGallery gallery) {
+        this.extractor = extractor;
+        this.gallery = gallery;
+        return this;
+    }
+
+    public DetectorBenchmark setTracker(final ObjectTracker tracker) {
+        this.tracker = tracker;
+        return this;
+    }
+
+    public DetectorBenchmark setAllocationCounter(final AllocationCounter allocationCounter) {
+        this.allocationCounter = allocationCounter;
+        return this;
+    }
+
+    /** Frames run before measuring, e.g. for the JIT and the interpreter's first allocations. */
+    public DetectorBenchmark setWarmupFrames(final int warmupFrames) {
+        this.warmupFrames = warmupFrames;
+        return this;
+    }
+
+    /**
+     * Runs up to {@code maxFrames} measured frames, after the warm-up, or until the source is
+     * exhausted.
+     */
+    public Report run(final int maxFrames) throws IOException {
+        if (detector != null) {
+            inputPool = detector.getInputPool();
+            inputWidth = detector.getInputWidth();
+            inputHeight = detector.getInputHeight();
+        } else {
+            inputPool = new InputTensorPool(inputWidth, inputHeight, 1, 1);
+        }
+
+        counterOverhead = Long.MAX_VALUE;
+        for (int i = 0; i < 8; i++) {
+            final long before = allocationCounter.allocatedBytes();
+            counterOverhead = Math.min(counterOverhead, allocationCounter.allocatedBytes() - before);
+        }
+
+        long frame = 0;
+        long measured = 0;
+        long wallStart = System.nanoTime();
+        while (measured < maxFrames) {
+            if (frame == warmupFrames) {
+                stats.reset();
+                Arrays.fill(allocated, 0);
+                wallStart = System.nanoTime();
+            }
+            if (!runFrame(frame)) {
+                break;
+            }
+            if (frame >= warmupFrames) {
+                measured++;
+            }
+            frame++;
+        }
+        final long wallNanos = System.nanoTime() - wallStart;
+
+        final LatencyHistogram.Snapshot[] snapshots = new LatencyHistogram.Snapshot[STAGE_NAMES.length];
+        final long[] bytesPerFrame = new long[STAGE_NAMES.length];
+        for (int i = 0; i < snapshots.length; i++) {
+            snapshots[i] = stats.snapshot(i);
+            bytesPerFrame[i] = allocated[i] < 0 || snapshots[i].count == 0 ? -1 : allocated[i] / snapshots[i].count;
+        }
+        return new Report(measured, wallNanos, snapshots, bytesPerFrame);
+    }
+
+    private boolean runFrame(final long timestamp) throws IOException {
+        long bytes = allocationCounter.allocatedBytes();
+        long start = stats.start();
+        if (!source.next(planes)) {
+            return false;
+        }
+        start = stats.stop(STAGE_SOURCE, start);
+        bytes = count(STAGE_SOURCE, bytes);
+
+        final int rotation = source.getRotation();
+        final InputTensorPool.Tensor input = inputPool.acquire();
+        if (input == null) {
+            throw new IllegalStateException("No free input tensor");
+        }
+        int count;
+        try {
+            if (input.isQuantized()) {
+                inputConverter.convert(planes, rotation, inputWidth, inputHeight, input.getBytes(), 0,
+                        inputPool.getPixelTable());
+            } else {
+                inputConverter.convert(planes, rotation, inputWidth, inputHeight, input.getFloats(), 0);
+            }
+            inputConverter.getWindow(window);
+            start = stats.stop(STAGE_PREPROCESS, start);
+            bytes = count(STAGE_PREPROCESS, bytes);
+
+            count = detector != null ? detections(input) : groundTruth();
+            start = stats.stop(STAGE_DETECT, start);
+            bytes = count(STAGE_DETECT, bytes);
+        } finally {
+            inputPool.release(input);
+        }
+
+        if (tracker != null) {
+            tracker.update(boxes, scores, classes, count, timestamp, slots);
+            start = stats.stop(STAGE_TRACK, start);
+            bytes = count(STAGE_TRACK, bytes);
+
+            if (extractor != null && detector != null) {
+                reId(count, rotation, timestamp);
+                stats.stop(STAGE_REID, start);
+                count(STAGE_REID, bytes);
+            }
+        }
+        return true;
+    }
+
+    /** Runs the detector and copies its detections into the tracker arrays, in input pixels. */
+    private int detections(final InputTensorPool.Tensor input) {
+        final int kept = detector.detectTensor(input);
+        final NmsEngine nms = detector.getNmsEngine();
+        final DetectionCandidates candidates = detector.getCandidates();
+        final int[] keep = nms.getKeep();
+        final float[] keepScores = nms.getKeepScores();
+        final int count = Math.max(0, Math.min(kept, MAX_DETECTIONS));
+        for (int k = 0; k < count; k++) {
+            final int i = keep[k];
+            boxes[4 * k] = Math.max(0, candidates.left(i));
+            boxes[4 * k + 1] = Math.max(0, candidates.top(i));
+            boxes[4 * k + 2] = Math.min(inputWidth - 1, candidates.right(i));
+            boxes[4 * k + 3] = Math.min(inputHeight - 1, candidates.bottom(i));
+            scores[k] = keepScores[k];
+            classes[k] = candidates.detectedClass[i];
+        }
+        return count;
+    }
+
+    /** The boxes drawn by a synthetic source, mapped into input pixels, or none. */
+    private int groundTruth() {
+        if (!(source instanceof SyntheticFrameSource)) {
+            return 0;
+        }
+        final int count = Math.min(((SyntheticFrameSource) source).getTargets(boxes), MAX_DETECTIONS);
+        final float frameWidth = planes.getWidth();
+        final float frameHeight = planes.getHeight();
+        for (int k = 0; k < count; k++) {
+            for (int c = 0; c < 4; c += 2) {
+                boxes[4 * k + c] = (boxes[4 * k + c] / frameWidth - window[0]) / window[2] * inputWidth;
+                boxes[4 * k + c + 1] =
+                        (boxes[4 * k + c + 1] / frameHeight - window[1]) / window[3] * inputHeight;
+            }
+            scores[k] = 1f;
+            classes[k] = 0;
+        }
+        return count;
+    }
+
+    /** Embeds the tracked detections without an identity in one batch and assigns them one. */
+    private void reId(final int count, final int rotation, final long timestamp) {
+        int embedCount = 0;
+        for (int k = 0; k < count; k++) {
+            if (slots[k] >= 0 && tracker.getIdentity(slots[k]) < 0) {
+                embedIndex[embedCount++] = k;
+            }
+        }
+        if (embedCount == 0) {
+            return;
+        }
+        final int featureSize = extractor.getFeatureSize();
+        if (features.length < embedCount * featureSize) {
+            features = new float[embedCount * featureSize];
+        }
+        roiRotation = rotation;
+        extractor.getFeatures(embedCount, roiSource, features);
+
+        for (int e = 0; e < embedCount; e++) {
+            final int k = embedIndex[e];
+            final String label = detector.getLabel(classes[k]);
+            final int id;
+            if (gallery.search(label, features, e * featureSize, 1, MINIMUM_SIMILARITY, matchId, matchScore) > 0) {
+                id = matchId[0];
+                gallery.touch(label, id, timestamp);
+            } else {
+                id = gallery.add(label, features, e * featureSize, timestamp);
+            }
+            tracker.setIdentity(slots[k], id);
+        }
+    }
+
+    /** Adds the bytes allocated since {@code before} to {@code stage}; returns the current count. */
+    private long count(final int stage, final long before) {
+        final long now = allocationCounter.allocatedBytes();
+        if (now < 0 || before < 0) {
+            allocated[stage] = -1;
+        } else if (allocated[stage] >= 0) {
+            allocated[stage] += Math.max(0, now - before - counterOverhead);
+        }
+        return now;
+    }
+}
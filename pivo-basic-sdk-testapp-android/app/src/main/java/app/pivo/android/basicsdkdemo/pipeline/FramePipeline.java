@@ -0,0 +1,221 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A chain of stages, each running on its own single-thread executor with a bounded hand-off
+ * queue in front of it. Stage N of frame k can run while stage N-1 already works on frame k + 1.
+ *
+ * Queues use a latest-frame-wins policy: when a frame arrives at a full queue the oldest queued
+ * frame is dropped, so a slow stage never makes the pipeline fall behind the camera. Every frame
+ * leaves the pipeline through {@link Recycler#recycle(Object)} exactly once, whether it was dropped,
+ * rejected by a stage or finished the last stage.
+ */
+public class FramePipeline<T> {
+    public interface Stage<T> {
+        /**
+         * Processes {@code frame} on the stage's thread.
+         *
+         * @return true to hand the frame to the next stage, false to end it here.
+         */
+        boolean process(T frame);
+    }
+
+    public interface Recycler<T> {
+        void recycle(T frame);
+    }
+
+    private final String name;
+    private final Recycler<T> recycler;
+    private final List<StageRunner> stages = new ArrayList<>();
+    private volatile boolean running = false;
+
+    public FramePipeline(final String name, final Recycler<T> recycler) {
+        this.name = name;
+        this.recycler = recycler;
+    }
+
+    /**
+     * Appends a stage. Must be called before {@link #start()}.
+     *
+     * @param capacity maximum number of frames waiting in front of the stage.
+     */
+    public FramePipeline<T> addStage(final String stageName, final int capacity, final Stage<T> stage) {
+        if (running) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        stages.add(new StageRunner(stageName, capacity, stage, stages.size()));
+        return this;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        for (StageRunner runner : stages) {
+            runner.start();
+        }
+        running = true;
+    }
+
+    /**
+     * Stops all stages, waiting for frames currently being processed, and recycles queued frames.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (StageRunner runner : stages) {
+            runner.stop();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Hands a frame to the first stage.
+     *
+     * @return false if the pipeline is not running; the frame is recycled in that case.
+     */
+    public boolean submit(final T frame) {
+        if (!running || stages.isEmpty()) {
+            recycler.recycle(frame);
+            return false;
+        }
+        stages.get(0).offer(frame);
+        return true;
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    public StageMetrics getMetrics(final int stage) {
+        return stages.get(stage).metrics;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(name);
+        for (StageRunner runner : stages) {
+            builder.append(' ').append(runner.metrics);
+        }
+        return builder.toString();
+    }
+
+    private class StageRunner implements Runnable {
+        private final int capacity;
+        private final Stage<T> stage;
+        private final int index;
+        private final StageMetrics metrics;
+        private final ArrayDeque<T> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private ExecutorService executor;
+
+        StageRunner(final String stageName, final int capacity, final Stage<T> stage, final int index) {
+            this.capacity = Math.max(1, capacity);
+            this.stage = stage;
+            this.index = index;
+            this.metrics = new StageMetrics(stageName);
+            this.queue = new ArrayDeque<>(this.capacity);
+        }
+
+        void start() {
+            final String threadName = name + "-" + metrics.getName();
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(r, threadName);
+                }
+            });
+        }
+
+        void stop() {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            T frame;
+            while ((frame = poll()) != null) {
+                recycler.recycle(frame);
+            }
+        }
+
+        void offer(final T frame) {
+            T evicted = null;
+            synchronized (queue) {
+                if (queue.size() >= capacity) {
+                    evicted = queue.pollFirst();
+                }
+                queue.addLast(frame);
+                metrics.onEnqueued(queue.size());
+            }
+            if (evicted != null) {
+                metrics.onDropped();
+                recycler.recycle(evicted);
+            }
+
+            if (running && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (final RuntimeException e) {
+                    // Executor shut down between the running check and execute; stop() drains the queue.
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private T poll() {
+            synchronized (queue) {
+                final T frame = queue.pollFirst();
+                metrics.setDepth(queue.size());
+                return frame;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                T frame = poll();
+                if (frame == null) {
+                    scheduled.set(false);
+                    // A frame may have been offered after the poll but before the flag was cleared.
+                    synchronized (queue) {
+                        if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+
+                final long start = System.nanoTime();
+                boolean forward;
+                try {
+                    forward = stage.process(frame);
+                } catch (final RuntimeException e) {
+                    forward = false;
+                    metrics.onFailed(e);
+                }
+                metrics.onProcessed(System.nanoTime() - start);
+
+                if (forward && running && index + 1 < stages.size()) {
+                    stages.get(index + 1).offer(frame);
+                } else {
+                    recycler.recycle(frame);
+                }
+            }
+        }
+    }
+}
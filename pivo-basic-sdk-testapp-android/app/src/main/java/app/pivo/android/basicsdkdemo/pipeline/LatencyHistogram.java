@@ -0,0 +1,141 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed log-linear buckets.
+ *
+ * Latencies are counted in microseconds: one bucket per microsecond below {@value #LINEAR_LIMIT},
+ * then {@value #SUB_BUCKETS} buckets per power of two, so every bucket is within 12.5% of the
+ * values it holds. Recording is a bucket index computation and two or three atomic updates, cheap
+ * enough to leave on; any number of threads may record while others take snapshots.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_LIMIT = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Highest power of two covered; longer latencies go into the last bucket. */
+    private static final int MAX_EXPONENT = 30;
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    /** Summary of a histogram at one point in time. Times are in milliseconds. */
+    public static final class Snapshot {
+        public final String name;
+        public final long count;
+        public final float meanMs;
+        public final float p50Ms;
+        public final float p90Ms;
+        public final float p99Ms;
+        public final float maxMs;
+
+        Snapshot(final String name, final long count, final float meanMs, final float p50Ms,
+                 final float p90Ms, final float p99Ms, final float maxMs) {
+            this.name = name;
+            this.count = count;
+            this.meanMs = meanMs;
+            this.p50Ms = p50Ms;
+            this.p90Ms = p90Ms;
+            this.p99Ms = p99Ms;
+            this.maxMs = maxMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s n=%d mean %.2f p50 %.2f p90 %.2f p99 %.2f max %.2f ms",
+                    name, count, meanMs, p50Ms, p90Ms, p99Ms, maxMs);
+        }
+    }
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public LatencyHistogram(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordNanos(final long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucket(micros));
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    static int bucket(final long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /** Largest value, in microseconds, that falls into {@code bucket}. */
+    static long upperBound(final int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        final int exponent = 4 + (bucket - LINEAR_LIMIT) / SUB_BUCKETS;
+        final int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+    /**
+     * Summarizes what has been recorded so far. Percentiles are bucket upper bounds, capped at the
+     * maximum, so they overstate by at most one bucket width.
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        final long max = maxMicros.get();
+        if (count == 0) {
+            return new Snapshot(name, 0, Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+        }
+        return new Snapshot(name, count,
+                totalMicros.get() / 1000f / count,
+                percentile(copy, count, 0.50, max),
+                percentile(copy, count, 0.90, max),
+                percentile(copy, count, 0.99, max),
+                max / 1000f);
+    }
+
+    private static float percentile(final long[] counts, final long count, final double fraction,
+                                    final long max) {
+        final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max) / 1000f;
+            }
+        }
+        return max / 1000f;
+    }
+
+    /** Forgets everything recorded. Samples recorded concurrently may be partly kept. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+}
@@ -0,0 +1,226 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Closed-loop choice of the detector tier that meets a frame-time budget.
+ *
+ * Tiers are ordered from the most accurate and slowest (0) to the fastest. Every frame reports its
+ * inference and end-to-end latency; the controller compares the mean of one of them over a window
+ * of frames against the budget:
+ * <ul>
+ *   <li>above the budget by more than the margin, it steps to the next faster tier;</li>
+ *   <li>below the budget by more than the margin, it steps to the next slower tier if that tier's
+ *       last measured mean fits the budget, or if that measurement is older than the probe
+ *       interval. Each probe that fails doubles the tier's probe interval, up to
+ *       {@value #MAX_PROBE_BACKOFF} times; one that holds resets it.</li>
+ * </ul>
+ * The margin around the budget, the dwell time after every switch and the remembered per-tier
+ * means keep it from oscillating. Every switch is appended to a bounded, queryable decision log.
+ *
+ * Methods are synchronized: frames are reported from the pipeline, tiers are forced from the UI.
+ */
+public class QualityController {
+    /** Which measurement is held to the budget. */
+    public enum Measure {
+        /** Inference time, which bounds the detector frame rate. */
+        INFERENCE,
+        /** Time from camera frame to results. */
+        LATENCY
+    }
+
+    /** One tier change. */
+    public static final class Decision {
+        public final long frame;
+        public final int fromTier;
+        public final int toTier;
+        /** Mean of the measure over the window that triggered the change, or NaN for forced ones. */
+        public final float measuredMs;
+        public final String reason;
+
+        Decision(final long frame, final int fromTier, final int toTier, final float measuredMs,
+                 final String reason) {
+            this.frame = frame;
+            this.fromTier = fromTier;
+            this.toTier = toTier;
+            this.measuredMs = measuredMs;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "frame %d: %d -> %d (%.1f ms) %s",
+                    frame, fromTier, toTier, measuredMs, reason);
+        }
+    }
+
+    private static final int MAX_PROBE_BACKOFF = 16;
+
+    private final String[] tierNames;
+    private final Measure measure;
+    private final float budgetMs;
+    private final float margin;
+    private final int window;
+    private final int dwellFrames;
+    private final int probeInterval;
+    private final int logCapacity;
+
+    private final float[] tierMeanMs;
+    private final long[] tierMeasuredAt;
+    private final int[] probeBackoff;
+    private final ArrayDeque<Decision> log = new ArrayDeque<>();
+
+    private int tier = 0;
+    private long frames = 0;
+    private long switchedAt = 0;
+    private double windowSum = 0;
+    private int windowCount = 0;
+    /** Whether the current tier was entered by a probe that has not held yet. */
+    private boolean probing = false;
+
+    /**
+     * @param tierNames     Tier names, most accurate first.
+     * @param measure       Measurement held to the budget.
+     * @param budgetMs      Frame-time budget, e.g. 1000 / target FPS.
+     * @param margin        Relative band around the budget in which nothing changes, e.g. 0.15.
+     * @param window        Frames averaged per evaluation.
+     * @param dwellFrames   Frames after a switch before the next one.
+     * @param probeInterval Frames after which a slower tier's measurement no longer rules it out.
+     * @param logCapacity   Decisions kept in the log.
+     */
+    public QualityController(final String[] tierNames, final Measure measure, final float budgetMs,
+                             final float margin, final int window, final int dwellFrames,
+                             final int probeInterval, final int logCapacity) {
+        if (tierNames.length == 0) {
+            throw new IllegalArgumentException("No tiers");
+        }
+        this.tierNames = tierNames.clone();
+        this.measure = measure;
+        this.budgetMs = budgetMs;
+        this.margin = margin;
+        this.window = window;
+        this.dwellFrames = dwellFrames;
+        this.probeInterval = probeInterval;
+        this.logCapacity = logCapacity;
+        this.tierMeanMs = new float[tierNames.length];
+        this.tierMeasuredAt = new long[tierNames.length];
+        this.probeBackoff = new int[tierNames.length];
+        for (int i = 0; i < tierNames.length; i++) {
+            tierMeanMs[i] = Float.NaN;
+            probeBackoff[i] = 1;
+        }
+    }
+
+    /**
+     * Reports one frame. Frames still in flight from before a switch ran on another tier and are
+     * ignored.
+     *
+     * @param frameTier Tier the frame ran on.
+     * @return the tier to use from now on.
+     */
+    public synchronized int onFrame(final int frameTier, final float inferenceMs,
+                                    final float latencyMs) {
+        if (frameTier != tier) {
+            return tier;
+        }
+        frames++;
+        windowSum += measure == Measure.INFERENCE ? inferenceMs : latencyMs;
+        windowCount++;
+        if (windowCount < window) {
+            return tier;
+        }
+
+        final float mean = (float) (windowSum / windowCount);
+        windowSum = 0;
+        windowCount = 0;
+        tierMeanMs[tier] = mean;
+        tierMeasuredAt[tier] = frames;
+        if (frames - switchedAt < dwellFrames) {
+            return tier;
+        }
+
+        if (mean > budgetMs * (1 + margin)) {
+            if (probing) {
+                probeBackoff[tier] = Math.min(MAX_PROBE_BACKOFF, probeBackoff[tier] * 2);
+            }
+            if (tier < tierNames.length - 1) {
+                switchTo(tier + 1, mean, "over budget", false);
+            }
+            return tier;
+        }
+        if (probing) {
+            probeBackoff[tier] = 1;
+            probing = false;
+        }
+        if (mean < budgetMs * (1 - margin) && tier > 0) {
+            final int slower = tier - 1;
+            final float known = tierMeanMs[slower];
+            if (Float.isNaN(known)) {
+                switchTo(slower, mean, "under budget, probing", true);
+            } else if (known <= budgetMs) {
+                switchTo(slower, mean, "under budget, slower tier fits", false);
+            } else if (frames - tierMeasuredAt[slower] >= (long) probeInterval * probeBackoff[slower]) {
+                switchTo(slower, mean, "under budget, re-probing", true);
+            }
+        }
+        return tier;
+    }
+
+    /** Forces {@code newTier}, e.g. on a manual model choice, and restarts the dwell time. */
+    public synchronized void setTier(final int newTier, final String reason) {
+        if (newTier < 0 || newTier >= tierNames.length) {
+            throw new IllegalArgumentException("Invalid tier " + newTier);
+        }
+        if (newTier != tier) {
+            switchTo(newTier, Float.NaN, reason, false);
+        }
+    }
+
+    private void switchTo(final int newTier, final float measuredMs, final String reason,
+                          final boolean probe) {
+        if (log.size() == logCapacity) {
+            log.removeFirst();
+        }
+        log.addLast(new Decision(frames, tier, newTier, measuredMs, reason));
+        tier = newTier;
+        probing = probe;
+        switchedAt = frames;
+        windowSum = 0;
+        windowCount = 0;
+    }
+
+    public synchronized int getTier() {
+        return tier;
+    }
+
+    public String getTierName(final int index) {
+        return tierNames[index];
+    }
+
+    public int getTierCount() {
+        return tierNames.length;
+    }
+
+    /** Last window mean measured on {@code index}, or NaN if it has not run a full window. */
+    public synchronized float getTierMeanMs(final int index) {
+        return tierMeanMs[index];
+    }
+
+    /** The most recent decisions, oldest first. */
+    public synchronized List<Decision> getDecisions() {
+        return new ArrayList<>(log);
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "%s tier %s, budget %.1f ms", measure, tierNames[tier], budgetMs));
+        for (int i = 0; i < tierNames.length; i++) {
+            sb.append(String.format(Locale.US, ", %s %.1f ms", tierNames[i], tierMeanMs[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for one {@link FramePipeline} stage. Updated from the producer and the stage thread,
+ * read from anywhere.
+ */
+public class StageMetrics {
+    private final String name;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile int depth = 0;
+    private volatile int maxDepth = 0;
+    private volatile long lastNanos = 0;
+    private volatile Throwable lastError;
+
+    StageMetrics(final String name) {
+        this.name = name;
+    }
+
+    void onEnqueued(final int queueDepth) {
+        enqueued.incrementAndGet();
+        setDepth(queueDepth);
+    }
+
+    void setDepth(final int queueDepth) {
+        depth = queueDepth;
+        if (queueDepth > maxDepth) {
+            maxDepth = queueDepth;
+        }
+    }
+
+    void onDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void onFailed(final Throwable error) {
+        failed.incrementAndGet();
+        lastError = error;
+    }
+
+    void onProcessed(final long nanos) {
+        processed.incrementAndGet();
+        busyNanos.addAndGet(nanos);
+        lastNanos = nanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Frames currently waiting in front of the stage. */
+    public int getQueueDepth() {
+        return depth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /** Frames evicted from the queue by a newer frame. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    public double getAverageMillis() {
+        final long count = processed.get();
+        return count == 0 ? 0 : busyNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s[q=%d/%d done=%d drop=%d fail=%d avg=%.1fms]",
+                name, depth, maxDepth, processed.get(), dropped.get(), failed.get(), getAverageMillis());
+    }
+}
@@ -0,0 +1,94 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One {@link LatencyHistogram} per named processing step, with a switch to turn timing off.
+ *
+ * Steps are timed as
+ * <pre>
+ *     final long start = stats.start();
+ *     ...
+ *     stats.stop(STEP, start);
+ * </pre>
+ * While disabled, {@link #start()} does not read the clock and {@link #stop} does nothing.
+ */
+public class StageStats {
+    private final LatencyHistogram[] histograms;
+    private volatile boolean enabled = true;
+
+    /** @param names Step names, indexed by the step ids passed to {@link #stop}. */
+    public StageStats(final String... names) {
+        histograms = new LatencyHistogram[names.length];
+        for (int i = 0; i < names.length; i++) {
+            histograms[i] = new LatencyHistogram(names[i]);
+        }
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Start time to pass to {@link #stop}, or 0 while disabled. */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Records the time since {@code start} for {@code step} and returns the current time. */
+    public long stop(final int step, final long start) {
+        if (start == 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        histograms[step].recordNanos(now - start);
+        return now;
+    }
+
+    /** Records a duration measured elsewhere. */
+    public void record(final int step, final long nanos) {
+        if (enabled) {
+            histograms[step].recordNanos(nanos);
+        }
+    }
+
+    public LatencyHistogram.Snapshot snapshot(final int step) {
+        return histograms[step].snapshot();
+    }
+
+    /** Snapshots of every step, in step order. */
+    public List<LatencyHistogram.Snapshot> snapshot() {
+        final List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(histograms.length);
+        for (final LatencyHistogram histogram : histograms) {
+            snapshots.add(histogram.snapshot());
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        for (final LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /** One line per step that recorded anything. */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (final LatencyHistogram histogram : histograms) {
+            final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            if (snapshot.count == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(snapshot);
+        }
+        return sb.toString();
+    }
+}
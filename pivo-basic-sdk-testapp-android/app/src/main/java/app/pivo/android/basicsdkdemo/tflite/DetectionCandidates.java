@@ -0,0 +1,70 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+/**
+ * Struct-of-arrays holding the anchors that passed the score threshold. Boxes are stored as
+ * center x/y plus width/height in model input pixels.
+ */
+public class DetectionCandidates {
+    public final float[] x;
+    public final float[] y;
+    public final float[] w;
+    public final float[] h;
+    public final float[] score;
+    public final int[] detectedClass;
+    public final int[] anchor;
+
+    private int size = 0;
+
+    public DetectionCandidates(final int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        w = new float[capacity];
+        h = new float[capacity];
+        score = new float[capacity];
+        detectedClass = new int[capacity];
+        anchor = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return score.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(final float cx, final float cy, final float width, final float height,
+                    final float confidence, final int cls, final int anchorIndex) {
+        if (size == score.length) {
+            return;
+        }
+        x[size] = cx;
+        y[size] = cy;
+        w[size] = width;
+        h[size] = height;
+        score[size] = confidence;
+        detectedClass[size] = cls;
+        anchor[size] = anchorIndex;
+        ++size;
+    }
+
+    public float left(final int i) {
+        return x[i] - w[i] / 2;
+    }
+
+    public float top(final int i) {
+        return y[i] - h[i] / 2;
+    }
+
+    public float right(final int i) {
+        return x[i] + w[i] / 2;
+    }
+
+    public float bottom(final int i) {
+        return y[i] + h[i] / 2;
+    }
+}
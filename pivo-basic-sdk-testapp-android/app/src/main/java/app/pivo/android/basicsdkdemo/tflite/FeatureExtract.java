@@ -1,25 +1,32 @@
 package app.pivo.android.basicsdkdemo.tflite;
 
-import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
+import android.util.Log;
 
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.gpu.CompatibilityList;
-import org.tensorflow.lite.gpu.GpuDelegate;
-import org.tensorflow.lite.gpu.GpuDelegateFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
 
 import app.pivo.android.basicsdkdemo.env.Utils;
 
+/**
+ * Re-identification embedding model.
+ *
+ * ROIs are extracted in batches: the interpreter input is resized to one of a few fixed batch
+ * buckets (1, 2, 4, 8) and unused slots of a bucket are left as padding, so the number of distinct
+ * input shapes stays small no matter how many people are in frame. Larger requests are split into
+ * several runs of the biggest bucket.
+ */
 public class FeatureExtract {
+    private static final String TAG = "FeatureExtract";
+
     private int INPUT_SIZE;
     private int OUTPUT_SHAPE;
     private Interpreter TFLITE;
@@ -28,52 +35,184 @@ public class FeatureExtract {
                           final String modelFilename,
                           final int input_size,
                           final int output_shape) {
+        this(loadInterpreter(assetManager, modelFilename), input_size, output_shape);
+    }
+
+    /**
+     * Runs on an interpreter owned by the caller, e.g. one shared through a {@link ModelRegistry}.
+     */
+    public FeatureExtract(final Interpreter interpreter,
+                          final int input_size,
+                          final int output_shape) {
 
         INPUT_SIZE = input_size;
         OUTPUT_SHAPE = output_shape;
+        TFLITE = interpreter;
+        buckets = new Bucket[BATCH_BUCKETS.length];
+        pixels = new int[INPUT_SIZE * INPUT_SIZE];
+        row = new float[INPUT_SIZE * InputTensorPool.PIXEL_SIZE];
+    }
 
+    private static Interpreter loadInterpreter(final AssetManager assetManager, final String modelFilename) {
         try {
-            Interpreter.Options options = new Interpreter.Options();
-            options.setUseNNAPI(true);
-
-            TFLITE = new Interpreter(Utils.loadModelFile(assetManager, modelFilename), options);
+            return new InterpreterFactory().create(Utils.loadModelFile(assetManager, modelFilename), ModelOptions.NNAPI);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    protected static final int BATCH_SIZE = 1;
-    protected static final int PIXEL_SIZE = 3;
-
-    protected ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                final int val = intValues[pixel++];
-                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
-                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
-                byteBuffer.putFloat((val & 0xFF) / 255.0f);
-            }
+    /** Batch sizes the input tensor is resized to. */
+    static final int[] BATCH_BUCKETS = {1, 2, 4, 8};
+
+    /**
+     * Fills batch entry {@code index} of an extraction, i.e. INPUT_SIZE x INPUT_SIZE normalized RGB
+     * floats starting at float {@code offset} of {@code dst}.
+     */
+    public interface RoiSource {
+        void fill(int index, FloatBuffer dst, int offset);
+    }
+
+    /** Input and output buffers for one batch bucket, created the first time the bucket is used. */
+    private static class Bucket {
+        final int batchSize;
+        final InputTensorPool inputPool;
+        final ByteBuffer output;
+        final FloatBuffer outputFloats;
+
+        Bucket(final int batchSize, final int inputSize, final int featureSize) {
+            this.batchSize = batchSize;
+            inputPool = new InputTensorPool(inputSize, inputSize, batchSize, 1);
+            output = ByteBuffer.allocateDirect(InputTensorPool.BYTES_PER_FLOAT * batchSize * featureSize);
+            output.order(ByteOrder.nativeOrder());
+            outputFloats = output.asFloatBuffer();
+        }
+    }
+
+    private final Bucket[] buckets;
+    private int resizedBatch = 1;
+    private int maxBatch = BATCH_BUCKETS[BATCH_BUCKETS.length - 1];
+    private final int[] pixels;
+    private final float[] row;
+    private Map<Integer, Object> outputMap = new HashMap<>();
+    private Object[] inputArray = new Object[1];
+
+    public int getInputSize() {
+        return INPUT_SIZE;
+    }
+
+    public int getFeatureSize() {
+        return OUTPUT_SHAPE;
+    }
+
+    /**
+     * Index into {@link #BATCH_BUCKETS} of the smallest bucket holding {@code count} ROIs, capped at
+     * {@code maxBatch}.
+     */
+    static int bucketIndex(final int count, final int maxBatch) {
+        int index = 0;
+        while (index + 1 < BATCH_BUCKETS.length
+                && BATCH_BUCKETS[index] < count
+                && BATCH_BUCKETS[index + 1] <= maxBatch) {
+            ++index;
         }
-        return byteBuffer;
+        return index;
     }
 
     public float[] getFeature(Bitmap bitmap) {
-        ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
+        final List<Bitmap> single = new ArrayList<>(1);
+        single.add(bitmap);
+        return getFeatures(single);
+    }
 
-        Map<Integer, Object> outputMap = new HashMap<>();
+    /**
+     * Extracts the embeddings of {@code rois}, each INPUT_SIZE x INPUT_SIZE.
+     *
+     * @return a row-major [N][D] matrix, embedding i at offset i * {@link #getFeatureSize()}.
+     */
+    public float[] getFeatures(final List<Bitmap> rois) {
+        final float[] features = new float[rois.size() * OUTPUT_SHAPE];
+        getFeatures(rois.size(), new RoiSource() {
+            @Override
+            public void fill(final int index, final FloatBuffer dst, final int offset) {
+                rois.get(index).getPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+                InputTensorPool.packNormalizedRgb(pixels, INPUT_SIZE, INPUT_SIZE, row, dst, offset);
+            }
+        }, features);
+        return features;
+    }
 
-        outputMap.put(0, new float[1][OUTPUT_SHAPE]);
-        Object[] inputArray = {byteBuffer};
+    /**
+     * Extracts {@code count} embeddings filled by {@code source} into {@code out}, which must hold
+     * at least count * {@link #getFeatureSize()} floats.
+     */
+    public void getFeatures(final int count, final RoiSource source, final float[] out) {
+        final int imageFloats = INPUT_SIZE * INPUT_SIZE * InputTensorPool.PIXEL_SIZE;
+        int done = 0;
+        while (done < count) {
+            final Bucket bucket = bucket(bucketIndex(count - done, maxBatch));
+            if (!resizeInput(bucket.batchSize)) {
+                continue;
+            }
+            final int n = Math.min(bucket.batchSize, count - done);
 
-        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
+            final InputTensorPool.Tensor tensor = bucket.inputPool.acquire();
+            if (tensor == null) {
+                throw new IllegalStateException("No free input tensor");
+            }
+            try {
+                for (int i = 0; i < n; ++i) {
+                    source.fill(done + i, tensor.getFloats(), i * imageFloats);
+                }
+                run(bucket, tensor);
+            } finally {
+                bucket.inputPool.release(tensor);
+            }
 
-        float[] out = ((float[][])outputMap.get(0))[0];
+            final FloatBuffer result = bucket.outputFloats;
+            result.rewind();
+            result.get(out, done * OUTPUT_SHAPE, n * OUTPUT_SHAPE);
+            done += n;
+        }
+    }
 
-        return out;
+    private Bucket bucket(final int index) {
+        if (buckets[index] == null) {
+            buckets[index] = new Bucket(BATCH_BUCKETS[index], INPUT_SIZE, OUTPUT_SHAPE);
+        }
+        return buckets[index];
+    }
+
+    /**
+     * Resizes the interpreter input to {@code batchSize} if needed.
+     *
+     * @return false if the model rejected the batch size; batching is disabled from then on.
+     */
+    private boolean resizeInput(final int batchSize) {
+        if (batchSize == resizedBatch) {
+            return true;
+        }
+        try {
+            TFLITE.resizeInput(0, new int[]{batchSize, INPUT_SIZE, INPUT_SIZE, InputTensorPool.PIXEL_SIZE});
+            TFLITE.allocateTensors();
+            resizedBatch = batchSize;
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // The model has a fixed batch dimension; fall back to one ROI per run.
+            Log.w(TAG, "Batch size " + batchSize + " not supported, extracting one ROI at a time", e);
+            maxBatch = 1;
+            // The interpreter may be left half resized, so force a resize on the next call.
+            resizedBatch = -1;
+            if (batchSize == 1) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    private void run(final Bucket bucket, final InputTensorPool.Tensor tensor) {
+        inputArray[0] = tensor.getBuffer();
+        bucket.output.rewind();
+        outputMap.put(0, bucket.output);
+        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
     }
 }
@@ -0,0 +1,216 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed set of input tensors owned by a single interpreter.
+ *
+ * Every tensor is allocated once, sized for the model input, and handed out again after
+ * {@link #release(Tensor)}. The pixel scratch array and the per-row float staging array live
+ * next to the direct buffer so filling a frame does not allocate.
+ *
+ * For a quantized model input the tensors hold one byte per channel instead of a float, filled
+ * from pixel bytes through the lookup table of the input {@link Quantization}.
+ */
+public class InputTensorPool {
+    protected static final int PIXEL_SIZE = 3;
+    protected static final int BYTES_PER_FLOAT = 4;
+
+    private final int width;
+    private final int height;
+    private final int batchSize;
+    private final Quantization quantization;
+    private final byte[] pixelTable;
+    private final ArrayBlockingQueue<Tensor> free;
+
+    public InputTensorPool(final int width, final int height, final int batchSize, final int slots) {
+        this(width, height, batchSize, slots, null);
+    }
+
+    /**
+     * @param quantization Encoding of a quantized input, or null for a float input.
+     */
+    public InputTensorPool(final int width, final int height, final int batchSize, final int slots,
+                           final Quantization quantization) {
+        this.width = width;
+        this.height = height;
+        this.batchSize = batchSize;
+        this.quantization = quantization;
+        this.pixelTable = quantization != null ? quantization.pixelTable() : null;
+        this.free = new ArrayBlockingQueue<>(slots);
+
+        for (int i = 0; i < slots; ++i) {
+            free.add(new Tensor(width, height, batchSize, quantization != null));
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isQuantized() {
+        return quantization != null;
+    }
+
+    /** Encoding of the input, or null for a float input. */
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    /** Byte for each channel intensity, see {@link Quantization#pixelTable()}; null for floats. */
+    public byte[] getPixelTable() {
+        return pixelTable;
+    }
+
+    /**
+     * Takes a tensor out of the pool.
+     *
+     * @return a free tensor, or null if every slot is still in flight.
+     */
+    public Tensor acquire() {
+        return free.poll();
+    }
+
+    /**
+     * Returns a tensor obtained from {@link #acquire()} to the pool.
+     */
+    public void release(final Tensor tensor) {
+        if (tensor != null) {
+            free.offer(tensor);
+        }
+    }
+
+    public int available() {
+        return free.size();
+    }
+
+    /**
+     * Copies {@code bitmap} into batch entry {@code batchIndex} of {@code tensor}. The bitmap has to
+     * match the pool input size.
+     */
+    public void fill(final Tensor tensor, final Bitmap bitmap, final int batchIndex) {
+        bitmap.getPixels(tensor.pixels, 0, width, 0, 0, width, height);
+        if (tensor.bytes != null) {
+            packQuantizedRgb(tensor.pixels, width, height, pixelTable, tensor.byteRow, tensor.bytes,
+                    batchIndex * width * height * PIXEL_SIZE);
+        } else {
+            packNormalizedRgb(tensor.pixels, width, height, tensor.row, tensor.floats, batchIndex * width * height * PIXEL_SIZE);
+        }
+    }
+
+    /**
+     * Writes ARGB pixels as quantized RGB bytes, looked up in {@code table}, starting at byte
+     * {@code offset} of {@code dst}; staged one row at a time like {@link #packNormalizedRgb}.
+     */
+    public static void packQuantizedRgb(final int[] pixels,
+                                        final int width,
+                                        final int height,
+                                        final byte[] table,
+                                        final byte[] row,
+                                        final ByteBuffer dst,
+                                        final int offset) {
+        dst.position(offset);
+        int pixel = 0;
+        for (int i = 0; i < height; ++i) {
+            int k = 0;
+            for (int j = 0; j < width; ++j) {
+                final int val = pixels[pixel++];
+                row[k++] = table[(val >> 16) & 0xFF];
+                row[k++] = table[(val >> 8) & 0xFF];
+                row[k++] = table[val & 0xFF];
+            }
+            dst.put(row, 0, k);
+        }
+    }
+
+    /**
+     * Writes ARGB pixels as normalized RGB floats starting at float index {@code offset} of
+     * {@code dst}. The conversion is staged one row at a time in {@code row} so the direct buffer
+     * only sees bulk puts.
+     */
+    public static void packNormalizedRgb(final int[] pixels,
+                                         final int width,
+                                         final int height,
+                                         final float[] row,
+                                         final FloatBuffer dst,
+                                         final int offset) {
+        dst.position(offset);
+        int pixel = 0;
+        for (int i = 0; i < height; ++i) {
+            int k = 0;
+            for (int j = 0; j < width; ++j) {
+                final int val = pixels[pixel++];
+                row[k++] = ((val >> 16) & 0xFF) / 255.0f;
+                row[k++] = ((val >> 8) & 0xFF) / 255.0f;
+                row[k++] = (val & 0xFF) / 255.0f;
+            }
+            dst.put(row, 0, k);
+        }
+    }
+
+    /**
+     * A direct, native-ordered input buffer plus the scratch arrays used to fill it.
+     */
+    public static class Tensor {
+        private final ByteBuffer buffer;
+        private final FloatBuffer floats;
+        private final ByteBuffer bytes;
+        private final int[] pixels;
+        private final float[] row;
+        private final byte[] byteRow;
+
+        Tensor(final int width, final int height, final int batchSize, final boolean quantized) {
+            final int values = batchSize * width * height * PIXEL_SIZE;
+            buffer = ByteBuffer.allocateDirect(quantized ? values : BYTES_PER_FLOAT * values);
+            buffer.order(ByteOrder.nativeOrder());
+            floats = quantized ? null : buffer.asFloatBuffer();
+            bytes = quantized ? buffer.duplicate() : null;
+            pixels = new int[width * height];
+            row = quantized ? null : new float[width * PIXEL_SIZE];
+            byteRow = quantized ? new byte[width * PIXEL_SIZE] : null;
+        }
+
+        /**
+         * The buffer to hand to the interpreter, rewound to the start.
+         */
+        public ByteBuffer getBuffer() {
+            buffer.rewind();
+            return buffer;
+        }
+
+        /** Float view of a float tensor; null if quantized. */
+        public FloatBuffer getFloats() {
+            return floats;
+        }
+
+        /** Byte view of a quantized tensor, with its own position; null for floats. */
+        public ByteBuffer getBytes() {
+            return bytes;
+        }
+
+        public boolean isQuantized() {
+            return bytes != null;
+        }
+
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public float[] getRow() {
+            return row;
+        }
+    }
+}
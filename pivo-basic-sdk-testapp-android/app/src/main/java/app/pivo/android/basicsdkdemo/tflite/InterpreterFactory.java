@@ -0,0 +1,77 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.gpu.CompatibilityList;
+import org.tensorflow.lite.gpu.GpuDelegate;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Builds TensorFlow Lite interpreters for a {@link ModelRegistry} and closes them together with
+ * the GPU delegate each one owns.
+ */
+public class InterpreterFactory implements ModelRegistry.Factory<Interpreter> {
+    private final Map<Interpreter, GpuDelegate> delegates = new IdentityHashMap<>();
+
+    /** Whether the GPU delegate runs on this device. */
+    public static boolean isGpuSupported() {
+        final CompatibilityList compatibility = new CompatibilityList();
+        try {
+            return compatibility.isDelegateSupportedOnThisDevice();
+        } finally {
+            compatibility.close();
+        }
+    }
+
+    @Override
+    public Interpreter create(final ByteBuffer model, final ModelOptions options) {
+        final Interpreter.Options interpreterOptions = new Interpreter.Options();
+        interpreterOptions.setUseXNNPACK(true);
+        if (options.getNumThreads() != ModelOptions.DEFAULT_THREADS) {
+            interpreterOptions.setNumThreads(options.getNumThreads());
+        }
+        if (options.usesNnapi()) {
+            interpreterOptions.setUseNNAPI(true);
+        }
+
+        GpuDelegate gpuDelegate = null;
+        if (options.usesGpu()) {
+            final CompatibilityList compatibility = new CompatibilityList();
+            try {
+                gpuDelegate = new GpuDelegate(compatibility.getBestOptionsForThisDevice());
+            } finally {
+                compatibility.close();
+            }
+            interpreterOptions.addDelegate(gpuDelegate);
+        }
+
+        try {
+            final Interpreter interpreter = new Interpreter(model, interpreterOptions);
+            if (gpuDelegate != null) {
+                synchronized (delegates) {
+                    delegates.put(interpreter, gpuDelegate);
+                }
+            }
+            return interpreter;
+        } catch (RuntimeException e) {
+            if (gpuDelegate != null) {
+                gpuDelegate.close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close(final Interpreter interpreter) {
+        interpreter.close();
+        final GpuDelegate gpuDelegate;
+        synchronized (delegates) {
+            gpuDelegate = delegates.remove(interpreter);
+        }
+        if (gpuDelegate != null) {
+            gpuDelegate.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The last few latencies of one configuration, in a ring. Recorded from the inference thread,
+ * read from anywhere.
+ */
+public class LatencyWindow {
+    private final float[] samples;
+    private int next = 0;
+    private int count = 0;
+    private long total = 0;
+
+    public LatencyWindow(final int capacity) {
+        samples = new float[capacity];
+    }
+
+    public synchronized void add(final float ms) {
+        samples[next] = ms;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        total++;
+    }
+
+    /** Samples currently in the window. */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /** Samples recorded since creation. */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public boolean isFull() {
+        return getCount() == samples.length;
+    }
+
+    public synchronized float getMeanMs() {
+        if (count == 0) {
+            return Float.NaN;
+        }
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += samples[i];
+        }
+        return sum / count;
+    }
+
+    /** Nearest-rank percentile of the window, {@code p} in [0, 100], or NaN if it is empty. */
+    public synchronized float getPercentileMs(final float p) {
+        if (count == 0) {
+            return Float.NaN;
+        }
+        final float[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(p / 100 * count);
+        return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d mean %.1f p50 %.1f p90 %.1f ms",
+                getCount(), getMeanMs(), getPercentileMs(50), getPercentileMs(90));
+    }
+}
@@ -0,0 +1,73 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import java.util.Locale;
+
+/**
+ * How an interpreter executes a model. Immutable, so it can key a {@link ModelRegistry}.
+ */
+public final class ModelOptions {
+    /** Number of threads left to the runtime. */
+    public static final int DEFAULT_THREADS = -1;
+
+    /** GPU delegate, with XNNPACK on the CPU for the ops it does not take. */
+    public static final ModelOptions GPU = new ModelOptions(true, false, DEFAULT_THREADS);
+    /** XNNPACK only, which also runs 8-bit quantized models. */
+    public static final ModelOptions CPU = new ModelOptions(false, false, DEFAULT_THREADS);
+    /** NNAPI delegate. */
+    public static final ModelOptions NNAPI = new ModelOptions(false, true, DEFAULT_THREADS);
+
+    private final boolean useGpu;
+    private final boolean useNnapi;
+    private final int numThreads;
+
+    public ModelOptions(final boolean useGpu, final boolean useNnapi, final int numThreads) {
+        this.useGpu = useGpu;
+        this.useNnapi = useNnapi;
+        this.numThreads = numThreads;
+    }
+
+    public boolean usesGpu() {
+        return useGpu;
+    }
+
+    public boolean usesNnapi() {
+        return useNnapi;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public ModelOptions withNumThreads(final int threads) {
+        return new ModelOptions(useGpu, useNnapi, threads);
+    }
+
+    public ModelOptions withGpu(final boolean gpu) {
+        return new ModelOptions(gpu, useNnapi, numThreads);
+    }
+
+    public ModelOptions withNnapi(final boolean nnapi) {
+        return new ModelOptions(useGpu, nnapi, numThreads);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof ModelOptions)) {
+            return false;
+        }
+        final ModelOptions other = (ModelOptions) o;
+        return useGpu == other.useGpu && useNnapi == other.useNnapi && numThreads == other.numThreads;
+    }
+
+    @Override
+    public int hashCode() {
+        return (useGpu ? 1 : 0) + (useNnapi ? 2 : 0) + 4 * numThreads;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s%s, %s threads",
+                useGpu ? "gpu" : "cpu", useNnapi ? "+nnapi" : "",
+                numThreads == DEFAULT_THREADS ? "default" : String.valueOf(numThreads));
+    }
+}
@@ -0,0 +1,341 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds models lazily and shares them.
+ *
+ * A model is keyed by its file and its {@link ModelOptions}: asking twice for the same key returns
+ * the same instance, and every key of one file runs on the same mapped model buffer, which is loaded
+ * once. Models are built on a single background thread, either when first {@link #acquire acquired}
+ * or ahead of time by {@link #prefetch}. Users hold a reference between acquire and
+ * {@link #release}; {@link #trim} closes the models nobody has held for a while, e.g. under memory
+ * pressure, and unmaps the buffers no model uses any more.
+ *
+ * @param <M> Model type, e.g. an interpreter.
+ */
+public class ModelRegistry<M> {
+    /** Maps a model file. */
+    public interface Loader {
+        ByteBuffer load(String file) throws IOException;
+    }
+
+    /** Builds and closes models. */
+    public interface Factory<M> {
+        M create(ByteBuffer model, ModelOptions options) throws Exception;
+
+        void close(M model);
+    }
+
+    /** Receives a model acquired in the background. */
+    public interface Callback<M> {
+        void onAcquired(M model);
+
+        void onError(IOException e);
+    }
+
+    private static final class Key {
+        final String file;
+        final ModelOptions options;
+
+        Key(final String file, final ModelOptions options) {
+            this.file = file;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return file.equals(other.file) && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * file.hashCode() + options.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return file + " (" + options + ")";
+        }
+    }
+
+    private static final class Entry<M> {
+        final Future<M> model;
+        int refs = 0;
+        long lastUsedMs;
+
+        Entry(final Future<M> model, final long now) {
+            this.model = model;
+            this.lastUsedMs = now;
+        }
+    }
+
+    private final Loader loader;
+    private final Factory<M> factory;
+    private final ExecutorService executor;
+    private final Map<Key, Entry<M>> entries = new LinkedHashMap<>();
+    private final Map<String, ByteBuffer> buffers = new HashMap<>();
+    private int bufferLoads = 0;
+    private int builds = 0;
+
+    public ModelRegistry(final Loader loader, final Factory<M> factory) {
+        this.loader = loader;
+        this.factory = factory;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "model-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts building the model for {@code file} and {@code options} in the background unless it is
+     * built or being built already.
+     */
+    public synchronized Future<M> prefetch(final String file, final ModelOptions options) {
+        return entry(new Key(file, options)).model;
+    }
+
+    /**
+     * Returns the model for {@code file} and {@code options}, waiting for it to be built, and holds
+     * a reference to it until {@link #release}.
+     */
+    public M acquire(final String file, final ModelOptions options) throws IOException {
+        final Key key = new Key(file, options);
+        final Entry<M> entry;
+        synchronized (this) {
+            entry = entry(key);
+            entry.refs++;
+        }
+        return await(key, entry);
+    }
+
+    /**
+     * Waits for the build of {@code entry}, on which the caller holds a reference. The reference is
+     * dropped again if the build fails.
+     */
+    private M await(final Key key, final Entry<M> entry) throws IOException {
+        try {
+            return entry.model.get();
+        } catch (final ExecutionException e) {
+            synchronized (this) {
+                entry.refs--;
+                // Drop the failed build so the next acquire retries.
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not build " + key, cause);
+        } catch (final InterruptedException e) {
+            synchronized (this) {
+                entry.refs--;
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building " + key);
+        } catch (final CancellationException e) {
+            synchronized (this) {
+                entry.refs--;
+            }
+            throw new IOException("Registry closed while building " + key, e);
+        }
+    }
+
+    /**
+     * Like {@link #acquire}, without waiting: {@code callback} runs on the loader thread once the
+     * model is built, or immediately after any build already queued if it is. The reference is held
+     * from this call on, so the model cannot be trimmed before the callback receives it.
+     */
+    public synchronized void acquireAsync(final String file, final ModelOptions options,
+                                          final Callback<M> callback) {
+        final Key key = new Key(file, options);
+        final Entry<M> entry = entry(key);
+        entry.refs++;
+        // The loader runs tasks in order, so the build above is done by the time this one runs and
+        // waiting for it never blocks the loader.
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final M model;
+                try {
+                    model = await(key, entry);
+                } catch (final IOException e) {
+                    callback.onError(e);
+                    return;
+                }
+                callback.onAcquired(model);
+            }
+        });
+    }
+
+    /** Drops a reference taken by {@link #acquire} or {@link #acquireAsync}. The model stays loaded until trimmed. */
+    public synchronized void release(final M model) {
+        final Entry<M> entry = find(model);
+        if (entry == null || entry.refs == 0) {
+            throw new IllegalArgumentException("Model not acquired: " + model);
+        }
+        entry.refs--;
+        entry.lastUsedMs = now();
+    }
+
+    /** Whether {@code model} is still loaded, i.e. was neither trimmed nor closed. */
+    public synchronized boolean contains(final M model) {
+        return find(model) != null;
+    }
+
+    /**
+     * Closes every built model that has not been held for at least {@code maxIdleMs}, and unmaps
+     * the buffers no remaining model uses.
+     *
+     * @return the number of models closed.
+     */
+    public synchronized int trim(final long maxIdleMs) {
+        final long now = now();
+        int closed = 0;
+        final Iterator<Entry<M>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry<M> entry = it.next();
+            if (entry.refs > 0 || !entry.model.isDone() || now - entry.lastUsedMs < maxIdleMs) {
+                continue;
+            }
+            it.remove();
+            final M model = built(entry);
+            if (model != null) {
+                factory.close(model);
+                closed++;
+            }
+        }
+        final Iterator<String> files = buffers.keySet().iterator();
+        while (files.hasNext()) {
+            if (!usesFile(files.next())) {
+                files.remove();
+            }
+        }
+        return closed;
+    }
+
+    /** Closes every model, held or not, and stops the loader thread. */
+    public synchronized void close() {
+        executor.shutdownNow();
+        for (final Entry<M> entry : entries.values()) {
+            // Wakes up anyone still waiting in acquire.
+            entry.model.cancel(true);
+            final M model = built(entry);
+            if (model != null) {
+                factory.close(model);
+            }
+        }
+        entries.clear();
+        buffers.clear();
+    }
+
+    /** Number of models built or being built. */
+    public synchronized int getModelCount() {
+        return entries.size();
+    }
+
+    /** Number of model buffers currently mapped. */
+    public synchronized int getBufferCount() {
+        return buffers.size();
+    }
+
+    /** Number of times a model file was mapped. */
+    public synchronized int getBufferLoadCount() {
+        return bufferLoads;
+    }
+
+    /** Number of models built since creation. */
+    public synchronized int getBuildCount() {
+        return builds;
+    }
+
+    private Entry<M> entry(final Key key) {
+        Entry<M> entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry<>(executor.submit(new Callable<M>() {
+                @Override
+                public M call() throws Exception {
+                    final M model = factory.create(buffer(key.file), key.options);
+                    synchronized (ModelRegistry.this) {
+                        builds++;
+                        // Idle time counts from the end of the build, however long it took.
+                        final Entry<M> built = entries.get(key);
+                        if (built != null) {
+                            built.lastUsedMs = now();
+                        }
+                    }
+                    return model;
+                }
+            }), now());
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private synchronized ByteBuffer buffer(final String file) throws IOException {
+        ByteBuffer buffer = buffers.get(file);
+        if (buffer == null) {
+            buffer = loader.load(file);
+            buffers.put(file, buffer);
+            bufferLoads++;
+        }
+        return buffer;
+    }
+
+    private boolean usesFile(final String file) {
+        for (final Key key : entries.keySet()) {
+            if (key.file.equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Entry<M> find(final M model) {
+        for (final Entry<M> entry : entries.values()) {
+            if (entry.model.isDone() && built(entry) == model) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** The model of a finished entry, or null if its build failed or has not finished. */
+    private static <M> M built(final Entry<M> entry) {
+        if (!entry.model.isDone() || entry.model.isCancelled()) {
+            return null;
+        }
+        try {
+            return entry.model.get();
+        } catch (final ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,344 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+/**
+ * Non-maximum suppression over {@link DetectionCandidates}.
+ *
+ * Boxes are copied once into primitive corner arrays, candidates are bucketed by class with a
+ * counting pass and every bucket is sorted once by score. Hard NMS then walks each bucket greedily;
+ * Soft-NMS decays the scores of overlapping boxes instead of dropping them. With
+ * {@link #setClassAgnostic(boolean)} all candidates share a single bucket.
+ *
+ * Instances keep their scratch arrays between calls and are not thread safe.
+ */
+public class NmsEngine {
+    public enum Mode {
+        HARD,
+        SOFT_LINEAR,
+        SOFT_GAUSSIAN
+    }
+
+    private Mode mode = Mode.HARD;
+    private float iouThreshold = 0.75f;
+    private float sigma = 0.5f;
+    private float minScore = 0.001f;
+    private boolean classAgnostic = false;
+    private int topK = Integer.MAX_VALUE;
+
+    private float[] left = new float[0];
+    private float[] top = new float[0];
+    private float[] right = new float[0];
+    private float[] bottom = new float[0];
+    private float[] area = new float[0];
+    private float[] scores = new float[0];
+    private int[] order = new int[0];
+    private boolean[] removed = new boolean[0];
+    private int[] bucketStart = new int[0];
+
+    private int[] keep = new int[0];
+    private float[] keepScores = new float[0];
+    private int keepCount = 0;
+
+    public NmsEngine(final int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    public NmsEngine setMode(final Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Overlap at or above which a lower scored box is suppressed (hard) or decayed (soft linear).
+     */
+    public NmsEngine setIouThreshold(final float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+        return this;
+    }
+
+    /**
+     * Gaussian Soft-NMS spread.
+     */
+    public NmsEngine setSigma(final float sigma) {
+        this.sigma = sigma;
+        return this;
+    }
+
+    /**
+     * Soft-NMS drops boxes whose decayed score falls below this value.
+     */
+    public NmsEngine setMinScore(final float minScore) {
+        this.minScore = minScore;
+        return this;
+    }
+
+    public NmsEngine setClassAgnostic(final boolean classAgnostic) {
+        this.classAgnostic = classAgnostic;
+        return this;
+    }
+
+    /**
+     * Caps the number of boxes returned across all classes.
+     */
+    public NmsEngine setTopK(final int topK) {
+        this.topK = topK <= 0 ? Integer.MAX_VALUE : topK;
+        return this;
+    }
+
+    /**
+     * Candidate indices that survived the last {@link #run}, ordered by class and then by score
+     * (or by score only when the result was capped to top-K).
+     */
+    public int[] getKeep() {
+        return keep;
+    }
+
+    /**
+     * Scores of the surviving boxes, parallel to {@link #getKeep()}. Soft-NMS reports the decayed
+     * score here.
+     */
+    public float[] getKeepScores() {
+        return keepScores;
+    }
+
+    public int getKeepCount() {
+        return keepCount;
+    }
+
+    /**
+     * Runs suppression on {@code candidates}. Boxes are clamped to [0, maxX] x [0, maxY] before
+     * overlaps are measured, matching how results are reported.
+     *
+     * @return the number of surviving boxes.
+     */
+    public int run(final DetectionCandidates candidates, final int numClasses, final float maxX, final float maxY) {
+        final int n = candidates.size();
+        ensureCapacity(n);
+        keepCount = 0;
+        if (n == 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < n; ++i) {
+            left[i] = Math.max(0, candidates.left(i));
+            top[i] = Math.max(0, candidates.top(i));
+            right[i] = Math.min(maxX, candidates.right(i));
+            bottom[i] = Math.min(maxY, candidates.bottom(i));
+            area[i] = (right[i] - left[i]) * (bottom[i] - top[i]);
+            scores[i] = candidates.score[i];
+            removed[i] = false;
+        }
+
+        final int buckets = classAgnostic ? 1 : numClasses;
+        bucketByClass(candidates, n, buckets);
+
+        for (int b = 0; b < buckets; ++b) {
+            final int from = bucketStart[b];
+            final int to = bucketStart[b + 1];
+            if (from == to) {
+                continue;
+            }
+            sortByScore(order, scores, from, to - 1);
+            if (mode == Mode.HARD) {
+                suppressHard(from, to);
+            } else {
+                suppressSoft(from, to);
+            }
+        }
+
+        if (keepCount > topK) {
+            // Kept boxes are never decayed after selection, so scores[] still holds their final score.
+            sortByScore(keep, scores, 0, keepCount - 1);
+            keepCount = topK;
+            for (int k = 0; k < keepCount; ++k) {
+                keepScores[k] = scores[keep[k]];
+            }
+        }
+        return keepCount;
+    }
+
+    private void ensureCapacity(final int n) {
+        if (left.length >= n) {
+            return;
+        }
+        left = new float[n];
+        top = new float[n];
+        right = new float[n];
+        bottom = new float[n];
+        area = new float[n];
+        scores = new float[n];
+        order = new int[n];
+        removed = new boolean[n];
+        keep = new int[n];
+        keepScores = new float[n];
+    }
+
+    /** Counting sort of candidate indices by class into {@link #order}. */
+    private void bucketByClass(final DetectionCandidates candidates, final int n, final int buckets) {
+        if (bucketStart.length < buckets + 1) {
+            bucketStart = new int[buckets + 1];
+        }
+        for (int b = 0; b <= buckets; ++b) {
+            bucketStart[b] = 0;
+        }
+
+        int valid = 0;
+        for (int i = 0; i < n; ++i) {
+            final int b = bucketOf(candidates, i, buckets);
+            if (b >= 0) {
+                ++bucketStart[b + 1];
+                ++valid;
+            }
+        }
+        for (int b = 0; b < buckets; ++b) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+
+        // Place indices using a running cursor per bucket, then restore the starts.
+        for (int i = 0; i < n; ++i) {
+            final int b = bucketOf(candidates, i, buckets);
+            if (b >= 0) {
+                order[bucketStart[b]++] = i;
+            }
+        }
+        for (int b = buckets; b > 0; --b) {
+            bucketStart[b] = bucketStart[b - 1];
+        }
+        bucketStart[0] = 0;
+        bucketStart[buckets] = valid;
+    }
+
+    private int bucketOf(final DetectionCandidates candidates, final int i, final int buckets) {
+        if (classAgnostic) {
+            return 0;
+        }
+        final int cls = candidates.detectedClass[i];
+        return cls >= 0 && cls < buckets ? cls : -1;
+    }
+
+    private void suppressHard(final int from, final int to) {
+        for (int a = from; a < to; ++a) {
+            final int i = order[a];
+            if (removed[i]) {
+                continue;
+            }
+            keep[keepCount] = i;
+            keepScores[keepCount] = scores[i];
+            ++keepCount;
+            if (classAgnostic && keepCount >= topK) {
+                return;
+            }
+
+            for (int c = a + 1; c < to; ++c) {
+                final int j = order[c];
+                if (!removed[j] && iou(i, j) >= iouThreshold) {
+                    removed[j] = true;
+                }
+            }
+        }
+    }
+
+    private void suppressSoft(final int from, final int to) {
+        int remaining = to - from;
+        while (remaining > 0) {
+            // Scores change as boxes decay, so the next best box is picked by a linear scan.
+            int best = -1;
+            float bestScore = -1;
+            for (int a = from; a < to; ++a) {
+                final int i = order[a];
+                if (!removed[i] && scores[i] > bestScore) {
+                    best = i;
+                    bestScore = scores[i];
+                }
+            }
+
+            removed[best] = true;
+            --remaining;
+            keep[keepCount] = best;
+            keepScores[keepCount] = bestScore;
+            ++keepCount;
+            if (classAgnostic && keepCount >= topK) {
+                return;
+            }
+
+            for (int a = from; a < to; ++a) {
+                final int j = order[a];
+                if (removed[j]) {
+                    continue;
+                }
+                final float overlap = iou(best, j);
+                if (mode == Mode.SOFT_LINEAR) {
+                    if (overlap >= iouThreshold) {
+                        scores[j] *= 1 - overlap;
+                    }
+                } else {
+                    scores[j] *= (float) Math.exp(-(overlap * overlap) / sigma);
+                }
+                if (scores[j] < minScore) {
+                    removed[j] = true;
+                    --remaining;
+                }
+            }
+        }
+    }
+
+    private float iou(final int a, final int b) {
+        final float w = Math.min(right[a], right[b]) - Math.max(left[a], left[b]);
+        final float h = Math.min(bottom[a], bottom[b]) - Math.max(top[a], top[b]);
+        if (w < 0 || h < 0) {
+            return 0;
+        }
+        final float intersection = w * h;
+        return intersection / (area[a] + area[b] - intersection);
+    }
+
+    /**
+     * Sorts {@code idx[lo..hi]} by descending {@code key[idx]} with an in-place quicksort, falling
+     * back to insertion sort for short ranges. Ties keep candidate order.
+     */
+    static void sortByScore(final int[] idx, final float[] key, int lo, int hi) {
+        while (hi - lo > 16) {
+            final int p = partition(idx, key, lo, hi);
+            // Recurse into the smaller half to bound the stack depth.
+            if (p - lo < hi - p) {
+                sortByScore(idx, key, lo, p - 1);
+                lo = p + 1;
+            } else {
+                sortByScore(idx, key, p + 1, hi);
+                hi = p - 1;
+            }
+        }
+        for (int i = lo + 1; i <= hi; ++i) {
+            final int v = idx[i];
+            int j = i - 1;
+            while (j >= lo && before(v, idx[j], key)) {
+                idx[j + 1] = idx[j];
+                --j;
+            }
+            idx[j + 1] = v;
+        }
+    }
+
+    private static boolean before(final int a, final int b, final float[] key) {
+        return key[a] > key[b] || (key[a] == key[b] && a < b);
+    }
+
+    private static int partition(final int[] idx, final float[] key, final int lo, final int hi) {
+        final int mid = (lo + hi) >>> 1;
+        swap(idx, mid, hi);
+        final int pivot = idx[hi];
+        int store = lo;
+        for (int i = lo; i < hi; ++i) {
+            if (before(idx[i], pivot, key)) {
+                swap(idx, i, store++);
+            }
+        }
+        swap(idx, store, hi);
+        return store;
+    }
+
+    private static void swap(final int[] a, final int i, final int j) {
+        final int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
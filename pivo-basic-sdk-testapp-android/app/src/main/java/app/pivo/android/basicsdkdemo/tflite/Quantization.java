@@ -0,0 +1,64 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Tensor;
+
+/**
+ * Affine 8-bit encoding of a quantized tensor: real = scale * (q - zeroPoint), with q read as
+ * int8 or uint8.
+ */
+public final class Quantization {
+    public final float scale;
+    public final int zeroPoint;
+    /** Whether values are int8 rather than uint8. */
+    public final boolean signed;
+
+    public Quantization(final float scale, final int zeroPoint, final boolean signed) {
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        this.signed = signed;
+    }
+
+    /** Encoding of {@code tensor}, or null if it is not an 8-bit tensor. */
+    public static Quantization of(final Tensor tensor) {
+        final DataType type = tensor.dataType();
+        if (type != DataType.UINT8 && type != DataType.INT8) {
+            return null;
+        }
+        final Tensor.QuantizationParams params = tensor.quantizationParams();
+        return new Quantization(params.getScale(), params.getZeroPoint(), type == DataType.INT8);
+    }
+
+    /** The stored byte as the integer it encodes. */
+    public int raw(final byte value) {
+        return signed ? value : value & 0xFF;
+    }
+
+    public float dequantize(final byte value) {
+        return scale * (raw(value) - zeroPoint);
+    }
+
+    public float dequantizeRaw(final int raw) {
+        return scale * (raw - zeroPoint);
+    }
+
+    /** The byte closest to {@code real}, saturated to the 8-bit range. */
+    public byte quantize(final float real) {
+        final int q = Math.round(real / scale) + zeroPoint;
+        final int min = signed ? Byte.MIN_VALUE : 0;
+        final int max = signed ? Byte.MAX_VALUE : 255;
+        return (byte) Math.max(min, Math.min(max, q));
+    }
+
+    /**
+     * Bytes for the 256 channel intensities, entry i encoding i / 255, so an RGB input can be
+     * filled from pixel bytes by lookup.
+     */
+    public byte[] pixelTable() {
+        final byte[] table = new byte[256];
+        for (int i = 0; i < table.length; ++i) {
+            table[i] = quantize(i / 255.0f);
+        }
+        return table;
+    }
+}
@@ -7,45 +7,168 @@ import android.graphics.RectF;
 import android.util.Log;
 
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.gpu.CompatibilityList;
-import org.tensorflow.lite.gpu.GpuDelegate;
-import org.tensorflow.lite.gpu.GpuDelegateFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 import app.pivo.android.basicsdkdemo.env.Utils;
-
+import app.pivo.android.basicsdkdemo.pipeline.StageStats;
+
+/**
+ * YOLO detector on a TensorFlow Lite interpreter taken from a {@link ModelRegistry}.
+ *
+ * {@link #setNumThreads}, {@link #setUseNNAPI} and {@link #setOptions} reconfigure execution
+ * without stopping inference: the interpreter for the new options is built in the background and
+ * swapped in between two frames, each frame running entirely on one interpreter. The latencies of
+ * the last frames are kept per configuration, see {@link #getLatencyReport()}.
+ *
+ * The input size and the number of anchors are read from the model's tensors, so a model exported
+ * with a rectangular input, e.g. 320x192 for 16:9 frames, runs without further configuration.
+ * Quantized models are detected from their tensors too: the input pool then holds 8-bit tensors
+ * filled from pixel bytes, and the decoder dequantizes the outputs with their scale and zero
+ * point.
+ */
 public class YoloClassifier implements Classifier {
+    private static final String TAG = "YoloClassifier";
+
+    /** Frames whose latency is kept per configuration. */
+    private static final int LATENCY_WINDOW = 30;
+
+    /** Steps timed in {@link #getStats()}. */
+    public static final int STAT_INTERPRETER = 0;
+    public static final int STAT_DECODE = 1;
+    public static final int STAT_NMS = 2;
+    private final StageStats stats = new StageStats("interpreter", "decode", "nms");
+
     private int INPUT_SIZE;
+    private int INPUT_WIDTH;
+    private int INPUT_HEIGHT;
     private float YOLO_VERSION;
     private int OUTPUT_SHAPE;
     private Vector<String> labels = new Vector<>();
 
-    private Interpreter TFLITE;
+    /** An interpreter and the options it was built with, swapped as a whole. */
+    private static final class Engine {
+        final Interpreter interpreter;
+        final ModelOptions options;
+
+        Engine(final Interpreter interpreter, final ModelOptions options) {
+            this.interpreter = interpreter;
+            this.options = options;
+        }
+    }
+
+    private final ModelRegistry<Interpreter> models;
+    private final boolean ownsModels;
+    private final String modelFilename;
+    private volatile Engine engine;
+    /** Options asked for last; differs from the engine's while their interpreter is built. */
+    private ModelOptions requestedOptions;
+    private boolean closed = false;
+    private final Map<ModelOptions, LatencyWindow> latencies = new LinkedHashMap<>();
+
+    public YoloClassifier(final AssetManager assetManager,
+                          final String modelFilename,
+                          final String labelFilename,
+                          final int input_size,
+                          final int output_shape,
+                          final float yolo_version) throws IOException {
+        this(readLabels(assetManager, labelFilename),
+                new ModelRegistry<>(file -> Utils.loadModelFile(assetManager, file), new InterpreterFactory()),
+                true, modelFilename, ModelOptions.GPU, input_size, output_shape, yolo_version);
+    }
 
+    /**
+     * Runs on the interpreter {@code models} holds for {@code modelFilename} and {@code options},
+     * waiting for it to be built. {@link #close()} hands it back to the registry.
+     */
     public YoloClassifier(final AssetManager assetManager,
+                          final ModelRegistry<Interpreter> models,
                           final String modelFilename,
+                          final ModelOptions options,
                           final String labelFilename,
                           final int input_size,
                           final int output_shape,
                           final float yolo_version) throws IOException {
+        this(readLabels(assetManager, labelFilename), models, false, modelFilename, options, input_size,
+                output_shape, yolo_version);
+    }
+
+    /**
+     * Like {@link #YoloClassifier(AssetManager, ModelRegistry, String, ModelOptions, String, int, int,
+     * float)} with the labels given directly, e.g. when running off the device.
+     */
+    public YoloClassifier(final List<String> labels,
+                          final ModelRegistry<Interpreter> models,
+                          final String modelFilename,
+                          final ModelOptions options,
+                          final int input_size,
+                          final int output_shape,
+                          final float yolo_version) throws IOException {
+        this(labels, models, false, modelFilename, options, input_size, output_shape, yolo_version);
+    }
+
+    private YoloClassifier(final List<String> labels,
+                           final ModelRegistry<Interpreter> models,
+                           final boolean ownsModels,
+                           final String modelFilename,
+                           final ModelOptions options,
+                           final int input_size,
+                           final int output_shape,
+                           final float yolo_version) throws IOException {
+        this.models = models;
+        this.ownsModels = ownsModels;
+        this.modelFilename = modelFilename;
+        this.requestedOptions = options;
 
         INPUT_SIZE = input_size;
+        INPUT_WIDTH = input_size;
+        INPUT_HEIGHT = input_size;
         YOLO_VERSION = yolo_version;
         OUTPUT_SHAPE = output_shape;
 
+        this.labels.addAll(labels);
+
+        final Interpreter interpreter = models.acquire(modelFilename, options);
+        try {
+            final int[] inputShape = interpreter.getInputTensor(0).shape();
+            if (inputShape.length == 4) {
+                // [batch, height, width, channels]
+                INPUT_HEIGHT = inputShape[1];
+                INPUT_WIDTH = inputShape[2];
+                INPUT_SIZE = Math.max(INPUT_WIDTH, INPUT_HEIGHT);
+            }
+            outputShape = interpreter.getOutputTensor(0).shape();
+            inputQuantization = Quantization.of(interpreter.getInputTensor(0));
+            outputQuantization = new Quantization[interpreter.getOutputTensorCount()];
+            for (int i = 0; i < outputQuantization.length; i++) {
+                outputQuantization[i] = Quantization.of(interpreter.getOutputTensor(i));
+            }
+
+            inputPool = new InputTensorPool(INPUT_WIDTH, INPUT_HEIGHT, BATCH_SIZE, INPUT_SLOTS, inputQuantization);
+            decoder = createDecoder();
+            if (decoder != null) {
+                nmsEngine = new NmsEngine(decoder.getAnchors()).setIouThreshold(mNmsThresh);
+            }
+        } catch (RuntimeException e) {
+            models.release(interpreter);
+            throw e;
+        }
+        engine = new Engine(interpreter, options);
+    }
+
+    private static List<String> readLabels(final AssetManager assetManager, final String labelFilename)
+            throws IOException {
+        final List<String> labels = new ArrayList<>();
         InputStream labelInput = assetManager.open(labelFilename);
         BufferedReader br = new BufferedReader(new InputStreamReader(labelInput));
 
@@ -56,467 +179,367 @@ public class YoloClassifier implements Classifier {
             labels.add(line);
         }
         br.close();
+        return labels;
+    }
 
-        try {
-            Interpreter.Options options = new Interpreter.Options();
-            CompatibilityList compatList = new CompatibilityList();
-            options.setUseXNNPACK(true);
-
-            GpuDelegateFactory.Options delegateOptions = compatList.getBestOptionsForThisDevice();
-            GpuDelegate gpuDelegate = new GpuDelegate(delegateOptions);
-            options.addDelegate(gpuDelegate);
-
-//            if(compatList.isDelegateSupportedOnThisDevice()){
-//                // if the device has a supported GPU, add the GPU delegate
-//                GpuDelegateFactory.Options delegateOptions = compatList.getBestOptionsForThisDevice();
-//                GpuDelegate gpuDelegate = new GpuDelegate(delegateOptions);
-//                options.addDelegate(gpuDelegate);
-//            } else {
-//                // if the GPU is not supported, run on 4 threads
-//                options.setNumThreads(NUM_THREADS);
-//                options.setUseNNAPI(true);
-//            }
-
-            TFLITE = new Interpreter(Utils.loadModelFile(assetManager, modelFilename), options);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /** Shape of the first output, which gives the number of anchors. */
+    private int[] outputShape;
+    /** Encodings read from the model; null for float tensors. */
+    private Quantization inputQuantization;
+    private Quantization[] outputQuantization;
+
+    /** Whether the model takes 8-bit input, filled through {@link InputTensorPool#getPixelTable()}. */
+    public boolean isQuantized() {
+        return inputQuantization != null;
     }
 
     protected float mNmsThresh = 0.75f;
 
-    protected float box_union(RectF a, RectF b) {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-        return u;
-    }
-
-    protected float overlap(float x1, float w1, float x2, float w2) {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
-    }
-
-    protected float box_intersection(RectF a, RectF b) {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-        return area;
-    }
-
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
-    }
-
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
+    private NmsEngine nmsEngine;
 
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
-        }
-        return nmsList;
+    public NmsEngine getNmsEngine() {
+        return nmsEngine;
     }
 
     protected static final int BATCH_SIZE = 1;
-    protected static final int PIXEL_SIZE = 3;
-
-    protected ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                final int val = intValues[pixel++];
-                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
-                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
-                byteBuffer.putFloat((val & 0xFF) / 255.0f);
-            }
-        }
-        return byteBuffer;
-    }
+    protected static final int INPUT_SLOTS = 3;
 
-    private ArrayList<Recognition> recognizeImageV4(ByteBuffer byteBuffer, Bitmap bitmap) {
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(0, new float[1][OUTPUT_SHAPE][4]);
-        outputMap.put(1, new float[1][OUTPUT_SHAPE][labels.size()]);
-        Object[] inputArray = {byteBuffer};
-        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
+    private InputTensorPool inputPool;
 
-        int gridWidth = OUTPUT_SHAPE;
-        float[][][] bboxes = (float [][][]) outputMap.get(0);
-        float[][][] out_score = (float[][][]) outputMap.get(1);
-
-        for (int i = 0; i < gridWidth; i++){
-            float maxClass = 0;
-            int detectedClass = -1;
-            final float[] classes = new float[labels.size()];
-
-            for (int c = 0;c< labels.size();c++){
-                classes [c] = out_score[0][i][c];
-            }
-
-            for (int c = 0;c<labels.size();++c){
-                if (classes[c] > maxClass){
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
-            }
-            final float score = maxClass;
-            if (score > getObjThresh()){
-                final float xPos = bboxes[0][i][0];
-                final float yPos = bboxes[0][i][1];
-                final float w = bboxes[0][i][2];
-                final float h = bboxes[0][i][3];
-                final RectF rectF = new RectF(
-                        Math.max(0, xPos - w / 2),
-                        Math.max(0, yPos - h / 2),
-                        Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                        Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + i, labels.get(detectedClass),score,rectF,detectedClass ));
-            }
-        }
-        return nms(detections);
+    /** Larger side of the model input. */
+    public int getInputSize() {
+        return INPUT_SIZE;
     }
 
-    private List<Recognition> recognizeImageV5(ByteBuffer byteBuffer, Bitmap bitmap) {
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-        Map<Integer, Object> outputMap = new HashMap<>();
-
-        //outputMap.put(0, ByteBuffer.allocateDirect(1 * OUTPUT_SHAPE[0] * (labels.size() + 5) * 4));
-        outputMap.put(0, new float[1][OUTPUT_SHAPE][5 + labels.size()]);
-        Object[] inputArray = {byteBuffer};
-
-        Log.i("null reference", "" + outputMap + " " + inputArray);
-
-        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        float[][][] out = (float[][][])outputMap.get(0);
-
-//        Log.i("outputshape", "" + out[0].length);
-
-//        for (int i = 0; i < OUTPUT_SHAPE[0]; i++) {
-//            Log.i("outputshape-i", "" + i);
-//            for (int j = 0; j < 4; j++) {
-//                out[0][i][j] *= INPUT_SIZE;
-//            }
-//        }
-
-        for (int i = 0; i < OUTPUT_SHAPE; i++) {
-            final int offset = 0;
-            final float confidence = out[0][i][4];
-            int detectedClass = -1;
-            float maxClass = 0;
+    public int getInputWidth() {
+        return INPUT_WIDTH;
+    }
 
-            final float[] classes = new float[labels.size()];
+    public int getInputHeight() {
+        return INPUT_HEIGHT;
+    }
 
-            for (int c = 0; c < labels.size(); c++) {
-                classes[c] = out[0][i][5 + c];
-            }
+    public InputTensorPool getInputPool() {
+        return inputPool;
+    }
 
-            for (int c = 0; c < labels.size(); c++) {
-                if (classes[c] > maxClass) {
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
-            }
+    private YoloOutputDecoder decoder;
+    private Map<Integer, Object> outputMap = new HashMap<>();
+    private Object[] inputArray = new Object[1];
 
-            final float confidenceInClass = maxClass * confidence;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][i][0] * INPUT_SIZE;
-                final float yPos = out[0][i][1] * INPUT_SIZE;
-
-                final float w = out[0][i][2] * INPUT_SIZE;
-                final float h = out[0][i][3] * INPUT_SIZE;
-                Log.d("YoloV5Classifier",
-                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
-            }
+    protected YoloOutputDecoder createDecoder() {
+        if (YOLO_VERSION == 3) {
+            return newDecoder(YoloOutputDecoder.Layout.ANCHORS_FIRST, OUTPUT_SHAPE / 2, true, false);
         }
-
-        return nms(detections);
+        else if (YOLO_VERSION == 4) {
+            return newDecoder(YoloOutputDecoder.Layout.SPLIT, OUTPUT_SHAPE, false, false);
+        }
+        else if (YOLO_VERSION == 5) {
+            return newDecoder(YoloOutputDecoder.Layout.ANCHORS_FIRST, OUTPUT_SHAPE, true, false);
+        }
+        else if (YOLO_VERSION == 8) {
+            return newDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST, OUTPUT_SHAPE, false, false);
+        }
+        else if (YOLO_VERSION == 8.1f) {
+            return newDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST, OUTPUT_SHAPE, true, true);
+        }
+        return null;
     }
 
-    private List<Recognition> recognizeImageV8(ByteBuffer byteBuffer, Bitmap bitmap) {
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-        Map<Integer, Object> outputMap = new HashMap<>();
+    /**
+     * @param configuredAnchors Used only if the output shape does not give the number of anchors.
+     * @param normalizedBoxes   Whether the head emits boxes in [0, 1] rather than input pixels.
+     */
+    private YoloOutputDecoder newDecoder(final YoloOutputDecoder.Layout layout,
+                                         final int configuredAnchors,
+                                         final boolean normalizedBoxes,
+                                         final boolean skipSaturated) {
+        int anchors = outputShape == null ? -1 : YoloOutputDecoder.anchorsOf(layout, outputShape);
+        if (anchors < 0) {
+            anchors = configuredAnchors;
+        } else if (anchors != configuredAnchors) {
+            Log.w(TAG, modelFilename + " has " + anchors + " anchors, not " + configuredAnchors);
+        }
+        return new YoloOutputDecoder(layout, anchors, labels.size(),
+                normalizedBoxes ? INPUT_WIDTH : 1, normalizedBoxes ? INPUT_HEIGHT : 1,
+                skipSaturated, outputQuantization);
+    }
 
-        //outputMap.put(0, ByteBuffer.allocateDirect(1 * OUTPUT_SHAPE[0] * (labels.size() + 5) * 4));
-        outputMap.put(0, new float[1][4 + labels.size()][OUTPUT_SHAPE]);
-        Object[] inputArray = {byteBuffer};
+    private ArrayList<Recognition> recognize(ByteBuffer byteBuffer) {
+        final int count = detect(byteBuffer);
+        final int[] keep = nmsEngine.getKeep();
+        final float[] scores = nmsEngine.getKeepScores();
+        ArrayList<Recognition> detections = new ArrayList<Recognition>(count);
+
+        for (int k = 0; k < count; k++) {
+            final int i = keep[k];
+            final int detectedClass = candidates.detectedClass[i];
+            final RectF rect =
+                    new RectF(
+                            Math.max(0, candidates.left(i)),
+                            Math.max(0, candidates.top(i)),
+                            Math.min(INPUT_WIDTH - 1, candidates.right(i)),
+                            Math.min(INPUT_HEIGHT - 1, candidates.bottom(i)));
+            final String id = YOLO_VERSION == 4 ? "" + candidates.anchor[i] : "0";
+            detections.add(new Recognition(id, labels.get(detectedClass),
+                    scores[k], rect, detectedClass));
+        }
 
-        Log.i("null reference", "" + outputMap + " " + inputArray);
+        return detections;
+    }
 
-        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
+    /** Candidates of the last run, indexed by {@link NmsEngine#getKeep()}. */
+    private DetectionCandidates candidates;
 
-        float[][][] out = (float[][][])outputMap.get(0);
+    /** Runs the interpreter, decoder and NMS; returns the number of kept candidates. */
+    private int detect(ByteBuffer byteBuffer) {
+        inputArray[0] = byteBuffer;
+        for (int i = 0; i < decoder.getOutputCount(); i++) {
+            outputMap.put(i, decoder.getOutput(i));
+        }
 
-        for (int i = 0; i < OUTPUT_SHAPE; i++) {
-            final int offset = 0;
-            int detectedClass = -1;
-            float maxClass = 0;
+        // Read once: a swap takes effect from the next frame.
+        final Engine current = engine;
+        final long start = System.nanoTime();
+        current.interpreter.runForMultipleInputsOutputs(inputArray, outputMap);
+        final long runNanos = System.nanoTime() - start;
+        latencyWindow(current.options).add(runNanos / 1e6f);
+        stats.record(STAT_INTERPRETER, runNanos);
+
+        long step = stats.start();
+        candidates = decoder.decode(getObjThresh());
+        step = stats.stop(STAT_DECODE, step);
+        final int count = nmsEngine.run(candidates, labels.size(), INPUT_WIDTH - 1, INPUT_HEIGHT - 1);
+        stats.stop(STAT_NMS, step);
+        return count;
+    }
 
-            final float[] classes = new float[labels.size()];
+    Context context;
 
-            for (int c = 0; c < labels.size(); c++) {
-                classes[c] = out[0][4 + c][i];
-            }
+    public void setContext(Context context) {
+        this.context = context;
+    }
 
-            for (int c = 0; c < labels.size(); c++) {
-                if (classes[c] > maxClass) {
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
-            }
+    public List<Recognition> recognizeImage(Bitmap bitmap) {
+        final InputTensorPool.Tensor tensor = inputPool.acquire();
+        if (tensor == null) {
+            throw new IllegalStateException("No free input tensor");
+        }
 
-            final float confidenceInClass = maxClass;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][0][i];
-                final float yPos = out[0][1][i];
-
-                final float w = out[0][2][i];
-                final float h = out[0][3][i];
-
-                Log.d("YoloV8Classifier",
-                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
+        try {
+            inputPool.fill(tensor, bitmap, 0);
+            if (decoder != null) {
+                return recognize(tensor.getBuffer());
             }
+        } finally {
+            inputPool.release(tensor);
         }
 
-        return nms(detections);
+        return null;
     }
 
-    private List<Recognition> recognizeImageV8r1(ByteBuffer byteBuffer, Bitmap bitmap) {
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-        Map<Integer, Object> outputMap = new HashMap<>();
+    /**
+     * Runs the detector on a tensor taken from {@link #getInputPool()} and already filled by the
+     * caller. The tensor stays owned by the caller.
+     */
+    public List<Recognition> recognizeTensor(InputTensorPool.Tensor tensor) {
+        if (decoder == null) {
+            return null;
+        }
+        return recognize(tensor.getBuffer());
+    }
 
-        //outputMap.put(0, ByteBuffer.allocateDirect(1 * OUTPUT_SHAPE[0] * (labels.size() + 5) * 4));
-        outputMap.put(0, new float[1][4 + labels.size()][OUTPUT_SHAPE]);
-        Object[] inputArray = {byteBuffer};
+    /**
+     * Like {@link #recognizeTensor}, without building {@link Recognition}s: the kept detections are
+     * {@link #getCandidates()} at the indices {@link NmsEngine#getKeep()} of {@link #getNmsEngine()}
+     * gives, with scores from {@link NmsEngine#getKeepScores()}, boxes in input pixels.
+     *
+     * @return the number of detections, or -1 if the model version is not supported.
+     */
+    public int detectTensor(InputTensorPool.Tensor tensor) {
+        if (decoder == null) {
+            return -1;
+        }
+        return detect(tensor.getBuffer());
+    }
 
-        Log.i("null reference", "" + outputMap + " " + inputArray);
+    /** Candidates of the last {@link #detectTensor} or recognize call. */
+    public DetectionCandidates getCandidates() {
+        return candidates;
+    }
 
-        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
+    public String getLabel(final int detectedClass) {
+        return labels.get(detectedClass);
+    }
 
-        float[][][] out = (float[][][])outputMap.get(0);
+    @Override
+    public void enableStatLogging(boolean debug) {
+        stats.setEnabled(debug);
+    }
 
-        for (int i = 0; i < OUTPUT_SHAPE; i++) {
-            final int offset = 0;
-            int detectedClass = -1;
-            float maxClass = 0;
+    /** Interpreter, decode and NMS latency histograms, one line each. */
+    @Override
+    public String getStatString() {
+        return stats.toString();
+    }
 
-            final float[] classes = new float[labels.size()];
+    /** Latency histograms of {@link #STAT_INTERPRETER}, {@link #STAT_DECODE} and {@link #STAT_NMS}. */
+    public StageStats getStats() {
+        return stats;
+    }
 
-            for (int c = 0; c < labels.size(); c++) {
-                classes[c] = out[0][4 + c][i];
-            }
+    /**
+     * Hands the interpreter back to the registry. Frames already running may finish: the registry
+     * only closes interpreters that have been idle for a while.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        models.release(engine.interpreter);
+        if (ownsModels) {
+            models.close();
+        }
+    }
 
-            for (int c = 0; c < labels.size(); c++) {
-                if (classes[c] > maxClass && classes[c] != 1.0) {
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
+    /**
+     * Takes an interpreter for {@code options} again after {@link #close()}, waiting for it to be
+     * built. On an open classifier, same as {@link #setOptions}.
+     */
+    public void reopen(final ModelOptions options) throws IOException {
+        synchronized (this) {
+            if (!closed) {
+                setOptions(options);
+                return;
             }
-
-            final float confidenceInClass = maxClass;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][0][i] * INPUT_SIZE;
-                final float yPos = out[0][1][i] * INPUT_SIZE;
-
-                final float w = out[0][2][i] * INPUT_SIZE;
-                final float h = out[0][3][i] * INPUT_SIZE;
-
-                Log.d("YoloV8Classifier",
-                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h + ", (" + confidenceInClass + ")");
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
+            if (ownsModels) {
+                throw new IllegalStateException("Registry of " + modelFilename + " is closed");
             }
         }
-
-        return nms(detections);
+        final Interpreter interpreter = models.acquire(modelFilename, options);
+        synchronized (this) {
+            engine = new Engine(interpreter, options);
+            requestedOptions = options;
+            closed = false;
+        }
     }
 
-    private List<Recognition> recognizeImageV3(ByteBuffer byteBuffer, Bitmap bitmap) {
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-        Map<Integer, Object> outputMap = new HashMap<>();
-
-        //outputMap.put(0, ByteBuffer.allocateDirect(1 * OUTPUT_SHAPE[0] * (labels.size() + 5) * 4));
-        outputMap.put(0, new float[1][OUTPUT_SHAPE / 2][5 + labels.size()]);
-        Object[] inputArray = {byteBuffer};
-
-        TFLITE.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        float[][][] out = (float[][][])outputMap.get(0);
-
-//        Log.i("outputshape", "" + out[0].length);
-
-//        for (int i = 0; i < OUTPUT_SHAPE[0]; i++) {
-//            Log.i("outputshape-i", "" + i);
-//            for (int j = 0; j < 4; j++) {
-//                out[0][i][j] *= INPUT_SIZE;
-//            }
-//        }
-
-        for (int i = 0; i < OUTPUT_SHAPE; i++) {
-            final int offset = 0;
-            final float confidence = out[0][i][4];
-            int detectedClass = -1;
-            float maxClass = 0;
+    /** Options asked for last; they are in use once their interpreter is built. */
+    public synchronized ModelOptions getOptions() {
+        return requestedOptions;
+    }
 
-            final float[] classes = new float[labels.size()];
+    /** Options of the interpreter frames currently run on. */
+    public ModelOptions getActiveOptions() {
+        return engine.options;
+    }
 
-            for (int c = 0; c < labels.size(); c++) {
-                classes[c] = out[0][i][5 + c];
+    /**
+     * Builds an interpreter for {@code options} in the background and switches to it once built.
+     * A later call supersedes an earlier one still being built.
+     */
+    public synchronized void setOptions(final ModelOptions options) {
+        if (closed || options.equals(requestedOptions)) {
+            return;
+        }
+        requestedOptions = options;
+        models.acquireAsync(modelFilename, options, new ModelRegistry.Callback<Interpreter>() {
+            @Override
+            public void onAcquired(final Interpreter interpreter) {
+                swap(interpreter, options);
             }
 
-            for (int c = 0; c < labels.size(); c++) {
-                if (classes[c] > maxClass) {
-                    detectedClass = c;
-                    maxClass = classes[c];
+            @Override
+            public void onError(final IOException e) {
+                Log.e(TAG, "Could not build " + modelFilename + " for " + options, e);
+                synchronized (YoloClassifier.this) {
+                    if (options.equals(requestedOptions)) {
+                        requestedOptions = engine.options;
+                    }
                 }
             }
-
-            final float confidenceInClass = maxClass * confidence;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][i][0] * INPUT_SIZE;
-                final float yPos = out[0][i][1] * INPUT_SIZE;
-
-                final float w = out[0][i][2] * INPUT_SIZE;
-                final float h = out[0][i][3] * INPUT_SIZE;
-//                Log.d("YoloV5Classifier",
-//                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
-            }
-        }
-
-        return nms(detections);
+        });
     }
 
-    Context context;
-
-    public void setContext(Context context) {
-        this.context = context;
-    }
-
-    public List<Recognition> recognizeImage(Bitmap bitmap) {
-
-        if (YOLO_VERSION == 4) {
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
-            return recognizeImageV4(byteBuffer, bitmap);
-        }
-        else if (YOLO_VERSION == 5) {
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
-            return recognizeImageV5(byteBuffer, bitmap);
-        }
-        else if (YOLO_VERSION == 8) {
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
-            return recognizeImageV8(byteBuffer, bitmap);
-        }
-        else if (YOLO_VERSION == 8.1f) {
-            ByteBuffer byteBuffer = convertBitmapToByteBuffer(bitmap);
-            return recognizeImageV8r1(byteBuffer, bitmap);
+    private void swap(final Interpreter interpreter, final ModelOptions options) {
+        final Interpreter previous;
+        synchronized (this) {
+            if (closed || !options.equals(requestedOptions)) {
+                previous = interpreter;
+            } else {
+                previous = engine.interpreter;
+                engine = new Engine(interpreter, options);
+                Log.i(TAG, modelFilename + " now runs with " + options);
+            }
         }
-
-        return null;
+        models.release(previous);
     }
 
     @Override
-    public void enableStatLogging(boolean debug) {
-
+    public void setNumThreads(int num_threads) {
+        setOptions(getOptions().withNumThreads(num_threads));
     }
 
+    /**
+     * NNAPI replaces the GPU delegate; turning it off goes back to the GPU delegate, or to XNNPACK
+     * for a quantized model.
+     */
     @Override
-    public String getStatString() {
-        return null;
+    public void setUseNNAPI(boolean isChecked) {
+        setOptions(getOptions().withNnapi(isChecked).withGpu(!isChecked && !isQuantized()));
     }
 
-    @Override
-    public void close() {
-
+    private LatencyWindow latencyWindow(final ModelOptions options) {
+        synchronized (latencies) {
+            LatencyWindow window = latencies.get(options);
+            if (window == null) {
+                window = new LatencyWindow(LATENCY_WINDOW);
+                latencies.put(options, window);
+            }
+            return window;
+        }
     }
 
-    @Override
-    public void setNumThreads(int num_threads) {
-
+    /** Latency of the last frames run with {@code options}, or null if none ran with them. */
+    public LatencyWindow getLatency(final ModelOptions options) {
+        synchronized (latencies) {
+            return latencies.get(options);
+        }
     }
 
-    @Override
-    public void setUseNNAPI(boolean isChecked) {
+    /**
+     * The configuration with the lowest median latency among those that ran a full window of
+     * frames, or null if none did yet.
+     */
+    public ModelOptions getFastestOptions() {
+        ModelOptions fastest = null;
+        float best = Float.MAX_VALUE;
+        synchronized (latencies) {
+            for (final Map.Entry<ModelOptions, LatencyWindow> entry : latencies.entrySet()) {
+                final LatencyWindow window = entry.getValue();
+                if (window.isFull() && window.getPercentileMs(50) < best) {
+                    best = window.getPercentileMs(50);
+                    fastest = entry.getKey();
+                }
+            }
+        }
+        return fastest;
+    }
 
+    /** One line per configuration that ran: its options and the latency of its last frames. */
+    public String getLatencyReport() {
+        final StringBuilder sb = new StringBuilder();
+        synchronized (latencies) {
+            for (final Map.Entry<ModelOptions, LatencyWindow> entry : latencies.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+        }
+        return sb.toString();
     }
 
     @Override
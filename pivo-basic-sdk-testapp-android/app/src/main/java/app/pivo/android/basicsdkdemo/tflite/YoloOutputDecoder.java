@@ -0,0 +1,347 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes YOLO head outputs straight from reused direct buffers.
+ *
+ * All supported heads go through this class:
+ * <ul>
+ *   <li>{@link Layout#CHANNELS_FIRST}: YOLOv8, output [1][4 + C][N].</li>
+ *   <li>{@link Layout#ANCHORS_FIRST}: YOLOv3/v5, output [1][N][5 + C] with an objectness column.</li>
+ *   <li>{@link Layout#SPLIT}: YOLOv4, boxes [1][N][4] and scores [1][N][C] as two outputs.</li>
+ * </ul>
+ * N is read from the output shape with {@link #anchorsOf}, so inputs of any size, square or not,
+ * decode without configuration.
+ * Argmax and thresholding happen in one pass and survivors go into a preallocated
+ * {@link DetectionCandidates}, so decoding a frame does not allocate.
+ *
+ * Outputs of quantized models are 8-bit. A YOLOv8 head is decoded in the quantized domain: the
+ * argmax runs on the raw bytes, which order like the real values, and only each anchor's best
+ * score and the boxes of survivors are dequantized. Other layouts are dequantized into float
+ * staging arrays first.
+ */
+public class YoloOutputDecoder {
+    public enum Layout {
+        CHANNELS_FIRST,
+        ANCHORS_FIRST,
+        SPLIT
+    }
+
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private final Layout layout;
+    private final int anchors;
+    private final int numClasses;
+    private final float coordScaleX;
+    private final float coordScaleY;
+    private final boolean skipSaturated;
+
+    private final ByteBuffer[] outputs;
+    private final FloatBuffer[] floats;
+    private final Quantization[] quantization;
+    private final float[] bestScore;
+    private final int[] bestClass;
+    private final int[] bestRaw;
+    private final DetectionCandidates candidates;
+
+    /**
+     * @param layout        Output layout of the model head.
+     * @param anchors       Number of anchors (N).
+     * @param numClasses    Number of classes (C).
+     * @param coordScale    Factor applied to box coordinates, e.g. the input size for heads that
+     *                      emit normalized boxes, or 1.
+     * @param skipSaturated Ignore class scores of exactly 1.0 (seen on some exported v8 heads).
+     */
+    public YoloOutputDecoder(final Layout layout,
+                             final int anchors,
+                             final int numClasses,
+                             final float coordScale,
+                             final boolean skipSaturated) {
+        this(layout, anchors, numClasses, coordScale, coordScale, skipSaturated, null);
+    }
+
+    public YoloOutputDecoder(final Layout layout,
+                             final int anchors,
+                             final int numClasses,
+                             final float coordScale,
+                             final boolean skipSaturated,
+                             final Quantization[] quantization) {
+        this(layout, anchors, numClasses, coordScale, coordScale, skipSaturated, quantization);
+    }
+
+    /**
+     * @param coordScaleX  Factor applied to box x and width; the input width for heads that emit
+     *                     normalized boxes.
+     * @param coordScaleY  Factor applied to box y and height.
+     * @param quantization Encoding of each output, null entries (or a null array) for float
+     *                     outputs.
+     */
+    public YoloOutputDecoder(final Layout layout,
+                             final int anchors,
+                             final int numClasses,
+                             final float coordScaleX,
+                             final float coordScaleY,
+                             final boolean skipSaturated,
+                             final Quantization[] quantization) {
+        this.layout = layout;
+        this.anchors = anchors;
+        this.numClasses = numClasses;
+        this.coordScaleX = coordScaleX;
+        this.coordScaleY = coordScaleY;
+        this.skipSaturated = skipSaturated;
+
+        final int[] sizes;
+        switch (layout) {
+            case CHANNELS_FIRST:
+                sizes = new int[]{anchors * (4 + numClasses)};
+                break;
+            case ANCHORS_FIRST:
+                sizes = new int[]{anchors * (5 + numClasses)};
+                break;
+            default:
+                sizes = new int[]{anchors * 4, anchors * numClasses};
+                break;
+        }
+
+        outputs = new ByteBuffer[sizes.length];
+        floats = new FloatBuffer[sizes.length];
+        this.quantization = new Quantization[sizes.length];
+        for (int i = 0; i < sizes.length; ++i) {
+            this.quantization[i] = quantization != null && i < quantization.length ? quantization[i] : null;
+            if (this.quantization[i] != null) {
+                outputs[i] = ByteBuffer.allocateDirect(sizes[i]);
+                // The quantized v8 path reads the bytes directly.
+                floats[i] = layout == Layout.CHANNELS_FIRST ? null : FloatBuffer.wrap(new float[sizes[i]]);
+            } else {
+                outputs[i] = ByteBuffer.allocateDirect(sizes[i] * BYTES_PER_FLOAT);
+                floats[i] = outputs[i].asFloatBuffer();
+            }
+            outputs[i].order(ByteOrder.nativeOrder());
+        }
+
+        bestScore = layout == Layout.CHANNELS_FIRST ? new float[anchors] : null;
+        bestClass = layout == Layout.CHANNELS_FIRST ? new int[anchors] : null;
+        bestRaw = layout == Layout.CHANNELS_FIRST && this.quantization[0] != null ? new int[anchors] : null;
+        candidates = new DetectionCandidates(anchors);
+    }
+
+    /**
+     * Number of anchors in a first output of shape {@code shape} in {@code layout}, or -1 if the
+     * shape does not fit the layout.
+     */
+    public static int anchorsOf(final Layout layout, final int[] shape) {
+        if (shape.length != 3) {
+            return -1;
+        }
+        return layout == Layout.CHANNELS_FIRST ? shape[2] : shape[1];
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public int getAnchors() {
+        return anchors;
+    }
+
+    public int getOutputCount() {
+        return outputs.length;
+    }
+
+    /**
+     * The direct buffer the interpreter should write output {@code index} into, rewound.
+     */
+    public ByteBuffer getOutput(final int index) {
+        outputs[index].rewind();
+        return outputs[index];
+    }
+
+    /** Encoding of output {@code index}, or null if it is a float output. */
+    public Quantization getQuantization(final int index) {
+        return quantization[index];
+    }
+
+    /**
+     * Float view of output {@code index}. Exposed for tests and for callers filling the outputs
+     * themselves. For a quantized output this is the dequantized staging array, filled by
+     * {@link #decode}, and null for a YOLOv8 head.
+     */
+    public FloatBuffer getOutputFloats(final int index) {
+        return floats[index];
+    }
+
+    /**
+     * Decodes the current content of the output buffers.
+     *
+     * @return the reused candidate set; valid until the next call.
+     */
+    public DetectionCandidates decode(final float threshold) {
+        candidates.clear();
+        if (bestRaw != null) {
+            decodeChannelsFirstQuantized(threshold);
+            return candidates;
+        }
+        for (int i = 0; i < outputs.length; ++i) {
+            if (quantization[i] != null) {
+                dequantize(i);
+            }
+        }
+        switch (layout) {
+            case CHANNELS_FIRST:
+                decodeChannelsFirst(threshold);
+                break;
+            case ANCHORS_FIRST:
+                decodeAnchorsFirst(threshold);
+                break;
+            default:
+                decodeSplit(threshold);
+                break;
+        }
+        return candidates;
+    }
+
+    private void decodeChannelsFirst(final float threshold) {
+        final FloatBuffer out = floats[0];
+
+        // Walk the class planes in memory order and keep a running argmax per anchor instead of
+        // gathering each anchor's strided scores.
+        for (int i = 0; i < anchors; ++i) {
+            bestScore[i] = 0;
+            bestClass[i] = -1;
+        }
+        for (int c = 0; c < numClasses; ++c) {
+            final int base = (4 + c) * anchors;
+            for (int i = 0; i < anchors; ++i) {
+                final float score = out.get(base + i);
+                if (score > bestScore[i] && !(skipSaturated && score == 1.0f)) {
+                    bestScore[i] = score;
+                    bestClass[i] = c;
+                }
+            }
+        }
+
+        for (int i = 0; i < anchors; ++i) {
+            final float score = bestScore[i];
+            if (score > threshold) {
+                candidates.add(
+                        out.get(i) * coordScaleX,
+                        out.get(anchors + i) * coordScaleY,
+                        out.get(2 * anchors + i) * coordScaleX,
+                        out.get(3 * anchors + i) * coordScaleY,
+                        score,
+                        bestClass[i],
+                        i);
+            }
+        }
+    }
+
+    private void decodeChannelsFirstQuantized(final float threshold) {
+        final ByteBuffer out = outputs[0];
+        final Quantization q = quantization[0];
+
+        // Raw values above the zero point are the positive scores the float path considers.
+        for (int i = 0; i < anchors; ++i) {
+            bestRaw[i] = q.zeroPoint;
+            bestClass[i] = -1;
+        }
+        for (int c = 0; c < numClasses; ++c) {
+            final int base = (4 + c) * anchors;
+            for (int i = 0; i < anchors; ++i) {
+                final int raw = q.raw(out.get(base + i));
+                if (raw > bestRaw[i] && !(skipSaturated && q.dequantizeRaw(raw) == 1.0f)) {
+                    bestRaw[i] = raw;
+                    bestClass[i] = c;
+                }
+            }
+        }
+
+        for (int i = 0; i < anchors; ++i) {
+            if (bestClass[i] < 0) {
+                continue;
+            }
+            final float score = q.dequantizeRaw(bestRaw[i]);
+            if (score > threshold) {
+                candidates.add(
+                        q.dequantize(out.get(i)) * coordScaleX,
+                        q.dequantize(out.get(anchors + i)) * coordScaleY,
+                        q.dequantize(out.get(2 * anchors + i)) * coordScaleX,
+                        q.dequantize(out.get(3 * anchors + i)) * coordScaleY,
+                        score,
+                        bestClass[i],
+                        i);
+            }
+        }
+    }
+
+    private void dequantize(final int index) {
+        final ByteBuffer src = outputs[index];
+        final FloatBuffer dst = floats[index];
+        final Quantization q = quantization[index];
+        final int size = dst.capacity();
+        for (int i = 0; i < size; ++i) {
+            dst.put(i, q.dequantize(src.get(i)));
+        }
+    }
+
+    private void decodeAnchorsFirst(final float threshold) {
+        final FloatBuffer out = floats[0];
+        final int stride = 5 + numClasses;
+
+        for (int i = 0; i < anchors; ++i) {
+            final int base = i * stride;
+            int detectedClass = -1;
+            float maxClass = 0;
+            for (int c = 0; c < numClasses; ++c) {
+                final float score = out.get(base + 5 + c);
+                if (score > maxClass) {
+                    detectedClass = c;
+                    maxClass = score;
+                }
+            }
+
+            final float score = maxClass * out.get(base + 4);
+            if (score > threshold) {
+                candidates.add(
+                        out.get(base) * coordScaleX,
+                        out.get(base + 1) * coordScaleY,
+                        out.get(base + 2) * coordScaleX,
+                        out.get(base + 3) * coordScaleY,
+                        score,
+                        detectedClass,
+                        i);
+            }
+        }
+    }
+
+    private void decodeSplit(final float threshold) {
+        final FloatBuffer boxes = floats[0];
+        final FloatBuffer scores = floats[1];
+
+        for (int i = 0; i < anchors; ++i) {
+            final int base = i * numClasses;
+            int detectedClass = -1;
+            float maxClass = 0;
+            for (int c = 0; c < numClasses; ++c) {
+                final float score = scores.get(base + c);
+                if (score > maxClass) {
+                    detectedClass = c;
+                    maxClass = score;
+                }
+            }
+
+            if (maxClass > threshold) {
+                candidates.add(
+                        boxes.get(4 * i) * coordScaleX,
+                        boxes.get(4 * i + 1) * coordScaleY,
+                        boxes.get(4 * i + 2) * coordScaleX,
+                        boxes.get(4 * i + 3) * coordScaleY,
+                        maxClass,
+                        detectedClass,
+                        i);
+            }
+        }
+    }
+}
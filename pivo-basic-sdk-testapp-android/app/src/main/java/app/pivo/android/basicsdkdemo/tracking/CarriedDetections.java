@@ -0,0 +1,80 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+/**
+ * Boxes of the previous frame's detections, kept in model input coordinates for the next frame to
+ * start from.
+ *
+ * The boxes are copied in once a frame's results are final, so later stages may map that frame's
+ * own results, e.g. into frame pixels for the overlay, without moving what the next frame
+ * propagates or reuses. Boxes are left, top, right, bottom.
+ *
+ * Not thread safe.
+ */
+public class CarriedDetections {
+  /** Maps {@code count} boxes in place. */
+  public interface BoxTransform {
+    void map(float[] boxes, int count);
+  }
+
+  /** Moves boxes from the previous frame into the current one, see {@link FlowPropagator}. */
+  public interface Flow {
+    void propagate(float[] boxes, int count, float[] outBoxes, float[] outQuality);
+  }
+
+  private float[] boxes = new float[0];
+  private int count = 0;
+  private int inputWidth;
+  private int inputHeight;
+  private boolean valid = false;
+
+  /** Copies {@code count} boxes of a model input of {@code inputWidth} by {@code inputHeight}. */
+  public void set(final float[] src, final int count, final int inputWidth, final int inputHeight) {
+    if (boxes.length < count * 4) {
+      boxes = new float[count * 4];
+    }
+    System.arraycopy(src, 0, boxes, 0, count * 4);
+    this.count = count;
+    this.inputWidth = inputWidth;
+    this.inputHeight = inputHeight;
+    valid = true;
+  }
+
+  public void clear() {
+    count = 0;
+    valid = false;
+  }
+
+  /** Whether boxes were carried over from an input of this size. */
+  public boolean isFor(final int inputWidth, final int inputHeight) {
+    return valid && this.inputWidth == inputWidth && this.inputHeight == inputHeight;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  /** Copies the boxes unchanged, for a frame on which nothing moved. */
+  public void copyTo(final float[] outBoxes) {
+    System.arraycopy(boxes, 0, outBoxes, 0, count * 4);
+  }
+
+  /**
+   * Moves the boxes into the current frame: they are mapped into frame pixels with
+   * {@code toFrame}, moved by {@code flow} and mapped back into input coordinates with
+   * {@code toInput}.
+   *
+   * @param outBoxes   Receives {@link #size()} boxes in input coordinates.
+   * @param outQuality Receives the flow quality of each box.
+   */
+  public void propagate(
+      final BoxTransform toFrame,
+      final Flow flow,
+      final BoxTransform toInput,
+      final float[] outBoxes,
+      final float[] outQuality) {
+    copyTo(outBoxes);
+    toFrame.map(outBoxes, count);
+    flow.propagate(outBoxes, count, outBoxes, outQuality);
+    toInput.map(outBoxes, count);
+  }
+}
@@ -0,0 +1,288 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Re-identification gallery of appearance embeddings.
+ *
+ * Embeddings are L2-normalized on insertion and stored back to back in one float array per class,
+ * so cosine similarity is a plain dot product over contiguous memory and a query never looks at
+ * other classes. Each class holds at most {@code capacityPerClass} identities; when it is full the
+ * least recently seen identity is evicted, and {@link #evictOlderThan(long, long)} drops identities
+ * that have not been seen for a while. Lookup cost is therefore bounded by the capacity, not by the
+ * number of identities seen since start.
+ *
+ * Not thread safe.
+ */
+public class EmbeddingGallery {
+  private final int dimension;
+  private final int capacityPerClass;
+  private final Map<String, Partition> partitions = new HashMap<>();
+  private float[] queryNorms = new float[0];
+  private int[] found = new int[0];
+  private int nextId = 0;
+
+  public EmbeddingGallery(final int dimension, final int capacityPerClass) {
+    this.dimension = dimension;
+    this.capacityPerClass = capacityPerClass;
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public int getCapacityPerClass() {
+    return capacityPerClass;
+  }
+
+  /** Number of identities stored for {@code cls}. */
+  public int size(final String cls) {
+    final Partition partition = partitions.get(cls);
+    return partition == null ? 0 : partition.size;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Partition partition : partitions.values()) {
+      size += partition.size;
+    }
+    return size;
+  }
+
+  public void clear() {
+    partitions.clear();
+  }
+
+  /**
+   * Stores the embedding at {@code offset} of {@code vectors} as a new identity of {@code cls},
+   * evicting the least recently seen identity of that class if it is full.
+   *
+   * @return the new identity.
+   */
+  public int add(final String cls, final float[] vectors, final int offset, final long timestamp) {
+    Partition partition = partitions.get(cls);
+    if (partition == null) {
+      partition = new Partition(dimension, capacityPerClass);
+      partitions.put(cls, partition);
+    }
+
+    int slot = partition.size;
+    if (slot == capacityPerClass) {
+      slot = partition.leastRecentlySeen();
+    } else {
+      ++partition.size;
+    }
+
+    final int id = nextId++;
+    partition.ids[slot] = id;
+    partition.lastSeen[slot] = timestamp;
+    normalize(vectors, offset, partition.vectors, slot * dimension, dimension);
+    return id;
+  }
+
+  /** Marks {@code id} of {@code cls} as seen at {@code timestamp}. */
+  public void touch(final String cls, final int id, final long timestamp) {
+    final Partition partition = partitions.get(cls);
+    if (partition == null) {
+      return;
+    }
+    final int slot = partition.slotOf(id);
+    if (slot >= 0) {
+      partition.lastSeen[slot] = timestamp;
+    }
+  }
+
+  /**
+   * Drops every identity last seen more than {@code maxAge} before {@code now}.
+   *
+   * @return the number of identities removed.
+   */
+  public int evictOlderThan(final long now, final long maxAge) {
+    int removed = 0;
+    for (Partition partition : partitions.values()) {
+      for (int slot = partition.size - 1; slot >= 0; --slot) {
+        if (now - partition.lastSeen[slot] > maxAge) {
+          partition.remove(slot);
+          ++removed;
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Finds the {@code k} most similar identities of {@code cls} for the embedding at
+   * {@code offset} of {@code vectors}.
+   *
+   * @param minSimilarity only identities with a cosine similarity strictly above this are returned.
+   * @param outIds        receives up to {@code k} identities, best first.
+   * @param outScores     receives their cosine similarities.
+   * @return the number of identities written.
+   */
+  public int search(
+      final String cls,
+      final float[] vectors,
+      final int offset,
+      final int k,
+      final float minSimilarity,
+      final int[] outIds,
+      final float[] outScores) {
+    return search(cls, vectors, offset, 1, k, minSimilarity, outIds, outScores, null);
+  }
+
+  /**
+   * Batched {@link #search}: {@code count} queries stored back to back from {@code offset} of
+   * {@code vectors}. Query q writes its results at {@code q * k} of {@code outIds} and
+   * {@code outScores} and its result count at {@code outCounts[q]}. Each stored embedding is read
+   * once for all queries.
+   *
+   * @return the number of results of the first query.
+   */
+  public int search(
+      final String cls,
+      final float[] vectors,
+      final int offset,
+      final int count,
+      final int k,
+      final float minSimilarity,
+      final int[] outIds,
+      final float[] outScores,
+      final int[] outCounts) {
+    if (outCounts != null) {
+      for (int q = 0; q < count; ++q) {
+        outCounts[q] = 0;
+      }
+    }
+    final Partition partition = partitions.get(cls);
+    if (partition == null || partition.size == 0 || count == 0 || k <= 0) {
+      return 0;
+    }
+
+    if (found.length < count) {
+      queryNorms = new float[count];
+      found = new int[count];
+    }
+    for (int q = 0; q < count; ++q) {
+      queryNorms[q] = inverseNorm(vectors, offset + q * dimension, dimension);
+      found[q] = 0;
+    }
+
+    final float[] stored = partition.vectors;
+    for (int slot = 0; slot < partition.size; ++slot) {
+      final int base = slot * dimension;
+      for (int q = 0; q < count; ++q) {
+        final float similarity =
+            dot(stored, base, vectors, offset + q * dimension, dimension) * queryNorms[q];
+        if (similarity > minSimilarity) {
+          found[q] = insert(outIds, outScores, q * k, found[q], k, partition.ids[slot], similarity);
+        }
+      }
+    }
+
+    if (outCounts != null) {
+      System.arraycopy(found, 0, outCounts, 0, count);
+    }
+    return found[0];
+  }
+
+  /** Inserts into the sorted top-k list starting at {@code base}; returns the new list length. */
+  private static int insert(
+      final int[] ids,
+      final float[] scores,
+      final int base,
+      final int length,
+      final int k,
+      final int id,
+      final float score) {
+    if (length == k && score <= scores[base + k - 1]) {
+      return length;
+    }
+    int i = Math.min(length, k - 1);
+    while (i > 0 && scores[base + i - 1] < score) {
+      ids[base + i] = ids[base + i - 1];
+      scores[base + i] = scores[base + i - 1];
+      --i;
+    }
+    ids[base + i] = id;
+    scores[base + i] = score;
+    return Math.min(length + 1, k);
+  }
+
+  private static float dot(
+      final float[] a, final int aOffset, final float[] b, final int bOffset, final int length) {
+    float s0 = 0;
+    float s1 = 0;
+    float s2 = 0;
+    float s3 = 0;
+    int i = 0;
+    // Four independent accumulators let the JIT keep several multiply-adds in flight.
+    for (; i + 3 < length; i += 4) {
+      s0 += a[aOffset + i] * b[bOffset + i];
+      s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+      s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+      s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+    }
+    for (; i < length; ++i) {
+      s0 += a[aOffset + i] * b[bOffset + i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private static float inverseNorm(final float[] v, final int offset, final int length) {
+    final float norm = (float) Math.sqrt(dot(v, offset, v, offset, length));
+    return norm > 0 ? 1 / norm : 0;
+  }
+
+  private static void normalize(
+      final float[] src, final int srcOffset, final float[] dst, final int dstOffset, final int length) {
+    final float scale = inverseNorm(src, srcOffset, length);
+    for (int i = 0; i < length; ++i) {
+      dst[dstOffset + i] = src[srcOffset + i] * scale;
+    }
+  }
+
+  private static final class Partition {
+    final int dimension;
+    final float[] vectors;
+    final int[] ids;
+    final long[] lastSeen;
+    int size = 0;
+
+    Partition(final int dimension, final int capacity) {
+      this.dimension = dimension;
+      vectors = new float[capacity * dimension];
+      ids = new int[capacity];
+      lastSeen = new long[capacity];
+    }
+
+    int slotOf(final int id) {
+      for (int slot = 0; slot < size; ++slot) {
+        if (ids[slot] == id) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    int leastRecentlySeen() {
+      int oldest = 0;
+      for (int slot = 1; slot < size; ++slot) {
+        if (lastSeen[slot] < lastSeen[oldest]) {
+          oldest = slot;
+        }
+      }
+      return oldest;
+    }
+
+    /** Removes {@code slot} by moving the last identity into it. */
+    void remove(final int slot) {
+      final int last = --size;
+      if (slot != last) {
+        ids[slot] = ids[last];
+        lastSeen[slot] = lastSeen[last];
+        System.arraycopy(vectors, last * dimension, vectors, slot * dimension, dimension);
+      }
+    }
+  }
+}
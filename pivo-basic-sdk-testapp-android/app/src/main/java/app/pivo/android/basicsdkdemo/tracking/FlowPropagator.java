@@ -0,0 +1,217 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import app.pivo.android.basicsdkdemo.env.YuvPlanes;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.SparsePyrLKOpticalFlow;
+
+/**
+ * Moves boxes from one frame to the next with sparse pyramidal Lucas-Kanade flow on the luma
+ * plane.
+ *
+ * Each frame's luma is downsampled to a fixed working width. For every box, a few corners are
+ * picked inside it on the previous frame and tracked into the current one in a single
+ * {@link SparsePyrLKOpticalFlow} call. The box then moves by the median displacement of its
+ * tracked corners and scales by the median change of the distance between consecutive corners.
+ *
+ * Boxes are in full frame pixels, unrotated. Must be used from a single thread, after OpenCV has
+ * been loaded.
+ */
+public class FlowPropagator implements CarriedDetections.Flow {
+  private static final double CORNER_QUALITY = 0.01;
+  private static final double CORNER_MIN_DISTANCE = 3;
+  /** Boxes narrower or shorter than this, in working pixels, are not tracked. */
+  private static final int MIN_BOX_SIZE = 8;
+
+  private final int workingWidth;
+  private final int cornersPerBox;
+  private final SparsePyrLKOpticalFlow flow = SparsePyrLKOpticalFlow.create(new Size(15, 15), 2);
+
+  private Mat previous;
+  private Mat current;
+  private byte[] pixels;
+  private int frameWidth;
+  private int frameHeight;
+  private float scale;
+
+  private final MatOfPoint corners = new MatOfPoint();
+  private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+  private final MatOfPoint2f currentPoints = new MatOfPoint2f();
+  private final MatOfByte status = new MatOfByte();
+  private final MatOfFloat error = new MatOfFloat();
+  private int[] boxStart = new int[0];
+  private final float[] dx;
+  private final float[] dy;
+  private final float[] ratio;
+
+  /**
+   * @param workingWidth  Width, in pixels, the luma plane is downsampled to.
+   * @param cornersPerBox Most corners tracked per box.
+   */
+  public FlowPropagator(final int workingWidth, final int cornersPerBox) {
+    this.workingWidth = workingWidth;
+    this.cornersPerBox = cornersPerBox;
+    dx = new float[cornersPerBox];
+    dy = new float[cornersPerBox];
+    ratio = new float[cornersPerBox];
+  }
+
+  /**
+   * Makes {@code yuv} the current frame; the current frame becomes the previous one.
+   *
+   * @return whether there is a previous frame of the same size to propagate from.
+   */
+  public boolean advance(final YuvPlanes yuv) {
+    final boolean sameSize =
+        current != null && yuv.getWidth() == frameWidth && yuv.getHeight() == frameHeight;
+    if (!sameSize) {
+      frameWidth = yuv.getWidth();
+      frameHeight = yuv.getHeight();
+      scale = Math.max(1f, (float) frameWidth / workingWidth);
+      final int width = (int) (frameWidth / scale);
+      final int height = (int) (frameHeight / scale);
+      pixels = new byte[width * height];
+      previous = new Mat(height, width, CvType.CV_8UC1);
+      current = new Mat(height, width, CvType.CV_8UC1);
+    }
+
+    final Mat swap = previous;
+    previous = current;
+    current = swap;
+    downsample(yuv.getY(), yuv.getYRowStride(), current.cols(), current.rows());
+    current.put(0, 0, pixels);
+    return sameSize;
+  }
+
+  /** Averages 2x2 luma blocks at the sample positions of the working image into {@link #pixels}. */
+  private void downsample(
+      final ByteBuffer y, final int rowStride, final int width, final int height) {
+    final int maxX = frameWidth - 1;
+    final int maxY = frameHeight - 1;
+    int i = 0;
+    for (int row = 0; row < height; ++row) {
+      final int sy = (int) (row * scale);
+      final int top = sy * rowStride;
+      final int bottom = Math.min(sy + 1, maxY) * rowStride;
+      for (int col = 0; col < width; ++col) {
+        final int sx = (int) (col * scale);
+        final int right = Math.min(sx + 1, maxX);
+        final int sum =
+            (y.get(top + sx) & 0xff)
+                + (y.get(top + right) & 0xff)
+                + (y.get(bottom + sx) & 0xff)
+                + (y.get(bottom + right) & 0xff);
+        pixels[i++] = (byte) ((sum + 2) >> 2);
+      }
+    }
+  }
+
+  /**
+   * Moves {@code count} boxes, as left, top, right, bottom, from the previous frame to the current
+   * one. Call only after {@link #advance} returned true.
+   *
+   * @param outBoxes   Receives the moved boxes; may be {@code boxes}.
+   * @param outQuality Receives the fraction of each box's corners that were tracked. A box with
+   *     fewer than two tracked corners gets 0 and is not moved.
+   */
+  @Override
+  public void propagate(
+      final float[] boxes, final int count, final float[] outBoxes, final float[] outQuality) {
+    if (boxStart.length < count + 1) {
+      boxStart = new int[count + 1];
+    }
+    final Point[] all = new Point[count * cornersPerBox];
+    int total = 0;
+    for (int b = 0; b < count; ++b) {
+      boxStart[b] = total;
+      final int o = b * 4;
+      final int left = clamp(boxes[o] / scale, previous.cols());
+      final int top = clamp(boxes[o + 1] / scale, previous.rows());
+      final int right = clamp(boxes[o + 2] / scale, previous.cols());
+      final int bottom = clamp(boxes[o + 3] / scale, previous.rows());
+      if (right - left < MIN_BOX_SIZE || bottom - top < MIN_BOX_SIZE) {
+        continue;
+      }
+      final Mat roi = previous.submat(new Rect(left, top, right - left, bottom - top));
+      Imgproc.goodFeaturesToTrack(roi, corners, cornersPerBox, CORNER_QUALITY, CORNER_MIN_DISTANCE);
+      roi.release();
+      for (final Point corner : corners.toArray()) {
+        all[total++] = new Point(corner.x + left, corner.y + top);
+      }
+    }
+    boxStart[count] = total;
+
+    byte[] tracked = null;
+    Point[] moved = null;
+    if (total > 0) {
+      previousPoints.fromArray(Arrays.copyOf(all, total));
+      flow.calc(previous, current, previousPoints, currentPoints, status, error);
+      tracked = status.toArray();
+      moved = currentPoints.toArray();
+    }
+
+    for (int b = 0; b < count; ++b) {
+      final int o = b * 4;
+      final int start = boxStart[b];
+      final int end = boxStart[b + 1];
+      int n = 0;
+      int pairs = 0;
+      Point last = null;
+      Point lastMoved = null;
+      for (int i = start; i < end; ++i) {
+        if (tracked[i] == 0) {
+          continue;
+        }
+        dx[n] = (float) (moved[i].x - all[i].x);
+        dy[n] = (float) (moved[i].y - all[i].y);
+        ++n;
+        if (last != null) {
+          final double before = Math.hypot(all[i].x - last.x, all[i].y - last.y);
+          if (before > 1) {
+            ratio[pairs++] =
+                (float) (Math.hypot(moved[i].x - lastMoved.x, moved[i].y - lastMoved.y) / before);
+          }
+        }
+        last = all[i];
+        lastMoved = moved[i];
+      }
+
+      if (n < 2) {
+        System.arraycopy(boxes, o, outBoxes, o, 4);
+        outQuality[b] = 0;
+        continue;
+      }
+      final float shiftX = median(dx, n) * scale;
+      final float shiftY = median(dy, n) * scale;
+      final float zoom = pairs > 0 ? median(ratio, pairs) : 1f;
+      final float halfWidth = (boxes[o + 2] - boxes[o]) * zoom / 2;
+      final float halfHeight = (boxes[o + 3] - boxes[o + 1]) * zoom / 2;
+      final float centerX = (boxes[o] + boxes[o + 2]) / 2 + shiftX;
+      final float centerY = (boxes[o + 1] + boxes[o + 3]) / 2 + shiftY;
+      outBoxes[o] = centerX - halfWidth;
+      outBoxes[o + 1] = centerY - halfHeight;
+      outBoxes[o + 2] = centerX + halfWidth;
+      outBoxes[o + 3] = centerY + halfHeight;
+      outQuality[b] = (float) n / (end - start);
+    }
+  }
+
+  private static int clamp(final float value, final int size) {
+    return Math.max(0, Math.min(size, (int) value));
+  }
+
+  private static float median(final float[] values, final int n) {
+    Arrays.sort(values, 0, n);
+    return (n & 1) != 0 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+  }
+}
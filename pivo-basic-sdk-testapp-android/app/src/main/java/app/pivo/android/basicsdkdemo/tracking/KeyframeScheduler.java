@@ -0,0 +1,139 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import java.util.Locale;
+
+/**
+ * Decides which frames run the detector when boxes are propagated by optical flow in between.
+ *
+ * The detector runs on a keyframe every {@code interval} frames, and on the next frame whenever a
+ * keyframe is {@link #requestKeyframe requested}, for example because propagation lost its
+ * features. On each keyframe the caller compares the boxes propagated into that frame with the
+ * detections and {@link #reportDrift reports} the difference: drift above the target halves the
+ * interval, drift well below it lengthens the interval by one frame, between {@code minInterval}
+ * and {@code maxInterval}. Equal bounds give a fixed interval, and an interval of 1 runs the
+ * detector on every frame.
+ *
+ * Frames are decided on one thread and drift is reported from another, so methods are
+ * synchronized.
+ */
+public class KeyframeScheduler {
+  /** Weight of the latest sample in the running mean drift. */
+  private static final float DRIFT_SMOOTHING = 0.1f;
+
+  private final int minInterval;
+  private final int maxInterval;
+  private final float targetDrift;
+  private int interval;
+  private int sinceKeyframe = 0;
+  private boolean keyframeRequested = true;
+  private int frames = 0;
+  private int keyframes = 0;
+  private int driftSamples = 0;
+  private float lastDrift = 0;
+  private float meanDrift = 0;
+
+  /**
+   * @param minInterval Shortest keyframe interval in frames, at least 1.
+   * @param maxInterval Longest keyframe interval in frames.
+   * @param targetDrift Drift, as mean 1 - IoU, above which the interval is shortened.
+   */
+  public KeyframeScheduler(final int minInterval, final int maxInterval, final float targetDrift) {
+    if (minInterval < 1 || maxInterval < minInterval) {
+      throw new IllegalArgumentException(
+          "Invalid keyframe interval range " + minInterval + ".." + maxInterval);
+    }
+    this.minInterval = minInterval;
+    this.maxInterval = maxInterval;
+    this.targetDrift = targetDrift;
+    this.interval = minInterval;
+  }
+
+  /** Counts a new frame and returns whether the detector should run on it. */
+  public synchronized boolean nextFrame() {
+    ++frames;
+    ++sinceKeyframe;
+    if (!keyframeRequested && sinceKeyframe < interval) {
+      return false;
+    }
+    keyframeRequested = false;
+    sinceKeyframe = 0;
+    ++keyframes;
+    return true;
+  }
+
+  /** Makes the next frame a keyframe. */
+  public synchronized void requestKeyframe() {
+    keyframeRequested = true;
+  }
+
+  /** Reports the drift measured on a keyframe and adapts the interval to it. */
+  public synchronized void reportDrift(final float drift) {
+    lastDrift = drift;
+    meanDrift = driftSamples == 0 ? drift : meanDrift + DRIFT_SMOOTHING * (drift - meanDrift);
+    ++driftSamples;
+    if (drift > targetDrift) {
+      interval = Math.max(minInterval, interval / 2);
+    } else if (drift < targetDrift / 2) {
+      interval = Math.min(maxInterval, interval + 1);
+    }
+  }
+
+  public synchronized int getInterval() {
+    return interval;
+  }
+
+  public synchronized float getLastDrift() {
+    return lastDrift;
+  }
+
+  public synchronized float getMeanDrift() {
+    return meanDrift;
+  }
+
+  public synchronized int getFrameCount() {
+    return frames;
+  }
+
+  public synchronized int getKeyframeCount() {
+    return keyframes;
+  }
+
+  /**
+   * Drift between boxes propagated into a frame and the boxes detected on it: the mean over the
+   * propagated boxes of 1 - IoU with the best overlapping detection. Boxes are left, top, right,
+   * bottom; a propagated box without any overlapping detection counts as 1.
+   */
+  public static float drift(
+      final float[] propagated,
+      final int propagatedCount,
+      final float[] detected,
+      final int detectedCount) {
+    if (propagatedCount == 0) {
+      return 0;
+    }
+    float sum = 0;
+    for (int i = 0; i < propagatedCount; ++i) {
+      final int p = i * 4;
+      float best = 0;
+      for (int j = 0; j < detectedCount; ++j) {
+        final int d = j * 4;
+        best =
+            Math.max(
+                best,
+                ObjectTracker.iou(
+                    propagated[p], propagated[p + 1], propagated[p + 2], propagated[p + 3],
+                    detected[d], detected[d + 1], detected[d + 2], detected[d + 3]));
+      }
+      sum += 1 - best;
+    }
+    return sum / propagatedCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "keyframes %d/%d, interval %d, drift last %.3f mean %.3f",
+        keyframes, frames, interval, lastDrift, meanDrift);
+  }
+}
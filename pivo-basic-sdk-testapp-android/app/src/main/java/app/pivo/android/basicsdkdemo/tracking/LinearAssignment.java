@@ -0,0 +1,203 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost bipartite assignment (Hungarian method with potentials, O(n^2 m) in the rows and
+ * columns left after unambiguous pairs are taken out).
+ *
+ * Costs are given as a dense row-major matrix. Pairs that must never be assigned are marked with
+ * {@link #FORBIDDEN}; the solver maximizes the number of allowed pairs first and minimizes their
+ * total cost second, as long as every allowed cost is in [0, 1]. Work arrays are kept between calls,
+ * so an instance must not be shared between threads.
+ */
+class LinearAssignment {
+  static final double FORBIDDEN = Double.POSITIVE_INFINITY;
+
+  private double[] u = new double[0];
+  private double[] v = new double[0];
+  private double[] minv = new double[0];
+  private int[] p = new int[0];
+  private int[] way = new int[0];
+  private boolean[] used = new boolean[0];
+
+  private int[] rowAllowed = new int[0];
+  private int[] onlyCol = new int[0];
+  private int[] rowList = new int[0];
+  private int[] reducedRowToCol = new int[0];
+  private int[] colAllowed = new int[0];
+  private int[] colList = new int[0];
+  private double[] reduced = new double[0];
+
+  /**
+   * Assigns rows to columns.
+   *
+   * @param cost      {@code rows * cols} costs, row-major.
+   * @param rowToCol  receives the column of each row, or -1 if the row is unassigned.
+   * @return the number of assigned pairs.
+   */
+  int solve(final double[] cost, final int rows, final int cols, final int[] rowToCol) {
+    for (int r = 0; r < rows; ++r) {
+      rowToCol[r] = -1;
+    }
+    if (rows == 0 || cols == 0) {
+      return 0;
+    }
+    ensureReductionCapacity(rows, cols);
+
+    // Gating leaves most rows with a single candidate that no other row wants. Such pairs are part
+    // of every optimal assignment, so they are taken directly. Only the remaining rows and columns
+    // with candidates go to the cubic solver.
+    Arrays.fill(colAllowed, 0, cols, 0);
+    for (int r = 0; r < rows; ++r) {
+      int allowed = 0;
+      for (int c = 0; c < cols; ++c) {
+        if (cost[r * cols + c] != FORBIDDEN) {
+          ++allowed;
+          ++colAllowed[c];
+          onlyCol[r] = c;
+        }
+      }
+      rowAllowed[r] = allowed;
+    }
+    int assigned = 0;
+    int reducedRows = 0;
+    int reducedCols = 0;
+    for (int r = 0; r < rows; ++r) {
+      if (rowAllowed[r] == 1 && colAllowed[onlyCol[r]] == 1) {
+        rowToCol[r] = onlyCol[r];
+        colAllowed[onlyCol[r]] = 0;
+        ++assigned;
+      } else if (rowAllowed[r] > 0) {
+        rowList[reducedRows++] = r;
+      }
+    }
+    for (int c = 0; c < cols; ++c) {
+      if (colAllowed[c] > 0) {
+        colList[reducedCols++] = c;
+      }
+    }
+    if (reducedRows == 0 || reducedCols == 0) {
+      return assigned;
+    }
+
+    if (reduced.length < reducedRows * reducedCols) {
+      reduced = new double[reducedRows * reducedCols];
+    }
+    for (int i = 0; i < reducedRows; ++i) {
+      final int r = rowList[i];
+      for (int j = 0; j < reducedCols; ++j) {
+        reduced[i * reducedCols + j] = cost[r * cols + colList[j]];
+      }
+    }
+    assigned += hungarian(reduced, reducedRows, reducedCols, reducedRowToCol);
+    for (int i = 0; i < reducedRows; ++i) {
+      if (reducedRowToCol[i] >= 0) {
+        rowToCol[rowList[i]] = colList[reducedRowToCol[i]];
+      }
+    }
+    return assigned;
+  }
+
+  private int hungarian(
+      final double[] cost, final int rows, final int cols, final int[] rowToCol) {
+    for (int r = 0; r < rows; ++r) {
+      rowToCol[r] = -1;
+    }
+    // Forbidden pairs cost more than any set of allowed ones, so they are only used when a row has
+    // nothing else left, and are dropped afterwards.
+    final double forbidden = Math.min(rows, cols) + 1;
+    final boolean transposed = rows > cols;
+    final int n = transposed ? cols : rows;
+    final int m = transposed ? rows : cols;
+    ensureCapacity(n, m);
+
+    Arrays.fill(u, 0, n + 1, 0);
+    Arrays.fill(v, 0, m + 1, 0);
+    Arrays.fill(p, 0, m + 1, 0);
+    for (int i = 1; i <= n; ++i) {
+      p[0] = i;
+      int j0 = 0;
+      Arrays.fill(minv, 0, m + 1, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, 0, m + 1, false);
+      do {
+        used[j0] = true;
+        final int i0 = p[j0];
+        double delta = Double.POSITIVE_INFINITY;
+        int j1 = 0;
+        for (int j = 1; j <= m; ++j) {
+          if (used[j]) {
+            continue;
+          }
+          double c = transposed ? cost[(j - 1) * cols + i0 - 1] : cost[(i0 - 1) * cols + j - 1];
+          if (c == FORBIDDEN) {
+            c = forbidden;
+          }
+          final double cur = c - u[i0] - v[j];
+          if (cur < minv[j]) {
+            minv[j] = cur;
+            way[j] = j0;
+          }
+          if (minv[j] < delta) {
+            delta = minv[j];
+            j1 = j;
+          }
+        }
+        for (int j = 0; j <= m; ++j) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      do {
+        final int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+
+    int assigned = 0;
+    for (int j = 1; j <= m; ++j) {
+      if (p[j] == 0) {
+        continue;
+      }
+      final int row = transposed ? j - 1 : p[j] - 1;
+      final int col = transposed ? p[j] - 1 : j - 1;
+      if (cost[row * cols + col] != FORBIDDEN) {
+        rowToCol[row] = col;
+        ++assigned;
+      }
+    }
+    return assigned;
+  }
+
+  private void ensureReductionCapacity(final int rows, final int cols) {
+    if (rowAllowed.length < rows) {
+      rowAllowed = new int[rows];
+      onlyCol = new int[rows];
+      rowList = new int[rows];
+      reducedRowToCol = new int[rows];
+    }
+    if (colAllowed.length < cols) {
+      colAllowed = new int[cols];
+      colList = new int[cols];
+    }
+  }
+
+  private void ensureCapacity(final int n, final int m) {
+    if (u.length < n + 1) {
+      u = new double[n + 1];
+    }
+    if (v.length < m + 1) {
+      v = new double[m + 1];
+      minv = new double[m + 1];
+      p = new int[m + 1];
+      way = new int[m + 1];
+      used = new boolean[m + 1];
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import app.pivo.android.basicsdkdemo.env.YuvPlanes;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Decides whether a frame is worth running the detector on, by comparing it with the frame the
+ * current detections came from. While the scene stays still and the camera is not turning, the
+ * previous detections can be reused instead.
+ *
+ * The luma plane is point-sampled into a thumbnail about {@code sampleWidth} pixels wide and
+ * compared block by block: a block has changed when its mean absolute difference (SAD over the
+ * block's samples), after removing the change in overall brightness, is above {@code threshold}.
+ * The frame has changed when more than {@code changedFraction} of the blocks have. Removing the
+ * overall brightness change keeps auto exposure from waking the detector. Detections older than
+ * {@code maxStaleMs} are refreshed however still the scene is.
+ *
+ * Frames are gated on one thread and metrics are read from another, so methods are synchronized.
+ */
+public class MotionGate {
+  public static final int DEFAULT_SAMPLE_WIDTH = 64;
+  public static final int DEFAULT_BLOCK_SIZE = 8;
+  public static final int DEFAULT_THRESHOLD = 10;
+  public static final float DEFAULT_CHANGED_FRACTION = 0.01f;
+
+  private final int sampleWidth;
+  private final int blockSize;
+  private final int threshold;
+  private final float changedFraction;
+  private final long maxStaleMs;
+
+  private byte[] current = new byte[0];
+  private byte[] reference = new byte[0];
+  private int thumbWidth;
+  private int thumbHeight;
+  private boolean hasReference = false;
+  private long referenceTimeMs;
+
+  private int frames = 0;
+  private int skipped = 0;
+  private int forced = 0;
+  private float lastChanged = 0;
+  private long lastStaleMs = 0;
+  private long maxObservedStaleMs = 0;
+
+  /**
+   * @param sampleWidth     Approximate width of the thumbnail frames are compared at.
+   * @param blockSize       Block edge in thumbnail pixels.
+   * @param threshold       Mean absolute luma difference above which a block has changed.
+   * @param changedFraction Fraction of changed blocks above which the frame has changed.
+   * @param maxStaleMs      Age of detections after which the detector runs regardless.
+   */
+  public MotionGate(
+      final int sampleWidth,
+      final int blockSize,
+      final int threshold,
+      final float changedFraction,
+      final long maxStaleMs) {
+    if (sampleWidth < 1 || blockSize < 1) {
+      throw new IllegalArgumentException(
+          "Invalid sample width " + sampleWidth + " or block size " + blockSize);
+    }
+    this.sampleWidth = sampleWidth;
+    this.blockSize = blockSize;
+    this.threshold = threshold;
+    this.changedFraction = changedFraction;
+    this.maxStaleMs = maxStaleMs;
+  }
+
+  /**
+   * Returns whether the detector should run on {@code planes}. When it should, the frame becomes
+   * the one later frames are compared with.
+   *
+   * @param cameraMoving Whether the camera is turning, which moves the whole scene.
+   * @param timeMs       Capture time of the frame in milliseconds.
+   */
+  public synchronized boolean shouldRun(
+      final YuvPlanes planes, final boolean cameraMoving, final long timeMs) {
+    ++frames;
+    sample(planes);
+    boolean run = !hasReference || cameraMoving;
+    if (!run) {
+      lastChanged = changed();
+      lastStaleMs = timeMs - referenceTimeMs;
+      maxObservedStaleMs = Math.max(maxObservedStaleMs, lastStaleMs);
+      if (lastChanged > changedFraction) {
+        run = true;
+      } else if (lastStaleMs >= maxStaleMs) {
+        run = true;
+        ++forced;
+      }
+    }
+    if (!run) {
+      ++skipped;
+      return false;
+    }
+    final byte[] swap = reference;
+    reference = current;
+    current = swap;
+    hasReference = true;
+    referenceTimeMs = timeMs;
+    lastStaleMs = 0;
+    return true;
+  }
+
+  /**
+   * Makes the next frame run the detector, for when the reused detections no longer fit, e.g.
+   * after the detector changed.
+   */
+  public synchronized void invalidate() {
+    hasReference = false;
+  }
+
+  /** Point-samples the luma plane into {@link #current}. */
+  private void sample(final YuvPlanes planes) {
+    final int step = Math.max(1, planes.getWidth() / sampleWidth);
+    final int width = planes.getWidth() / step;
+    final int height = planes.getHeight() / step;
+    if (width != thumbWidth || height != thumbHeight) {
+      thumbWidth = width;
+      thumbHeight = height;
+      current = new byte[width * height];
+      reference = new byte[width * height];
+      hasReference = false;
+    }
+    final ByteBuffer y = planes.getY();
+    final int rowStride = planes.getYRowStride();
+    for (int row = 0; row < height; ++row) {
+      final int rowStart = row * step * rowStride;
+      for (int col = 0; col < width; ++col) {
+        current[row * width + col] = y.get(rowStart + col * step);
+      }
+    }
+  }
+
+  /** Fraction of blocks that changed between {@link #reference} and {@link #current}. */
+  private float changed() {
+    final int size = thumbWidth * thumbHeight;
+    if (size == 0) {
+      return 0;
+    }
+    long delta = 0;
+    for (int i = 0; i < size; ++i) {
+      delta += (current[i] & 0xFF) - (reference[i] & 0xFF);
+    }
+    final int brightness = (int) (delta / size);
+
+    int blocks = 0;
+    int changedBlocks = 0;
+    for (int top = 0; top < thumbHeight; top += blockSize) {
+      final int bottom = Math.min(thumbHeight, top + blockSize);
+      for (int left = 0; left < thumbWidth; left += blockSize) {
+        final int right = Math.min(thumbWidth, left + blockSize);
+        int sad = 0;
+        for (int row = top; row < bottom; ++row) {
+          for (int i = row * thumbWidth + left; i < row * thumbWidth + right; ++i) {
+            sad += Math.abs((current[i] & 0xFF) - (reference[i] & 0xFF) - brightness);
+          }
+        }
+        ++blocks;
+        if (sad > threshold * (bottom - top) * (right - left)) {
+          ++changedBlocks;
+        }
+      }
+    }
+    return (float) changedBlocks / blocks;
+  }
+
+  public synchronized int getFrameCount() {
+    return frames;
+  }
+
+  /** Frames on which the detector was skipped. */
+  public synchronized int getSkippedCount() {
+    return skipped;
+  }
+
+  public synchronized float getSkipRate() {
+    return frames == 0 ? 0 : (float) skipped / frames;
+  }
+
+  /** Frames run only because the detections had reached {@code maxStaleMs}. */
+  public synchronized int getForcedCount() {
+    return forced;
+  }
+
+  /** Age of the detections reused on the last frame, or 0 if the detector ran on it. */
+  public synchronized long getStalenessMs() {
+    return lastStaleMs;
+  }
+
+  public synchronized long getMaxStalenessMs() {
+    return maxObservedStaleMs;
+  }
+
+  /** Fraction of blocks that changed on the last frame compared. */
+  public synchronized float getLastChangedFraction() {
+    return lastChanged;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "skipped %d/%d (%.0f%%), forced %d, staleness last %d max %d ms, changed %.3f",
+        skipped, frames, 100 * getSkipRate(), forced, lastStaleMs, maxObservedStaleMs, lastChanged);
+  }
+}
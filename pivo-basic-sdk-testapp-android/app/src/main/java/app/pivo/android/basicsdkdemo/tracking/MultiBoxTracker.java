@@ -25,6 +25,7 @@ import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.Pair;
 import android.util.TypedValue;
 import java.util.LinkedList;
@@ -33,9 +34,13 @@ import java.util.Queue;
 import app.pivo.android.basicsdkdemo.env.BorderedText;
 import app.pivo.android.basicsdkdemo.env.ImageUtils;
 import app.pivo.android.basicsdkdemo.env.Logger;
+import app.pivo.android.basicsdkdemo.env.Trace;
 import app.pivo.android.basicsdkdemo.tflite.Classifier.Recognition;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * Draws the detections of the latest frame. Association across frames is done by {@link
+ * ObjectTracker}; boxes are colored by their ID so an object keeps its color while it is tracked.
+ */
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 18;
   private static final float MIN_SIZE = 16.0f;
@@ -56,6 +61,8 @@ public class MultiBoxTracker {
     Color.parseColor("#AA33AA"),
     Color.parseColor("#0D0068")
   };
+  private static final Trace.Event TRACE_RESULTS =
+      Trace.DEFAULT.register(Log.DEBUG, "track", "frame %d, %d results");
   final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
   private final Logger logger = new Logger();
   private final Queue<Integer> availableColors = new LinkedList<Integer>();
@@ -112,7 +119,9 @@ public class MultiBoxTracker {
   }
 
   public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
-    logger.i("Processing %d results from %d", results.size(), timestamp);
+    if (Trace.ENABLED) {
+      Trace.DEFAULT.record(TRACE_RESULTS, timestamp, results.size());
+    }
     processResults(results);
   }
 
@@ -169,13 +178,14 @@ public class MultiBoxTracker {
       final RectF detectionScreenRect = new RectF();
       rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
 
-      logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+      if (logger.isLoggable(Log.VERBOSE)) {
+        logger.v("Result! Frame: %s mapped to screen: %s", result.getLocation(), detectionScreenRect);
+      }
 
       screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
 
       if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE) {
-        logger.w("Degenerate rectangle! " + detectionFrameRect);
+        logger.w("Degenerate rectangle! %s", detectionFrameRect);
         continue;
       }
 
@@ -193,7 +203,11 @@ public class MultiBoxTracker {
       trackedRecognition.detectionConfidence = potential.first;
       trackedRecognition.location = new RectF(potential.second.getLocation());
       trackedRecognition.title = "ID: " + potential.second.getId() +  " TITLE: " + potential.second.getTitle();
-      trackedRecognition.color = COLORS[trackedObjects.size()];
+      final String id = potential.second.getId();
+      trackedRecognition.color =
+          id != null
+              ? COLORS[(id.hashCode() & Integer.MAX_VALUE) % COLORS.length]
+              : COLORS[trackedObjects.size()];
       trackedObjects.add(trackedRecognition);
 
       if (trackedObjects.size() >= COLORS.length) {
@@ -0,0 +1,386 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+/**
+ * Multi-object tracker that keeps identities across frames by box overlap and motion, in the style
+ * of SORT / ByteTrack.
+ *
+ * Each frame, the tracks are extrapolated with a constant-velocity model and associated with the
+ * detections in three rounds of minimum-cost assignment on 1 - IoU:
+ * <ol>
+ *   <li>confirmed and lost tracks against confident detections;</li>
+ *   <li>confirmed tracks left over against weak detections, so partly occluded targets keep their
+ *       track instead of being dropped;</li>
+ *   <li>tentative tracks against the confident detections left over.</li>
+ * </ol>
+ * A pair is only considered if the classes agree, the boxes overlap by at least the minimum IoU
+ * and the detection center lies within a motion gate around the predicted center. Confident
+ * detections that match nothing start tentative tracks, which are confirmed after a few consecutive
+ * hits and discarded on their first miss. Confirmed tracks that miss become lost and are kept,
+ * still moving with their last velocity, for a number of frames before being discarded.
+ *
+ * Tracks live in fixed slots of primitive arrays. A slot keeps its track until the track is
+ * discarded, so callers can attach their own data to slots, such as the re-identification
+ * {@link #getIdentity identity}. Not thread safe.
+ */
+public class ObjectTracker {
+  /** Slot without a track. */
+  public static final int FREE = 0;
+  public static final int TENTATIVE = 1;
+  public static final int CONFIRMED = 2;
+  public static final int LOST = 3;
+
+  public static final float DEFAULT_HIGH_SCORE = 0.5f;
+  public static final float DEFAULT_LOW_SCORE = 0.1f;
+  public static final float DEFAULT_MIN_IOU = 0.2f;
+  public static final int DEFAULT_CONFIRM_HITS = 3;
+  public static final int DEFAULT_MAX_LOST_FRAMES = 30;
+
+  /** Detection centers may be this many box sizes, per frame, from the predicted center. */
+  private static final float MOTION_GATE = 0.5f;
+  /** Frames after which a lost track's gate stops growing. */
+  private static final int MAX_GATE_FRAMES = 4;
+  /** Position and velocity gains of the alpha-beta motion filter. */
+  private static final float ALPHA = 0.7f;
+  private static final float BETA = 0.3f;
+
+  private final int capacity;
+  private final float highScore;
+  private final float lowScore;
+  private final float minIou;
+  private final int confirmHits;
+  private final int maxLostFrames;
+
+  private final int[] state;
+  private final int[] trackId;
+  private final int[] trackClass;
+  private final int[] hits;
+  private final int[] identity;
+  private final long[] lastUpdate;
+  private final float[] cx;
+  private final float[] cy;
+  private final float[] w;
+  private final float[] h;
+  private final float[] vx;
+  private final float[] vy;
+  private final float[] score;
+
+  // Per-frame work arrays.
+  private final float[] px;
+  private final float[] py;
+  private final long[] dt;
+  private final boolean[] trackMatched;
+  private final int[] trackList;
+  private int[] detList = new int[0];
+  private boolean[] detMatched = new boolean[0];
+  private double[] cost = new double[0];
+  private final int[] rowToCol;
+  private final LinearAssignment assignment = new LinearAssignment();
+
+  private int nextTrackId = 0;
+
+  public ObjectTracker(final int capacity) {
+    this(
+        capacity,
+        DEFAULT_HIGH_SCORE,
+        DEFAULT_LOW_SCORE,
+        DEFAULT_MIN_IOU,
+        DEFAULT_CONFIRM_HITS,
+        DEFAULT_MAX_LOST_FRAMES);
+  }
+
+  /**
+   * @param capacity      Maximum number of tracks, of any state.
+   * @param highScore     Detections at or above this score can start and confirm tracks.
+   * @param lowScore      Detections below this score are ignored.
+   * @param minIou        Minimum overlap between a predicted track box and its detection.
+   * @param confirmHits   Consecutive matches that confirm a tentative track.
+   * @param maxLostFrames Frames a confirmed track is kept without a match.
+   */
+  public ObjectTracker(
+      final int capacity,
+      final float highScore,
+      final float lowScore,
+      final float minIou,
+      final int confirmHits,
+      final int maxLostFrames) {
+    this.capacity = capacity;
+    this.highScore = highScore;
+    this.lowScore = lowScore;
+    this.minIou = minIou;
+    this.confirmHits = confirmHits;
+    this.maxLostFrames = maxLostFrames;
+
+    state = new int[capacity];
+    trackId = new int[capacity];
+    trackClass = new int[capacity];
+    hits = new int[capacity];
+    identity = new int[capacity];
+    lastUpdate = new long[capacity];
+    cx = new float[capacity];
+    cy = new float[capacity];
+    w = new float[capacity];
+    h = new float[capacity];
+    vx = new float[capacity];
+    vy = new float[capacity];
+    score = new float[capacity];
+
+    px = new float[capacity];
+    py = new float[capacity];
+    dt = new long[capacity];
+    trackMatched = new boolean[capacity];
+    trackList = new int[capacity];
+    rowToCol = new int[capacity];
+  }
+
+  /**
+   * Associates the detections of one frame with the tracks.
+   *
+   * @param boxes     {@code count} boxes as left, top, right, bottom.
+   * @param scores    Detection confidences.
+   * @param classes   Detected classes; only detections of a track's class can match it.
+   * @param timestamp Frame number, increasing by one per camera frame.
+   * @param outSlots  Receives the track slot of each detection, or -1 if it has none.
+   */
+  public void update(
+      final float[] boxes,
+      final float[] scores,
+      final int[] classes,
+      final int count,
+      final long timestamp,
+      final int[] outSlots) {
+    if (detMatched.length < count) {
+      detMatched = new boolean[count];
+      detList = new int[count];
+    }
+    for (int d = 0; d < count; ++d) {
+      outSlots[d] = -1;
+      detMatched[d] = false;
+    }
+    for (int t = 0; t < capacity; ++t) {
+      trackMatched[t] = false;
+      if (state[t] != FREE) {
+        dt[t] = Math.max(1, timestamp - lastUpdate[t]);
+        px[t] = cx[t] + vx[t] * dt[t];
+        py[t] = cy[t] + vy[t] * dt[t];
+      }
+    }
+
+    // 1: confirmed and lost tracks against confident detections.
+    associate(boxes, scores, classes, count, CONFIRMED, LOST, highScore, Float.POSITIVE_INFINITY,
+        timestamp, outSlots);
+    // 2: confirmed tracks left over against weak detections.
+    associate(boxes, scores, classes, count, CONFIRMED, CONFIRMED, lowScore, highScore, timestamp,
+        outSlots);
+    // 3: tentative tracks against confident detections left over.
+    associate(boxes, scores, classes, count, TENTATIVE, TENTATIVE, highScore,
+        Float.POSITIVE_INFINITY, timestamp, outSlots);
+
+    for (int t = 0; t < capacity; ++t) {
+      if (state[t] == FREE || trackMatched[t]) {
+        continue;
+      }
+      if (state[t] == TENTATIVE || timestamp - lastUpdate[t] > maxLostFrames) {
+        state[t] = FREE;
+      } else {
+        state[t] = LOST;
+      }
+    }
+
+    for (int d = 0; d < count; ++d) {
+      if (!detMatched[d] && scores[d] >= highScore) {
+        outSlots[d] = startTrack(boxes, d, scores[d], classes[d], timestamp);
+      }
+    }
+  }
+
+  /**
+   * Matches the unmatched tracks in {@code stateA} or {@code stateB} with the unmatched detections
+   * scoring in [{@code minScore}, {@code maxScore}).
+   */
+  private void associate(
+      final float[] boxes,
+      final float[] scores,
+      final int[] classes,
+      final int count,
+      final int stateA,
+      final int stateB,
+      final float minScore,
+      final float maxScore,
+      final long timestamp,
+      final int[] outSlots) {
+    int tracks = 0;
+    for (int t = 0; t < capacity; ++t) {
+      if (!trackMatched[t] && (state[t] == stateA || state[t] == stateB)) {
+        trackList[tracks++] = t;
+      }
+    }
+    int dets = 0;
+    for (int d = 0; d < count; ++d) {
+      if (!detMatched[d] && scores[d] >= minScore && scores[d] < maxScore) {
+        detList[dets++] = d;
+      }
+    }
+    if (tracks == 0 || dets == 0) {
+      return;
+    }
+
+    if (cost.length < tracks * dets) {
+      cost = new double[tracks * dets];
+    }
+    for (int i = 0; i < tracks; ++i) {
+      final int t = trackList[i];
+      final float halfW = w[t] / 2;
+      final float halfH = h[t] / 2;
+      final float gate = MOTION_GATE * Math.max(w[t], h[t]) * Math.min(dt[t], MAX_GATE_FRAMES);
+      for (int j = 0; j < dets; ++j) {
+        final int d = detList[j];
+        double c = LinearAssignment.FORBIDDEN;
+        if (classes[d] == trackClass[t]) {
+          final int o = d * 4;
+          final float dx = (boxes[o] + boxes[o + 2]) / 2 - px[t];
+          final float dy = (boxes[o + 1] + boxes[o + 3]) / 2 - py[t];
+          if (dx * dx + dy * dy <= gate * gate) {
+            final float iou =
+                iou(px[t] - halfW, py[t] - halfH, px[t] + halfW, py[t] + halfH,
+                    boxes[o], boxes[o + 1], boxes[o + 2], boxes[o + 3]);
+            if (iou >= minIou) {
+              c = 1 - iou;
+            }
+          }
+        }
+        cost[i * dets + j] = c;
+      }
+    }
+
+    assignment.solve(cost, tracks, dets, rowToCol);
+    for (int i = 0; i < tracks; ++i) {
+      if (rowToCol[i] >= 0) {
+        final int t = trackList[i];
+        final int d = detList[rowToCol[i]];
+        correct(t, boxes, d, scores[d], timestamp);
+        trackMatched[t] = true;
+        detMatched[d] = true;
+        outSlots[d] = t;
+      }
+    }
+  }
+
+  private void correct(
+      final int t, final float[] boxes, final int d, final float detScore, final long timestamp) {
+    final int o = d * 4;
+    final float zx = (boxes[o] + boxes[o + 2]) / 2;
+    final float zy = (boxes[o + 1] + boxes[o + 3]) / 2;
+    if (hits[t] == 1) {
+      // Second sighting: take the velocity as measured rather than ramping up to it.
+      vx[t] = (zx - cx[t]) / dt[t];
+      vy[t] = (zy - cy[t]) / dt[t];
+      cx[t] = zx;
+      cy[t] = zy;
+    } else {
+      final float rx = zx - px[t];
+      final float ry = zy - py[t];
+      cx[t] = px[t] + ALPHA * rx;
+      cy[t] = py[t] + ALPHA * ry;
+      vx[t] += BETA * rx / dt[t];
+      vy[t] += BETA * ry / dt[t];
+    }
+    w[t] += ALPHA * (boxes[o + 2] - boxes[o] - w[t]);
+    h[t] += ALPHA * (boxes[o + 3] - boxes[o + 1] - h[t]);
+    score[t] = detScore;
+    lastUpdate[t] = timestamp;
+
+    ++hits[t];
+    if (state[t] != TENTATIVE || hits[t] >= confirmHits) {
+      state[t] = CONFIRMED;
+    }
+  }
+
+  private int startTrack(
+      final float[] boxes, final int d, final float detScore, final int cls, final long timestamp) {
+    int t = 0;
+    while (t < capacity && state[t] != FREE) {
+      ++t;
+    }
+    if (t == capacity) {
+      return -1;
+    }
+    final int o = d * 4;
+    state[t] = confirmHits <= 1 ? CONFIRMED : TENTATIVE;
+    trackId[t] = nextTrackId++;
+    trackClass[t] = cls;
+    hits[t] = 1;
+    identity[t] = -1;
+    lastUpdate[t] = timestamp;
+    cx[t] = (boxes[o] + boxes[o + 2]) / 2;
+    cy[t] = (boxes[o + 1] + boxes[o + 3]) / 2;
+    w[t] = boxes[o + 2] - boxes[o];
+    h[t] = boxes[o + 3] - boxes[o + 1];
+    vx[t] = 0;
+    vy[t] = 0;
+    score[t] = detScore;
+    return t;
+  }
+
+  static float iou(
+      final float l1, final float t1, final float r1, final float b1,
+      final float l2, final float t2, final float r2, final float b2) {
+    final float iw = Math.min(r1, r2) - Math.max(l1, l2);
+    final float ih = Math.min(b1, b2) - Math.max(t1, t2);
+    if (iw <= 0 || ih <= 0) {
+      return 0;
+    }
+    final float intersection = iw * ih;
+    return intersection / ((r1 - l1) * (b1 - t1) + (r2 - l2) * (b2 - t2) - intersection);
+  }
+
+  public void clear() {
+    for (int t = 0; t < capacity; ++t) {
+      state[t] = FREE;
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Number of tracks in {@code trackState}. */
+  public int getTrackCount(final int trackState) {
+    int n = 0;
+    for (int t = 0; t < capacity; ++t) {
+      if (state[t] == trackState) {
+        ++n;
+      }
+    }
+    return n;
+  }
+
+  public int getState(final int slot) {
+    return state[slot];
+  }
+
+  /** Identifier of the track in {@code slot}, unique over the tracker's lifetime. */
+  public int getTrackId(final int slot) {
+    return trackId[slot];
+  }
+
+  public int getTrackClass(final int slot) {
+    return trackClass[slot];
+  }
+
+  /** Re-identification identity attached to the track in {@code slot}, or -1 if none. */
+  public int getIdentity(final int slot) {
+    return identity[slot];
+  }
+
+  public void setIdentity(final int slot, final int id) {
+    identity[slot] = id;
+  }
+
+  /** Writes the track's current box as left, top, right, bottom. */
+  public void getBox(final int slot, final float[] out) {
+    out[0] = cx[slot] - w[slot] / 2;
+    out[1] = cy[slot] - h[slot] / 2;
+    out[2] = cx[slot] + w[slot] / 2;
+    out[3] = cy[slot] + h[slot] / 2;
+  }
+}
@@ -0,0 +1,86 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+/**
+ * Turns a normalized horizontal target position into Pivo rotation commands.
+ *
+ * The mapping is the one the detector loop has always used: positions inside the dead band around
+ * the center stop the motor, anything else turns towards the target at a speed clamped to
+ * [-128, 128] and rounded down to an even value.
+ */
+public class PanController {
+  /** Receives motor commands; implemented over PivoSdk in the app and by recorders in tests. */
+  public interface Motor {
+    void turnLeft(int speed);
+
+    void turnRight(int speed);
+
+    void stop();
+  }
+
+  private static final int MAX_SPEED = 128;
+
+  private final Motor motor;
+  private final float center;
+  private final float deadBand;
+  private int commandCount = 0;
+  private int lastVelocity = 0;
+
+  public PanController(final Motor motor, final float center, final float deadBand) {
+    this.motor = motor;
+    this.center = center;
+    this.deadBand = deadBand;
+  }
+
+  /** Position offset in [-1, 1] that the controller acts on; 0 inside the dead band. */
+  public float offset(final float position) {
+    if (center - deadBand < position && position < center + deadBand) {
+      return 0;
+    }
+    return (position - 0.5f) * 2;
+  }
+
+  /** Signed speed for {@code position}; negative turns left. */
+  public int velocity(final float position) {
+    final float offset = offset(position);
+    int velocity = offset != 0 ? (int) (6 / offset) : 0;
+    if (velocity > MAX_SPEED) {
+      velocity = MAX_SPEED;
+    } else if (velocity < -MAX_SPEED) {
+      velocity = -MAX_SPEED;
+    }
+    return velocity;
+  }
+
+  /**
+   * Steers towards {@code position}.
+   *
+   * @return the signed speed that was commanded.
+   */
+  public synchronized int steer(final float position) {
+    final int velocity = velocity(position);
+    if (velocity < 0) {
+      motor.turnLeft((-velocity / 2) * 2);
+    } else if (velocity > 0) {
+      motor.turnRight((velocity / 2) * 2);
+    } else {
+      motor.stop();
+    }
+    ++commandCount;
+    lastVelocity = velocity;
+    return velocity;
+  }
+
+  public synchronized void stop() {
+    motor.stop();
+    ++commandCount;
+    lastVelocity = 0;
+  }
+
+  public synchronized int getCommandCount() {
+    return commandCount;
+  }
+
+  public synchronized int getLastVelocity() {
+    return lastVelocity;
+  }
+}
@@ -0,0 +1,152 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import java.util.Locale;
+
+/**
+ * Chooses, per keyframe, whether the detector sees the whole frame or a window around the target.
+ *
+ * Once the target has been found, keyframes crop a window of {@code margin} times the target's
+ * size around where it is expected, shaped like the detector input so it is zoomed without
+ * padding. The small input then sees the target at a higher resolution than the full frame would
+ * give it. Every {@code fullFrameInterval}-th keyframe still covers the whole frame so new objects
+ * are found, and after {@code maxMisses} windows in a row without the target the planner unlocks
+ * and goes back to full frames until the target is found again.
+ *
+ * Positions and sizes are normalized to the rotated frame. Methods are synchronized because plans
+ * are made on the preprocess thread and results arrive on the postprocess thread.
+ */
+public class RoiPlanner {
+  private final float margin;
+  private final float minSize;
+  private final float maxArea;
+  private final int fullFrameInterval;
+  private final int maxMisses;
+
+  /** Frame width over height, divided by input width over height. */
+  private float aspectRatio = 1;
+  private boolean locked = false;
+  private float targetX;
+  private float targetY;
+  private float targetWidth;
+  private float targetHeight;
+  private int misses = 0;
+  private int sinceFullFrame = 0;
+  private long roiFrames = 0;
+  private long fullFrames = 0;
+
+  /**
+   * @param margin            Window size as a multiple of the target size.
+   * @param minSize           Smallest window side, as a fraction of the frame.
+   * @param maxArea           Windows covering more of the frame than this are not worth cropping.
+   * @param fullFrameInterval Every this many keyframes one covers the full frame.
+   * @param maxMisses         Windows in a row without the target before the planner unlocks.
+   */
+  public RoiPlanner(
+      final float margin,
+      final float minSize,
+      final float maxArea,
+      final int fullFrameInterval,
+      final int maxMisses) {
+    this.margin = margin;
+    this.minSize = minSize;
+    this.maxArea = maxArea;
+    this.fullFrameInterval = fullFrameInterval;
+    this.maxMisses = maxMisses;
+  }
+
+  /** Sets the frame and detector input sizes, which give the window shape. */
+  public synchronized void setGeometry(
+      final int frameWidth, final int frameHeight, final int inputWidth, final int inputHeight) {
+    aspectRatio = (frameWidth / (float) frameHeight) / (inputWidth / (float) inputHeight);
+  }
+
+  /**
+   * Plans the next keyframe.
+   *
+   * @param predicted Expected target center, or null to use where it was last found.
+   * @param out       Receives the window as left, top, right and bottom if one is planned.
+   * @return false if the keyframe should cover the full frame.
+   */
+  public synchronized boolean plan(final float[] predicted, final float[] out) {
+    if (!locked || ++sinceFullFrame >= fullFrameInterval) {
+      sinceFullFrame = 0;
+      ++fullFrames;
+      return false;
+    }
+
+    // Window width and height are tied by the input shape: height = width * aspectRatio.
+    float width = Math.max(minSize, margin * Math.max(targetWidth, targetHeight / aspectRatio));
+    float height = width * aspectRatio;
+    if (height < minSize) {
+      height = minSize;
+      width = height / aspectRatio;
+    }
+    if (width > 1) {
+      width = 1;
+      height = aspectRatio;
+    }
+    if (height > 1) {
+      height = 1;
+      width = 1 / aspectRatio;
+    }
+    if (width * height > maxArea) {
+      sinceFullFrame = 0;
+      ++fullFrames;
+      return false;
+    }
+
+    final float cx = predicted != null ? predicted[0] : targetX;
+    final float cy = predicted != null ? predicted[1] : targetY;
+    out[0] = clampStart(cx - width / 2, width);
+    out[1] = clampStart(cy - height / 2, height);
+    out[2] = out[0] + width;
+    out[3] = out[1] + height;
+    ++roiFrames;
+    return true;
+  }
+
+  /** Keeps a window inside the frame by shifting it. */
+  private static float clampStart(final float start, final float size) {
+    return Math.max(0, Math.min(1 - size, start));
+  }
+
+  /** Reports the target found on a keyframe, with its center and size. Locks the planner. */
+  public synchronized void onTarget(
+      final float x, final float y, final float width, final float height) {
+    locked = true;
+    misses = 0;
+    targetX = x;
+    targetY = y;
+    targetWidth = width;
+    targetHeight = height;
+  }
+
+  /** Reports a keyframe without the target. */
+  public synchronized void onMiss() {
+    if (locked && ++misses >= maxMisses) {
+      locked = false;
+      misses = 0;
+    }
+  }
+
+  /** Forgets the target, e.g. when another one is selected. */
+  public synchronized void reset() {
+    locked = false;
+    misses = 0;
+    sinceFullFrame = 0;
+  }
+
+  public synchronized boolean isLocked() {
+    return locked;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "%s, %d window and %d full-frame keyframes",
+        locked ? "locked" : "searching",
+        roiFrames,
+        fullFrames);
+  }
+}
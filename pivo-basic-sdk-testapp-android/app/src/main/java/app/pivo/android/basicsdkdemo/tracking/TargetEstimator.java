@@ -0,0 +1,138 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+/**
+ * Constant-velocity Kalman filter over the target's normalized frame position.
+ *
+ * Detections arrive at inference rate and refer to the time the frame was captured, which is
+ * usually well before the result is known. {@link #update} folds a detection in at its capture time
+ * and {@link #predict} extrapolates the state to any later time, so the motor loop can steer at
+ * camera frame rate towards where the target is now rather than where it was. Both axes are
+ * filtered independently with a [position, velocity] state.
+ *
+ * Timestamps are in milliseconds. Methods are synchronized because detections and motor ticks come
+ * from different threads.
+ */
+public class TargetEstimator {
+  private final Axis x;
+  private final Axis y;
+  private final long maxCoastMs;
+  private long lastUpdateMs;
+  private boolean initialized = false;
+
+  /**
+   * @param processNoise     Acceleration noise spectral density, in (frame widths / s^2)^2 * s.
+   * @param measurementNoise Detection position variance, in frame widths^2.
+   * @param maxCoastMs       How long {@link #predict} keeps extrapolating without a detection.
+   */
+  public TargetEstimator(
+      final float processNoise, final float measurementNoise, final long maxCoastMs) {
+    this.x = new Axis(processNoise, measurementNoise);
+    this.y = new Axis(processNoise, measurementNoise);
+    this.maxCoastMs = maxCoastMs;
+  }
+
+  public synchronized void reset() {
+    initialized = false;
+  }
+
+  public synchronized boolean isInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Normalized position of the center of a box's extent, {@code start} to {@code end}, along one
+   * axis of the content: 0 at the content's start and 1 at its end.
+   */
+  public static float position(
+      final float start, final float end, final float contentStart, final float contentSize) {
+    return ((start + end) * 0.5f - contentStart) / contentSize;
+  }
+
+  /** Folds in a detection of the target at ({@code px}, {@code py}) captured at {@code timeMs}. */
+  public synchronized void update(final float px, final float py, final long timeMs) {
+    if (!initialized) {
+      x.init(px);
+      y.init(py);
+      lastUpdateMs = timeMs;
+      initialized = true;
+      return;
+    }
+    // Results of an older frame can finish after a newer one; treat them as simultaneous.
+    final double dt = Math.max(0, timeMs - lastUpdateMs) / 1000.0;
+    x.predict(dt);
+    y.predict(dt);
+    x.correct(px);
+    y.correct(py);
+    lastUpdateMs = Math.max(lastUpdateMs, timeMs);
+  }
+
+  /**
+   * Extrapolates the target position to {@code timeMs} without changing the filter state.
+   *
+   * @param out receives the predicted x and y.
+   * @return false if there is no target or it has not been detected for longer than the coast
+   *     time; {@code out} is left untouched in that case.
+   */
+  public synchronized boolean predict(final long timeMs, final float[] out) {
+    if (!initialized || timeMs - lastUpdateMs > maxCoastMs) {
+      return false;
+    }
+    final double dt = Math.max(0, timeMs - lastUpdateMs) / 1000.0;
+    out[0] = (float) (x.position + x.velocity * dt);
+    out[1] = (float) (y.position + y.velocity * dt);
+    return true;
+  }
+
+  public synchronized float getVelocityX() {
+    return (float) x.velocity;
+  }
+
+  public synchronized float getVelocityY() {
+    return (float) y.velocity;
+  }
+
+  /** One [position, velocity] filter with its 2x2 covariance. */
+  private static final class Axis {
+    private final double q;
+    private final double r;
+    double position;
+    double velocity;
+    double p00;
+    double p01;
+    double p11;
+
+    Axis(final double q, final double r) {
+      this.q = q;
+      this.r = r;
+    }
+
+    void init(final double z) {
+      position = z;
+      velocity = 0;
+      p00 = r;
+      p01 = 0;
+      // Unknown initial velocity: allow a full frame width per second.
+      p11 = 1;
+    }
+
+    void predict(final double dt) {
+      position += velocity * dt;
+      final double dt2 = dt * dt;
+      p00 += dt * (2 * p01 + dt * p11) + q * dt2 * dt / 3;
+      p01 += dt * p11 + q * dt2 / 2;
+      p11 += q * dt;
+    }
+
+    void correct(final double z) {
+      final double s = p00 + r;
+      final double k0 = p00 / s;
+      final double k1 = p01 / s;
+      final double innovation = z - position;
+      position += k0 * innovation;
+      velocity += k1 * innovation;
+      p11 -= k1 * p01;
+      p01 -= k0 * p01;
+      p00 -= k0 * p00;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a recorded detection timeline through the motor loop, offline.
+ *
+ * A timeline lists, per detection of the target, the time its frame was captured, the time the
+ * result became available and the normalized x position. The replay compares two loops:
+ * <ul>
+ *   <li>legacy: steer once per result towards the latest detection;</li>
+ *   <li>predicted: fold results into a {@link TargetEstimator} and steer on every camera frame
+ *       towards the predicted position.</li>
+ * </ul>
+ * The tracking error of a loop is measured on every camera frame as the distance between the
+ * position the loop is steering towards and the detections interpolated over their capture times.
+ */
+public class TargetReplay {
+  /** One detection of the target. */
+  public static final class Detection {
+    public final long captureMs;
+    public final long resultMs;
+    public final float x;
+
+    public Detection(final long captureMs, final long resultMs, final float x) {
+      this.captureMs = captureMs;
+      this.resultMs = resultMs;
+      this.x = x;
+    }
+  }
+
+  /** Outcome of one replay. */
+  public static final class Report {
+    public final int detections;
+    public final double meanError;
+    public final double maxError;
+    public final int commands;
+    public final double commandsPerSecond;
+
+    Report(
+        final int detections,
+        final double meanError,
+        final double maxError,
+        final int commands,
+        final double commandsPerSecond) {
+      this.detections = detections;
+      this.meanError = meanError;
+      this.maxError = maxError;
+      this.commands = commands;
+      this.commandsPerSecond = commandsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d detections, error mean %.4f max %.4f, %d commands (%.1f/s)",
+          detections, meanError, maxError, commands, commandsPerSecond);
+    }
+  }
+
+  private static final PanController.Motor NO_MOTOR =
+      new PanController.Motor() {
+        @Override
+        public void turnLeft(final int speed) {}
+
+        @Override
+        public void turnRight(final int speed) {}
+
+        @Override
+        public void stop() {}
+      };
+
+  private TargetReplay() {}
+
+  /**
+   * Reads a timeline with one "captureMs resultMs x" detection per line. Blank lines and lines
+   * starting with '#' are skipped.
+   */
+  public static List<Detection> parse(final Reader reader) throws IOException {
+    final List<Detection> timeline = new ArrayList<>();
+    final BufferedReader lines = new BufferedReader(reader);
+    String line;
+    while ((line = lines.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      final String[] fields = line.split("\\s+");
+      timeline.add(
+          new Detection(
+              Long.parseLong(fields[0]), Long.parseLong(fields[1]), Float.parseFloat(fields[2])));
+    }
+    return timeline;
+  }
+
+  /**
+   * Replays {@code timeline}, ordered by capture time, through the legacy loop: one command per
+   * result, towards the latest detection.
+   */
+  public static Report replayLegacy(final List<Detection> timeline, final long frameIntervalMs) {
+    return replay(timeline, null, frameIntervalMs);
+  }
+
+  /**
+   * Replays {@code timeline}, ordered by capture time, through {@code estimator} with a motor
+   * command every {@code frameIntervalMs}.
+   */
+  public static Report replayPredicted(
+      final List<Detection> timeline, final TargetEstimator estimator, final long frameIntervalMs) {
+    return replay(timeline, estimator, frameIntervalMs);
+  }
+
+  private static Report replay(
+      final List<Detection> timeline, final TargetEstimator estimator, final long frameIntervalMs) {
+    final PanController controller = new PanController(NO_MOTOR, 0.5f, 0.1f);
+    final ErrorStats stats = new ErrorStats();
+    if (timeline.isEmpty()) {
+      return stats.report(0, 0, 0);
+    }
+
+    final float[] predicted = new float[2];
+    boolean haveTarget = false;
+    float target = 0;
+    int next = 0;
+    int reference = 0;
+    final long start = timeline.get(0).resultMs;
+    final long end = timeline.get(timeline.size() - 1).captureMs;
+    for (long tick = start; tick <= end; tick += frameIntervalMs) {
+      // Results that became available before this camera frame are handled first.
+      while (next < timeline.size() && timeline.get(next).resultMs <= tick) {
+        final Detection detection = timeline.get(next++);
+        if (estimator == null) {
+          target = detection.x;
+          haveTarget = true;
+          controller.steer(target);
+        } else {
+          estimator.update(detection.x, 0.5f, detection.captureMs);
+        }
+      }
+
+      if (estimator != null) {
+        haveTarget = estimator.predict(tick, predicted);
+        if (haveTarget) {
+          target = predicted[0];
+          controller.steer(target);
+        } else {
+          controller.stop();
+        }
+      }
+
+      // The detections, interpolated over their capture times, stand in for the true position;
+      // a single detection has nothing to interpolate, so it only counts commands.
+      if (timeline.size() < 2) {
+        continue;
+      }
+      while (reference + 2 < timeline.size() && timeline.get(reference + 1).captureMs <= tick) {
+        ++reference;
+      }
+      if (haveTarget) {
+        final float truth =
+            interpolate(timeline.get(reference), timeline.get(reference + 1), tick);
+        stats.add(Math.abs(target - truth));
+      }
+    }
+    return stats.report(timeline.size(), controller.getCommandCount(), end - start);
+  }
+
+  private static float interpolate(final Detection a, final Detection b, final long timeMs) {
+    if (b.captureMs == a.captureMs) {
+      return b.x;
+    }
+    final float t = (float) (timeMs - a.captureMs) / (b.captureMs - a.captureMs);
+    return a.x + (b.x - a.x) * Math.max(0, Math.min(1, t));
+  }
+
+  private static final class ErrorStats {
+    int count = 0;
+    double sum = 0;
+    double max = 0;
+
+    void add(final double error) {
+      ++count;
+      sum += error;
+      max = Math.max(max, error);
+    }
+
+    Report report(final int detections, final int commands, final long durationMs) {
+      return new Report(
+          detections,
+          count == 0 ? 0 : sum / count,
+          max,
+          commands,
+          durationMs == 0 ? 0 : commands * 1000.0 / durationMs);
+    }
+  }
+}
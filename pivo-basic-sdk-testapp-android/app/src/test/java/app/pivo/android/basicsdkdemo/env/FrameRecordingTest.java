@@ -0,0 +1,188 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Records frames with {@link FrameRecorder} and replays them with {@link RecordedFrameSource}. */
+public class FrameRecordingTest {
+  private static final int WIDTH = 6;
+  private static final int HEIGHT = 4;
+  /** Row padding like the camera's. */
+  private static final int Y_ROW_STRIDE = 8;
+
+  private File dir;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("recording").toFile();
+    file = new File(dir, "frames.yuv");
+  }
+
+  @After
+  public void tearDown() {
+    for (final File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /** A frame with padded luma rows and interleaved chroma, filled from {@code seed}. */
+  private static YuvPlanes frame(final int seed) {
+    final byte[] y = new byte[Y_ROW_STRIDE * (HEIGHT - 1) + WIDTH];
+    final byte[] uv = new byte[WIDTH * HEIGHT / 2];
+    for (int i = 0; i < y.length; ++i) {
+      y[i] = (byte) (seed + i);
+    }
+    for (int i = 0; i < uv.length; ++i) {
+      uv[i] = (byte) (seed * 3 + i);
+    }
+    final YuvPlanes planes = new YuvPlanes();
+    planes.set(
+        ByteBuffer.wrap(y),
+        ByteBuffer.wrap(uv, 0, uv.length - 1).slice(),
+        ByteBuffer.wrap(uv, 1, uv.length - 1).slice(),
+        WIDTH,
+        HEIGHT,
+        Y_ROW_STRIDE,
+        WIDTH,
+        2);
+    return planes;
+  }
+
+  private static byte[] bytes(final ByteBuffer plane) {
+    final ByteBuffer source = plane.duplicate();
+    source.rewind();
+    final byte[] bytes = new byte[source.remaining()];
+    source.get(bytes);
+    return bytes;
+  }
+
+  private static void assertSameFrame(final YuvPlanes expected, final YuvPlanes actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getYRowStride(), actual.getYRowStride());
+    assertEquals(expected.getUvRowStride(), actual.getUvRowStride());
+    assertEquals(expected.getUvPixelStride(), actual.getUvPixelStride());
+    assertArrayEquals(bytes(expected.getY()), bytes(actual.getY()));
+    assertArrayEquals(bytes(expected.getU()), bytes(actual.getU()));
+    assertArrayEquals(bytes(expected.getV()), bytes(actual.getV()));
+  }
+
+  private void record(final int frames, final long intervalNs) throws IOException {
+    final FrameRecorder recorder = new FrameRecorder(file, frames);
+    recorder.start();
+    for (int i = 0; i < frames; ++i) {
+      assertTrue(recorder.offer(frame(i), i * intervalNs, 90 * (i % 4)));
+    }
+    recorder.stop();
+    assertEquals(frames, recorder.getWritten());
+    assertEquals(0, recorder.getDropped());
+  }
+
+  private static void assertReplays(
+      final RecordedFrameSource source, final int frames, final long intervalNs) throws IOException {
+    assertEquals(frames, source.getFrameCount());
+    final YuvPlanes planes = new YuvPlanes();
+    for (int i = 0; i < frames; ++i) {
+      assertTrue(source.next(planes));
+      assertSameFrame(frame(i), planes);
+      assertEquals(i * intervalNs, source.getTimestampNs());
+      assertEquals(90 * (i % 4), source.getRotation());
+    }
+    assertFalse(source.next(planes));
+  }
+
+  @Test
+  public void framesSurviveTheRoundTrip() throws IOException {
+    record(5, 1000);
+    assertTrue(FrameRecorder.indexFile(file).exists());
+    try (RecordedFrameSource source = new RecordedFrameSource(file, false)) {
+      assertReplays(source, 5, 1000);
+    }
+  }
+
+  @Test
+  public void framesSpanningSeveralMappingsReplay() throws IOException {
+    record(5, 1000);
+    // Room for two records per mapping.
+    final long recordSize = (file.length() - FrameRecorder.FILE_HEADER_SIZE) / 5;
+    try (RecordedFrameSource source = new RecordedFrameSource(file, false, 2 * recordSize + 1)) {
+      assertReplays(source, 5, 1000);
+    }
+  }
+
+  @Test
+  public void recordingsWithoutAnIndexAreScanned() throws IOException {
+    record(4, 1000);
+    assertTrue(FrameRecorder.indexFile(file).delete());
+    try (RecordedFrameSource source = new RecordedFrameSource(file, false)) {
+      assertReplays(source, 4, 1000);
+    }
+  }
+
+  @Test
+  public void aTruncatedLastFrameIsIgnored() throws IOException {
+    record(4, 1000);
+    try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+      data.setLength(data.length() - 3);
+    }
+    try (RecordedFrameSource source = new RecordedFrameSource(file, false)) {
+      assertReplays(source, 3, 1000);
+    }
+    assertTrue(FrameRecorder.indexFile(file).delete());
+    try (RecordedFrameSource source = new RecordedFrameSource(file, false)) {
+      assertReplays(source, 3, 1000);
+    }
+  }
+
+  @Test
+  public void realTimeReplayKeepsTheRecordedPace() throws IOException {
+    record(3, 30_000_000L);
+    try (RecordedFrameSource source = new RecordedFrameSource(file, true)) {
+      final YuvPlanes planes = new YuvPlanes();
+      assertTrue(source.next(planes));
+      final long start = System.nanoTime();
+      assertTrue(source.next(planes));
+      assertTrue(source.next(planes));
+      assertTrue(System.nanoTime() - start >= 55_000_000L);
+    }
+  }
+
+  @Test
+  public void offeredFramesAreCopiedOrDropped() throws IOException {
+    final FrameRecorder recorder = new FrameRecorder(file, 2);
+    assertFalse(recorder.offer(frame(0), 0, 0));
+    assertEquals(1, recorder.getDropped());
+
+    recorder.start();
+    final YuvPlanes planes = frame(1);
+    assertTrue(recorder.offer(planes, 0, 0));
+    // The camera may reuse its buffers as soon as offer returns.
+    planes.getY().put(0, (byte) 77);
+    recorder.stop();
+
+    try (RecordedFrameSource source = new RecordedFrameSource(file, false)) {
+      final YuvPlanes replayed = new YuvPlanes();
+      assertTrue(source.next(replayed));
+      assertSameFrame(frame(1), replayed);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void otherFilesAreRejected() throws IOException {
+    Files.write(file.toPath(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+    new RecordedFrameSource(file, false).close();
+  }
+}
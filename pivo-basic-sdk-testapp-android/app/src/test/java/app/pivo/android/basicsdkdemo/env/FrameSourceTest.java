@@ -0,0 +1,169 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+/**
+ * Checks the synthetic, image directory and camera {@link FrameSource}s and the ARGB to YUV
+ * conversion they rely on.
+ */
+public class FrameSourceTest {
+  private static byte[] luma(final YuvPlanes planes) {
+    final ByteBuffer y = planes.getY().duplicate();
+    y.rewind();
+    final byte[] bytes = new byte[planes.getWidth() * planes.getHeight()];
+    y.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void syntheticFramesAreRepeatable() {
+    final SyntheticFrameSource a = new SyntheticFrameSource(64, 48, 3, 2, 5);
+    final SyntheticFrameSource b = new SyntheticFrameSource(64, 48, 3, 2, 5);
+    final YuvPlanes planesA = new YuvPlanes();
+    final YuvPlanes planesB = new YuvPlanes();
+    for (int i = 0; i < 3; ++i) {
+      assertTrue(a.next(planesA));
+      assertTrue(b.next(planesB));
+      assertTrue(Arrays.equals(luma(planesA), luma(planesB)));
+    }
+    assertFalse(a.next(planesA));
+  }
+
+  @Test
+  public void syntheticBoxesAreDrawnWhereReported() {
+    final SyntheticFrameSource source = new SyntheticFrameSource(64, 48, 1, 1, 5);
+    final YuvPlanes planes = new YuvPlanes();
+    assertTrue(source.next(planes));
+    final float[] boxes = new float[4];
+    assertEquals(1, source.getTargets(boxes));
+
+    final int x = (int) ((boxes[0] + boxes[2]) / 2);
+    final int y = (int) ((boxes[1] + boxes[3]) / 2);
+    final byte inside = luma(planes)[y * 64 + x];
+    final byte edge = luma(planes)[y * 64 + (int) boxes[0]];
+    assertEquals(inside, edge);
+  }
+
+  @Test
+  public void argbSurvivesTheRoundTrip() {
+    final int[] argb = {0xff808080, 0xffc03020, 0xff2040c0, 0xff10f010};
+    final YuvPlanes planes = new YuvPlanes();
+    // Uniform 2x2 blocks, so chroma averaging does not mix colors.
+    for (final int pixel : argb) {
+      planes.setArgb(new int[] {pixel, pixel, pixel, pixel}, 2, 2);
+      final int[] out = new int[4];
+      planes.toArgb(out);
+      for (int shift = 0; shift < 24; shift += 8) {
+        assertEquals((pixel >> shift) & 0xFF, (out[0] >> shift) & 0xFF, 4);
+      }
+    }
+  }
+
+  @Test
+  public void imageDirectoryPlaysImagesInNameOrder() throws IOException {
+    final File dir = Files.createTempDirectory("frames").toFile();
+    try {
+      writeImage(new File(dir, "b.png"), 0xff0000ff);
+      writeImage(new File(dir, "a.png"), 0xffff0000);
+      Files.write(new File(dir, "notes.txt").toPath(), new byte[] {1, 2, 3});
+
+      final ImageDirectoryFrameSource source =
+          new ImageDirectoryFrameSource(
+              dir,
+              (file, size) -> {
+                final BufferedImage image = ImageIO.read(file);
+                if (image == null) {
+                  return null;
+                }
+                size[0] = image.getWidth();
+                size[1] = image.getHeight();
+                return image.getRGB(0, 0, size[0], size[1], null, 0, size[0]);
+              },
+              2,
+              0);
+      final YuvPlanes planes = new YuvPlanes();
+      final int[] pixels = new int[16];
+      for (int loop = 0; loop < 2; ++loop) {
+        assertTrue(source.next(planes));
+        planes.toArgb(pixels);
+        assertTrue(((pixels[0] >> 16) & 0xFF) > 200);
+        assertTrue(source.next(planes));
+        planes.toArgb(pixels);
+        assertTrue((pixels[0] & 0xFF) > 200);
+      }
+      assertFalse(source.next(planes));
+      assertEquals(3 * 33_333_333L, source.getTimestampNs());
+    } finally {
+      for (final File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  private static void writeImage(final File file, final int argb) throws IOException {
+    final BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < 4; ++y) {
+      for (int x = 0; x < 4; ++x) {
+        image.setRGB(x, y, argb);
+      }
+    }
+    ImageIO.write(image, "png", file);
+  }
+
+  @Test
+  public void cameraSourceDropsWhileAFrameIsWaiting() throws IOException {
+    final CameraFrameSource source = new CameraFrameSource(90);
+    final YuvPlanes frame = new YuvPlanes();
+    final byte[] nv21 = new byte[4 * 4 * 3 / 2];
+    nv21[0] = 1;
+    frame.setNv21(nv21, 4, 4);
+    assertTrue(source.offer(frame, 100));
+    nv21[0] = 2;
+    assertFalse(source.offer(frame, 200));
+    assertEquals(1, source.getDropped());
+
+    final YuvPlanes taken = new YuvPlanes();
+    assertTrue(source.next(taken));
+    assertEquals(1, taken.getY().get(0));
+    assertEquals(100, source.getTimestampNs());
+    assertEquals(90, source.getRotation());
+
+    // The taken frame is a copy: the camera may reuse its buffer.
+    assertTrue(source.offer(frame, 300));
+    assertEquals(1, taken.getY().get(0));
+  }
+
+  @Test
+  public void closingTheCameraSourceEndsAWaitingConsumer() throws Exception {
+    final CameraFrameSource source = new CameraFrameSource(0);
+    final AtomicBoolean result = new AtomicBoolean(true);
+    final Thread consumer =
+        new Thread(
+            () -> {
+              try {
+                result.set(source.next(new YuvPlanes()));
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    consumer.start();
+    Thread.sleep(50);
+    source.close();
+    consumer.join(1000);
+    assertFalse(consumer.isAlive());
+    assertFalse(result.get());
+  }
+}
@@ -0,0 +1,106 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import org.junit.Test;
+
+/** Checks who holds the legacy camera callback buffers as frames are delivered and processed. */
+public class PreviewBufferRingTest {
+  /** Stands in for the camera, which fills the buffers it was given in order. */
+  private static final class FakeCamera implements PreviewBufferRing.CallbackBuffers {
+    final ArrayDeque<byte[]> queued = new ArrayDeque<>();
+
+    @Override
+    public void addCallbackBuffer(final byte[] buffer) {
+      queued.add(buffer);
+    }
+
+    byte[] fill() {
+      return queued.poll();
+    }
+  }
+
+  @Test
+  public void everyBufferStartsWithTheCamera() {
+    final PreviewBufferRing ring = new PreviewBufferRing(3, 1000);
+    final FakeCamera camera = new FakeCamera();
+    ring.start(16, camera);
+    assertEquals(3, camera.queued.size());
+    assertEquals(3, ring.getWithCamera());
+    assertEquals(16, camera.queued.peek().length);
+  }
+
+  @Test
+  public void theCameraKeepsFillingWhileAFrameIsProcessed() {
+    final PreviewBufferRing ring = new PreviewBufferRing(3, 1000);
+    final FakeCamera camera = new FakeCamera();
+    ring.start(16, camera);
+
+    final byte[] first = camera.fill();
+    assertTrue(ring.deliver(first, 0));
+    assertSame(first, ring.take(10));
+    // Two more frames arrive while the first is processed; the older one goes straight back.
+    final byte[] second = camera.fill();
+    assertTrue(ring.deliver(second, 33));
+    final byte[] third = camera.fill();
+    assertTrue(ring.deliver(third, 66));
+    assertEquals(1, ring.getDiscarded());
+    assertEquals(1, ring.getWithCamera());
+    assertSame(second, camera.queued.peekLast());
+
+    ring.release(first);
+    assertEquals(2, ring.getWithCamera());
+    assertSame(third, ring.take(70));
+    assertNull(ring.take(71));
+    assertEquals(2, ring.getProcessed());
+    assertEquals(3, ring.getDelivered());
+  }
+
+  @Test
+  public void framesThatWaitedTooLongAreDiscarded() {
+    final PreviewBufferRing ring = new PreviewBufferRing(2, 100);
+    final FakeCamera camera = new FakeCamera();
+    ring.start(16, camera);
+    assertTrue(ring.deliver(camera.fill(), 0));
+    assertNull(ring.take(101));
+    assertEquals(1, ring.getDiscarded());
+    assertEquals(2, ring.getWithCamera());
+  }
+
+  @Test
+  public void buffersOfAnEarlierCameraAreNotHandedBack() {
+    final PreviewBufferRing ring = new PreviewBufferRing(2, 1000);
+    final FakeCamera first = new FakeCamera();
+    ring.start(16, first);
+    final byte[] old = first.fill();
+    assertTrue(ring.deliver(old, 0));
+    assertSame(old, ring.take(0));
+    ring.stop();
+
+    final FakeCamera second = new FakeCamera();
+    ring.start(16, second);
+    assertEquals(-1, ring.indexOf(old));
+    ring.release(old);
+    assertFalse(ring.deliver(old, 10));
+    assertEquals(2, second.queued.size());
+    assertEquals(1, first.queued.size());
+  }
+
+  @Test
+  public void releasingTwiceHandsTheBufferBackOnce() {
+    final PreviewBufferRing ring = new PreviewBufferRing(2, 1000);
+    final FakeCamera camera = new FakeCamera();
+    ring.start(16, camera);
+    final byte[] frame = camera.fill();
+    assertTrue(ring.deliver(frame, 0));
+    assertSame(frame, ring.take(0));
+    ring.release(frame);
+    ring.release(frame);
+    assertEquals(2, camera.queued.size());
+  }
+}
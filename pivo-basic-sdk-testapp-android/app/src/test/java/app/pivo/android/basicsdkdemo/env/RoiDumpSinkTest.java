@@ -0,0 +1,79 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link RoiDumpSink} writes asynchronously and drops instead of blocking when full.
+ */
+public class RoiDumpSinkTest {
+  @Test
+  public void writesCopiesInOrder() {
+    final List<Integer> firstPixels = new ArrayList<>();
+    final RoiDumpSink sink =
+        new RoiDumpSink(
+            (argb, width, height, sequence) -> {
+              synchronized (firstPixels) {
+                firstPixels.add(argb[0]);
+              }
+            },
+            4);
+    sink.start();
+    final int[] pixels = new int[4];
+    for (int i = 0; i < 3; ++i) {
+      pixels[0] = i;
+      assertTrue(sink.offer(pixels, 2, 2));
+    }
+    sink.stop();
+
+    assertEquals(3, sink.getWritten());
+    assertEquals(0, sink.getDropped());
+    assertEquals(0, (int) firstPixels.get(0));
+    assertEquals(1, (int) firstPixels.get(1));
+    assertEquals(2, (int) firstPixels.get(2));
+  }
+
+  @Test
+  public void dropsWhenEveryBufferIsPending() throws InterruptedException {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final RoiDumpSink sink =
+        new RoiDumpSink(
+            (argb, width, height, sequence) -> {
+              writing.countDown();
+              try {
+                release.await();
+              } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            },
+            2);
+    sink.start();
+    final int[] pixels = new int[1];
+
+    assertTrue(sink.offer(pixels, 1, 1));
+    assertTrue(writing.await(1, TimeUnit.SECONDS));
+    assertTrue(sink.offer(pixels, 1, 1));
+    assertFalse(sink.offer(pixels, 1, 1));
+    assertEquals(1, sink.getDropped());
+
+    release.countDown();
+    sink.stop();
+    assertEquals(2, sink.getWritten());
+  }
+
+  @Test
+  public void dropsWhenStopped() {
+    final RoiDumpSink sink = new RoiDumpSink((argb, width, height, sequence) -> { }, 2);
+    assertFalse(sink.offer(new int[1], 1, 1));
+    assertEquals(1, sink.getDropped());
+  }
+}
@@ -0,0 +1,86 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+/**
+ * Checks recording, wrap-around, level filtering and decoding of {@link Trace}.
+ */
+public class TraceTest {
+  @Test
+  public void decodesRecordsAsText() {
+    final Trace trace = new Trace(8, Log.DEBUG);
+    final Trace.Event event = trace.register(Log.INFO, "frame", "frame %d, %.2f ms");
+    trace.record(event, 42, 3.14159);
+
+    final String text = trace.dump(false);
+    assertTrue(text, text.contains(" I frame: frame 42, 3.14 ms"));
+  }
+
+  @Test
+  public void decodesRecordsAsJson() {
+    final Trace trace = new Trace(8, Log.DEBUG);
+    final Trace.Event event = trace.register(Log.WARN, "id \"assignment\"", "id %d at %.1f");
+    trace.record(event, 7, 0.5);
+
+    final String json = trace.dump(true);
+    assertTrue(json, json.startsWith("[\n{\"seq\":0,"));
+    assertTrue(json, json.contains("\"level\":\"W\",\"event\":\"id \\\"assignment\\\"\""));
+    assertTrue(json, json.contains("\"args\":[7,0.5],\"message\":\"id 7 at 0.5\"}"));
+    assertTrue(json, json.endsWith("\n]\n"));
+    assertEquals("[]\n", new Trace(8, Log.DEBUG).dump(true));
+  }
+
+  @Test
+  public void keepsTheNewestRecords() {
+    final Trace trace = new Trace(4, Log.DEBUG);
+    final Trace.Event event = trace.register(Log.DEBUG, "n", "%d");
+    for (int i = 0; i < 10; ++i) {
+      trace.record(event, i);
+    }
+
+    assertEquals(10, trace.getRecorded());
+    final String[] lines = trace.dump(false).split("\n");
+    assertEquals(4, lines.length);
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(lines[i], lines[i].endsWith("n: " + (6 + i)));
+    }
+  }
+
+  @Test
+  public void skipsEventsBelowTheLevel() {
+    final Trace trace = new Trace(8, Log.INFO);
+    final Trace.Event verbose = trace.register(Log.DEBUG, "verbose", "%d");
+    final Trace.Event info = trace.register(Log.INFO, "info", "%d");
+    assertFalse(trace.isEnabled(Log.DEBUG));
+    trace.record(verbose, 1);
+    trace.record(info, 2);
+    assertEquals(1, trace.getRecorded());
+
+    trace.setMinLevel(Log.VERBOSE);
+    trace.record(verbose, 3);
+    assertEquals(2, trace.getRecorded());
+  }
+
+  @Test
+  public void clearDropsRecords() {
+    final Trace trace = new Trace(8, Log.DEBUG);
+    final Trace.Event event = trace.register(Log.INFO, "n", "%d");
+    trace.record(event, 1);
+    trace.clear();
+    assertEquals("", trace.dump(false));
+  }
+
+  @Test
+  public void formatConversionsPickIntegerArguments() {
+    assertArrayEquals(
+        new boolean[] {true, false, true, false},
+        Trace.integerArgs("%5d%% of %.3f, %x and %s%n"));
+  }
+}
@@ -0,0 +1,245 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Checks {@link YuvTensorConverter} against converting the whole frame to ARGB first, rotating it
+ * pixel by pixel and then sampling the rotated image.
+ */
+public class YuvTensorConverterTest {
+  // Sizes are chosen so no sample lands exactly on a pixel edge, where rounding could differ.
+  private static final int WIDTH = 20;
+  private static final int HEIGHT = 12;
+  private static final int DST = 8;
+
+  private final Random random = new Random(3);
+
+  private byte[] randomBytes(final int size) {
+    final byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Rotates an ARGB image clockwise by {@code rotation} degrees. */
+  private static int[] rotate(final int[] argb, final int width, final int height, final int rotation) {
+    final int[] out = new int[argb.length];
+    final int outWidth = rotation % 180 == 0 ? width : height;
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final int rx;
+        final int ry;
+        switch (rotation) {
+          case 90:
+            rx = height - 1 - y;
+            ry = x;
+            break;
+          case 180:
+            rx = width - 1 - x;
+            ry = height - 1 - y;
+            break;
+          case 270:
+            rx = y;
+            ry = width - 1 - x;
+            break;
+          default:
+            rx = x;
+            ry = y;
+            break;
+        }
+        out[ry * outWidth + rx] = argb[y * width + x];
+      }
+    }
+    return out;
+  }
+
+  private static void assertMatchesReference(final YuvPlanes planes, final int rotation) {
+    final int[] argb = new int[WIDTH * HEIGHT];
+    planes.toArgb(argb);
+    final int[] rotated = rotate(argb, WIDTH, HEIGHT, rotation);
+    final int rotatedWidth = rotation % 180 == 0 ? WIDTH : HEIGHT;
+    final int rotatedHeight = rotation % 180 == 0 ? HEIGHT : WIDTH;
+
+    final FloatBuffer dst = FloatBuffer.allocate(DST * DST * 3 + 5);
+    new YuvTensorConverter().convert(planes, rotation, DST, DST, dst, 5);
+
+    for (int dy = 0; dy < DST; ++dy) {
+      for (int dx = 0; dx < DST; ++dx) {
+        final int sx = (int) ((dx + 0.5f) * rotatedWidth / DST);
+        final int sy = (int) ((dy + 0.5f) * rotatedHeight / DST);
+        final int pixel = rotated[sy * rotatedWidth + sx];
+        final int index = 5 + (dy * DST + dx) * 3;
+        assertEquals(((pixel >> 16) & 0xFF) / 255.0f, dst.get(index), 0f);
+        assertEquals(((pixel >> 8) & 0xFF) / 255.0f, dst.get(index + 1), 0f);
+        assertEquals((pixel & 0xFF) / 255.0f, dst.get(index + 2), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void nv21MatchesReferenceForAllRotations() {
+    final byte[] nv21 = randomBytes(WIDTH * HEIGHT * 3 / 2);
+    final YuvPlanes planes = new YuvPlanes();
+    planes.setNv21(nv21, WIDTH, HEIGHT);
+    for (int rotation = 0; rotation < 360; rotation += 90) {
+      assertMatchesReference(planes, rotation);
+    }
+  }
+
+  @Test
+  public void paddedPlanarMatchesReferenceForAllRotations() {
+    final int yRowStride = WIDTH + 4;
+    final int uvRowStride = WIDTH / 2 + 3;
+    final YuvPlanes planes = new YuvPlanes();
+    planes.set(
+        ByteBuffer.allocateDirect(yRowStride * HEIGHT).put(randomBytes(yRowStride * HEIGHT)),
+        ByteBuffer.wrap(randomBytes(uvRowStride * HEIGHT / 2)),
+        ByteBuffer.wrap(randomBytes(uvRowStride * HEIGHT / 2)),
+        WIDTH,
+        HEIGHT,
+        yRowStride,
+        uvRowStride,
+        1);
+    for (int rotation = 0; rotation < 360; rotation += 90) {
+      assertMatchesReference(planes, rotation);
+    }
+  }
+
+  @Test
+  public void copiedPlanesConvertLikeTheSource() {
+    final byte[] nv21 = randomBytes(WIDTH * HEIGHT * 3 / 2);
+    final YuvPlanes source = new YuvPlanes();
+    source.setNv21(nv21, WIDTH, HEIGHT);
+    final YuvPlanes copy = new YuvPlanes();
+    copy.copyFrom(source);
+
+    final YuvTensorConverter converter = new YuvTensorConverter();
+    final FloatBuffer expected = FloatBuffer.allocate(DST * DST * 3);
+    final FloatBuffer actual = FloatBuffer.allocate(DST * DST * 3);
+    converter.convert(source, 90, DST, DST, expected, 0);
+    converter.convert(copy, 90, DST, DST, actual, 0);
+    expected.rewind();
+    actual.rewind();
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void bytesMatchFloatsThroughTable() {
+    final byte[] nv21 = randomBytes(WIDTH * HEIGHT * 3 / 2);
+    final YuvPlanes planes = new YuvPlanes();
+    planes.setNv21(nv21, WIDTH, HEIGHT);
+    final byte[] table = new byte[256];
+    for (int i = 0; i < table.length; ++i) {
+      table[i] = (byte) (i - 128);
+    }
+
+    final YuvTensorConverter converter = new YuvTensorConverter();
+    final FloatBuffer floats = FloatBuffer.allocate(DST * DST * 3);
+    final ByteBuffer bytes = ByteBuffer.allocate(DST * DST * 3 + 2);
+    converter.convert(planes, 270, DST, DST, floats, 0);
+    converter.convert(planes, 270, DST, DST, bytes, 2, table);
+    for (int i = 0; i < floats.capacity(); ++i) {
+      assertEquals(Math.round(floats.get(i) * 255) - 128, bytes.get(2 + i));
+    }
+  }
+
+  @Test
+  public void roiSamplesOnlyTheRegion() {
+    // Left half black, right half white; the right-half ROI must come out white everywhere.
+    final byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        nv21[y * WIDTH + x] = (byte) (x < WIDTH / 2 ? 16 : 235);
+      }
+    }
+    for (int i = WIDTH * HEIGHT; i < nv21.length; ++i) {
+      nv21[i] = (byte) 128;
+    }
+    final YuvPlanes planes = new YuvPlanes();
+    planes.setNv21(nv21, WIDTH, HEIGHT);
+
+    final YuvTensorConverter converter = new YuvTensorConverter();
+    converter.setRoi(0.5f, 0, 1, 1);
+    final FloatBuffer dst = FloatBuffer.allocate(DST * DST * 3);
+    converter.convert(planes, 0, DST, DST, dst, 0);
+    for (int i = 0; i < dst.capacity(); ++i) {
+      assertEquals(1f, dst.get(i), 0.01f);
+    }
+  }
+
+  @Test
+  public void letterboxPadsAroundTheFittedFrame() {
+    final byte[] nv21 = randomBytes(WIDTH * HEIGHT * 3 / 2);
+    final YuvPlanes planes = new YuvPlanes();
+    planes.setNv21(nv21, WIDTH, HEIGHT);
+    final int[] argb = new int[WIDTH * HEIGHT];
+    planes.toArgb(argb);
+
+    // 20x12 fitted into 8x8 is 8x4.8: rows 0, 1, 6 and 7 fall outside the frame.
+    final YuvTensorConverter converter = new YuvTensorConverter();
+    converter.setLetterbox(true);
+    final FloatBuffer dst = FloatBuffer.allocate(DST * DST * 3);
+    converter.convert(planes, 0, DST, DST, dst, 0);
+    final float fitHeight = (float) HEIGHT * DST / WIDTH;
+    for (int dy = 0; dy < DST; ++dy) {
+      final float v = (dy + 0.5f - (DST - fitHeight) / 2) / fitHeight;
+      for (int dx = 0; dx < DST; ++dx) {
+        final int index = (dy * DST + dx) * 3;
+        if (v < 0 || v > 1) {
+          assertEquals(114 / 255.0f, dst.get(index), 0f);
+          assertEquals(114 / 255.0f, dst.get(index + 2), 0f);
+          continue;
+        }
+        final int pixel = argb[(int) (v * HEIGHT) * WIDTH + (int) ((dx + 0.5f) * WIDTH / DST)];
+        assertEquals(((pixel >> 8) & 0xFF) / 255.0f, dst.get(index + 1), 0f);
+      }
+    }
+
+    final byte[] table = new byte[256];
+    table[114] = 7;
+    final ByteBuffer bytes = ByteBuffer.allocate(DST * DST * 3);
+    converter.convert(planes, 0, DST, DST, bytes, 0, table);
+    assertEquals(7, bytes.get(0));
+    assertEquals(7, bytes.get(bytes.capacity() - 1));
+  }
+
+  @Test
+  public void windowReportsTheSampledArea() {
+    final byte[] nv21 = randomBytes(WIDTH * HEIGHT * 3 / 2);
+    final YuvPlanes planes = new YuvPlanes();
+    planes.setNv21(nv21, WIDTH, HEIGHT);
+    final YuvTensorConverter converter = new YuvTensorConverter();
+    final FloatBuffer dst = FloatBuffer.allocate(DST * DST * 3);
+    final float[] window = new float[4];
+
+    converter.setRoi(0.25f, 0.5f, 0.75f, 1f);
+    converter.convert(planes, 0, DST, DST, dst, 0);
+    converter.getWindow(window);
+    assertEquals(0.25f, window[0], 0f);
+    assertEquals(0.5f, window[1], 0f);
+    assertEquals(0.5f, window[2], 0f);
+    assertEquals(0.5f, window[3], 0f);
+
+    // A 10x6 pixel region letterboxed into a square covers 10x10 pixels, centered.
+    converter.setLetterbox(true);
+    converter.convert(planes, 0, DST, DST, dst, 0);
+    converter.getWindow(window);
+    assertEquals(0.5f, window[2], 1e-6f);
+    assertEquals(10f / HEIGHT, window[3], 1e-6f);
+    assertEquals(0.75f, window[1] + window[3] / 2, 1e-6f);
+  }
+
+  @Test
+  public void rotationForSensorMatchesLegacyWarp() {
+    assertEquals(0, YuvTensorConverter.rotationForSensor(0));
+    assertEquals(90, YuvTensorConverter.rotationForSensor(90));
+    assertEquals(270, YuvTensorConverter.rotationForSensor(-90));
+    assertEquals(270, YuvTensorConverter.rotationForSensor(270));
+    assertEquals(0, YuvTensorConverter.rotationForSensor(180));
+  }
+}
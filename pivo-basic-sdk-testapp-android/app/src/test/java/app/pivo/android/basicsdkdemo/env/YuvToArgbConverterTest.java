@@ -0,0 +1,182 @@
+package app.pivo.android.basicsdkdemo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Checks that {@link YuvToArgbConverter} is bit-identical to the {@link ImageUtils} converters and
+ * reports its throughput next to theirs.
+ */
+public class YuvToArgbConverterTest {
+  private static final int BENCH_WIDTH = 1920;
+  private static final int BENCH_HEIGHT = 1080;
+  private static final int WARMUP_FRAMES = 10;
+  private static final int FRAMES = 30;
+
+  private final Random random = new Random(11);
+
+  private byte[] randomBytes(final int size) {
+    final byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private void assertPlanarIdentical(
+      final YuvToArgbConverter converter,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    final int uvRows = (height + 1) / 2;
+    final byte[] y = randomBytes(yRowStride * height);
+    final byte[] u = randomBytes(uvRowStride * uvRows);
+    final byte[] v = randomBytes(uvRowStride * uvRows);
+    final int[] expected = new int[width * height];
+    final int[] actual = new int[width * height];
+
+    ImageUtils.convertYUV420ToARGB8888(
+        y, u, v, width, height, yRowStride, uvRowStride, uvPixelStride, expected);
+    converter.convertYUV420ToARGB8888(
+        y, u, v, width, height, yRowStride, uvRowStride, uvPixelStride, actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  private void assertSemiPlanarIdentical(
+      final YuvToArgbConverter converter, final int width, final int height) {
+    final byte[] nv21 = randomBytes(width * height + width * ((height + 1) / 2) + 1);
+    final int[] expected = new int[width * height];
+    final int[] actual = new int[width * height];
+
+    ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, expected);
+    converter.convertYUV420SPToARGB8888(nv21, width, height, actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  @Test
+  public void everyYuvTripletMatches() {
+    // 256 x 256 luma with one chroma sample per 2x2 block covers all (u, v) pairs for 4 lumas each.
+    final YuvToArgbConverter converter = new YuvToArgbConverter(1);
+    for (int luma = 0; luma < 256; luma += 4) {
+      final int width = 512;
+      final int height = 512;
+      final byte[] y = new byte[width * height];
+      final byte[] u = new byte[(width / 2) * (height / 2)];
+      final byte[] v = new byte[(width / 2) * (height / 2)];
+      for (int i = 0; i < y.length; ++i) {
+        y[i] = (byte) (luma + (i & 3));
+      }
+      for (int i = 0; i < u.length; ++i) {
+        u[i] = (byte) (i & 0xff);
+        v[i] = (byte) ((i >> 8) & 0xff);
+      }
+      final int[] expected = new int[width * height];
+      final int[] actual = new int[width * height];
+      ImageUtils.convertYUV420ToARGB8888(y, u, v, width, height, width, width / 2, 1, expected);
+      converter.convertYUV420ToARGB8888(y, u, v, width, height, width, width / 2, 1, actual);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void planarMatchesWithPaddingAndOddSizes() {
+    final YuvToArgbConverter converter = new YuvToArgbConverter(1);
+    assertPlanarIdentical(converter, 64, 48, 64, 32, 1);
+    assertPlanarIdentical(converter, 63, 47, 72, 40, 1);
+    assertPlanarIdentical(converter, 64, 48, 64, 64, 2);
+    assertPlanarIdentical(converter, 1, 1, 1, 2, 2);
+  }
+
+  @Test
+  public void semiPlanarMatchesWithOddSizes() {
+    final YuvToArgbConverter converter = new YuvToArgbConverter(1);
+    assertSemiPlanarIdentical(converter, 64, 48);
+    assertSemiPlanarIdentical(converter, 62, 45);
+  }
+
+  @Test
+  public void parallelMatchesSerial() {
+    final YuvToArgbConverter converter = new YuvToArgbConverter(4);
+    try {
+      assertPlanarIdentical(converter, 640, 480, 640, 640, 2);
+      assertPlanarIdentical(converter, 641, 479, 704, 352, 1);
+      assertSemiPlanarIdentical(converter, 1280, 720);
+    } finally {
+      converter.close();
+    }
+  }
+
+  @Test
+  public void yuvPlanesUseArrayOffsets() {
+    final int width = 32;
+    final int height = 24;
+    final byte[] nv21 = randomBytes(width * height * 3 / 2);
+    final YuvPlanes planes = new YuvPlanes();
+    planes.setNv21(nv21, width, height);
+    final int[] expected = new int[width * height];
+    final int[] actual = new int[width * height];
+
+    ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, expected);
+    new YuvToArgbConverter(1).convert(planes, actual);
+    assertArrayEquals(expected, actual);
+
+    final YuvPlanes direct = new YuvPlanes();
+    direct.set(
+        ByteBuffer.allocateDirect(width * height).put(nv21, 0, width * height),
+        planes.getU(),
+        planes.getV(),
+        width,
+        height,
+        width,
+        width,
+        2);
+    new YuvToArgbConverter(1).convert(direct, actual);
+    assertArrayEquals(expected, actual);
+  }
+
+  private interface Conversion {
+    void run();
+  }
+
+  private static double megapixelsPerSecond(final Conversion conversion) {
+    for (int i = 0; i < WARMUP_FRAMES; ++i) {
+      conversion.run();
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < FRAMES; ++i) {
+      conversion.run();
+    }
+    final long elapsed = System.nanoTime() - start;
+    return (double) BENCH_WIDTH * BENCH_HEIGHT * FRAMES / (elapsed / 1e3);
+  }
+
+  @Test
+  public void benchmark() {
+    final byte[] y = randomBytes(BENCH_WIDTH * BENCH_HEIGHT);
+    final byte[] uv = randomBytes(BENCH_WIDTH * BENCH_HEIGHT / 2);
+    final byte[] vu = new byte[uv.length];
+    System.arraycopy(uv, 1, vu, 0, uv.length - 1);
+    final int[] out = new int[BENCH_WIDTH * BENCH_HEIGHT];
+    final int processors = Runtime.getRuntime().availableProcessors();
+
+    final double legacy = megapixelsPerSecond(() -> ImageUtils.convertYUV420ToARGB8888(
+        y, uv, vu, BENCH_WIDTH, BENCH_HEIGHT, BENCH_WIDTH, BENCH_WIDTH, 2, out));
+    System.out.println(String.format("legacy            %8.1f MP/s", legacy));
+
+    for (int parallelism = 1; parallelism <= processors; parallelism *= 2) {
+      final YuvToArgbConverter converter = new YuvToArgbConverter(parallelism);
+      try {
+        final double table = megapixelsPerSecond(() -> converter.convertYUV420ToARGB8888(
+            y, uv, vu, BENCH_WIDTH, BENCH_HEIGHT, BENCH_WIDTH, BENCH_WIDTH, 2, out));
+        System.out.println(
+            String.format("table, %2d threads %8.1f MP/s (%.2fx)", parallelism, table, table / legacy));
+      } finally {
+        converter.close();
+      }
+    }
+  }
+}
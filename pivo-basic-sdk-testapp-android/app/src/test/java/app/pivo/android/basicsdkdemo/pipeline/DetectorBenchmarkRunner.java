@@ -0,0 +1,169 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import org.junit.Test;
+import org.tensorflow.lite.Interpreter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import app.pivo.android.basicsdkdemo.env.FrameSource;
+import app.pivo.android.basicsdkdemo.env.ImageDirectoryFrameSource;
+import app.pivo.android.basicsdkdemo.env.SyntheticFrameSource;
+import app.pivo.android.basicsdkdemo.tflite.FeatureExtract;
+import app.pivo.android.basicsdkdemo.tflite.InterpreterFactory;
+import app.pivo.android.basicsdkdemo.tflite.ModelOptions;
+import app.pivo.android.basicsdkdemo.tflite.ModelRegistry;
+import app.pivo.android.basicsdkdemo.tflite.YoloClassifier;
+import app.pivo.android.basicsdkdemo.tracking.EmbeddingGallery;
+import app.pivo.android.basicsdkdemo.tracking.ObjectTracker;
+
+/**
+ * Runs {@link DetectorBenchmark} on the desktop JVM.
+ *
+ * The tracker-only run needs nothing but the JVM. The model run uses the bundled models through
+ * the TensorFlow Lite Java API and is skipped unless a desktop build of libtensorflowlite_jni is on
+ * java.library.path. Properties, passed to Gradle as -P:
+ * <ul>
+ *     <li>benchmark.jni: directory holding libtensorflowlite_jni.so</li>
+ *     <li>benchmark.assets: model and label directory, src/main/assets by default</li>
+ *     <li>benchmark.images: directory of images to use instead of synthetic frames</li>
+ *     <li>benchmark.frames: frames measured, 100 by default</li>
+ * </ul>
+ */
+public class DetectorBenchmarkRunner {
+    private static final String DETECTOR_MODEL = "yolov8-mobile-tiny_float16.tflite";
+    private static final int DETECTOR_INPUT_SIZE = 320;
+    private static final int DETECTOR_OUTPUT_SHAPE = 500;
+    private static final String FEATURE_MODEL = "feature-map.tflite";
+    private static final int FEATURE_INPUT_SIZE = 128;
+    private static final int FEATURE_OUTPUT_SHAPE = 8192;
+    private static final String LABELS = "obj.names";
+    private static final int WARMUP_FRAMES = 10;
+
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static int frames() {
+        return Integer.getInteger("benchmark.frames", 100);
+    }
+
+    private static ObjectTracker tracker() {
+        return new ObjectTracker(64, 0.3f, ObjectTracker.DEFAULT_LOW_SCORE, ObjectTracker.DEFAULT_MIN_IOU,
+                ObjectTracker.DEFAULT_CONFIRM_HITS, ObjectTracker.DEFAULT_MAX_LOST_FRAMES);
+    }
+
+    /** Images from benchmark.images, or synthetic 720p frames. */
+    private static FrameSource source() throws IOException {
+        final String images = System.getProperty("benchmark.images");
+        if (images == null) {
+            return new SyntheticFrameSource(1280, 720, WARMUP_FRAMES + frames(), 3, 7);
+        }
+        return new ImageDirectoryFrameSource(new File(images), (file, size) -> {
+            final BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                return null;
+            }
+            size[0] = image.getWidth();
+            size[1] = image.getHeight();
+            return image.getRGB(0, 0, size[0], size[1], null, 0, size[0]);
+        }, Integer.MAX_VALUE, 0);
+    }
+
+    @Test
+    public void syntheticFramesThroughTheTracker() throws IOException {
+        final ObjectTracker tracker = tracker();
+        final DetectorBenchmark.Report report;
+        try (FrameSource source = new SyntheticFrameSource(1280, 720, WARMUP_FRAMES + frames(), 3, 7)) {
+            report = new DetectorBenchmark(source)
+                    .setTracker(tracker)
+                    .setAllocationCounter(DetectorBenchmarkRunner::allocatedBytes)
+                    .setWarmupFrames(WARMUP_FRAMES)
+                    .run(frames());
+        }
+        System.out.println(report);
+
+        assertEquals(frames(), report.frames);
+        assertEquals(frames(), report.stages[DetectorBenchmark.STAGE_PREPROCESS].count);
+        assertEquals(frames(), report.stages[DetectorBenchmark.STAGE_TRACK].count);
+        assertEquals(0, report.stages[DetectorBenchmark.STAGE_REID].count);
+        // The boxes move smoothly, so every one of them ends up in a confirmed track.
+        assertEquals(3, tracker.getTrackCount(ObjectTracker.CONFIRMED));
+        if (report.bytesPerFrame[DetectorBenchmark.STAGE_TRACK] >= 0) {
+            assertTrue(report.toString(), report.bytesPerFrame[DetectorBenchmark.STAGE_TRACK] < 1024);
+        }
+    }
+
+    @Test
+    public void bundledModels() throws IOException {
+        final File assets = new File(System.getProperty("benchmark.assets", "src/main/assets"));
+        final ModelRegistry<Interpreter> models = new ModelRegistry<>(file -> {
+            try (RandomAccessFile model = new RandomAccessFile(new File(assets, file), "r")) {
+                return model.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, model.length());
+            }
+        }, new InterpreterFactory());
+        final List<String> labels = new ArrayList<>(
+                Files.readAllLines(new File(assets, LABELS).toPath(), StandardCharsets.UTF_8));
+
+        YoloClassifier detector = null;
+        try (FrameSource source = source()) {
+            final FeatureExtract extractor;
+            try {
+                detector = new YoloClassifier(labels, models, DETECTOR_MODEL, ModelOptions.CPU,
+                        DETECTOR_INPUT_SIZE, DETECTOR_OUTPUT_SHAPE, 8);
+                extractor = new FeatureExtract(models.acquire(FEATURE_MODEL, ModelOptions.CPU),
+                        FEATURE_INPUT_SIZE, FEATURE_OUTPUT_SHAPE);
+            } catch (IOException e) {
+                // The registry wraps what the interpreter factory throws.
+                if (!(e.getCause() instanceof LinkageError)) {
+                    throw e;
+                }
+                // No TensorFlow Lite runtime for this platform.
+                assumeNoException(e.getCause());
+                return;
+            } catch (LinkageError e) {
+                // UnsatisfiedLinkError, NoClassDefFoundError or ExceptionInInitializerError thrown
+                // before the registry is involved.
+                assumeNoException(e);
+                return;
+            }
+
+            final DetectorBenchmark.Report report = new DetectorBenchmark(source)
+                    .setDetector(detector)
+                    .setReId(extractor, new EmbeddingGallery(FEATURE_OUTPUT_SHAPE, 128))
+                    .setTracker(tracker())
+                    .setAllocationCounter(DetectorBenchmarkRunner::allocatedBytes)
+                    .setWarmupFrames(WARMUP_FRAMES)
+                    .run(frames());
+            System.out.println(report);
+            System.out.println(detector.getStatString());
+
+            assertTrue(report.frames > 0);
+            assertEquals(report.frames, report.stages[DetectorBenchmark.STAGE_DETECT].count);
+        } finally {
+            if (detector != null) {
+                detector.close();
+            }
+            models.close();
+        }
+    }
+}
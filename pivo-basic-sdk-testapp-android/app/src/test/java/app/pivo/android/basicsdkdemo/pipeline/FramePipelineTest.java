@@ -0,0 +1,143 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FramePipelineTest {
+    private final List<Integer> recycled = new CopyOnWriteArrayList<>();
+    private final List<Integer> finished = new CopyOnWriteArrayList<>();
+
+    private FramePipeline<Integer> newPipeline() {
+        return new FramePipeline<>("test", new FramePipeline.Recycler<Integer>() {
+            @Override
+            public void recycle(Integer frame) {
+                recycled.add(frame);
+            }
+        });
+    }
+
+    private void awaitRecycled(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (recycled.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, recycled.size());
+    }
+
+    @Test
+    public void framesRunThroughAllStagesInOrder() throws InterruptedException {
+        final FramePipeline<Integer> pipeline = newPipeline()
+                .addStage("a", 8, frame -> true)
+                .addStage("b", 8, frame -> frame % 2 == 0)
+                .addStage("c", 8, frame -> finished.add(frame));
+        pipeline.start();
+        for (int i = 0; i < 6; i++) {
+            pipeline.submit(i);
+        }
+        awaitRecycled(6);
+        pipeline.stop();
+
+        assertEquals(3, finished.size());
+        assertEquals(0, (int) finished.get(0));
+        assertEquals(2, (int) finished.get(1));
+        assertEquals(4, (int) finished.get(2));
+        assertEquals(6, pipeline.getMetrics(0).getProcessed());
+        assertEquals(3, pipeline.getMetrics(2).getProcessed());
+    }
+
+    @Test
+    public void fullQueueKeepsLatestFrame() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FramePipeline<Integer> pipeline = newPipeline()
+                .addStage("slow", 1, frame -> {
+                    started.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return finished.add(frame);
+                });
+        pipeline.start();
+
+        pipeline.submit(0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            pipeline.submit(i);
+        }
+        assertEquals(1, pipeline.getMetrics(0).getQueueDepth());
+        release.countDown();
+        awaitRecycled(6);
+        pipeline.stop();
+
+        // Frame 0 was in flight; of the queued frames only the newest survived.
+        assertEquals(2, finished.size());
+        assertEquals(0, (int) finished.get(0));
+        assertEquals(5, (int) finished.get(1));
+        assertEquals(4, pipeline.getMetrics(0).getDropped());
+        assertEquals(1, pipeline.getMetrics(0).getMaxQueueDepth());
+    }
+
+    @Test
+    public void stagesOverlapAcrossFrames() throws InterruptedException {
+        final CountDownLatch firstFrameInferring = new CountDownLatch(1);
+        final CountDownLatch secondFramePreprocessed = new CountDownLatch(1);
+        final FramePipeline<Integer> pipeline = newPipeline()
+                .addStage("pre", 1, frame -> {
+                    if (frame == 1) {
+                        secondFramePreprocessed.countDown();
+                    }
+                    return true;
+                })
+                .addStage("infer", 1, frame -> {
+                    if (frame == 0) {
+                        firstFrameInferring.countDown();
+                        try {
+                            // Only completes if "pre" can run frame 1 while frame 0 is still here.
+                            finished.add(secondFramePreprocessed.await(5, TimeUnit.SECONDS) ? frame : -1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return true;
+                });
+        pipeline.start();
+        pipeline.submit(0);
+        assertTrue(firstFrameInferring.await(5, TimeUnit.SECONDS));
+        pipeline.submit(1);
+        awaitRecycled(2);
+        pipeline.stop();
+
+        assertEquals(0, (int) finished.get(0));
+    }
+
+    @Test
+    public void failingStageRecyclesFrame() throws InterruptedException {
+        final FramePipeline<Integer> pipeline = newPipeline()
+                .addStage("boom", 1, frame -> {
+                    throw new IllegalStateException("boom");
+                });
+        pipeline.start();
+        pipeline.submit(7);
+        awaitRecycled(1);
+        pipeline.stop();
+
+        assertEquals(1, pipeline.getMetrics(0).getFailed());
+        assertTrue(pipeline.getMetrics(0).getLastError() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void submitAfterStopRecycles() {
+        final FramePipeline<Integer> pipeline = newPipeline().addStage("a", 1, frame -> true);
+        assertEquals(false, pipeline.submit(1));
+        assertEquals(1, recycled.size());
+    }
+}
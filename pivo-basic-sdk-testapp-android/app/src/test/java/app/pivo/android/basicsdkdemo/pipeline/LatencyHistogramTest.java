@@ -0,0 +1,106 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the bucket layout and percentiles of {@link LatencyHistogram}, concurrent recording, and
+ * measures the cost of a timed step in {@link StageStats}.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsAreContiguousAndTight() {
+        long expectedLow = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            final long high = LatencyHistogram.upperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(expectedLow));
+            assertEquals(bucket, LatencyHistogram.bucket(high));
+            assertTrue("bucket " + bucket, high - expectedLow <= Math.max(1, expectedLow / 8));
+            expectedLow = high + 1;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucket(Long.MAX_VALUE / 1000));
+    }
+
+    @Test
+    public void percentilesAreWithinOneBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram("step");
+        // 1 ms to 100 ms, one sample each.
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.recordNanos(ms * 1000000L);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count);
+        assertEquals(50.5f, snapshot.meanMs, 1e-3f);
+        assertEquals(50f, snapshot.p50Ms, 50f / 8);
+        assertEquals(90f, snapshot.p90Ms, 90f / 8);
+        assertEquals(99f, snapshot.p99Ms, 99f / 8);
+        assertEquals(100f, snapshot.maxMs, 0f);
+        assertTrue(snapshot.p50Ms >= 50f && snapshot.p99Ms <= snapshot.maxMs);
+    }
+
+    @Test
+    public void emptySnapshotHasNoStatistics() {
+        final LatencyHistogram.Snapshot snapshot = new LatencyHistogram("idle").snapshot();
+        assertEquals(0, snapshot.count);
+        assertTrue(Float.isNaN(snapshot.p50Ms));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("shared");
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                final Random random = new Random(seed);
+                for (int i = 0; i < 100000; i++) {
+                    histogram.recordNanos(random.nextInt(50000000));
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.snapshot().count);
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+    }
+
+    @Test
+    public void disabledStatsRecordNothing() {
+        final StageStats stats = new StageStats("a", "b");
+        stats.setEnabled(false);
+        final long start = stats.start();
+        assertEquals(0, start);
+        stats.stop(0, start);
+        stats.record(1, 1000000);
+        assertEquals(0, stats.snapshot(0).count);
+        assertEquals(0, stats.snapshot(1).count);
+        assertEquals("", stats.toString());
+
+        stats.setEnabled(true);
+        stats.stop(1, stats.start());
+        assertEquals(1, stats.snapshot().get(1).count);
+        assertTrue(stats.toString().startsWith("b n=1"));
+    }
+
+    @Test
+    public void benchmarkTimedStep() {
+        final StageStats stats = new StageStats("step");
+        final int steps = 2000000;
+        for (final boolean enabled : new boolean[] {false, true}) {
+            stats.setEnabled(enabled);
+            final long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                stats.stop(0, stats.start());
+            }
+            System.out.println(String.format("timed step, %s: %.1f ns",
+                    enabled ? "enabled" : "disabled", (System.nanoTime() - start) / (double) steps));
+        }
+    }
+}
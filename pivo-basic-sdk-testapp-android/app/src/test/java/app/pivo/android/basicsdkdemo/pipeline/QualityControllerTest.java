@@ -0,0 +1,117 @@
+package app.pivo.android.basicsdkdemo.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/** Drives {@link QualityController} with simulated latency traces. */
+public class QualityControllerTest {
+    private static final String[] TIERS = {"accuracy", "fast"};
+
+    private final Random random = new Random(7);
+
+    private static QualityController newController(final QualityController.Measure measure,
+                                                   final float budgetMs) {
+        return new QualityController(TIERS, measure, budgetMs, 0.15f, 15, 30, 300, 16);
+    }
+
+    /** Simulated device: mean inference time per tier, with Gaussian jitter. */
+    private float sample(final float[] tierMs, final int tier) {
+        return Math.max(1f, tierMs[tier] + (float) random.nextGaussian() * tierMs[tier] * 0.1f);
+    }
+
+    private int run(final QualityController controller, final float[] tierMs, final int frames) {
+        int tier = controller.getTier();
+        for (int i = 0; i < frames; i++) {
+            final float inference = sample(tierMs, tier);
+            tier = controller.onFrame(tier, inference, inference + 20);
+        }
+        return tier;
+    }
+
+    @Test
+    public void staysOnAccurateTierWithinBudget() {
+        final QualityController controller = newController(QualityController.Measure.INFERENCE, 66);
+        assertEquals(0, run(controller, new float[] {50, 20}, 1000));
+        assertTrue(controller.getDecisions().isEmpty());
+    }
+
+    @Test
+    public void stepsDownWhenOverBudgetAndDoesNotChatter() {
+        final QualityController controller = newController(QualityController.Measure.INFERENCE, 66);
+        final float[] device = {110, 30};
+        assertEquals(1, run(controller, device, 299));
+        final List<QualityController.Decision> decisions = controller.getDecisions();
+        assertEquals(1, decisions.size());
+        assertEquals(0, decisions.get(0).fromTier);
+        assertEquals(1, decisions.get(0).toTier);
+        // The dwell time also covers start-up, when the first inferences are slow anyway.
+        assertEquals(30, decisions.get(0).frame);
+
+        // The accurate tier is known not to fit, so it is only re-probed after the probe interval,
+        // which doubles with every failed probe: 300, 600, 1200 and 2400 frames.
+        run(controller, device, 4500);
+        final int switches = controller.getDecisions().size();
+        assertEquals(1 + 2 * 4, switches);
+        for (final QualityController.Decision decision : controller.getDecisions()) {
+            System.out.println(decision);
+        }
+    }
+
+    @Test
+    public void noiseAroundBudgetDoesNotSwitch() {
+        final QualityController controller = newController(QualityController.Measure.INFERENCE, 66);
+        // Within the 15% band on either side of the budget.
+        assertEquals(0, run(controller, new float[] {68, 30}, 3000));
+        assertTrue(controller.getDecisions().isEmpty());
+    }
+
+    @Test
+    public void returnsToAccurateTierWhenDeviceSpeedsUp() {
+        final QualityController controller = newController(QualityController.Measure.INFERENCE, 66);
+        assertEquals(1, run(controller, new float[] {110, 30}, 200));
+        // The device cools down: the accurate tier fits again and is found by the next probe.
+        assertEquals(0, run(controller, new float[] {45, 20}, 400));
+        final List<QualityController.Decision> decisions = controller.getDecisions();
+        assertEquals(0, decisions.get(decisions.size() - 1).toTier);
+        assertEquals(45f, controller.getTierMeanMs(0), 5f);
+    }
+
+    @Test
+    public void latencyMeasureUsesEndToEndTime() {
+        // Inference alone fits 66 ms; with 20 ms of pre- and postprocessing the latency does not.
+        final QualityController latency = newController(QualityController.Measure.LATENCY, 66);
+        assertEquals(1, run(latency, new float[] {60, 25}, 100));
+        final QualityController inference = newController(QualityController.Measure.INFERENCE, 66);
+        assertEquals(0, run(inference, new float[] {60, 25}, 100));
+    }
+
+    @Test
+    public void framesFromThePreviousTierAreIgnored() {
+        final QualityController controller = newController(QualityController.Measure.INFERENCE, 66);
+        controller.setTier(1, "manual");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, controller.onFrame(0, 500, 500));
+        }
+        assertTrue(Float.isNaN(controller.getTierMeanMs(0)));
+        final List<QualityController.Decision> decisions = controller.getDecisions();
+        assertEquals(1, decisions.size());
+        assertEquals("manual", decisions.get(0).reason);
+    }
+
+    @Test
+    public void decisionLogIsBounded() {
+        final QualityController controller =
+                new QualityController(TIERS, QualityController.Measure.INFERENCE, 66, 0.15f, 1, 0, 0, 4);
+        for (int i = 0; i < 10; i++) {
+            controller.setTier(i % 2, "manual " + i);
+        }
+        final List<QualityController.Decision> decisions = controller.getDecisions();
+        assertEquals(4, decisions.size());
+        assertEquals("manual 9", decisions.get(3).reason);
+    }
+}
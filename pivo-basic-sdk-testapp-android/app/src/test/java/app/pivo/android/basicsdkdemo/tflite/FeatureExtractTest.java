@@ -0,0 +1,37 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks how {@link FeatureExtract} maps ROI counts onto batch buckets.
+ */
+public class FeatureExtractTest {
+    private static int bucket(final int count, final int maxBatch) {
+        return FeatureExtract.BATCH_BUCKETS[FeatureExtract.bucketIndex(count, maxBatch)];
+    }
+
+    @Test
+    public void picksSmallestBucketHoldingAllRois() {
+        assertEquals(1, bucket(1, 8));
+        assertEquals(2, bucket(2, 8));
+        assertEquals(4, bucket(3, 8));
+        assertEquals(4, bucket(4, 8));
+        assertEquals(8, bucket(5, 8));
+        assertEquals(8, bucket(8, 8));
+    }
+
+    @Test
+    public void largeRequestsUseTheBiggestBucket() {
+        assertEquals(8, bucket(9, 8));
+        assertEquals(8, bucket(100, 8));
+    }
+
+    @Test
+    public void respectsMaxBatch() {
+        assertEquals(1, bucket(8, 1));
+        assertEquals(2, bucket(3, 2));
+        assertEquals(4, bucket(7, 4));
+    }
+}
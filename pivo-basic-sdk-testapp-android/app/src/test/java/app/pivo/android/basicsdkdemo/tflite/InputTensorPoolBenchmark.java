@@ -0,0 +1,134 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Compares the old allocate-per-frame input path with {@link InputTensorPool} on the JVM.
+ */
+public class InputTensorPoolBenchmark {
+    private static final int INPUT_SIZE = 640;
+    private static final int WARMUP_FRAMES = 20;
+    private static final int FRAMES = 50;
+
+    private static int[] randomPixels() {
+        final Random random = new Random(42);
+        final int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    /** The pre-pool implementation of YoloClassifier.convertBitmapToByteBuffer. */
+    private static ByteBuffer legacyConvert(final int[] source) {
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * INPUT_SIZE * INPUT_SIZE * 3);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
+        System.arraycopy(source, 0, intValues, 0, intValues.length);
+        int pixel = 0;
+        for (int i = 0; i < INPUT_SIZE; ++i) {
+            for (int j = 0; j < INPUT_SIZE; ++j) {
+                final int val = intValues[pixel++];
+                byteBuffer.putFloat(((val >> 16) & 0xFF) / 255.0f);
+                byteBuffer.putFloat(((val >> 8) & 0xFF) / 255.0f);
+                byteBuffer.putFloat((val & 0xFF) / 255.0f);
+            }
+        }
+        return byteBuffer;
+    }
+
+    private static void pooledConvert(final InputTensorPool pool, final int[] source) {
+        final InputTensorPool.Tensor tensor = pool.acquire();
+        // Stands in for Bitmap.getPixels, which writes into the pooled scratch array.
+        System.arraycopy(source, 0, tensor.getPixels(), 0, source.length);
+        InputTensorPool.packNormalizedRgb(
+                tensor.getPixels(), INPUT_SIZE, INPUT_SIZE, tensor.getRow(), tensor.getFloats(), 0);
+        pool.release(tensor);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    @Test
+    public void pooledPathMatchesLegacyOutput() {
+        final int[] pixels = randomPixels();
+        final InputTensorPool pool = new InputTensorPool(INPUT_SIZE, INPUT_SIZE, 1, 1);
+
+        final ByteBuffer legacy = legacyConvert(pixels);
+        legacy.rewind();
+        final FloatBuffer expected = legacy.asFloatBuffer();
+        final InputTensorPool.Tensor tensor = pool.acquire();
+        System.arraycopy(pixels, 0, tensor.getPixels(), 0, pixels.length);
+        InputTensorPool.packNormalizedRgb(
+                tensor.getPixels(), INPUT_SIZE, INPUT_SIZE, tensor.getRow(), tensor.getFloats(), 0);
+        final FloatBuffer actual = tensor.getBuffer().asFloatBuffer();
+
+        assertEquals(expected.remaining(), actual.remaining());
+        for (int i = 0; i < expected.remaining(); ++i) {
+            assertEquals(expected.get(i), actual.get(i), 0f);
+        }
+    }
+
+    @Test
+    public void pooledPathAllocatesLessPerFrame() {
+        final int[] pixels = randomPixels();
+        final InputTensorPool pool = new InputTensorPool(INPUT_SIZE, INPUT_SIZE, 1, 1);
+
+        for (int i = 0; i < WARMUP_FRAMES; ++i) {
+            legacyConvert(pixels);
+            pooledConvert(pool, pixels);
+        }
+
+        long gc = gcCount();
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            legacyConvert(pixels);
+        }
+        final long legacyNs = (System.nanoTime() - start) / FRAMES;
+        final long legacyBytes = (allocatedBytes() - bytes) / FRAMES;
+        final long legacyGc = gcCount() - gc;
+
+        gc = gcCount();
+        bytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            pooledConvert(pool, pixels);
+        }
+        final long pooledNs = (System.nanoTime() - start) / FRAMES;
+        final long pooledBytes = (allocatedBytes() - bytes) / FRAMES;
+        final long pooledGc = gcCount() - gc;
+
+        System.out.println(String.format(
+                "legacy: %d ns/frame, %d heap bytes/frame, %d GCs | pooled: %d ns/frame, %d heap bytes/frame, %d GCs",
+                legacyNs, legacyBytes, legacyGc, pooledNs, pooledBytes, pooledGc));
+
+        if (legacyBytes >= 0) {
+            assertTrue(pooledBytes < legacyBytes);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link LatencyWindow} only summarizes its most recent samples.
+ */
+public class LatencyWindowTest {
+    @Test
+    public void emptyWindowHasNoStatistics() {
+        final LatencyWindow window = new LatencyWindow(4);
+        assertEquals(0, window.getCount());
+        assertTrue(Float.isNaN(window.getMeanMs()));
+        assertTrue(Float.isNaN(window.getPercentileMs(50)));
+    }
+
+    @Test
+    public void percentilesUseNearestRank() {
+        final LatencyWindow window = new LatencyWindow(10);
+        for (int i = 10; i >= 1; i--) {
+            window.add(i);
+        }
+        assertTrue(window.isFull());
+        assertEquals(5.5f, window.getMeanMs(), 1e-6f);
+        assertEquals(5f, window.getPercentileMs(50), 0f);
+        assertEquals(9f, window.getPercentileMs(90), 0f);
+        assertEquals(10f, window.getPercentileMs(100), 0f);
+        assertEquals(1f, window.getPercentileMs(0), 0f);
+    }
+
+    @Test
+    public void oldSamplesFallOut() {
+        final LatencyWindow window = new LatencyWindow(3);
+        window.add(100);
+        window.add(100);
+        assertFalse(window.isFull());
+        window.add(1);
+        window.add(2);
+        window.add(3);
+        assertEquals(3, window.getCount());
+        assertEquals(5, window.getTotal());
+        assertEquals(2f, window.getMeanMs(), 1e-6f);
+        assertEquals(3f, window.getPercentileMs(100), 0f);
+    }
+}
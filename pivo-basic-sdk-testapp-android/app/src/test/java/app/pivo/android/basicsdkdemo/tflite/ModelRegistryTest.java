@@ -0,0 +1,241 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks sharing, lazy building, prefetching and trimming in {@link ModelRegistry} with fake
+ * models.
+ */
+public class ModelRegistryTest {
+    /** Stands in for an interpreter: remembers what it was built from and whether it was closed. */
+    private static final class FakeModel {
+        final ByteBuffer buffer;
+        final ModelOptions options;
+        final String thread;
+        boolean closed = false;
+
+        FakeModel(final ByteBuffer buffer, final ModelOptions options) {
+            this.buffer = buffer;
+            this.options = options;
+            this.thread = Thread.currentThread().getName();
+        }
+    }
+
+    private final List<String> loaded = new ArrayList<>();
+    private volatile CountDownLatch gate = null;
+
+    private final ModelRegistry<FakeModel> registry = new ModelRegistry<>(
+            new ModelRegistry.Loader() {
+                @Override
+                public ByteBuffer load(final String file) throws IOException {
+                    if (file.startsWith("missing")) {
+                        throw new IOException("No such asset " + file);
+                    }
+                    loaded.add(file);
+                    return ByteBuffer.allocateDirect(16);
+                }
+            },
+            new ModelRegistry.Factory<FakeModel>() {
+                @Override
+                public FakeModel create(final ByteBuffer model, final ModelOptions options) throws Exception {
+                    final CountDownLatch latch = gate;
+                    if (latch != null) {
+                        latch.await();
+                    }
+                    return new FakeModel(model, options);
+                }
+
+                @Override
+                public void close(final FakeModel model) {
+                    model.closed = true;
+                }
+            });
+
+    @Test
+    public void sameKeyReturnsSameModel() throws IOException {
+        final FakeModel first = registry.acquire("a.tflite", ModelOptions.GPU);
+        final FakeModel second = registry.acquire("a.tflite", new ModelOptions(true, false, ModelOptions.DEFAULT_THREADS));
+        assertSame(first, second);
+        assertEquals(1, registry.getBuildCount());
+        assertEquals("model-loader", first.thread);
+    }
+
+    @Test
+    public void optionsOfOneFileShareTheBuffer() throws IOException {
+        final FakeModel gpu = registry.acquire("a.tflite", ModelOptions.GPU);
+        final FakeModel cpu = registry.acquire("a.tflite", ModelOptions.GPU.withNumThreads(4));
+        final FakeModel other = registry.acquire("b.tflite", ModelOptions.GPU);
+        assertNotSame(gpu, cpu);
+        assertSame(gpu.buffer, cpu.buffer);
+        assertNotSame(gpu.buffer, other.buffer);
+        assertEquals(4, cpu.options.getNumThreads());
+        assertEquals(2, registry.getBufferCount());
+        assertEquals(2, registry.getBufferLoadCount());
+        assertEquals(3, registry.getBuildCount());
+    }
+
+    @Test
+    public void nothingIsBuiltUntilAskedFor() throws Exception {
+        assertEquals(0, registry.getModelCount());
+        assertTrue(loaded.isEmpty());
+
+        gate = new CountDownLatch(1);
+        final Future<FakeModel> prefetched = registry.prefetch("a.tflite", ModelOptions.GPU);
+        assertFalse(prefetched.isDone());
+        gate.countDown();
+        final FakeModel model = prefetched.get(1, TimeUnit.SECONDS);
+        assertSame(model, registry.acquire("a.tflite", ModelOptions.GPU));
+        assertEquals(1, registry.getBuildCount());
+    }
+
+    @Test
+    public void acquireAsyncDeliversOnTheLoaderThread() throws Exception {
+        gate = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final FakeModel[] result = new FakeModel[1];
+        final String[] thread = new String[1];
+        registry.acquireAsync("a.tflite", ModelOptions.NNAPI, new ModelRegistry.Callback<FakeModel>() {
+            @Override
+            public void onAcquired(final FakeModel model) {
+                result[0] = model;
+                thread[0] = Thread.currentThread().getName();
+                delivered.countDown();
+            }
+
+            @Override
+            public void onError(final IOException e) {
+                delivered.countDown();
+            }
+        });
+        assertFalse(delivered.await(50, TimeUnit.MILLISECONDS));
+        gate.countDown();
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+        assertEquals("model-loader", thread[0]);
+        assertSame(result[0], registry.acquire("a.tflite", ModelOptions.NNAPI));
+
+        // Both references are held, so nothing is trimmed until both are released.
+        registry.release(result[0]);
+        assertEquals(0, registry.trim(0));
+        registry.release(result[0]);
+        assertEquals(1, registry.trim(0));
+    }
+
+    @Test
+    public void acquireAsyncHoldsTheModelUntilDelivered() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final boolean[] closed = new boolean[1];
+        registry.acquireAsync("a.tflite", ModelOptions.GPU, new ModelRegistry.Callback<FakeModel>() {
+            @Override
+            public void onAcquired(final FakeModel model) {
+                // A trim between the build and the callback must not take the model away.
+                registry.trim(0);
+                closed[0] = model.closed;
+                delivered.countDown();
+            }
+
+            @Override
+            public void onError(final IOException e) {
+            }
+        });
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+        assertFalse(closed[0]);
+        assertEquals(1, registry.getBuildCount());
+    }
+
+    @Test
+    public void idleTimeCountsFromTheEndOfTheBuild() throws Exception {
+        gate = new CountDownLatch(1);
+        final Future<FakeModel> prefetched = registry.prefetch("a.tflite", ModelOptions.GPU);
+        Thread.sleep(200);
+        gate.countDown();
+        final FakeModel model = prefetched.get(1, TimeUnit.SECONDS);
+        assertEquals(0, registry.trim(150));
+        assertTrue(registry.contains(model));
+    }
+
+    @Test
+    public void acquireAsyncReportsFailures() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        registry.acquireAsync("missing.tflite", ModelOptions.GPU, new ModelRegistry.Callback<FakeModel>() {
+            @Override
+            public void onAcquired(final FakeModel model) {
+            }
+
+            @Override
+            public void onError(final IOException e) {
+                failed.countDown();
+            }
+        });
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void trimClosesOnlyIdleModels() throws IOException {
+        final FakeModel held = registry.acquire("a.tflite", ModelOptions.GPU);
+        final FakeModel idle = registry.acquire("b.tflite", ModelOptions.GPU);
+        registry.release(idle);
+
+        assertEquals(1, registry.trim(0));
+        assertTrue(idle.closed);
+        assertFalse(held.closed);
+        assertFalse(registry.contains(idle));
+        assertTrue(registry.contains(held));
+        assertEquals(1, registry.getBufferCount());
+
+        // A trimmed model is built again on demand.
+        final FakeModel rebuilt = registry.acquire("b.tflite", ModelOptions.GPU);
+        assertNotSame(idle, rebuilt);
+        assertEquals(3, registry.getBufferLoadCount());
+    }
+
+    @Test
+    public void trimKeepsRecentlyReleasedModels() throws IOException {
+        final FakeModel model = registry.acquire("a.tflite", ModelOptions.GPU);
+        registry.release(model);
+        assertEquals(0, registry.trim(60000));
+        assertFalse(model.closed);
+        assertSame(model, registry.acquire("a.tflite", ModelOptions.GPU));
+    }
+
+    @Test
+    public void failedBuildIsDropped() {
+        try {
+            registry.acquire("missing.tflite", ModelOptions.GPU);
+            fail();
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("missing.tflite"));
+        }
+        assertEquals(0, registry.getModelCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void releaseWithoutAcquireFails() throws IOException {
+        final FakeModel model = registry.acquire("a.tflite", ModelOptions.GPU);
+        registry.release(model);
+        registry.release(model);
+    }
+
+    @Test
+    public void closeClosesHeldModels() throws IOException {
+        final FakeModel model = registry.acquire("a.tflite", ModelOptions.GPU);
+        registry.close();
+        assertTrue(model.closed);
+        assertEquals(0, registry.getModelCount());
+        assertEquals(0, registry.getBufferCount());
+    }
+}
@@ -0,0 +1,196 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Correctness of {@link NmsEngine} against the PriorityQueue based YoloClassifier.nms it replaced,
+ * plus a timing run at 100, 1k and 8k candidates.
+ */
+public class NmsEngineTest {
+    private static final int CLASSES = 3;
+    private static final float SIZE = 640;
+    private static final float IOU = 0.75f;
+
+    /** Stand-in for Recognition with the copying getLocation() of the old implementation. */
+    private static class Box {
+        final int index;
+        final int cls;
+        final float score;
+        final float[] location;
+
+        Box(int index, int cls, float score, float[] location) {
+            this.index = index;
+            this.cls = cls;
+            this.score = score;
+            this.location = location;
+        }
+
+        float[] getLocation() {
+            return location.clone();
+        }
+    }
+
+    private static float legacyIou(float[] a, float[] b) {
+        final float w = Math.min(a[2], b[2]) - Math.max(a[0], b[0]);
+        final float h = Math.min(a[3], b[3]) - Math.max(a[1], b[1]);
+        if (w < 0 || h < 0) return 0;
+        final float i = w * h;
+        return i / ((a[2] - a[0]) * (a[3] - a[1]) + (b[2] - b[0]) * (b[3] - b[1]) - i);
+    }
+
+    private static List<Box> legacyNms(List<Box> list) {
+        List<Box> nmsList = new ArrayList<>();
+        for (int k = 0; k < CLASSES; k++) {
+            PriorityQueue<Box> pq = new PriorityQueue<>(50, (lhs, rhs) -> Float.compare(rhs.score, lhs.score));
+            for (Box box : list) {
+                if (box.cls == k) pq.add(box);
+            }
+            while (pq.size() > 0) {
+                Box[] detections = pq.toArray(new Box[pq.size()]);
+                Box max = detections[0];
+                nmsList.add(max);
+                pq.clear();
+                for (int j = 1; j < detections.length; j++) {
+                    if (legacyIou(max.getLocation(), detections[j].getLocation()) < IOU) {
+                        pq.add(detections[j]);
+                    }
+                }
+            }
+        }
+        return nmsList;
+    }
+
+    /** Clustered boxes so that a good share of them overlap. */
+    private static DetectionCandidates randomCandidates(int n, long seed) {
+        final Random random = new Random(seed);
+        final DetectionCandidates candidates = new DetectionCandidates(n);
+        final int clusters = Math.max(1, n / 20);
+        final float[][] centers = new float[clusters][2];
+        for (float[] c : centers) {
+            c[0] = SIZE * random.nextFloat();
+            c[1] = SIZE * random.nextFloat();
+        }
+        for (int i = 0; i < n; i++) {
+            final float[] c = centers[random.nextInt(clusters)];
+            candidates.add(c[0] + 8 * (float) random.nextGaussian(), c[1] + 8 * (float) random.nextGaussian(),
+                    60 + 10 * random.nextFloat(), 120 + 10 * random.nextFloat(),
+                    0.3f + 0.7f * random.nextFloat(), random.nextInt(CLASSES), i);
+        }
+        return candidates;
+    }
+
+    private static List<Box> toBoxes(DetectionCandidates c) {
+        List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < c.size(); i++) {
+            boxes.add(new Box(i, c.detectedClass[i], c.score[i], new float[]{
+                    Math.max(0, c.left(i)), Math.max(0, c.top(i)),
+                    Math.min(SIZE - 1, c.right(i)), Math.min(SIZE - 1, c.bottom(i))}));
+        }
+        return boxes;
+    }
+
+    private static int[] sortedKeep(NmsEngine engine) {
+        return Arrays.stream(Arrays.copyOf(engine.getKeep(), engine.getKeepCount())).sorted().toArray();
+    }
+
+    @Test
+    public void hardNmsMatchesLegacyImplementation() {
+        for (int n : new int[]{0, 1, 100, 1000}) {
+            final DetectionCandidates candidates = randomCandidates(n, n);
+            final NmsEngine engine = new NmsEngine(n).setIouThreshold(IOU);
+            engine.run(candidates, CLASSES, SIZE - 1, SIZE - 1);
+
+            final int[] expected = legacyNms(toBoxes(candidates)).stream().mapToInt(b -> b.index).sorted().toArray();
+            assertTrue("n=" + n, Arrays.equals(expected, sortedKeep(engine)));
+        }
+    }
+
+    @Test
+    public void classAgnosticSuppressesAcrossClasses() {
+        final DetectionCandidates candidates = new DetectionCandidates(2);
+        candidates.add(100, 100, 50, 50, 0.9f, 0, 0);
+        candidates.add(101, 100, 50, 50, 0.8f, 1, 1);
+
+        final NmsEngine engine = new NmsEngine(2).setIouThreshold(0.5f);
+        assertEquals(2, engine.run(candidates, 2, SIZE, SIZE));
+        engine.setClassAgnostic(true);
+        assertEquals(1, engine.run(candidates, 2, SIZE, SIZE));
+        assertEquals(0, engine.getKeep()[0]);
+    }
+
+    @Test
+    public void softNmsDecaysInsteadOfDropping() {
+        final DetectionCandidates candidates = new DetectionCandidates(3);
+        candidates.add(100, 100, 50, 50, 0.9f, 0, 0);
+        candidates.add(110, 100, 50, 50, 0.8f, 0, 1);
+        candidates.add(400, 400, 50, 50, 0.7f, 0, 2);
+
+        final NmsEngine engine = new NmsEngine(3).setMode(NmsEngine.Mode.SOFT_GAUSSIAN).setSigma(0.5f);
+        assertEquals(3, engine.run(candidates, 1, SIZE, SIZE));
+        assertEquals(0, engine.getKeep()[0]);
+        assertEquals(0.9f, engine.getKeepScores()[0], 1e-6f);
+        // The disjoint box keeps its score and now outranks the decayed neighbour.
+        assertEquals(2, engine.getKeep()[1]);
+        assertEquals(0.7f, engine.getKeepScores()[1], 1e-6f);
+        assertTrue(engine.getKeepScores()[2] < 0.8f);
+
+        engine.setMode(NmsEngine.Mode.SOFT_LINEAR).setIouThreshold(0.3f);
+        assertEquals(3, engine.run(candidates, 1, SIZE, SIZE));
+        final float iou = (40f * 50f) / (2 * 2500f - 40f * 50f);
+        assertEquals(0.8f * (1 - iou), engine.getKeepScores()[2], 1e-5f);
+    }
+
+    @Test
+    public void topKKeepsHighestScores() {
+        final DetectionCandidates candidates = randomCandidates(1000, 3);
+        final NmsEngine engine = new NmsEngine(1000).setIouThreshold(IOU);
+        final int all = engine.run(candidates, CLASSES, SIZE - 1, SIZE - 1);
+        final float[] allScores = Arrays.copyOf(engine.getKeepScores(), all);
+        Arrays.sort(allScores);
+
+        engine.setTopK(10);
+        assertEquals(10, engine.run(candidates, CLASSES, SIZE - 1, SIZE - 1));
+        for (int k = 0; k < 10; k++) {
+            assertEquals(allScores[all - 1 - k], engine.getKeepScores()[k], 0f);
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        for (int n : new int[]{100, 1000, 8000}) {
+            final DetectionCandidates candidates = randomCandidates(n, 11);
+            final List<Box> boxes = toBoxes(candidates);
+            final NmsEngine engine = new NmsEngine(n).setIouThreshold(IOU);
+            final int iterations = n >= 8000 ? 3 : 20;
+
+            for (int i = 0; i < iterations; i++) {
+                legacyNms(boxes);
+                engine.run(candidates, CLASSES, SIZE - 1, SIZE - 1);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                legacyNms(boxes);
+            }
+            final long legacyUs = (System.nanoTime() - start) / iterations / 1000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                engine.run(candidates, CLASSES, SIZE - 1, SIZE - 1);
+            }
+            final long engineUs = (System.nanoTime() - start) / iterations / 1000;
+
+            System.out.println(String.format("NMS n=%d: legacy %d us, engine %d us (%d kept)",
+                    n, legacyUs, engineUs, engine.getKeepCount()));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Tensor;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Checks {@link Quantization} and that quantized input tensors are filled like float ones.
+ *
+ * No bundled model has 8-bit input or output tensors, yolov8-mobile-tiny_int8 only quantizes its
+ * weights, so the quantized input and output paths are exercised here on synthetic tensors.
+ */
+public class QuantizationTest {
+    @Test
+    public void roundTripsWithinHalfAStep() {
+        for (final Quantization q : new Quantization[]{
+                new Quantization(1 / 255f, -128, true), new Quantization(0.02f, 3, false)}) {
+            for (int raw = q.signed ? -128 : 0; raw <= (q.signed ? 127 : 255); raw++) {
+                final float real = q.dequantizeRaw(raw);
+                assertEquals(raw, q.raw(q.quantize(real)));
+                assertEquals(real, q.dequantize(q.quantize(real + 0.49f * q.scale)), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void quantizeSaturates() {
+        final Quantization q = new Quantization(1 / 255f, -128, true);
+        assertEquals(127, q.quantize(2f));
+        assertEquals(-128, q.quantize(-1f));
+        final Quantization u = new Quantization(1 / 255f, 0, false);
+        assertEquals(255, u.raw(u.quantize(2f)));
+        assertEquals(0, u.raw(u.quantize(-1f)));
+    }
+
+    @Test
+    public void quantizedFillMatchesQuantizedFloatFill() {
+        final int width = 37;
+        final int height = 11;
+        final Random random = new Random(3);
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        final ByteBuffer floats = ByteBuffer.allocateDirect(pixels.length * 3 * 4).order(ByteOrder.nativeOrder());
+        InputTensorPool.packNormalizedRgb(pixels, width, height, new float[width * 3], floats.asFloatBuffer(), 0);
+
+        for (final Quantization q : new Quantization[]{
+                new Quantization(1 / 255f, -128, true), new Quantization(1 / 255f, 0, false)}) {
+            final ByteBuffer bytes = ByteBuffer.allocateDirect(pixels.length * 3);
+            InputTensorPool.packQuantizedRgb(pixels, width, height, q.pixelTable(), new byte[width * 3], bytes, 0);
+            for (int i = 0; i < pixels.length * 3; i++) {
+                assertEquals(q.quantize(floats.getFloat(i * 4)), bytes.get(i));
+            }
+        }
+    }
+
+    /** A tensor that only answers for its type and quantization, as Quantization.of reads them. */
+    private static Tensor tensor(final DataType type, final float scale, final int zeroPoint) {
+        return (Tensor) Proxy.newProxyInstance(Tensor.class.getClassLoader(), new Class<?>[]{Tensor.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "dataType":
+                            return type;
+                        case "quantizationParams":
+                            return new Tensor.QuantizationParams(scale, zeroPoint);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void ofReadsEightBitTensorsOnly() {
+        assertNull(Quantization.of(tensor(DataType.FLOAT32, 0f, 0)));
+
+        final Quantization int8 = Quantization.of(tensor(DataType.INT8, 0.5f, -3));
+        assertEquals(0.5f, int8.scale, 0f);
+        assertEquals(-3, int8.zeroPoint);
+        assertTrue(int8.signed);
+
+        final Quantization uint8 = Quantization.of(tensor(DataType.UINT8, 0.25f, 128));
+        assertEquals(128, uint8.zeroPoint);
+        assertFalse(uint8.signed);
+    }
+
+    @Test
+    public void int8TensorsRunTheQuantizedInputAndOutputPaths() {
+        // What YoloClassifier builds for a model with int8 input and output tensors.
+        final Quantization input = Quantization.of(tensor(DataType.INT8, 1 / 255f, -128));
+        final Quantization output = Quantization.of(tensor(DataType.INT8, 1 / 255f, -128));
+        final int width = 8;
+        final int height = 4;
+        final InputTensorPool pool = new InputTensorPool(width, height, 1, 1, input);
+        final InputTensorPool.Tensor tensor = pool.acquire();
+        assertTrue(pool.isQuantized());
+        assertTrue(tensor.isQuantized());
+        assertEquals(width * height * 3, tensor.getBuffer().capacity());
+        assertArrayEquals(input.pixelTable(), pool.getPixelTable());
+
+        final int[] pixels = tensor.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | (i * 8) << 16 | 0x80 << 8 | 0xff;
+        }
+        InputTensorPool.packQuantizedRgb(pixels, width, height, pool.getPixelTable(), new byte[width * 3],
+                tensor.getBytes(), 0);
+        final ByteBuffer filled = tensor.getBuffer();
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(input.quantize(i * 8 / 255f), filled.get(i * 3));
+            assertEquals(input.quantize(0x80 / 255f), filled.get(i * 3 + 1));
+            assertEquals(127, filled.get(i * 3 + 2));
+        }
+
+        // A YOLOv8 head, [4 + classes][anchors], with one confident anchor.
+        final int anchors = 16;
+        final int classes = 3;
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST,
+                anchors, classes, 320, false, new Quantization[]{output});
+        final ByteBuffer head = decoder.getOutput(0);
+        for (int i = 0; i < (4 + classes) * anchors; i++) {
+            head.put(i, output.quantize(0.05f));
+        }
+        final int anchor = 5;
+        final float[] box = {0.5f, 0.25f, 0.2f, 0.4f};
+        for (int k = 0; k < 4; k++) {
+            head.put(k * anchors + anchor, output.quantize(box[k]));
+        }
+        head.put((4 + 2) * anchors + anchor, output.quantize(0.9f));
+
+        final DetectionCandidates candidates = decoder.decode(0.3f);
+        assertEquals(1, candidates.size());
+        assertEquals(anchor, candidates.anchor[0]);
+        assertEquals(2, candidates.detectedClass[0]);
+        assertEquals(output.dequantize(output.quantize(0.9f)), candidates.score[0], 0f);
+        assertEquals(320 * output.dequantize(output.quantize(box[0])), candidates.x[0], 1e-4f);
+        assertEquals(320 * output.dequantize(output.quantize(box[3])), candidates.h[0], 1e-4f);
+    }
+}
@@ -0,0 +1,298 @@
+package app.pivo.android.basicsdkdemo.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link YoloOutputDecoder} against the per-anchor loops YoloClassifier used before, and
+ * its quantized outputs against the same loops run on the dequantized values.
+ */
+public class YoloOutputDecoderTest {
+    private static final int ANCHORS = 500;
+    private static final int CLASSES = 6;
+    private static final int INPUT_SIZE = 320;
+    private static final float THRESHOLD = 0.3f;
+
+    private final Random random = new Random(7);
+
+    private float randomScore() {
+        // Mostly background with a few confident anchors, like a real head.
+        return random.nextInt(10) == 0 ? 0.2f + 0.8f * random.nextFloat() : 0.1f * random.nextFloat();
+    }
+
+    /** Reference candidate as produced by the old recognizeImageVx loops, before clamping. */
+    private static float[] candidate(float x, float y, float w, float h, float score, int cls) {
+        return new float[]{x, y, w, h, score, cls};
+    }
+
+    private static void assertSameCandidates(List<float[]> expected, DetectionCandidates actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final float[] e = expected.get(i);
+            assertEquals(e[0], actual.x[i], 0f);
+            assertEquals(e[1], actual.y[i], 0f);
+            assertEquals(e[2], actual.w[i], 0f);
+            assertEquals(e[3], actual.h[i], 0f);
+            assertEquals(e[4], actual.score[i], 0f);
+            assertEquals((int) e[5], actual.detectedClass[i]);
+        }
+    }
+
+    private static List<float[]> referenceV8(float[][][] out, int anchors, float scale, boolean skipSaturated) {
+        List<float[]> detections = new ArrayList<>();
+        for (int i = 0; i < anchors; i++) {
+            int detectedClass = -1;
+            float maxClass = 0;
+            final float[] classes = new float[CLASSES];
+            for (int c = 0; c < CLASSES; c++) {
+                classes[c] = out[0][4 + c][i];
+            }
+            for (int c = 0; c < CLASSES; c++) {
+                if (classes[c] > maxClass && !(skipSaturated && classes[c] == 1.0)) {
+                    detectedClass = c;
+                    maxClass = classes[c];
+                }
+            }
+            if (maxClass > THRESHOLD) {
+                detections.add(candidate(out[0][0][i] * scale, out[0][1][i] * scale,
+                        out[0][2][i] * scale, out[0][3][i] * scale, maxClass, detectedClass));
+            }
+        }
+        return detections;
+    }
+
+    private float[][][] randomChannelsFirst() {
+        final float[][][] out = new float[1][4 + CLASSES][ANCHORS];
+        for (int i = 0; i < ANCHORS; i++) {
+            for (int k = 0; k < 4; k++) {
+                out[0][k][i] = random.nextFloat();
+            }
+            for (int c = 0; c < CLASSES; c++) {
+                out[0][4 + c][i] = randomScore();
+            }
+            if (random.nextInt(20) == 0) {
+                out[0][4 + random.nextInt(CLASSES)][i] = 1.0f;
+            }
+        }
+        return out;
+    }
+
+    private static void fillChannelsFirst(YoloOutputDecoder decoder, float[][][] out) {
+        final FloatBuffer dst = decoder.getOutputFloats(0);
+        dst.rewind();
+        for (float[] channel : out[0]) {
+            dst.put(channel);
+        }
+    }
+
+    @Test
+    public void decodesV8LikeLegacyLoop() {
+        final float[][][] out = randomChannelsFirst();
+        final YoloOutputDecoder decoder =
+                new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST, ANCHORS, CLASSES, 1, false);
+        fillChannelsFirst(decoder, out);
+
+        assertSameCandidates(referenceV8(out, ANCHORS, 1, false), decoder.decode(THRESHOLD));
+    }
+
+    @Test
+    public void decodesV8r1LikeLegacyLoop() {
+        final float[][][] out = randomChannelsFirst();
+        final YoloOutputDecoder decoder =
+                new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST, ANCHORS, CLASSES, INPUT_SIZE, true);
+        fillChannelsFirst(decoder, out);
+
+        assertSameCandidates(referenceV8(out, ANCHORS, INPUT_SIZE, true), decoder.decode(THRESHOLD));
+    }
+
+    @Test
+    public void decodesV5LikeLegacyLoop() {
+        final float[][][] out = new float[1][ANCHORS][5 + CLASSES];
+        final YoloOutputDecoder decoder =
+                new YoloOutputDecoder(YoloOutputDecoder.Layout.ANCHORS_FIRST, ANCHORS, CLASSES, INPUT_SIZE, false);
+        final FloatBuffer dst = decoder.getOutputFloats(0);
+        for (int i = 0; i < ANCHORS; i++) {
+            for (int k = 0; k < 4; k++) {
+                out[0][i][k] = random.nextFloat();
+            }
+            out[0][i][4] = 0.5f + 0.5f * random.nextFloat();
+            for (int c = 0; c < CLASSES; c++) {
+                out[0][i][5 + c] = randomScore();
+            }
+            dst.put(out[0][i]);
+        }
+
+        final List<float[]> expected = new ArrayList<>();
+        for (int i = 0; i < ANCHORS; i++) {
+            final float confidence = out[0][i][4];
+            int detectedClass = -1;
+            float maxClass = 0;
+            for (int c = 0; c < CLASSES; c++) {
+                if (out[0][i][5 + c] > maxClass) {
+                    detectedClass = c;
+                    maxClass = out[0][i][5 + c];
+                }
+            }
+            final float confidenceInClass = maxClass * confidence;
+            if (confidenceInClass > THRESHOLD) {
+                expected.add(candidate(out[0][i][0] * INPUT_SIZE, out[0][i][1] * INPUT_SIZE,
+                        out[0][i][2] * INPUT_SIZE, out[0][i][3] * INPUT_SIZE, confidenceInClass, detectedClass));
+            }
+        }
+
+        assertSameCandidates(expected, decoder.decode(THRESHOLD));
+    }
+
+    @Test
+    public void decodesV4LikeLegacyLoop() {
+        final float[][][] bboxes = new float[1][ANCHORS][4];
+        final float[][][] scores = new float[1][ANCHORS][CLASSES];
+        final YoloOutputDecoder decoder =
+                new YoloOutputDecoder(YoloOutputDecoder.Layout.SPLIT, ANCHORS, CLASSES, 1, false);
+        for (int i = 0; i < ANCHORS; i++) {
+            for (int k = 0; k < 4; k++) {
+                bboxes[0][i][k] = INPUT_SIZE * random.nextFloat();
+            }
+            for (int c = 0; c < CLASSES; c++) {
+                scores[0][i][c] = randomScore();
+            }
+            decoder.getOutputFloats(0).put(bboxes[0][i]);
+            decoder.getOutputFloats(1).put(scores[0][i]);
+        }
+
+        final List<float[]> expected = new ArrayList<>();
+        for (int i = 0; i < ANCHORS; i++) {
+            float maxClass = 0;
+            int detectedClass = -1;
+            for (int c = 0; c < CLASSES; ++c) {
+                if (scores[0][i][c] > maxClass) {
+                    detectedClass = c;
+                    maxClass = scores[0][i][c];
+                }
+            }
+            if (maxClass > THRESHOLD) {
+                expected.add(candidate(bboxes[0][i][0], bboxes[0][i][1], bboxes[0][i][2], bboxes[0][i][3],
+                        maxClass, detectedClass));
+            }
+        }
+
+        assertSameCandidates(expected, decoder.decode(THRESHOLD));
+    }
+
+    @Test
+    public void decodeReusesCandidateStorage() {
+        final YoloOutputDecoder decoder =
+                new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST, ANCHORS, CLASSES, 1, false);
+        fillChannelsFirst(decoder, randomChannelsFirst());
+
+        final DetectionCandidates first = decoder.decode(THRESHOLD);
+        final int count = first.size();
+        final DetectionCandidates second = decoder.decode(THRESHOLD);
+
+        assertEquals(count, second.size());
+        assertSame(first, second);
+    }
+
+    /** Quantizes {@code out} into the decoder's output bytes and replaces it with the values they encode. */
+    private static void fillQuantized(ByteBuffer dst, Quantization q, float[][] out) {
+        int index = 0;
+        for (float[] row : out) {
+            for (int k = 0; k < row.length; k++) {
+                final byte value = q.quantize(row[k]);
+                dst.put(index++, value);
+                row[k] = q.dequantize(value);
+            }
+        }
+    }
+
+    @Test
+    public void decodesQuantizedV8LikeDequantizedLoop() {
+        // int8 covering [0, 1], as the converter emits for a sigmoid head.
+        final Quantization q = new Quantization(1 / 255f, -128, true);
+        final float[][][] out = randomChannelsFirst();
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST,
+                ANCHORS, CLASSES, 1, false, new Quantization[]{q});
+        fillQuantized(decoder.getOutput(0), q, out[0]);
+
+        assertSameCandidates(referenceV8(out, ANCHORS, 1, false), decoder.decode(THRESHOLD));
+    }
+
+    @Test
+    public void decodesQuantizedV8r1LikeDequantizedLoop() {
+        final Quantization q = new Quantization(1 / 255f, 0, false);
+        final float[][][] out = randomChannelsFirst();
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST,
+                ANCHORS, CLASSES, INPUT_SIZE, true, new Quantization[]{q});
+        fillQuantized(decoder.getOutput(0), q, out[0]);
+
+        assertSameCandidates(referenceV8(out, ANCHORS, INPUT_SIZE, true), decoder.decode(THRESHOLD));
+    }
+
+    @Test
+    public void decodesMixedQuantizedSplitOutputs() {
+        // Quantized scores next to float boxes go through the dequantizing path.
+        final Quantization q = new Quantization(1 / 256f, -128, true);
+        final YoloOutputDecoder quantized = new YoloOutputDecoder(YoloOutputDecoder.Layout.SPLIT,
+                ANCHORS, CLASSES, 1, false, new Quantization[]{null, q});
+        final YoloOutputDecoder reference =
+                new YoloOutputDecoder(YoloOutputDecoder.Layout.SPLIT, ANCHORS, CLASSES, 1, false);
+        final float[][] scores = new float[ANCHORS][CLASSES];
+        for (int i = 0; i < ANCHORS; i++) {
+            for (int k = 0; k < 4; k++) {
+                final float value = INPUT_SIZE * random.nextFloat();
+                quantized.getOutputFloats(0).put(value);
+                reference.getOutputFloats(0).put(value);
+            }
+            for (int c = 0; c < CLASSES; c++) {
+                scores[i][c] = randomScore();
+            }
+        }
+        fillQuantized(quantized.getOutput(1), q, scores);
+        for (float[] row : scores) {
+            reference.getOutputFloats(1).put(row);
+        }
+
+        final DetectionCandidates expected = reference.decode(THRESHOLD);
+        final DetectionCandidates actual = quantized.decode(THRESHOLD);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.score[i], actual.score[i], 0f);
+            assertEquals(expected.x[i], actual.x[i], 0f);
+            assertEquals(expected.detectedClass[i], actual.detectedClass[i]);
+        }
+    }
+
+    @Test
+    public void scalesNormalizedBoxesPerAxis() {
+        final float[][][] out = randomChannelsFirst();
+        final YoloOutputDecoder decoder = new YoloOutputDecoder(YoloOutputDecoder.Layout.CHANNELS_FIRST,
+                ANCHORS, CLASSES, 320, 192, false, null);
+        fillChannelsFirst(decoder, out);
+
+        final List<float[]> expected = referenceV8(out, ANCHORS, 1, false);
+        final DetectionCandidates actual = decoder.decode(THRESHOLD);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0] * 320, actual.x[i], 0f);
+            assertEquals(expected.get(i)[1] * 192, actual.y[i], 0f);
+            assertEquals(expected.get(i)[2] * 320, actual.w[i], 0f);
+            assertEquals(expected.get(i)[3] * 192, actual.h[i], 0f);
+        }
+    }
+
+    @Test
+    public void anchorsComeFromTheOutputShape() {
+        assertEquals(1260, YoloOutputDecoder.anchorsOf(YoloOutputDecoder.Layout.CHANNELS_FIRST, new int[]{1, 10, 1260}));
+        assertEquals(1260, YoloOutputDecoder.anchorsOf(YoloOutputDecoder.Layout.ANCHORS_FIRST, new int[]{1, 1260, 11}));
+        assertEquals(1260, YoloOutputDecoder.anchorsOf(YoloOutputDecoder.Layout.SPLIT, new int[]{1, 1260, 4}));
+        assertEquals(-1, YoloOutputDecoder.anchorsOf(YoloOutputDecoder.Layout.CHANNELS_FIRST, new int[]{1260}));
+    }
+}
@@ -0,0 +1,124 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Checks that detections carried from a keyframe stay in model input coordinates. */
+public class CarriedDetectionsTest {
+  private static final float EPSILON = 1e-4f;
+
+  /** A 100x100 input letterboxed into a 400x560 frame: scaled by 4, shifted down by 80. */
+  private static final CarriedDetections.BoxTransform TO_FRAME =
+      new CarriedDetections.BoxTransform() {
+        @Override
+        public void map(final float[] boxes, final int count) {
+          for (int i = 0; i < count * 4; i += 2) {
+            boxes[i] = boxes[i] * 4;
+            boxes[i + 1] = boxes[i + 1] * 4 + 80;
+          }
+        }
+      };
+
+  private static final CarriedDetections.BoxTransform TO_INPUT =
+      new CarriedDetections.BoxTransform() {
+        @Override
+        public void map(final float[] boxes, final int count) {
+          for (int i = 0; i < count * 4; i += 2) {
+            boxes[i] = boxes[i] / 4;
+            boxes[i + 1] = (boxes[i + 1] - 80) / 4;
+          }
+        }
+      };
+
+  /** Moves every box right by a fixed number of frame pixels and records what it was given. */
+  private static final class ShiftFlow implements CarriedDetections.Flow {
+    final float dx;
+    float[] seen;
+
+    ShiftFlow(final float dx) {
+      this.dx = dx;
+    }
+
+    @Override
+    public void propagate(
+        final float[] boxes, final int count, final float[] outBoxes, final float[] outQuality) {
+      seen = new float[count * 4];
+      System.arraycopy(boxes, 0, seen, 0, count * 4);
+      for (int i = 0; i < count; ++i) {
+        outBoxes[i * 4] = boxes[i * 4] + dx;
+        outBoxes[i * 4 + 1] = boxes[i * 4 + 1];
+        outBoxes[i * 4 + 2] = boxes[i * 4 + 2] + dx;
+        outBoxes[i * 4 + 3] = boxes[i * 4 + 3];
+        outQuality[i] = 1;
+      }
+    }
+  }
+
+  @Test
+  public void keyframeThenPropagatedFrameStaysInInputCoordinates() {
+    final CarriedDetections carried = new CarriedDetections();
+    // Keyframe: the detector found one box, which the overlay then maps into frame pixels.
+    final float[] detected = {10, 20, 50, 80};
+    carried.set(detected, 1, 100, 100);
+    TO_FRAME.map(detected, 1);
+
+    final ShiftFlow flow = new ShiftFlow(8);
+    final float[] boxes = new float[4];
+    final float[] quality = new float[1];
+    carried.propagate(TO_FRAME, flow, TO_INPUT, boxes, quality);
+
+    // The flow sees the keyframe box mapped into the frame once, not twice.
+    assertArrayEquals(new float[] {40, 160, 200, 400}, flow.seen, EPSILON);
+    // 8 frame pixels are 2 input pixels.
+    assertArrayEquals(new float[] {12, 20, 52, 80}, boxes, EPSILON);
+    assertEquals(1, quality[0], EPSILON);
+  }
+
+  @Test
+  public void propagatedBoxesCarryIntoTheNextFrame() {
+    final CarriedDetections carried = new CarriedDetections();
+    carried.set(new float[] {10, 20, 50, 80}, 1, 100, 100);
+    final ShiftFlow flow = new ShiftFlow(8);
+    final float[] boxes = new float[4];
+    final float[] quality = new float[1];
+    carried.propagate(TO_FRAME, flow, TO_INPUT, boxes, quality);
+    carried.set(boxes, 1, 100, 100);
+    carried.propagate(TO_FRAME, flow, TO_INPUT, boxes, quality);
+    assertArrayEquals(new float[] {14, 20, 54, 80}, boxes, EPSILON);
+  }
+
+  @Test
+  public void staticSceneKeepsTheKeyframeTargetPosition() {
+    final CarriedDetections carried = new CarriedDetections();
+    // Content of the input is letterboxed between rows 10 and 90.
+    final float[] detected = {10, 20, 50, 80};
+    final float x = TargetEstimator.position(detected[0], detected[2], 0, 100);
+    final float y = TargetEstimator.position(detected[1], detected[3], 10, 80);
+    carried.set(detected, 1, 100, 100);
+    TO_FRAME.map(detected, 1);
+
+    // The next frame did not move, so the keyframe's boxes are reused as they are.
+    final float[] reused = new float[4];
+    carried.copyTo(reused);
+    assertArrayEquals(new float[] {10, 20, 50, 80}, reused, EPSILON);
+    assertEquals(0.3f, x, EPSILON);
+    assertEquals(x, TargetEstimator.position(reused[0], reused[2], 0, 100), EPSILON);
+    assertEquals(y, TargetEstimator.position(reused[1], reused[3], 10, 80), EPSILON);
+  }
+
+  @Test
+  public void boxesAreOnlyForTheInputSizeTheyCameFrom() {
+    final CarriedDetections carried = new CarriedDetections();
+    assertFalse(carried.isFor(100, 100));
+    carried.set(new float[] {10, 20, 50, 80}, 1, 100, 100);
+    assertTrue(carried.isFor(100, 100));
+    assertFalse(carried.isFor(160, 160));
+    carried.clear();
+    assertFalse(carried.isFor(100, 100));
+    assertEquals(0, carried.size());
+  }
+}
@@ -0,0 +1,94 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Prints the per-frame lookup cost of {@link EmbeddingGallery} as identities accumulate. Timings
+ * depend on the machine, so nothing is asserted about them, and the benchmark only runs with
+ * -Pbenchmark.gallery=true.
+ *
+ * Lookup scans every stored identity: with a capped gallery the cost stays flat however many
+ * identities were seen, and without a cap it grows linearly with the identities stored.
+ */
+public class EmbeddingGalleryBenchmark {
+  private static final int PER_FRAME = 8;
+
+  private final Random random = new Random(5);
+
+  @Before
+  public void setUp() {
+    assumeTrue(Boolean.getBoolean("benchmark.gallery"));
+  }
+
+  private float[] randomVectors(final int count, final int dimension) {
+    final float[] vectors = new float[count * dimension];
+    for (int i = 0; i < vectors.length; ++i) {
+      vectors[i] = (float) random.nextGaussian();
+    }
+    return vectors;
+  }
+
+  /**
+   * Best per-frame cost of a batched search over several rounds, so a GC pause or a JIT compile in
+   * one round does not count.
+   */
+  private static long bestFrameNs(final EmbeddingGallery gallery, final float[] queries) {
+    final int[] ids = new int[PER_FRAME];
+    final float[] scores = new float[PER_FRAME];
+    final int[] counts = new int[PER_FRAME];
+    final int frames = 10;
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < 5; ++round) {
+      final long start = System.nanoTime();
+      for (int f = 0; f < frames; ++f) {
+        gallery.search("person", queries, 0, PER_FRAME, 1, 0.5f, ids, scores, counts);
+      }
+      best = Math.min(best, (System.nanoTime() - start) / frames);
+    }
+    return best;
+  }
+
+  /** Adds identities until {@code seen} reach {@code target}; returns seen. */
+  private int fill(final EmbeddingGallery gallery, int seen, final int target) {
+    final float[] vector = randomVectors(1, gallery.getDimension());
+    while (seen < target) {
+      gallery.add("person", vector, 0, seen);
+      ++seen;
+    }
+    return seen;
+  }
+
+  private void run(final int dimension, final int capacity) {
+    final EmbeddingGallery gallery = new EmbeddingGallery(dimension, capacity);
+    final float[] queries = randomVectors(PER_FRAME, dimension);
+    System.out.println(String.format("%d dimensions, capacity %d", dimension, capacity));
+    int seen = fill(gallery, 0, 100);
+    // Warm up.
+    bestFrameNs(gallery, queries);
+    for (int target = 100; target <= 6400; target *= 2) {
+      seen = fill(gallery, seen, target);
+      final long perFrameNs = bestFrameNs(gallery, queries);
+      System.out.println(String.format(
+          "%5d identities seen, %4d stored: %7.3f ms per frame, %6.1f ns per stored identity",
+          seen, gallery.size("person"), perFrameNs / 1e6,
+          (double) perFrameNs / gallery.size("person")));
+    }
+  }
+
+  @Test
+  public void cappedGallery() {
+    // The deployed model: 8192 dimensional embeddings, a crowd of 8 per frame.
+    run(8192, 128);
+  }
+
+  @Test
+  public void uncappedGallery() {
+    // Thousands of stored identities, at a smaller dimension to keep the gallery in memory.
+    run(512, 6400);
+  }
+}
@@ -0,0 +1,172 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks {@link EmbeddingGallery} against a brute-force cosine scan, and its eviction. Lookup cost
+ * is measured by {@link EmbeddingGalleryBenchmark}.
+ */
+public class EmbeddingGalleryTest {
+  private static final int DIMENSION = 64;
+
+  private final Random random = new Random(5);
+
+  private float[] randomVectors(final int count, final int dimension) {
+    final float[] vectors = new float[count * dimension];
+    for (int i = 0; i < vectors.length; ++i) {
+      vectors[i] = (float) random.nextGaussian();
+    }
+    return vectors;
+  }
+
+  private static double cosine(final float[] a, final int aOffset, final float[] b, final int bOffset) {
+    double dot = 0;
+    double magA = 0;
+    double magB = 0;
+    for (int i = 0; i < DIMENSION; ++i) {
+      dot += a[aOffset + i] * b[bOffset + i];
+      magA += a[aOffset + i] * a[aOffset + i];
+      magB += b[bOffset + i] * b[bOffset + i];
+    }
+    return dot / (Math.sqrt(magA) * Math.sqrt(magB));
+  }
+
+  @Test
+  public void topKMatchesBruteForce() {
+    final int stored = 200;
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIMENSION, stored);
+    final float[] vectors = randomVectors(stored, DIMENSION);
+    for (int i = 0; i < stored; ++i) {
+      assertEquals(i, gallery.add("person", vectors, i * DIMENSION, 0));
+    }
+
+    final int queries = 5;
+    final int k = 3;
+    final float[] query = randomVectors(queries, DIMENSION);
+    final int[] ids = new int[queries * k];
+    final float[] scores = new float[queries * k];
+    final int[] counts = new int[queries];
+    gallery.search("person", query, 0, queries, k, -1f, ids, scores, counts);
+
+    for (int q = 0; q < queries; ++q) {
+      assertEquals(k, counts[q]);
+      final int[] best = {-1, -1, -1};
+      final double[] bestScore = {-2, -2, -2};
+      for (int i = 0; i < stored; ++i) {
+        final double score = cosine(vectors, i * DIMENSION, query, q * DIMENSION);
+        for (int r = 0; r < k; ++r) {
+          if (score > bestScore[r]) {
+            for (int m = k - 1; m > r; --m) {
+              best[m] = best[m - 1];
+              bestScore[m] = bestScore[m - 1];
+            }
+            best[r] = i;
+            bestScore[r] = score;
+            break;
+          }
+        }
+      }
+      for (int r = 0; r < k; ++r) {
+        assertEquals(best[r], ids[q * k + r]);
+        assertEquals(bestScore[r], scores[q * k + r], 1e-4);
+      }
+    }
+  }
+
+  @Test
+  public void sameVectorMatchesItselfAboveThreshold() {
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIMENSION, 16);
+    final float[] vectors = randomVectors(2, DIMENSION);
+    final int id = gallery.add("dog", vectors, 0, 0);
+
+    final int[] ids = new int[1];
+    final float[] scores = new float[1];
+    // Scaling the query must not change cosine similarity.
+    final float[] scaled = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; ++i) {
+      scaled[i] = vectors[i] * 7;
+    }
+    assertEquals(1, gallery.search("dog", scaled, 0, 1, 0.5f, ids, scores));
+    assertEquals(id, ids[0]);
+    assertEquals(1f, scores[0], 1e-5f);
+
+    // Unrelated random vectors stay below the threshold.
+    assertEquals(0, gallery.search("dog", vectors, DIMENSION, 1, 0.5f, ids, scores));
+  }
+
+  @Test
+  public void classesArePartitioned() {
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIMENSION, 16);
+    final float[] vectors = randomVectors(1, DIMENSION);
+    gallery.add("cat", vectors, 0, 0);
+
+    final int[] ids = new int[1];
+    final float[] scores = new float[1];
+    assertEquals(0, gallery.search("person", vectors, 0, 1, 0.5f, ids, scores));
+    assertEquals(1, gallery.search("cat", vectors, 0, 1, 0.5f, ids, scores));
+  }
+
+  @Test
+  public void fullClassEvictsLeastRecentlySeen() {
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIMENSION, 3);
+    final float[] vectors = randomVectors(4, DIMENSION);
+    final int first = gallery.add("person", vectors, 0, 1);
+    final int second = gallery.add("person", vectors, DIMENSION, 2);
+    gallery.add("person", vectors, 2 * DIMENSION, 3);
+    gallery.touch("person", first, 4);
+
+    gallery.add("person", vectors, 3 * DIMENSION, 5);
+    assertEquals(3, gallery.size("person"));
+
+    final int[] ids = new int[1];
+    final float[] scores = new float[1];
+    assertEquals(0, gallery.search("person", vectors, DIMENSION, 1, 0.99f, ids, scores));
+    assertEquals(1, gallery.search("person", vectors, 0, 1, 0.99f, ids, scores));
+    assertEquals(first, ids[0]);
+    assertTrue(second != ids[0]);
+  }
+
+  @Test
+  public void evictsByAge() {
+    final EmbeddingGallery gallery = new EmbeddingGallery(DIMENSION, 8);
+    final float[] vectors = randomVectors(3, DIMENSION);
+    gallery.add("person", vectors, 0, 0);
+    gallery.add("person", vectors, DIMENSION, 50);
+    gallery.add("dog", vectors, 2 * DIMENSION, 90);
+
+    assertEquals(1, gallery.evictOlderThan(100, 60));
+    assertEquals(1, gallery.size("person"));
+    assertEquals(1, gallery.size("dog"));
+  }
+
+  @Test
+  public void thousandsOfIdentitiesStayWithinCapacity() {
+    final int seen = 6400;
+    final float[] vectors = randomVectors(seen, DIMENSION);
+    final EmbeddingGallery capped = new EmbeddingGallery(DIMENSION, 128);
+    final EmbeddingGallery large = new EmbeddingGallery(DIMENSION, seen);
+    final int[] cappedIds = new int[seen];
+    final int[] largeIds = new int[seen];
+    for (int i = 0; i < seen; ++i) {
+      cappedIds[i] = capped.add("person", vectors, i * DIMENSION, i);
+      largeIds[i] = large.add("person", vectors, i * DIMENSION, i);
+    }
+    assertEquals(128, capped.size("person"));
+    assertEquals(seen, large.size("person"));
+
+    final int[] ids = new int[1];
+    final float[] scores = new float[1];
+    // The capped gallery keeps only the most recently seen identities.
+    assertEquals(0, capped.search("person", vectors, 0, 1, 0.99f, ids, scores));
+    assertEquals(0, capped.search("person", vectors, (seen - 129) * DIMENSION, 1, 0.99f, ids, scores));
+    assertEquals(1, capped.search("person", vectors, (seen - 128) * DIMENSION, 1, 0.99f, ids, scores));
+    assertEquals(cappedIds[seen - 128], ids[0]);
+    assertEquals(1, large.search("person", vectors, 0, 1, 0.99f, ids, scores));
+    assertEquals(largeIds[0], ids[0]);
+  }
+}
@@ -0,0 +1,89 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Checks keyframe spacing, requests, interval adaptation and the drift metric. */
+public class KeyframeSchedulerTest {
+  @Test
+  public void fixedIntervalRunsEveryNthFrame() {
+    final KeyframeScheduler scheduler = new KeyframeScheduler(3, 3, 0.3f);
+    final StringBuilder pattern = new StringBuilder();
+    for (int i = 0; i < 10; ++i) {
+      pattern.append(scheduler.nextFrame() ? 'K' : '.');
+    }
+    assertEquals("K..K..K..K", pattern.toString());
+    assertEquals(4, scheduler.getKeyframeCount());
+    assertEquals(10, scheduler.getFrameCount());
+  }
+
+  @Test
+  public void intervalOfOneRunsEveryFrame() {
+    final KeyframeScheduler scheduler = new KeyframeScheduler(1, 1, 0.3f);
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(scheduler.nextFrame());
+    }
+  }
+
+  @Test
+  public void requestMakesNextFrameAKeyframe() {
+    final KeyframeScheduler scheduler = new KeyframeScheduler(4, 4, 0.3f);
+    assertTrue(scheduler.nextFrame());
+    assertFalse(scheduler.nextFrame());
+    scheduler.requestKeyframe();
+    assertTrue(scheduler.nextFrame());
+    // Spacing restarts from the requested keyframe.
+    assertFalse(scheduler.nextFrame());
+    assertFalse(scheduler.nextFrame());
+    assertFalse(scheduler.nextFrame());
+    assertTrue(scheduler.nextFrame());
+  }
+
+  @Test
+  public void intervalAdaptsToDrift() {
+    final KeyframeScheduler scheduler = new KeyframeScheduler(1, 8, 0.3f);
+    assertEquals(1, scheduler.getInterval());
+    for (int i = 0; i < 20; ++i) {
+      scheduler.reportDrift(0.05f);
+    }
+    assertEquals(8, scheduler.getInterval());
+
+    // Drift between half the target and the target keeps the interval.
+    scheduler.reportDrift(0.2f);
+    assertEquals(8, scheduler.getInterval());
+
+    scheduler.reportDrift(0.5f);
+    assertEquals(4, scheduler.getInterval());
+    scheduler.reportDrift(0.5f);
+    scheduler.reportDrift(0.5f);
+    scheduler.reportDrift(0.5f);
+    assertEquals(1, scheduler.getInterval());
+    assertEquals(0.5f, scheduler.getLastDrift(), 0f);
+    assertTrue(scheduler.getMeanDrift() > 0.05f && scheduler.getMeanDrift() < 0.5f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEmptyIntervalRange() {
+    new KeyframeScheduler(4, 2, 0.3f);
+  }
+
+  @Test
+  public void driftIsMeanOneMinusBestIou() {
+    final float[] propagated = {
+      0, 0, 10, 10,
+      100, 100, 110, 110,
+    };
+    final float[] detected = {
+      5, 0, 15, 10,
+      0, 0, 10, 10,
+    };
+    // First box matches exactly, second has no overlapping detection.
+    assertEquals(0.5f, KeyframeScheduler.drift(propagated, 2, detected, 2), 1e-6f);
+    // Half-width shift: IoU 50 / 150.
+    assertEquals(1 - 1 / 3f, KeyframeScheduler.drift(propagated, 1, detected, 1), 1e-6f);
+    assertEquals(0f, KeyframeScheduler.drift(propagated, 0, detected, 2), 0f);
+  }
+}
@@ -0,0 +1,108 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import app.pivo.android.basicsdkdemo.env.YuvPlanes;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Checks when the motion gate skips the detector and what it reports. */
+public class MotionGateTest {
+  private static final int WIDTH = 128;
+  private static final int HEIGHT = 96;
+
+  private static MotionGate gate(final long maxStaleMs) {
+    return new MotionGate(
+        MotionGate.DEFAULT_SAMPLE_WIDTH,
+        MotionGate.DEFAULT_BLOCK_SIZE,
+        MotionGate.DEFAULT_THRESHOLD,
+        MotionGate.DEFAULT_CHANGED_FRACTION,
+        maxStaleMs);
+  }
+
+  /** A gradient frame with a bright square at {@code x}, {@code y}, all shifted by {@code offset}. */
+  private static YuvPlanes frame(final int x, final int y, final int offset) {
+    final byte[] luma = new byte[WIDTH * HEIGHT];
+    for (int row = 0; row < HEIGHT; ++row) {
+      for (int col = 0; col < WIDTH; ++col) {
+        int value = 40 + (row + col) / 2;
+        if (col >= x && col < x + 24 && row >= y && row < y + 24) {
+          value = 230;
+        }
+        luma[row * WIDTH + col] = (byte) Math.min(255, value + offset);
+      }
+    }
+    final byte[] chroma = new byte[WIDTH * HEIGHT / 4];
+    final YuvPlanes planes = new YuvPlanes();
+    planes.set(
+        ByteBuffer.wrap(luma),
+        ByteBuffer.wrap(chroma),
+        ByteBuffer.wrap(chroma),
+        WIDTH,
+        HEIGHT,
+        WIDTH,
+        WIDTH / 2,
+        1);
+    return planes;
+  }
+
+  @Test
+  public void stillScenesSkipTheDetector() {
+    final MotionGate gate = gate(10_000);
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 0));
+    for (int i = 1; i <= 4; ++i) {
+      assertFalse(gate.shouldRun(frame(10, 10, 0), false, i * 33));
+    }
+    assertEquals(5, gate.getFrameCount());
+    assertEquals(4, gate.getSkippedCount());
+    assertEquals(0.8f, gate.getSkipRate(), 1e-6f);
+    assertEquals(132, gate.getStalenessMs());
+  }
+
+  @Test
+  public void movementRunsTheDetector() {
+    final MotionGate gate = gate(10_000);
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 0));
+    assertTrue(gate.shouldRun(frame(60, 40, 0), false, 33));
+    assertTrue(gate.getLastChangedFraction() > MotionGate.DEFAULT_CHANGED_FRACTION);
+    assertEquals(0, gate.getStalenessMs());
+    // Compared with the frame the detector last ran on, not with the previous frame.
+    assertFalse(gate.shouldRun(frame(60, 40, 0), false, 66));
+  }
+
+  @Test
+  public void brightnessChangesAloneDoNotRunTheDetector() {
+    final MotionGate gate = gate(10_000);
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 0));
+    assertFalse(gate.shouldRun(frame(10, 10, 12), false, 33));
+  }
+
+  @Test
+  public void aTurningCameraRunsTheDetector() {
+    final MotionGate gate = gate(10_000);
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 0));
+    assertTrue(gate.shouldRun(frame(10, 10, 0), true, 33));
+  }
+
+  @Test
+  public void staleDetectionsAreRefreshed() {
+    final MotionGate gate = gate(100);
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 0));
+    assertFalse(gate.shouldRun(frame(10, 10, 0), false, 66));
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 100));
+    assertEquals(1, gate.getForcedCount());
+    assertEquals(100, gate.getMaxStalenessMs());
+    assertFalse(gate.shouldRun(frame(10, 10, 0), false, 133));
+  }
+
+  @Test
+  public void invalidatingRunsTheNextFrame() {
+    final MotionGate gate = gate(10_000);
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 0));
+    gate.invalidate();
+    assertTrue(gate.shouldRun(frame(10, 10, 0), false, 33));
+    assertFalse(gate.shouldRun(frame(10, 10, 0), false, 66));
+  }
+}
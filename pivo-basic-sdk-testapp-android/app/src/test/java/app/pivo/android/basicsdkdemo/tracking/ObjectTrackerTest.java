@@ -0,0 +1,264 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Runs {@link ObjectTracker} on synthetic detection sequences and measures the per-frame cost of
+ * association as the number of tracks grows.
+ */
+public class ObjectTrackerTest {
+  private final Random random = new Random(11);
+
+  /** Boxes of {@code count} objects of size 40 moving on straight lines, with a little jitter. */
+  private static final class Scene {
+    final int count;
+    final float[] x;
+    final float[] y;
+    final float[] vx;
+    final float[] vy;
+    final float[] boxes;
+    final float[] scores;
+    final int[] classes;
+    final int[] slots;
+
+    Scene(final int count, final Random random, final float spacing) {
+      this.count = count;
+      x = new float[count];
+      y = new float[count];
+      vx = new float[count];
+      vy = new float[count];
+      boxes = new float[count * 4];
+      scores = new float[count];
+      classes = new int[count];
+      slots = new int[count];
+      final int columns = (int) Math.ceil(Math.sqrt(count));
+      for (int i = 0; i < count; ++i) {
+        x[i] = (i % columns) * spacing;
+        y[i] = (i / columns) * spacing;
+        vx[i] = random.nextFloat() * 6 - 3;
+        vy[i] = random.nextFloat() * 6 - 3;
+        scores[i] = 0.9f;
+      }
+    }
+
+    void step(final Random random) {
+      for (int i = 0; i < count; ++i) {
+        x[i] += vx[i];
+        y[i] += vy[i];
+        final float jitter = (float) random.nextGaussian();
+        boxes[i * 4] = x[i] - 20 + jitter;
+        boxes[i * 4 + 1] = y[i] - 20 - jitter;
+        boxes[i * 4 + 2] = x[i] + 20 + jitter;
+        boxes[i * 4 + 3] = y[i] + 20 - jitter;
+      }
+    }
+  }
+
+  @Test
+  public void assignmentMatchesBruteForce() {
+    final LinearAssignment assignment = new LinearAssignment();
+    for (int trial = 0; trial < 200; ++trial) {
+      final int rows = 1 + random.nextInt(5);
+      final int cols = 1 + random.nextInt(5);
+      final double[] cost = new double[rows * cols];
+      for (int i = 0; i < cost.length; ++i) {
+        cost[i] = random.nextInt(4) == 0 ? LinearAssignment.FORBIDDEN : random.nextDouble();
+      }
+      final int[] rowToCol = new int[rows];
+      final int assigned = assignment.solve(cost, rows, cols, rowToCol);
+
+      final double[] best = {-1, Double.POSITIVE_INFINITY};
+      bruteForce(cost, rows, cols, 0, new boolean[cols], 0, 0, best);
+      assertEquals((int) best[0], assigned);
+      double total = 0;
+      boolean[] usedCols = new boolean[cols];
+      for (int r = 0; r < rows; ++r) {
+        if (rowToCol[r] >= 0) {
+          assertTrue(!usedCols[rowToCol[r]]);
+          usedCols[rowToCol[r]] = true;
+          total += cost[r * cols + rowToCol[r]];
+        }
+      }
+      assertEquals(best[1], total, 1e-9);
+    }
+  }
+
+  /** Finds the largest number of allowed pairs and, among those, the smallest total cost. */
+  private static void bruteForce(
+      final double[] cost, final int rows, final int cols, final int row, final boolean[] used,
+      final int pairs, final double total, final double[] best) {
+    if (row == rows) {
+      if (pairs > best[0] || (pairs == best[0] && total < best[1])) {
+        best[0] = pairs;
+        best[1] = total;
+      }
+      return;
+    }
+    bruteForce(cost, rows, cols, row + 1, used, pairs, total, best);
+    for (int c = 0; c < cols; ++c) {
+      final double value = cost[row * cols + c];
+      if (!used[c] && value != LinearAssignment.FORBIDDEN) {
+        used[c] = true;
+        bruteForce(cost, rows, cols, row + 1, used, pairs + 1, total + value, best);
+        used[c] = false;
+      }
+    }
+  }
+
+  @Test
+  public void movingObjectsKeepTheirTracks() {
+    final Scene scene = new Scene(20, random, 100);
+    final ObjectTracker tracker = new ObjectTracker(64);
+    final int[] ids = new int[scene.count];
+    for (int frame = 0; frame < 100; ++frame) {
+      scene.step(random);
+      tracker.update(scene.boxes, scene.scores, scene.classes, scene.count, frame, scene.slots);
+      for (int i = 0; i < scene.count; ++i) {
+        assertTrue(scene.slots[i] >= 0);
+        final int id = tracker.getTrackId(scene.slots[i]);
+        if (frame == 0) {
+          ids[i] = id;
+        } else {
+          assertEquals("object " + i + " frame " + frame, ids[i], id);
+        }
+        assertEquals(
+            frame < ObjectTracker.DEFAULT_CONFIRM_HITS - 1
+                ? ObjectTracker.TENTATIVE
+                : ObjectTracker.CONFIRMED,
+            tracker.getState(scene.slots[i]));
+      }
+    }
+    assertEquals(scene.count, tracker.getTrackCount(ObjectTracker.CONFIRMED));
+  }
+
+  @Test
+  public void confirmedTrackCoastsThroughMissedDetections() {
+    final Scene scene = new Scene(1, random, 0);
+    scene.vx[0] = 4;
+    scene.vy[0] = 0;
+    final ObjectTracker tracker = new ObjectTracker(4);
+    int frame = 0;
+    for (; frame < 5; ++frame) {
+      scene.step(random);
+      tracker.update(scene.boxes, scene.scores, scene.classes, 1, frame, scene.slots);
+    }
+    final int slot = scene.slots[0];
+    final int id = tracker.getTrackId(slot);
+
+    // The object keeps moving, unseen, for ten frames.
+    for (; frame < 15; ++frame) {
+      scene.step(random);
+      tracker.update(scene.boxes, scene.scores, scene.classes, 0, frame, scene.slots);
+      assertEquals(ObjectTracker.LOST, tracker.getState(slot));
+    }
+    scene.step(random);
+    tracker.update(scene.boxes, scene.scores, scene.classes, 1, frame, scene.slots);
+    assertEquals(slot, scene.slots[0]);
+    assertEquals(id, tracker.getTrackId(slot));
+    assertEquals(ObjectTracker.CONFIRMED, tracker.getState(slot));
+  }
+
+  @Test
+  public void lostTrackIsDiscardedAfterMaxLostFrames() {
+    final Scene scene = new Scene(1, random, 0);
+    final ObjectTracker tracker = new ObjectTracker(4, 0.5f, 0.1f, 0.2f, 1, 3);
+    scene.step(random);
+    tracker.update(scene.boxes, scene.scores, scene.classes, 1, 0, scene.slots);
+    final int slot = scene.slots[0];
+    for (int frame = 1; frame <= 3; ++frame) {
+      tracker.update(scene.boxes, scene.scores, scene.classes, 0, frame, scene.slots);
+      assertEquals(ObjectTracker.LOST, tracker.getState(slot));
+    }
+    tracker.update(scene.boxes, scene.scores, scene.classes, 0, 4, scene.slots);
+    assertEquals(ObjectTracker.FREE, tracker.getState(slot));
+  }
+
+  @Test
+  public void spuriousDetectionNeverConfirms() {
+    final ObjectTracker tracker = new ObjectTracker(4);
+    final float[] box = {10, 10, 50, 50};
+    final int[] slots = new int[1];
+    tracker.update(box, new float[] {0.9f}, new int[] {0}, 1, 0, slots);
+    assertEquals(ObjectTracker.TENTATIVE, tracker.getState(slots[0]));
+    tracker.update(box, new float[0], new int[0], 0, 1, slots);
+    assertEquals(0, tracker.getTrackCount(ObjectTracker.TENTATIVE));
+    assertEquals(0, tracker.getTrackCount(ObjectTracker.CONFIRMED));
+  }
+
+  @Test
+  public void weakDetectionKeepsConfirmedTrackButCannotStartOne() {
+    final ObjectTracker tracker = new ObjectTracker(4, 0.5f, 0.1f, 0.2f, 1, 30);
+    final float[] box = {10, 10, 50, 50};
+    final int[] classes = {0};
+    final int[] slots = new int[1];
+    tracker.update(box, new float[] {0.9f}, classes, 1, 0, slots);
+    final int slot = slots[0];
+    tracker.update(box, new float[] {0.2f}, classes, 1, 1, slots);
+    assertEquals(slot, slots[0]);
+    assertEquals(ObjectTracker.CONFIRMED, tracker.getState(slot));
+
+    final float[] elsewhere = {200, 200, 240, 240};
+    tracker.update(elsewhere, new float[] {0.2f}, classes, 1, 2, slots);
+    assertEquals(-1, slots[0]);
+    assertEquals(ObjectTracker.LOST, tracker.getState(slot));
+  }
+
+  @Test
+  public void classesDoNotMatch() {
+    final ObjectTracker tracker = new ObjectTracker(4, 0.5f, 0.1f, 0.2f, 1, 30);
+    final float[] box = {10, 10, 50, 50};
+    final float[] scores = {0.9f};
+    final int[] slots = new int[1];
+    tracker.update(box, scores, new int[] {0}, 1, 0, slots);
+    final int first = slots[0];
+    tracker.update(box, scores, new int[] {1}, 1, 1, slots);
+    assertTrue(first != slots[0]);
+    assertEquals(1, tracker.getTrackClass(slots[0]));
+  }
+
+  @Test
+  public void identityStaysWithTheTrack() {
+    final Scene scene = new Scene(3, random, 100);
+    final ObjectTracker tracker = new ObjectTracker(8);
+    scene.step(random);
+    tracker.update(scene.boxes, scene.scores, scene.classes, scene.count, 0, scene.slots);
+    for (int i = 0; i < scene.count; ++i) {
+      assertEquals(-1, tracker.getIdentity(scene.slots[i]));
+      tracker.setIdentity(scene.slots[i], 100 + i);
+    }
+    for (int frame = 1; frame < 10; ++frame) {
+      scene.step(random);
+      tracker.update(scene.boxes, scene.scores, scene.classes, scene.count, frame, scene.slots);
+    }
+    for (int i = 0; i < scene.count; ++i) {
+      assertEquals(100 + i, tracker.getIdentity(scene.slots[i]));
+    }
+  }
+
+  @Test
+  public void benchmarkUpdateCost() {
+    for (final int count : new int[] {1, 10, 50, 100, 200}) {
+      final Scene scene = new Scene(count, random, 60);
+      final ObjectTracker tracker = new ObjectTracker(count * 2);
+      for (int frame = 0; frame < 10; ++frame) {
+        scene.step(random);
+        tracker.update(scene.boxes, scene.scores, scene.classes, count, frame, scene.slots);
+      }
+      final int frames = 100;
+      final long start = System.nanoTime();
+      for (int frame = 10; frame < 10 + frames; ++frame) {
+        scene.step(random);
+        tracker.update(scene.boxes, scene.scores, scene.classes, count, frame, scene.slots);
+      }
+      final long perFrameNs = (System.nanoTime() - start) / frames;
+      System.out.println(String.format(
+          "%3d tracks: %8.3f ms per frame, %3d confirmed",
+          count, perFrameNs / 1e6, tracker.getTrackCount(ObjectTracker.CONFIRMED)));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the window shape, placement and full-frame fallbacks of {@link RoiPlanner}.
+ */
+public class RoiPlannerTest {
+  private static RoiPlanner planner() {
+    final RoiPlanner planner = new RoiPlanner(3f, 0.2f, 0.6f, 4, 2);
+    // 16:9 frame, square input.
+    planner.setGeometry(1920, 1080, 320, 320);
+    return planner;
+  }
+
+  @Test
+  public void searchesFullFramesUntilTheTargetIsFound() {
+    final RoiPlanner planner = planner();
+    final float[] window = new float[4];
+    assertFalse(planner.plan(null, window));
+    planner.onTarget(0.5f, 0.5f, 0.05f, 0.1f);
+    assertTrue(planner.isLocked());
+    assertTrue(planner.plan(null, window));
+  }
+
+  @Test
+  public void windowMatchesTheInputShapeAroundThePrediction() {
+    final RoiPlanner planner = planner();
+    planner.onTarget(0.5f, 0.5f, 0.05f, 0.15f);
+    final float[] window = new float[4];
+    assertTrue(planner.plan(new float[] {0.4f, 0.6f}, window));
+
+    final float width = window[2] - window[0];
+    final float height = window[3] - window[1];
+    // Square in pixels on a 16:9 frame.
+    assertEquals(1920 * width, 1080 * height, 1e-2f);
+    // Three times the target height, which is the larger side in pixels.
+    assertEquals(0.45f, height, 1e-5f);
+    assertEquals(0.4f, (window[0] + window[2]) / 2, 1e-5f);
+    assertEquals(0.6f, (window[1] + window[3]) / 2, 1e-5f);
+  }
+
+  @Test
+  public void windowIsShiftedIntoTheFrame() {
+    final RoiPlanner planner = planner();
+    planner.onTarget(0.98f, 0.02f, 0.05f, 0.1f);
+    final float[] window = new float[4];
+    assertTrue(planner.plan(null, window));
+    assertEquals(1f, window[2], 1e-5f);
+    assertEquals(0f, window[1], 0f);
+  }
+
+  @Test
+  public void largeTargetsUseTheFullFrame() {
+    final RoiPlanner planner = planner();
+    // A 16:9 input: a window three times this target would cover 81% of the frame.
+    planner.setGeometry(1920, 1080, 320, 180);
+    planner.onTarget(0.5f, 0.5f, 0.3f, 0.3f);
+    assertFalse(planner.plan(null, new float[4]));
+  }
+
+  @Test
+  public void coversTheFullFrameAtTheInterval() {
+    final RoiPlanner planner = planner();
+    planner.onTarget(0.5f, 0.5f, 0.05f, 0.1f);
+    final float[] window = new float[4];
+    int full = 0;
+    for (int i = 0; i < 12; i++) {
+      if (!planner.plan(null, window)) {
+        full++;
+      }
+    }
+    assertEquals(3, full);
+  }
+
+  @Test
+  public void unlocksAfterMissedWindows() {
+    final RoiPlanner planner = planner();
+    planner.onTarget(0.5f, 0.5f, 0.05f, 0.1f);
+    planner.onMiss();
+    assertTrue(planner.isLocked());
+    planner.onMiss();
+    assertFalse(planner.isLocked());
+    assertFalse(planner.plan(null, new float[4]));
+  }
+}
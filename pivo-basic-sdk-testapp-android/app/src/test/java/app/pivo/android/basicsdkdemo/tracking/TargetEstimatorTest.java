@@ -0,0 +1,113 @@
+package app.pivo.android.basicsdkdemo.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link TargetEstimator} and replays a synthetic detection timeline through the legacy and
+ * predicted motor loops.
+ */
+public class TargetEstimatorTest {
+  @Test
+  public void convergesToConstantVelocity() {
+    final TargetEstimator estimator = new TargetEstimator(0.01f, 1e-4f, 500);
+    // 0.2 frame widths per second, one detection every 100 ms.
+    for (int i = 0; i <= 30; ++i) {
+      estimator.update(0.2f + 0.02f * i, 0.5f, i * 100L);
+    }
+    assertEquals(0.2f, estimator.getVelocityX(), 0.01f);
+    assertEquals(0f, estimator.getVelocityY(), 0.01f);
+
+    final float[] out = new float[2];
+    assertTrue(estimator.predict(3300, out));
+    assertEquals(0.86f, out[0], 0.01f);
+    assertEquals(0.5f, out[1], 0.01f);
+  }
+
+  @Test
+  public void stopsPredictingAfterCoastTime() {
+    final TargetEstimator estimator = new TargetEstimator(0.01f, 1e-4f, 500);
+    final float[] out = {-1, -1};
+    assertFalse(estimator.predict(0, out));
+    assertEquals(-1f, out[0], 0f);
+
+    estimator.update(0.4f, 0.6f, 1000);
+    assertTrue(estimator.predict(1500, out));
+    assertEquals(0.4f, out[0], 1e-6f);
+    assertFalse(estimator.predict(1501, out));
+
+    estimator.reset();
+    assertFalse(estimator.isInitialized());
+    assertFalse(estimator.predict(1000, out));
+  }
+
+  @Test
+  public void lateResultOfAnOlderFrameDoesNotRewindTime() {
+    final TargetEstimator estimator = new TargetEstimator(0.01f, 1e-4f, 500);
+    estimator.update(0.5f, 0.5f, 1000);
+    estimator.update(0.5f, 0.5f, 1200);
+    estimator.update(0.5f, 0.5f, 1100);
+    final float[] out = new float[2];
+    assertTrue(estimator.predict(1700, out));
+    assertFalse(estimator.predict(1701, out));
+  }
+
+  @Test
+  public void parsesTimeline() throws IOException {
+    final List<TargetReplay.Detection> timeline =
+        TargetReplay.parse(new StringReader("# capture result x\n0 80 0.5\n\n100 185 0.55\n"));
+    assertEquals(2, timeline.size());
+    assertEquals(100, timeline.get(1).captureMs);
+    assertEquals(185, timeline.get(1).resultMs);
+    assertEquals(0.55f, timeline.get(1).x, 1e-6f);
+  }
+
+  @Test
+  public void singleDetectionReplaysWithoutErrorSamples() {
+    final List<TargetReplay.Detection> timeline = new ArrayList<>();
+    // Available the moment it is captured, so the replay runs exactly one tick.
+    timeline.add(new TargetReplay.Detection(100, 100, 0.4f));
+
+    final TargetReplay.Report legacy = TargetReplay.replayLegacy(timeline, 33);
+    assertEquals(1, legacy.detections);
+    assertEquals(1, legacy.commands);
+    assertEquals(0, legacy.meanError, 0);
+    final TargetReplay.Report predicted =
+        TargetReplay.replayPredicted(timeline, new TargetEstimator(1f, 1e-4f, 500), 33);
+    assertEquals(1, predicted.detections);
+    assertEquals(0, predicted.maxError, 0);
+  }
+
+  @Test
+  public void predictionTracksBetterThanLegacyLoop() {
+    // A target swinging across the frame every 4 s, detected every 100 ms with 80 ms latency.
+    final Random random = new Random(3);
+    final List<TargetReplay.Detection> timeline = new ArrayList<>();
+    for (long t = 0; t <= 20000; t += 100) {
+      final double x = 0.5 + 0.3 * Math.sin(2 * Math.PI * t / 4000.0);
+      timeline.add(
+          new TargetReplay.Detection(t, t + 80, (float) (x + 0.01 * random.nextGaussian())));
+    }
+
+    final long frameIntervalMs = 33;
+    final TargetReplay.Report legacy = TargetReplay.replayLegacy(timeline, frameIntervalMs);
+    final TargetReplay.Report predicted =
+        TargetReplay.replayPredicted(
+            timeline, new TargetEstimator(1f, 1e-4f, 500), frameIntervalMs);
+    System.out.println("legacy:    " + legacy);
+    System.out.println("predicted: " + predicted);
+
+    assertTrue(predicted.meanError < legacy.meanError);
+    assertEquals(10, legacy.commandsPerSecond, 0.5);
+    assertEquals(1000.0 / frameIntervalMs, predicted.commandsPerSecond, 1);
+  }
+}